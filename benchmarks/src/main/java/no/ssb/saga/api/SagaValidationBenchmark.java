@@ -0,0 +1,48 @@
+package no.ssb.saga.api;
+
+import no.ssb.saga.benchmarks.SagaShape;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of graph validation alone, isolated from the builder. Lives in the api package to reach
+ * the package-private validator, the benchmarks run from the class-path so the package is shared.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SagaValidationBenchmark {
+
+    @Param({"CHAIN", "FAN", "DIAMOND", "RANDOM"})
+    SagaShape shape;
+
+    @Param({"10", "1000", "100000"})
+    int size;
+
+    Saga saga;
+
+    @Setup
+    public void setup() {
+        saga = shape.spec(size).toSaga();
+    }
+
+    @Benchmark
+    public Saga validate() {
+        GraphValidator.validate(saga.ids, saga.outOffsets, saga.outTargets, saga.startIndex);
+        return saga;
+    }
+}
@@ -0,0 +1,112 @@
+package no.ssb.saga.benchmarks;
+
+import no.ssb.saga.api.Saga;
+import no.ssb.saga.execution.BatchingSagaAdapter;
+import no.ssb.saga.execution.SagaAdapterRegistry;
+import no.ssb.saga.execution.SagaExecutor;
+import no.ssb.saga.execution.SagaResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Saga throughput at high concurrency when every action calls a simulated remote endpoint that
+ * serves at most 8 concurrent calls of 200 us each, whatever the number of items per call. Each
+ * saga has 5 actions on the endpoint. PER_NODE calls the endpoint once per action, BATCHED once per
+ * batch of up to 64 actions coalesced across executions, without linger time or lingering 200 us.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SagaBatchingBenchmark {
+
+    static final int CONCURRENT_EXECUTIONS = 1000;
+    static final long CALL_NANOS = TimeUnit.MICROSECONDS.toNanos(200);
+
+    @Param({"PER_NODE", "BATCHED", "BATCHED_LINGER"})
+    String dispatch;
+
+    Saga saga;
+    ExecutorService pool;
+    SagaExecutor executor;
+
+    @Setup
+    public void setup() {
+        saga = Saga.start("Remote").linkTo("a", "b", "c", "d")
+                .id("a").adapter("Remote").linkTo("e")
+                .id("b").adapter("Remote").linkTo("e")
+                .id("c").adapter("Remote").linkTo("e")
+                .id("d").adapter("Remote").linkTo("e")
+                .id("e").adapter("Remote").linkToEnd()
+                .end();
+        Semaphore connections = new Semaphore(8);
+        SagaAdapterRegistry adapters = new SagaAdapterRegistry();
+        if (dispatch.equals("PER_NODE")) {
+            adapters.register("Remote", (node, input, dependeesOutput) -> {
+                call(connections);
+                return input;
+            });
+        } else {
+            adapters.register("Remote", (BatchingSagaAdapter) invocations -> {
+                call(connections);
+                List<Object> outputs = new ArrayList<>(invocations.size());
+                for (BatchingSagaAdapter.Invocation invocation : invocations) {
+                    outputs.add(invocation.sagaInput);
+                }
+                return outputs;
+            });
+        }
+        pool = Executors.newFixedThreadPool(64);
+        executor = SagaExecutor.builder(adapters).executor(pool)
+                .batching(64, dispatch.equals("BATCHED_LINGER") ? Duration.ofNanos(CALL_NANOS) : Duration.ZERO)
+                .build();
+    }
+
+    static void call(Semaphore connections) throws InterruptedException {
+        connections.acquire();
+        try {
+            LockSupport.parkNanos(CALL_NANOS);
+        } finally {
+            connections.release();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CONCURRENT_EXECUTIONS)
+    public void sagasPerSecond() {
+        @SuppressWarnings("unchecked")
+        CompletableFuture<SagaResult>[] futures = new CompletableFuture[CONCURRENT_EXECUTIONS];
+        for (int i = 0; i < CONCURRENT_EXECUTIONS; i++) {
+            futures[i] = executor.execute(saga, i);
+        }
+        CompletableFuture.allOf(futures).join();
+    }
+}
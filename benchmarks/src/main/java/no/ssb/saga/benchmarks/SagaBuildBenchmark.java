@@ -0,0 +1,46 @@
+package no.ssb.saga.benchmarks;
+
+import no.ssb.saga.api.Saga;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of building a saga through the fluent builder, from Saga.start(...) to end(), including validation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SagaBuildBenchmark {
+
+    @Param({"CHAIN", "FAN", "DIAMOND", "RANDOM"})
+    SagaShape shape;
+
+    @Param({"10", "1000", "100000"})
+    int size;
+
+    SagaShape.Spec spec;
+
+    @Setup
+    public void setup() {
+        spec = shape.spec(size);
+    }
+
+    @Benchmark
+    public Saga build() {
+        return spec.toSaga();
+    }
+}
@@ -0,0 +1,113 @@
+package no.ssb.saga.benchmarks;
+
+import no.ssb.saga.api.Saga;
+import no.ssb.saga.execution.ConcurrencyLimit;
+import no.ssb.saga.execution.SagaAdapterRegistry;
+import no.ssb.saga.execution.SagaExecutor;
+import no.ssb.saga.execution.SagaResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Isolation of a slow downstream system. A background load keeps 256 sagas in flight against a
+ * downstream whose latency grows with its concurrency, 0.5 ms per concurrent call, while the
+ * benchmark measures the throughput of sagas that only use a fast adapter on the same 16 threads.
+ * NONE has no bulkhead, FIXED limits the slow adapter to 4 concurrent actions, and AIMD adapts
+ * the limit to keep the slow adapter within 2 ms.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SagaBulkheadBenchmark {
+
+    static final int FAST_EXECUTIONS = 100;
+    static final int SLOW_IN_FLIGHT = 256;
+
+    @Param({"NONE", "FIXED", "AIMD"})
+    String bulkhead;
+
+    Saga fastSaga;
+    Saga slowSaga;
+    ExecutorService pool;
+    SagaExecutor executor;
+    volatile boolean running;
+
+    @Setup
+    public void setup() {
+        fastSaga = Saga.start("Fast").linkTo("fast")
+                .id("fast").adapter("Fast").linkToEnd()
+                .end();
+        slowSaga = Saga.start("Slow").linkTo("slow")
+                .id("slow").adapter("Slow").linkToEnd()
+                .end();
+        AtomicInteger concurrentCalls = new AtomicInteger();
+        SagaAdapterRegistry adapters = new SagaAdapterRegistry()
+                .register("Fast", (node, input, dependeesOutput) -> input)
+                .register("Slow", (node, input, dependeesOutput) -> {
+                    int concurrency = concurrentCalls.incrementAndGet();
+                    try {
+                        LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(500) * concurrency);
+                    } finally {
+                        concurrentCalls.decrementAndGet();
+                    }
+                    return input;
+                });
+        pool = Executors.newFixedThreadPool(16);
+        SagaExecutor.Builder builder = SagaExecutor.builder(adapters).executor(pool);
+        if (bulkhead.equals("FIXED")) {
+            builder.bulkhead("Slow", ConcurrencyLimit.fixed(4), SLOW_IN_FLIGHT);
+        } else if (bulkhead.equals("AIMD")) {
+            builder.bulkhead("Slow", ConcurrencyLimit.aimd(8, 1, 64, Duration.ofMillis(2)), SLOW_IN_FLIGHT);
+        }
+        executor = builder.build();
+        running = true;
+        for (int i = 0; i < SLOW_IN_FLIGHT; i++) {
+            executeSlow();
+        }
+    }
+
+    private void executeSlow() {
+        if (running) {
+            executor.execute(slowSaga, null).whenComplete((result, e) -> executeSlow());
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        running = false;
+        pool.shutdown();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FAST_EXECUTIONS)
+    public void fastSagasPerSecond() {
+        @SuppressWarnings("unchecked")
+        CompletableFuture<SagaResult>[] futures = new CompletableFuture[FAST_EXECUTIONS];
+        for (int i = 0; i < FAST_EXECUTIONS; i++) {
+            futures[i] = executor.execute(fastSaga, i);
+        }
+        CompletableFuture.allOf(futures).join();
+    }
+}
@@ -0,0 +1,106 @@
+package no.ssb.saga.benchmarks;
+
+import no.ssb.saga.api.Saga;
+import no.ssb.saga.api.SagaCatalog;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Worker cold-start cost of loading many saga definitions: parsing all of them from json compared
+ * to memory-mapping a binary catalog and materializing one or all sagas from it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SagaCatalogBenchmark {
+
+    @Param({"1000"})
+    int sagas;
+
+    @Param({"50"})
+    int nodes;
+
+    Path dir;
+    Path catalogFile;
+    List<String> jsons;
+    List<String> names;
+    byte[] binary;
+    String json;
+
+    @Setup
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("saga-catalog-benchmark");
+        catalogFile = dir.resolve("sagas.catalog");
+        List<Saga> all = new ArrayList<>(sagas);
+        jsons = new ArrayList<>(sagas);
+        names = new ArrayList<>(sagas);
+        for (int i = 0; i < sagas; i++) {
+            SagaShape.Spec spec = SagaShape.RANDOM.spec(nodes);
+            Saga saga = Saga.fromJson(spec.toSaga().toJson().replace(spec.name, spec.name + "-" + i));
+            all.add(saga);
+            jsons.add(saga.toJson());
+            names.add(saga.name);
+        }
+        SagaCatalog.write(catalogFile, all);
+        binary = all.get(0).toBinary();
+        json = jsons.get(0);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(catalogFile);
+        Files.deleteIfExists(dir);
+    }
+
+    @Benchmark
+    public void parseAllJson(Blackhole blackhole) {
+        for (String json : jsons) {
+            blackhole.consume(Saga.fromJson(json));
+        }
+    }
+
+    @Benchmark
+    public Saga openCatalogAndGetOne() throws IOException {
+        return SagaCatalog.open(catalogFile).get(names.get(sagas / 2));
+    }
+
+    @Benchmark
+    public void openCatalogAndGetAll(Blackhole blackhole) throws IOException {
+        SagaCatalog catalog = SagaCatalog.open(catalogFile);
+        for (String name : names) {
+            blackhole.consume(catalog.get(name));
+        }
+    }
+
+    @Benchmark
+    public Saga fromJson() {
+        return Saga.fromJson(json);
+    }
+
+    @Benchmark
+    public Saga fromBinary() {
+        return Saga.fromBinary(ByteBuffer.wrap(binary));
+    }
+}
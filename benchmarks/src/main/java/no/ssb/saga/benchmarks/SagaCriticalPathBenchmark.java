@@ -0,0 +1,89 @@
+package no.ssb.saga.benchmarks;
+
+import no.ssb.saga.api.Saga;
+import no.ssb.saga.execution.SagaAdapterRegistry;
+import no.ssb.saga.execution.SagaExecutor;
+import no.ssb.saga.execution.SagaResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Makespan of a single saga execution on an executor with fewer threads than the saga has
+ * parallel nodes, running ready nodes in the order they became ready (FIFO) or by least slack
+ * (SLACK). Adapters wait for a latency between 0.1 and 1.6 ms that differs by adapter, and the
+ * slack is computed from the exact latencies.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SagaCriticalPathBenchmark {
+
+    @Param({"50", "200"})
+    int size;
+
+    @Param({"2", "4"})
+    int workers;
+
+    @Param({"FIFO", "SLACK"})
+    String scheduling;
+
+    Saga saga;
+    ExecutorService pool;
+    SagaExecutor executor;
+
+    @Setup
+    public void setup() {
+        SagaShape.Spec spec = SagaShape.RANDOM.spec(size);
+        saga = spec.toSaga();
+        Map<String, Long> latencies = new HashMap<>();
+        SagaAdapterRegistry adapters = new SagaAdapterRegistry();
+        for (String adapter : spec.adapters) {
+            if (latencies.containsKey(adapter)) {
+                continue;
+            }
+            int k = Integer.parseInt(adapter.substring(adapter.indexOf('-') + 1));
+            long latency = TimeUnit.MICROSECONDS.toNanos(100L * (1 + (k * 5) % 16));
+            latencies.put(adapter, latency);
+            adapters.register(adapter, (node, input, dependeesOutput) -> {
+                LockSupport.parkNanos(latency);
+                return null;
+            });
+        }
+        pool = Executors.newFixedThreadPool(workers);
+        SagaExecutor.Builder builder = SagaExecutor.builder(adapters).executor(pool);
+        if (scheduling.equals("SLACK")) {
+            builder.prioritizeBySlack(latencies::get);
+        }
+        executor = builder.build();
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public SagaResult makespan() {
+        return executor.execute(saga, null).join();
+    }
+}
@@ -0,0 +1,99 @@
+package no.ssb.saga.benchmarks;
+
+import no.ssb.saga.api.Saga;
+import no.ssb.saga.execution.SagaAdapterRegistry;
+import no.ssb.saga.execution.SagaExecutor;
+import no.ssb.saga.execution.SagaResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saga execution throughput: many concurrent executions of the same saga with no-op adapters, so
+ * that the measured cost is the engine's own scheduling and bookkeeping. The rollback variant
+ * fails the last node of the saga, so that every other node is compensated.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SagaExecutorBenchmark {
+
+    static final int CONCURRENT_EXECUTIONS = 1000;
+
+    @Param({"50"})
+    int size;
+
+    @Param({"RANDOM", "FAN"})
+    SagaShape shape;
+
+    Saga saga;
+    SagaExecutor forkJoinExecutor;
+    SagaExecutor defaultExecutor;
+    SagaExecutor rollbackExecutor;
+
+    @Setup
+    public void setup() {
+        SagaShape.Spec spec = shape.spec(size);
+        saga = spec.toSaga();
+        SagaAdapterRegistry adapters = new SagaAdapterRegistry();
+        for (String adapter : spec.adapters) {
+            adapters.register(adapter, (node, input, dependeesOutput) -> input);
+        }
+        forkJoinExecutor = SagaExecutor.builder(adapters).executor(ForkJoinPool.commonPool()).build();
+        defaultExecutor = SagaExecutor.builder(adapters).build();
+        String lastNodeId = spec.ids[spec.ids.length - 1];
+        SagaAdapterRegistry failingAdapters = new SagaAdapterRegistry();
+        for (String adapter : spec.adapters) {
+            failingAdapters.register(adapter, (node, input, dependeesOutput) -> {
+                if (node.id.equals(lastNodeId)) {
+                    throw new IllegalStateException("rollback");
+                }
+                return input;
+            });
+        }
+        rollbackExecutor = SagaExecutor.builder(failingAdapters).executor(ForkJoinPool.commonPool()).compensateOnFailure(true).build();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CONCURRENT_EXECUTIONS)
+    public void sagasPerSecondForkJoinPool() {
+        executeConcurrently(forkJoinExecutor);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CONCURRENT_EXECUTIONS)
+    public void sagasPerSecondDefaultExecutor() {
+        executeConcurrently(defaultExecutor);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CONCURRENT_EXECUTIONS)
+    public void rollbacksPerSecondForkJoinPool() {
+        executeConcurrently(rollbackExecutor);
+    }
+
+    private void executeConcurrently(SagaExecutor executor) {
+        @SuppressWarnings("unchecked")
+        CompletableFuture<SagaResult>[] futures = new CompletableFuture[CONCURRENT_EXECUTIONS];
+        for (int i = 0; i < CONCURRENT_EXECUTIONS; i++) {
+            futures[i] = executor.execute(saga, i);
+        }
+        CompletableFuture.allOf(futures).join();
+    }
+}
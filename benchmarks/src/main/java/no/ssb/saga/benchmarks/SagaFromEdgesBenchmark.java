@@ -0,0 +1,86 @@
+package no.ssb.saga.benchmarks;
+
+import no.ssb.saga.api.Saga;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of building the same saga from an edge list with Saga.fromEdges(...) and through the fluent builder.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SagaFromEdgesBenchmark {
+
+    @Param({"CHAIN", "FAN", "DIAMOND", "RANDOM"})
+    SagaShape shape;
+
+    @Param({"1000", "100000"})
+    int size;
+
+    SagaShape.Spec spec;
+    String[] ids;
+    String[] adapters;
+    int[] from;
+    int[] to;
+
+    @Setup
+    public void setup() {
+        spec = shape.spec(size);
+        int n = size + 2;
+        ids = new String[n];
+        adapters = new String[n];
+        ids[0] = Saga.ID_START;
+        adapters[0] = Saga.ADAPTER_START;
+        System.arraycopy(spec.ids, 0, ids, 1, size);
+        System.arraycopy(spec.adapters, 0, adapters, 1, size);
+        ids[n - 1] = Saga.ID_END;
+        adapters[n - 1] = Saga.ADAPTER_END;
+        Map<String, Integer> indexById = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            indexById.put(ids[i], i);
+        }
+        int links = spec.startLinks.length;
+        for (String[] linkTo : spec.linkTo) {
+            links += linkTo.length;
+        }
+        from = new int[links];
+        to = new int[links];
+        int e = 0;
+        for (String id : spec.startLinks) {
+            to[e++] = indexById.get(id);
+        }
+        for (int i = 0; i < size; i++) {
+            for (String id : spec.linkTo[i]) {
+                from[e] = i + 1;
+                to[e++] = indexById.get(id);
+            }
+        }
+    }
+
+    @Benchmark
+    public Saga fromEdges() {
+        return Saga.fromEdges(spec.name, ids, adapters, from, to);
+    }
+
+    @Benchmark
+    public Saga builder() {
+        return spec.toSaga();
+    }
+}
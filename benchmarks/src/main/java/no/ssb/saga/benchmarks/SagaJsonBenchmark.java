@@ -0,0 +1,131 @@
+package no.ssb.saga.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import no.ssb.saga.api.Saga;
+import no.ssb.saga.api.SagaNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saga json serialization in both directions, compared to a general-purpose json library (Jackson
+ * databind) serializing the same structure through plain DTOs and rebuilding through the builder.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SagaJsonBenchmark {
+
+    @Param({"CHAIN", "RANDOM"})
+    SagaShape shape;
+
+    @Param({"10", "1000", "100000"})
+    int size;
+
+    Saga saga;
+    String json;
+    byte[] utf8;
+    ByteArrayOutputStream out;
+    ObjectMapper mapper;
+    String jacksonJson;
+
+    @Setup
+    public void setup() throws IOException {
+        saga = shape.spec(size).toSaga();
+        json = saga.toJson();
+        utf8 = json.getBytes(StandardCharsets.UTF_8);
+        out = new ByteArrayOutputStream(utf8.length);
+        mapper = new ObjectMapper();
+        jacksonJson = mapper.writeValueAsString(SagaDto.of(saga));
+    }
+
+    @Benchmark
+    public String toJson() {
+        return saga.toJson();
+    }
+
+    @Benchmark
+    public int writeJsonToStream() throws IOException {
+        out.reset();
+        saga.writeJson(out);
+        return out.size();
+    }
+
+    @Benchmark
+    public Saga fromJson() {
+        return Saga.fromJson(json);
+    }
+
+    @Benchmark
+    public Saga readJsonFromByteBuffer() {
+        return Saga.readJson(ByteBuffer.wrap(utf8));
+    }
+
+    @Benchmark
+    public String jacksonWrite() throws IOException {
+        return mapper.writeValueAsString(SagaDto.of(saga));
+    }
+
+    @Benchmark
+    public Saga jacksonRead() throws IOException {
+        return mapper.readValue(jacksonJson, SagaDto.class).toSaga();
+    }
+
+    public static class SagaDto {
+        public String name;
+        public List<NodeDto> nodes;
+
+        static SagaDto of(Saga saga) {
+            SagaDto dto = new SagaDto();
+            dto.name = saga.name;
+            dto.nodes = new ArrayList<>(saga.nodeCount());
+            for (int i = 0; i < saga.nodeCount(); i++) {
+                SagaNode node = saga.getNode(i);
+                NodeDto nodeDto = new NodeDto();
+                nodeDto.id = node.id;
+                nodeDto.adapter = node.adapter;
+                nodeDto.outgoing = new ArrayList<>(node.outgoing.size());
+                for (SagaNode linkTo : node.outgoing) {
+                    nodeDto.outgoing.add(linkTo.id);
+                }
+                dto.nodes.add(nodeDto);
+            }
+            return dto;
+        }
+
+        Saga toSaga() {
+            NodeDto start = nodes.get(0);
+            Saga.SagaBuilder builder = Saga.start(name).linkTo(start.outgoing.toArray(new String[0]));
+            for (int i = 1; i < nodes.size() - 1; i++) {
+                NodeDto node = nodes.get(i);
+                builder = builder.id(node.id).adapter(node.adapter).linkTo(node.outgoing.toArray(new String[0]));
+            }
+            return builder.end();
+        }
+    }
+
+    public static class NodeDto {
+        public String id;
+        public String adapter;
+        public List<String> outgoing;
+    }
+}
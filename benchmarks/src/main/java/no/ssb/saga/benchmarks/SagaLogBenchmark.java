@@ -0,0 +1,79 @@
+package no.ssb.saga.benchmarks;
+
+import no.ssb.saga.execution.log.FileSagaLog;
+import no.ssb.saga.execution.log.FsyncPolicy;
+import no.ssb.saga.execution.log.SagaLogRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Execution log records per second with many threads appending concurrently, each waiting for its
+ * record to be persisted as the executor does, at the different fsync policies.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(16)
+@State(Scope.Benchmark)
+public class SagaLogBenchmark {
+
+    @Param({"EVERY_BATCH", "INTERVAL", "NEVER"})
+    FsyncPolicy fsyncPolicy;
+
+    @Param({"0", "200"})
+    int maxBatchDelayMicros;
+
+    Path directory;
+    FileSagaLog log;
+
+    @State(Scope.Thread)
+    public static class Execution {
+        final UUID executionId = UUID.randomUUID();
+        final byte[] output = "{\"status\":\"ok\",\"id\":12345}".getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("saga-log-benchmark");
+        log = FileSagaLog.builder(directory)
+                .fsyncPolicy(fsyncPolicy)
+                .maxBatchDelay(Duration.ofNanos(TimeUnit.MICROSECONDS.toNanos(maxBatchDelayMicros)))
+                .build();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        log.close();
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public void appendAndAwaitPersisted(Execution execution) {
+        log.append(SagaLogRecord.actionCompleted(execution.executionId, "node", execution.output)).join();
+    }
+}
@@ -0,0 +1,108 @@
+package no.ssb.saga.benchmarks;
+
+import no.ssb.saga.api.Saga;
+import no.ssb.saga.execution.SagaResult;
+import no.ssb.saga.execution.log.FileSagaLog;
+import no.ssb.saga.execution.log.FsyncPolicy;
+import no.ssb.saga.execution.log.RecoveredExecution;
+import no.ssb.saga.execution.log.SagaLogRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Restart cost: recovering the in-flight executions from a log holding the full history of
+ * completed executions, compared to the same log after compaction.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SagaLogRecoveryBenchmark {
+
+    @Param({"100000"})
+    int completedExecutions;
+
+    @Param({"1000"})
+    int inFlightExecutions;
+
+    Saga saga;
+    Path fullHistory;
+    Path compacted;
+
+    @Setup
+    public void setup() throws IOException {
+        saga = SagaShape.CHAIN.spec(8).toSaga();
+        fullHistory = Files.createTempDirectory("saga-log-full");
+        compacted = Files.createTempDirectory("saga-log-compacted");
+        write(fullHistory);
+        write(compacted);
+        try (FileSagaLog log = FileSagaLog.builder(compacted).build()) {
+            log.compact();
+        }
+    }
+
+    private void write(Path directory) throws IOException {
+        byte[] output = "{\"status\":\"ok\"}".getBytes(StandardCharsets.UTF_8);
+        try (FileSagaLog log = FileSagaLog.builder(directory).fsyncPolicy(FsyncPolicy.NEVER).segmentSize(8 * 1024 * 1024).build()) {
+            int total = completedExecutions + inFlightExecutions;
+            int inFlightEvery = total / inFlightExecutions;
+            for (int e = 0; e < total; e++) {
+                UUID executionId = UUID.randomUUID();
+                boolean ended = e % inFlightEvery != 0;
+                log.append(SagaLogRecord.sagaStarted(executionId, saga.fingerprint(), null));
+                for (int i = 0; i < saga.nodeCount(); i++) {
+                    String id = saga.getNode(i).id;
+                    log.append(SagaLogRecord.actionStarted(executionId, id));
+                    if (ended || i < saga.nodeCount() / 2) {
+                        log.append(SagaLogRecord.actionCompleted(executionId, id, output));
+                    }
+                }
+                if (ended) {
+                    log.append(SagaLogRecord.sagaEnded(executionId, SagaResult.Status.COMPLETED));
+                }
+            }
+            log.append(SagaLogRecord.actionStarted(UUID.randomUUID(), "flush")).join();
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        for (Path directory : new Path[]{fullHistory, compacted}) {
+            try (Stream<Path> paths = Files.walk(directory)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    @Benchmark
+    public List<RecoveredExecution> recoverFullHistory() throws IOException {
+        return FileSagaLog.recover(fullHistory, fingerprint -> saga);
+    }
+
+    @Benchmark
+    public List<RecoveredExecution> recoverCompacted() throws IOException {
+        return FileSagaLog.recover(compacted, fingerprint -> saga);
+    }
+}
@@ -0,0 +1,113 @@
+package no.ssb.saga.benchmarks;
+
+import no.ssb.saga.api.Saga;
+import no.ssb.saga.api.SagaBuildObserver;
+import no.ssb.saga.execution.SagaAdapterRegistry;
+import no.ssb.saga.execution.SagaExecutionObserver;
+import no.ssb.saga.execution.SagaExecutor;
+import no.ssb.saga.execution.SagaResult;
+import no.ssb.saga.metrics.LatencyHistogram;
+import no.ssb.saga.metrics.SagaMetrics;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Overhead of instrumentation: saga execution throughput and saga build time with metrics off,
+ * with observers that only pay for reading the clock, and with {@link SagaMetrics}, and the cost of recording a single latency
+ * into a histogram shared by 4 threads.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SagaMetricsBenchmark {
+
+    static final int CONCURRENT_EXECUTIONS = 1000;
+
+    @State(Scope.Benchmark)
+    public static class Instrumented {
+
+        /**
+         * NONE installs the no-op observers, CLOCK observers that ignore every event so that only
+         * the clock reads are measured, and METRICS a {@link SagaMetrics}.
+         */
+        @Param({"NONE", "CLOCK", "METRICS"})
+        String observer;
+
+        SagaShape.Spec spec;
+        Saga saga;
+        SagaExecutor executor;
+
+        @Setup
+        public void setup() {
+            spec = SagaShape.RANDOM.spec(50);
+            saga = spec.toSaga();
+            SagaAdapterRegistry adapters = new SagaAdapterRegistry();
+            for (String adapter : spec.adapters) {
+                adapters.register(adapter, (node, input, dependeesOutput) -> input);
+            }
+            SagaMetrics sagaMetrics = new SagaMetrics();
+            SagaExecutor.Builder builder = SagaExecutor.builder(adapters).executor(ForkJoinPool.commonPool());
+            if (observer.equals("CLOCK")) {
+                builder.observer(new SagaExecutionObserver() {
+                });
+                Saga.setBuildObserver(new SagaBuildObserver() {
+                });
+            } else if (observer.equals("METRICS")) {
+                builder.observer(sagaMetrics);
+                Saga.setBuildObserver(sagaMetrics);
+            }
+            executor = builder.build();
+        }
+
+        @TearDown
+        public void tearDown() {
+            Saga.setBuildObserver(null);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Histogram {
+        final LatencyHistogram histogram = new LatencyHistogram();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CONCURRENT_EXECUTIONS)
+    public void sagasPerSecond(Instrumented state) {
+        @SuppressWarnings("unchecked")
+        CompletableFuture<SagaResult>[] futures = new CompletableFuture[CONCURRENT_EXECUTIONS];
+        for (int i = 0; i < CONCURRENT_EXECUTIONS; i++) {
+            futures[i] = state.executor.execute(state.saga, i);
+        }
+        CompletableFuture.allOf(futures).join();
+    }
+
+    @Benchmark
+    public Saga buildsPerSecond(Instrumented state) {
+        return state.spec.toSaga();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void recordsPerSecond(Histogram state) {
+        state.histogram.record(ThreadLocalRandom.current().nextLong(1_000_000));
+    }
+}
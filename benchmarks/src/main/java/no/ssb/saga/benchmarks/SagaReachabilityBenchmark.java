@@ -0,0 +1,119 @@
+package no.ssb.saga.benchmarks;
+
+import no.ssb.saga.api.Saga;
+import no.ssb.saga.api.SagaNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of building the reachability index of a saga and of answering ancestor queries with it,
+ * compared to a search of the graph per query. The size of the index is printed once per trial.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SagaReachabilityBenchmark {
+
+    static final int QUERIES = 1024;
+
+    @Param({"CHAIN", "FAN", "DIAMOND", "RANDOM"})
+    SagaShape shape;
+
+    @Param({"1000", "100000"})
+    int size;
+
+    byte[] binary;
+    Saga saga;
+    SagaNode[] ancestors = new SagaNode[QUERIES];
+    SagaNode[] descendants = new SagaNode[QUERIES];
+
+    @Setup
+    public void setup() {
+        binary = shape.spec(size).toSaga().toBinary();
+        saga = Saga.fromBinary(ByteBuffer.wrap(binary));
+        Random random = new Random(size);
+        for (int q = 0; q < QUERIES; q++) {
+            ancestors[q] = saga.getNode(random.nextInt(saga.nodeCount()));
+            descendants[q] = saga.getNode(random.nextInt(saga.nodeCount()));
+        }
+        System.out.println();
+        System.out.println("index bytes: " + saga.reachability().sizeInBytes() + " (" + saga.nodeCount() + " nodes)");
+    }
+
+    /**
+     * A saga that has not built its index yet, decoded again before every invocation.
+     */
+    @State(Scope.Thread)
+    public static class Unindexed {
+        Saga saga;
+
+        @Setup(Level.Invocation)
+        public void decode(SagaReachabilityBenchmark benchmark) {
+            saga = Saga.fromBinary(ByteBuffer.wrap(benchmark.binary));
+        }
+    }
+
+    @Benchmark
+    public Object buildIndex(Unindexed unindexed) {
+        return unindexed.saga.reachability();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(QUERIES)
+    public int isAncestor() {
+        int count = 0;
+        for (int q = 0; q < QUERIES; q++) {
+            if (saga.isAncestor(ancestors[q], descendants[q])) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(QUERIES)
+    public int isAncestorBySearch() {
+        int count = 0;
+        for (int q = 0; q < QUERIES; q++) {
+            if (search(ancestors[q], descendants[q])) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private boolean search(SagaNode from, SagaNode to) {
+        boolean[] visited = new boolean[saga.nodeCount()];
+        ArrayDeque<SagaNode> stack = new ArrayDeque<>(from.outgoing);
+        while (!stack.isEmpty()) {
+            SagaNode node = stack.pop();
+            if (node == to) {
+                return true;
+            }
+            if (!visited[node.index]) {
+                visited[node.index] = true;
+                stack.addAll(node.outgoing);
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,53 @@
+package no.ssb.saga.benchmarks;
+
+import no.ssb.saga.api.Saga;
+import no.ssb.saga.api.SagaRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-request saga definition cost: building and validating a fresh saga every time compared to
+ * build-or-get through a registry that already holds the structurally equal saga.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SagaRegistryBenchmark {
+
+    @Param({"10", "50", "1000"})
+    int size;
+
+    SagaShape.Spec spec;
+    SagaRegistry registry;
+
+    @Setup
+    public void setup() {
+        spec = SagaShape.RANDOM.spec(size);
+        registry = new SagaRegistry(1000);
+        registry.end(spec.toBuilder());
+    }
+
+    @Benchmark
+    public Saga buildPerRequest() {
+        return spec.toBuilder().end();
+    }
+
+    @Benchmark
+    public Saga buildOrGetFromRegistry() {
+        return registry.end(spec.toBuilder());
+    }
+}
@@ -0,0 +1,143 @@
+package no.ssb.saga.benchmarks;
+
+import no.ssb.saga.api.Saga;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Graph shapes used by the benchmarks. Every shape produces a {@link Spec}, a plain description of
+ * the nodes and links of a saga, so that the cost of building the saga can be measured apart from
+ * the cost of generating the shape.
+ */
+public enum SagaShape {
+
+    /**
+     * A single long chain: S -> n0 -> n1 -> ... -> E.
+     */
+    CHAIN {
+        @Override
+        public Spec spec(int size) {
+            Spec spec = new Spec(size);
+            spec.startLinks = new String[]{"n0"};
+            for (int i = 0; i < size; i++) {
+                spec.linkTo[i] = new String[]{i + 1 < size ? "n" + (i + 1) : Saga.ID_END};
+            }
+            return spec;
+        }
+    },
+
+    /**
+     * Wide fan-out from start followed by fan-in to end.
+     */
+    FAN {
+        @Override
+        public Spec spec(int size) {
+            Spec spec = new Spec(size);
+            spec.startLinks = spec.ids.clone();
+            for (int i = 0; i < size; i++) {
+                spec.linkTo[i] = new String[]{Saga.ID_END};
+            }
+            return spec;
+        }
+    },
+
+    /**
+     * A chain of diamonds: top -> (left, right) -> bottom, where the bottom is the next top.
+     */
+    DIAMOND {
+        @Override
+        public Spec spec(int size) {
+            Spec spec = new Spec(size);
+            spec.startLinks = new String[]{"n0"};
+            for (int i = 0; i < size; i++) {
+                int position = i % 3;
+                if (position == 0) {
+                    List<String> links = new ArrayList<>();
+                    for (int k = i + 1; k <= i + 2 && k < size; k++) {
+                        links.add("n" + k);
+                    }
+                    spec.linkTo[i] = links.isEmpty() ? new String[]{Saga.ID_END} : links.toArray(new String[0]);
+                } else {
+                    int bottom = i - position + 3;
+                    spec.linkTo[i] = new String[]{bottom < size ? "n" + bottom : Saga.ID_END};
+                }
+            }
+            return spec;
+        }
+    },
+
+    /**
+     * A random DAG where every node is linked to from a random earlier node, plus a number of
+     * additional random forward links. Generated with a fixed seed.
+     */
+    RANDOM {
+        @Override
+        public Spec spec(int size) {
+            Spec spec = new Spec(size);
+            Random random = new Random(size);
+            List<List<String>> links = new ArrayList<>();
+            for (int i = 0; i < size; i++) {
+                links.add(new ArrayList<>());
+            }
+            List<String> startLinks = new ArrayList<>();
+            for (int i = 0; i < size; i++) {
+                int from = random.nextInt(i + 1) - 1;
+                (from < 0 ? startLinks : links.get(from)).add("n" + i);
+            }
+            for (int extra = 0; extra < size; extra++) {
+                int from = random.nextInt(size);
+                int window = Math.min(size - from - 1, 32);
+                if (window > 0) {
+                    String to = "n" + (from + 1 + random.nextInt(window));
+                    if (!links.get(from).contains(to)) {
+                        links.get(from).add(to);
+                    }
+                }
+            }
+            spec.startLinks = startLinks.toArray(new String[0]);
+            for (int i = 0; i < size; i++) {
+                List<String> nodeLinks = links.get(i);
+                spec.linkTo[i] = nodeLinks.isEmpty() ? new String[]{Saga.ID_END} : nodeLinks.toArray(new String[0]);
+            }
+            return spec;
+        }
+    };
+
+    public abstract Spec spec(int size);
+
+    /**
+     * Plain description of a saga, excluding the implicit start and end nodes.
+     */
+    public static class Spec {
+        public final String name;
+        public final String[] ids;
+        public final String[] adapters;
+        public final String[][] linkTo;
+        public String[] startLinks;
+
+        Spec(int size) {
+            this.name = "benchmark-saga-" + size;
+            this.ids = new String[size];
+            this.adapters = new String[size];
+            this.linkTo = new String[size][];
+            for (int i = 0; i < size; i++) {
+                ids[i] = "n" + i;
+                adapters[i] = "adapter-" + (i % 16);
+            }
+        }
+
+        public Saga toSaga() {
+            return toBuilder().end();
+        }
+
+        public Saga.SagaBuilder toBuilder() {
+            Saga.SagaBuilder builder = Saga.start(name).linkTo(startLinks);
+            for (int i = 0; i < ids.length; i++) {
+                builder = builder.id(ids[i]).adapter(adapters[i]).linkTo(linkTo[i]);
+            }
+            return builder;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package no.ssb.saga.benchmarks;
+
+import no.ssb.saga.api.Saga;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building a saga that chains the same fragment a number of times. COPY declares every node of
+ * every copy through the fluent builder, as when fragments are pasted into each saga. COMPOSED
+ * declares each copy as a sub-saga node, which is spliced in from the cached spliced form.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SagaSubSagaBenchmark {
+
+    @Param({"10", "100"})
+    int fragmentSize;
+
+    @Param({"10", "100"})
+    int copies;
+
+    SagaShape.Spec fragmentSpec;
+    Saga fragment;
+    String[] copyIds;
+    String[][] nodeIds; // by copy and fragment node
+    String[][][] nodeLinks; // by copy and fragment node
+
+    @Setup
+    public void setup() {
+        fragmentSpec = SagaShape.DIAMOND.spec(fragmentSize);
+        fragment = fragmentSpec.toSaga();
+        copyIds = new String[copies];
+        nodeIds = new String[copies][fragmentSize];
+        nodeLinks = new String[copies][fragmentSize][];
+        for (int c = 0; c < copies; c++) {
+            copyIds[c] = "f" + c;
+            String next = c + 1 < copies ? "f" + (c + 1) + "/" + fragmentSpec.startLinks[0] : Saga.ID_END;
+            for (int i = 0; i < fragmentSize; i++) {
+                nodeIds[c][i] = copyIds[c] + "/" + fragmentSpec.ids[i];
+                String[] links = fragmentSpec.linkTo[i].clone();
+                for (int k = 0; k < links.length; k++) {
+                    links[k] = Saga.ID_END.equals(links[k]) ? next : copyIds[c] + "/" + links[k];
+                }
+                nodeLinks[c][i] = links;
+            }
+        }
+    }
+
+    @Benchmark
+    public Saga copy() {
+        Saga.SagaBuilder builder = Saga.start("copied").linkTo(copyIds[0] + "/" + fragmentSpec.startLinks[0]);
+        for (int c = 0; c < copies; c++) {
+            for (int i = 0; i < fragmentSize; i++) {
+                builder = builder.id(nodeIds[c][i]).adapter(fragmentSpec.adapters[i]).linkTo(nodeLinks[c][i]);
+            }
+        }
+        return builder.end();
+    }
+
+    @Benchmark
+    public Saga composed() {
+        Saga.SagaBuilder builder = Saga.start("copied").linkTo(copyIds[0]);
+        for (int c = 0; c < copies; c++) {
+            builder = builder.id(copyIds[c]).saga(fragment).linkTo(c + 1 < copies ? copyIds[c + 1] : Saga.ID_END);
+        }
+        return builder.end();
+    }
+}
@@ -0,0 +1,81 @@
+package no.ssb.saga.benchmarks;
+
+import no.ssb.saga.execution.HashedTimerWheel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The life of a node deadline: scheduled when the action starts and cancelled when it completes,
+ * measured while a given number of other deadlines are pending. WHEEL is the hierarchical timer
+ * wheel used by the saga executor, POOL a ScheduledThreadPoolExecutor that removes cancelled tasks
+ * from its heap.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Benchmark)
+public class SagaTimerBenchmark {
+
+    static final Runnable NOTHING = () -> {
+    };
+
+    @Param({"WHEEL", "POOL"})
+    String timer;
+
+    @Param({"10000", "1000000"})
+    int pending;
+
+    HashedTimerWheel wheel;
+    ScheduledThreadPoolExecutor pool;
+
+    @Setup
+    public void setup() {
+        if ("WHEEL".equals(timer)) {
+            wheel = new HashedTimerWheel();
+            for (int i = 0; i < pending; i++) {
+                wheel.schedule(NOTHING, 1, TimeUnit.HOURS);
+            }
+        } else {
+            pool = new ScheduledThreadPoolExecutor(1);
+            pool.setRemoveOnCancelPolicy(true);
+            for (int i = 0; i < pending; i++) {
+                pool.schedule(NOTHING, 1, TimeUnit.HOURS);
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (wheel != null) {
+            wheel.close();
+        }
+        if (pool != null) {
+            pool.shutdownNow();
+        }
+    }
+
+    @Benchmark
+    public boolean scheduleAndCancel() {
+        if (wheel != null) {
+            return wheel.schedule(NOTHING, 30, TimeUnit.SECONDS).cancel();
+        }
+        ScheduledFuture<?> future = pool.schedule(NOTHING, 30, TimeUnit.SECONDS);
+        return future.cancel(false);
+    }
+}
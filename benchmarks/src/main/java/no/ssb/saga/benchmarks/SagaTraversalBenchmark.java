@@ -0,0 +1,83 @@
+package no.ssb.saga.benchmarks;
+
+import no.ssb.saga.api.Saga;
+import no.ssb.saga.api.SagaNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the traversal and node-listing operations on an already built saga.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SagaTraversalBenchmark {
+
+    @Param({"CHAIN", "FAN", "DIAMOND", "RANDOM"})
+    SagaShape shape;
+
+    @Param({"10", "1000", "100000"})
+    int size;
+
+    Saga saga;
+
+    @Setup
+    public void setup() {
+        saga = shape.spec(size).toSaga();
+    }
+
+    @Benchmark
+    public void depthFirstPreOrderFullTraversal(Blackhole blackhole) {
+        saga.depthFirstPreOrderFullTraversal((ancestors, node) -> blackhole.consume(node));
+    }
+
+    @Benchmark
+    public void reverseDepthFirstPreOrderFullTraversal(Blackhole blackhole) {
+        saga.reverseDepthFirstPreOrderFullTraversal((ancestors, node) -> blackhole.consume(node));
+    }
+
+    @Benchmark
+    public Collection<SagaNode> nodes() {
+        return saga.nodes();
+    }
+
+    @Benchmark
+    public int nodesIteration() {
+        int count = 0;
+        for (SagaNode node : saga.nodes()) {
+            count += saga.successors(node).size();
+        }
+        return count;
+    }
+
+    @Benchmark
+    public long stream() {
+        return saga.stream().filter(node -> saga.successors(node).size() > 1).count();
+    }
+
+    @Benchmark
+    public long parallelStream() {
+        return saga.parallelStream().filter(node -> saga.successors(node).size() > 1).count();
+    }
+
+    @Benchmark
+    public long topologicalStream() {
+        return saga.topologicalStream(false).filter(node -> saga.predecessors(node).size() > 1).count();
+    }
+}
@@ -1,4 +1,7 @@
 module no.ssb.saga.api {
     requires java.base;
     exports no.ssb.saga.api;
+    exports no.ssb.saga.execution;
+    exports no.ssb.saga.execution.log;
+    exports no.ssb.saga.metrics;
 }
@@ -0,0 +1,142 @@
+package no.ssb.saga.api;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.ToLongFunction;
+
+/**
+ * Critical path analysis of a saga given an estimated latency of every adapter. The start and end
+ * nodes have no latency. Every node has an earliest start, the earliest time its action can start
+ * when every action takes exactly its estimated latency and there is no limit on parallelism, and
+ * a latest start, the latest time its action can start without delaying the end of the saga. The
+ * difference is the slack of the node. The critical path is a chain of nodes from start to end
+ * without slack, its length bounds the latency of an execution from below.
+ *
+ * @see Saga#criticalPath(ToLongFunction)
+ */
+public final class CriticalPath {
+
+    private final Saga saga;
+    private final long[] latency;
+    private final long[] earliestStart;
+    private final long[] latestStart;
+    private final long length;
+    private final List<SagaNode> path;
+
+    CriticalPath(Saga saga, ToLongFunction<String> latencyByAdapter) {
+        this.saga = saga;
+        int n = saga.nodes.length;
+        int[] order = saga.topology().order;
+        latency = new long[n];
+        for (int i = 0; i < n; i++) {
+            if (i == saga.startIndex || i == saga.endIndex) {
+                continue;
+            }
+            String adapter = saga.adapters[saga.adapterOf[i]];
+            long estimate = latencyByAdapter.applyAsLong(adapter);
+            if (estimate < 0) {
+                throw new IllegalArgumentException("Negative latency estimate " + estimate + " for adapter " + adapter);
+            }
+            latency[i] = estimate;
+        }
+        earliestStart = new long[n];
+        long length = 0;
+        for (int node : order) {
+            long earliestFinish = earliestStart[node] + latency[node];
+            length = Math.max(length, earliestFinish);
+            for (int e = saga.outOffsets[node]; e < saga.outOffsets[node + 1]; e++) {
+                int linkTo = saga.outTargets[e];
+                earliestStart[linkTo] = Math.max(earliestStart[linkTo], earliestFinish);
+            }
+        }
+        this.length = length;
+        latestStart = new long[n];
+        for (int i = n - 1; i >= 0; i--) {
+            int node = order[i];
+            long latestFinish = length;
+            for (int e = saga.outOffsets[node]; e < saga.outOffsets[node + 1]; e++) {
+                latestFinish = Math.min(latestFinish, latestStart[saga.outTargets[e]]);
+            }
+            latestStart[node] = latestFinish - latency[node];
+        }
+        List<SagaNode> path = new ArrayList<>();
+        int node = saga.startIndex;
+        while (node >= 0) {
+            path.add(saga.nodes[node]);
+            long earliestFinish = earliestStart[node] + latency[node];
+            int next = -1;
+            for (int e = saga.outOffsets[node]; e < saga.outOffsets[node + 1] && next < 0; e++) {
+                int linkTo = saga.outTargets[e];
+                if (latestStart[linkTo] == earliestStart[linkTo] && earliestStart[linkTo] == earliestFinish) {
+                    next = linkTo;
+                }
+            }
+            node = next;
+        }
+        this.path = Collections.unmodifiableList(path);
+    }
+
+    /**
+     * @return the estimated latency of the saga when parallelism is unlimited, the sum of the
+     * latencies along the critical path.
+     */
+    public long length() {
+        return length;
+    }
+
+    /**
+     * @return the nodes of the critical path in order, from the start node to the end node.
+     */
+    public List<SagaNode> nodes() {
+        return path;
+    }
+
+    /**
+     * @param node a node of the saga.
+     * @return the estimated latency of the action of the node.
+     */
+    public long latency(SagaNode node) {
+        return latency[checked(node)];
+    }
+
+    /**
+     * @param node a node of the saga.
+     * @return the earliest time the action of the node can start, relative to the saga start.
+     */
+    public long earliestStart(SagaNode node) {
+        return earliestStart[checked(node)];
+    }
+
+    /**
+     * @param node a node of the saga.
+     * @return the latest time the action of the node can start without delaying the saga end.
+     */
+    public long latestStart(SagaNode node) {
+        return latestStart[checked(node)];
+    }
+
+    /**
+     * @param node a node of the saga.
+     * @return how long the action of the node can be delayed without delaying the saga end.
+     */
+    public long slack(SagaNode node) {
+        int index = checked(node);
+        return latestStart[index] - earliestStart[index];
+    }
+
+    /**
+     * @param node a node of the saga.
+     * @return true if the node has no slack.
+     */
+    public boolean isCritical(SagaNode node) {
+        return slack(node) == 0;
+    }
+
+    private int checked(SagaNode node) {
+        if (node.saga != saga) {
+            throw new IllegalArgumentException("Node " + node.id + " does not belong to saga " + saga.name);
+        }
+        return node.index;
+    }
+}
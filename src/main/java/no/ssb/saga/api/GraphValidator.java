@@ -0,0 +1,140 @@
+package no.ssb.saga.api;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.stream.IntStream;
+
+/**
+ * Validates a saga graph given in CSR form in a single iterative depth-first pass over node
+ * indices. The pass runs in O(V+E) time and uses explicit int stacks, so arbitrarily deep sagas
+ * can be validated without risk of stack overflow.
+ */
+final class GraphValidator {
+
+    private static final byte WHITE = 0; // not yet visited
+    private static final byte GREY = 1;  // on the current dfs path
+    private static final byte BLACK = 2; // all descendants visited
+
+    private GraphValidator() {
+    }
+
+    /**
+     * Validate that the graph is acyclic and that every node is reachable from the start node.
+     *
+     * @param ids        node ids by node index.
+     * @param outOffsets CSR offsets of outgoing links, length is number of nodes + 1.
+     * @param outTargets CSR outgoing link targets.
+     * @param start      the index of the start node.
+     * @throws SagaException if a cycle is detected, in which case the message contains the
+     *                       cycle path, or if one or more nodes are unreachable from start.
+     */
+    static void validate(String[] ids, int[] outOffsets, int[] outTargets, int start) throws SagaException {
+        int n = ids.length;
+        byte[] color = new byte[n];
+        int[] stack = new int[n];
+        int[] cursor = new int[n];
+        int top = 0;
+        stack[0] = start;
+        cursor[0] = outOffsets[start];
+        color[start] = GREY;
+        while (top >= 0) {
+            int node = stack[top];
+            int e = cursor[top];
+            if (e == outOffsets[node + 1]) {
+                color[node] = BLACK;
+                top--;
+                continue;
+            }
+            cursor[top] = e + 1;
+            int linkTo = outTargets[e];
+            if (color[linkTo] == WHITE) {
+                color[linkTo] = GREY;
+                top++;
+                stack[top] = linkTo;
+                cursor[top] = outOffsets[linkTo];
+            } else if (color[linkTo] == GREY) {
+                if (linkTo == node) {
+                    throw new SagaException("Saga must be a Directed Acyclic Graph (DAG). Nodes can't link to themselves: node(" + ids[node] + ").");
+                }
+                throw new SagaException("Saga must be a Directed Acyclic Graph (DAG). Detected circle where node(" + ids[node] + ") links to ancestor node(" + ids[linkTo] + "): " + cyclePath(ids, stack, top, linkTo));
+            }
+        }
+        List<String> unreachedIds = null;
+        for (int i = 0; i < n; i++) {
+            if (color[i] == WHITE) {
+                if (unreachedIds == null) {
+                    unreachedIds = new ArrayList<>();
+                }
+                unreachedIds.add(ids[i]);
+            }
+        }
+        if (unreachedIds != null) {
+            throw new SagaException("Unreachables nodes: " + String.join(", ", unreachedIds));
+        }
+    }
+
+    private static final int PARALLEL_FRONTIER = 1024;
+
+    /**
+     * Same as {@link #validate(String[], int[], int[], int)}, but spreads the work over the common
+     * fork-join pool. The graph is peeled level by level from the start node as in Kahn's
+     * algorithm: a node joins the next level when its last incoming link is removed, and levels
+     * of {@value #PARALLEL_FRONTIER} nodes or more are processed in parallel. Every node is peeled
+     * exactly when the graph is acyclic and every node is reachable from start. Otherwise the
+     * graph is validated again with {@link #validate(String[], int[], int[], int)}, so that the
+     * exception is the same whichever way the graph is validated.
+     */
+    static void validateParallel(String[] ids, int[] outOffsets, int[] outTargets, int start) throws SagaException {
+        int n = ids.length;
+        AtomicIntegerArray inDegree = new AtomicIntegerArray(n);
+        IntStream.range(0, outTargets.length).parallel().forEach(e -> inDegree.incrementAndGet(outTargets[e]));
+        if (inDegree.get(start) != 0) {
+            validate(ids, outOffsets, outTargets, start);
+            return;
+        }
+        int[] frontier = new int[n];
+        int[] next = new int[n];
+        frontier[0] = start;
+        int frontierSize = 1;
+        int peeled = 0;
+        AtomicInteger nextSize = new AtomicInteger();
+        while (frontierSize > 0) {
+            peeled += frontierSize;
+            int[] level = frontier;
+            int[] nextLevel = next;
+            IntStream nodes = IntStream.range(0, frontierSize);
+            if (frontierSize >= PARALLEL_FRONTIER) {
+                nodes = nodes.parallel();
+            }
+            nextSize.set(0);
+            nodes.forEach(i -> {
+                int node = level[i];
+                for (int e = outOffsets[node]; e < outOffsets[node + 1]; e++) {
+                    if (inDegree.decrementAndGet(outTargets[e]) == 0) {
+                        nextLevel[nextSize.getAndIncrement()] = outTargets[e];
+                    }
+                }
+            });
+            frontierSize = nextSize.get();
+            next = frontier;
+            frontier = nextLevel;
+        }
+        if (peeled != n) {
+            validate(ids, outOffsets, outTargets, start);
+        }
+    }
+
+    private static String cyclePath(String[] ids, int[] stack, int top, int ancestor) {
+        int from = top;
+        while (stack[from] != ancestor) {
+            from--;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = from; i <= top; i++) {
+            sb.append(ids[stack[i]]).append(" -> ");
+        }
+        return sb.append(ids[ancestor]).toString();
+    }
+}
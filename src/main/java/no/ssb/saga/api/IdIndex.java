@@ -0,0 +1,53 @@
+package no.ssb.saga.api;
+
+/**
+ * Immutable open-addressing hash index from node id to dense node index. Avoids the
+ * per-entry allocation and Integer boxing of a HashMap&lt;String, Integer&gt;.
+ */
+final class IdIndex {
+
+    private final String[] ids;
+    private final int[] slots; // node-index + 1, 0 means empty
+    private final int mask;
+
+    /**
+     * @param ids node ids by node index.
+     * @throws SagaException if the same id is used by more than one node.
+     */
+    IdIndex(String[] ids) throws SagaException {
+        this.ids = ids;
+        int capacity = Integer.highestOneBit(Math.max(2, ids.length * 2 - 1)) << 1;
+        this.slots = new int[capacity];
+        this.mask = capacity - 1;
+        for (int i = 0; i < ids.length; i++) {
+            int slot = spread(ids[i].hashCode()) & mask;
+            while (slots[slot] != 0) {
+                if (ids[slots[slot] - 1].equals(ids[i])) {
+                    throw new SagaException("Duplicate id: " + ids[i]);
+                }
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = i + 1;
+        }
+    }
+
+    /**
+     * @param id the node id to look up.
+     * @return the node index of the node with the given id, or -1 if no such node exists.
+     */
+    int indexOf(String id) {
+        int slot = spread(id.hashCode()) & mask;
+        int entry;
+        while ((entry = slots[slot]) != 0) {
+            if (ids[entry - 1].equals(id)) {
+                return entry - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private static int spread(int h) {
+        return h ^ (h >>> 16);
+    }
+}
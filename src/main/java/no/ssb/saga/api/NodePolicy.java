@@ -0,0 +1,104 @@
+package no.ssb.saga.api;
+
+import java.time.Duration;
+import java.util.Objects;
+
+/**
+ * The deadline and retry policy of a node, declared with the adapter of the node through
+ * {@link Saga.SagaBuilder.OutgoingBuilder#timeout(Duration)} and
+ * {@link Saga.SagaBuilder.OutgoingBuilder#retry(int, Duration)}. The deadline covers all attempts
+ * of the action including the delays between them, and a node that is not done by its deadline
+ * fails its saga. A failed attempt is retried after a delay that starts at the backoff and doubles
+ * with every further failed attempt.
+ */
+public final class NodePolicy {
+
+    /**
+     * No deadline and a single attempt, the policy of every node that declares none.
+     */
+    public static final NodePolicy NONE = new NodePolicy(0, 1, 0);
+
+    /**
+     * The time from the start of the first attempt until the node expires, or 0 for no deadline.
+     */
+    public final long timeoutNanos;
+
+    /**
+     * The largest number of times the action is attempted, at least 1.
+     */
+    public final int maxAttempts;
+
+    /**
+     * The delay before the second attempt.
+     */
+    public final long backoffNanos;
+
+    NodePolicy(long timeoutNanos, int maxAttempts, long backoffNanos) {
+        if (timeoutNanos < 0) {
+            throw new SagaException("timeout must not be negative: " + timeoutNanos + "ns");
+        }
+        if (maxAttempts < 1) {
+            throw new SagaException("maxAttempts must be at least 1: " + maxAttempts);
+        }
+        if (backoffNanos < 0) {
+            throw new SagaException("backoff must not be negative: " + backoffNanos + "ns");
+        }
+        this.timeoutNanos = timeoutNanos;
+        this.maxAttempts = maxAttempts;
+        this.backoffNanos = backoffNanos;
+    }
+
+    static NodePolicy of(long timeoutNanos, int maxAttempts, long backoffNanos) {
+        NodePolicy policy = new NodePolicy(timeoutNanos, maxAttempts, backoffNanos);
+        return policy.equals(NONE) ? NONE : policy;
+    }
+
+    NodePolicy withTimeout(Duration timeout) {
+        return of(timeout.toNanos(), maxAttempts, backoffNanos);
+    }
+
+    NodePolicy withRetry(int maxAttempts, Duration backoff) {
+        return of(timeoutNanos, maxAttempts, backoff.toNanos());
+    }
+
+    /**
+     * @return whether the node has a deadline.
+     */
+    public boolean hasTimeout() {
+        return timeoutNanos > 0;
+    }
+
+    /**
+     * @param failedAttempts the number of attempts that failed so far, at least 1.
+     * @return the delay before the next attempt, saturating at Long.MAX_VALUE.
+     */
+    public long backoffNanos(int failedAttempts) {
+        int shift = Math.min(failedAttempts - 1, 62);
+        if (backoffNanos > (Long.MAX_VALUE >> shift)) {
+            return Long.MAX_VALUE;
+        }
+        return backoffNanos << shift;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        NodePolicy that = (NodePolicy) o;
+        return timeoutNanos == that.timeoutNanos && maxAttempts == that.maxAttempts && backoffNanos == that.backoffNanos;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(timeoutNanos, maxAttempts, backoffNanos);
+    }
+
+    @Override
+    public String toString() {
+        return "NodePolicy{" +
+                "timeout=" + Duration.ofNanos(timeoutNanos) +
+                ", maxAttempts=" + maxAttempts +
+                ", backoff=" + Duration.ofNanos(backoffNanos) +
+                '}';
+    }
+}
@@ -0,0 +1,340 @@
+package no.ssb.saga.api;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reachability index of a saga, answering whether one node is an ancestor of another, i.e. whether
+ * there is a path of one or more links from the one to the other, without traversing the graph.
+ * <p>
+ * Sagas of up to {@value #CLOSURE_MAX_NODES} nodes keep the full transitive closure as one bitset
+ * of descendants per node, at most 512 KiB, and every query is a single bit test. Larger sagas keep
+ * a fixed number of interval labels per node from three depth-first traversals, two along the
+ * links in opposite order and one backwards from the end node, which leaves the nodes that do not
+ * link on to the end node unlabeled. A node b can only be reached from a
+ * node a if b is in a later wave than a and the intervals of a and b nest the right way in every
+ * traversal, which answers most negative queries. If b is below a in any depth-first tree it is
+ * reached, which answers most positive queries. The remaining queries fall back to a depth-first
+ * search from a that skips every node the labels rule out and stops at the first node with b below
+ * it in a depth-first tree. The labels take 40 bytes per node however the saga is shaped.
+ *
+ * @see Saga#reachability()
+ */
+public final class Reachability {
+
+    static final int CLOSURE_MAX_NODES = 2048;
+
+    private final Saga saga;
+    private final int words;
+    private final long[] closure; // descendants of node i in bits [i * words, (i + 1) * words), null for large sagas
+
+    private final int[] labels; // interval labels of large sagas, STRIDE ints per node, null for small sagas
+
+    /*
+     * The labels of a node are its wave followed by the post-order number, low and tree low of the
+     * node in each traversal, interleaved so that a query reads one or two cache lines per node.
+     * Traversals 1 and 2 follow the links of the saga, traversal 3 follows them backwards and
+     * gives the nodes it never reaches the post-order number UNVISITED.
+     */
+    private static final int WAVE = 0;
+    private static final int FORWARD = 1;
+    private static final int FORWARD_REVERSED = 4;
+    private static final int BACKWARD = 7;
+    private static final int POST = 0;
+    private static final int LOW = 1;
+    private static final int TREE_LOW = 2;
+    private static final int STRIDE = 10;
+    private static final int UNVISITED = -1;
+
+    Reachability(Saga saga) {
+        this.saga = saga;
+        int n = saga.nodes.length;
+        this.words = (n + 63) >>> 6;
+        int[] order = saga.topology().order;
+        if (n <= CLOSURE_MAX_NODES) {
+            closure = new long[n * words];
+            for (int i = n - 1; i >= 0; i--) {
+                int node = order[i];
+                int row = node * words;
+                for (int e = saga.outOffsets[node]; e < saga.outOffsets[node + 1]; e++) {
+                    int linkTo = saga.outTargets[e];
+                    closure[row + (linkTo >>> 6)] |= 1L << linkTo;
+                    int linkToRow = linkTo * words;
+                    for (int w = 0; w < words; w++) {
+                        closure[row + w] |= closure[linkToRow + w];
+                    }
+                }
+            }
+            labels = null;
+            return;
+        }
+        closure = null;
+        labels = new int[n * STRIDE];
+        int[] waveOf = saga.topology().waveOf;
+        for (int i = 0; i < n; i++) {
+            labels[i * STRIDE + WAVE] = waveOf[i];
+            labels[i * STRIDE + BACKWARD + POST] = UNVISITED;
+        }
+        label(labels, FORWARD, saga.startIndex, saga.outOffsets, saga.outTargets, false);
+        label(labels, FORWARD_REVERSED, saga.startIndex, saga.outOffsets, saga.outTargets, true);
+        label(labels, BACKWARD, saga.endIndex, saga.inOffsets, saga.inSources, false);
+    }
+
+    /**
+     * Number the nodes in the post-order of a depth-first traversal from the root. The low of a
+     * node is the lowest number of any node it reaches, itself included, and the tree low is the
+     * lowest number in its subtree of the depth-first tree, which are numbered consecutively.
+     */
+    private static void label(int[] labels, int traversal, int root, int[] offsets, int[] targets, boolean reverse) {
+        int n = offsets.length - 1;
+        boolean[] visited = new boolean[n];
+        int[] stack = new int[n];
+        int[] cursor = new int[n];
+        int[] first = new int[n]; // the first number given out after the node was entered
+        int top = 0;
+        int next = 0;
+        stack[0] = root;
+        cursor[0] = reverse ? offsets[root + 1] - 1 : offsets[root];
+        visited[root] = true;
+        while (top >= 0) {
+            int node = stack[top];
+            int e = cursor[top];
+            if (reverse ? e < offsets[node] : e == offsets[node + 1]) {
+                int nodeLow = next;
+                for (int k = offsets[node]; k < offsets[node + 1]; k++) {
+                    nodeLow = Math.min(nodeLow, labels[targets[k] * STRIDE + traversal + LOW]);
+                }
+                int label = node * STRIDE + traversal;
+                labels[label + POST] = next++;
+                labels[label + LOW] = nodeLow;
+                labels[label + TREE_LOW] = first[top];
+                top--;
+                continue;
+            }
+            cursor[top] = reverse ? e - 1 : e + 1;
+            int linkTo = targets[e];
+            if (!visited[linkTo]) {
+                visited[linkTo] = true;
+                top++;
+                stack[top] = linkTo;
+                cursor[top] = reverse ? offsets[linkTo + 1] - 1 : offsets[linkTo];
+                first[top] = next;
+            }
+        }
+    }
+
+    /**
+     * @param ancestor   a node of the saga.
+     * @param descendant a node of the saga.
+     * @return whether there is a path of one or more links from ancestor to descendant.
+     */
+    public boolean isAncestor(SagaNode ancestor, SagaNode descendant) {
+        return reaches(checked(ancestor), checked(descendant));
+    }
+
+    /**
+     * @param node a node of the saga.
+     * @return an unmodifiable list of every node the node has a path to, in node index order.
+     */
+    public List<SagaNode> descendants(SagaNode node) {
+        int index = checked(node);
+        if (closure != null) {
+            return nodeList(Arrays.copyOfRange(closure, index * words, (index + 1) * words));
+        }
+        return nodeList(search(index, saga.outOffsets, saga.outTargets));
+    }
+
+    /**
+     * @param node a node of the saga.
+     * @return an unmodifiable list of every node that has a path to the node, in node index order.
+     */
+    public List<SagaNode> ancestors(SagaNode node) {
+        int index = checked(node);
+        if (closure != null) {
+            long[] bits = new long[words];
+            int word = index >>> 6;
+            long bit = 1L << index;
+            for (int i = 0; i < saga.nodes.length; i++) {
+                if ((closure[i * words + word] & bit) != 0) {
+                    bits[i >>> 6] |= 1L << i;
+                }
+            }
+            return nodeList(bits);
+        }
+        return nodeList(search(index, saga.inOffsets, saga.inSources));
+    }
+
+    /**
+     * @return the number of bytes held by this index, not counting the saga.
+     */
+    public long sizeInBytes() {
+        if (closure != null) {
+            return (long) closure.length * Long.BYTES;
+        }
+        return (long) labels.length * Integer.BYTES;
+    }
+
+    private int checked(SagaNode node) {
+        if (node.saga != saga) {
+            throw new IllegalArgumentException("Node " + node.id + " does not belong to saga " + saga.name);
+        }
+        return node.index;
+    }
+
+    private boolean reaches(int from, int to) {
+        if (closure != null) {
+            return (closure[from * words + (to >>> 6)] & (1L << to)) != 0;
+        }
+        if (from == to || !mayReach(from, to)) {
+            return false;
+        }
+        if (treeReaches(from, to)) {
+            return true;
+        }
+        // only nodes the labels do not rule out are visited, usually few, so keep the state small
+        IntSet visited = new IntSet();
+        int[] stack = new int[16];
+        int top = 0;
+        stack[0] = from;
+        while (top >= 0) {
+            int node = stack[top--];
+            for (int e = saga.outOffsets[node]; e < saga.outOffsets[node + 1]; e++) {
+                int linkTo = saga.outTargets[e];
+                if (!mayReach(linkTo, to) || !visited.add(linkTo)) {
+                    continue;
+                }
+                if (treeReaches(linkTo, to)) {
+                    return true;
+                }
+                if (++top == stack.length) {
+                    stack = Arrays.copyOf(stack, stack.length * 2);
+                }
+                stack[top] = linkTo;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return whether the labels prove a path from one node to the other, including to itself.
+     */
+    private boolean treeReaches(int from, int to) {
+        int f = from * STRIDE;
+        int t = to * STRIDE;
+        // an unlabeled node has the post-order number UNVISITED, which no subtree holds
+        return inTree(labels, f + FORWARD, t + FORWARD)
+                || inTree(labels, f + FORWARD_REVERSED, t + FORWARD_REVERSED)
+                || inTree(labels, t + BACKWARD, f + BACKWARD);
+    }
+
+    private static boolean inTree(int[] labels, int ancestor, int descendant) {
+        return labels[ancestor + TREE_LOW] <= labels[descendant + POST] && labels[descendant + POST] <= labels[ancestor + POST];
+    }
+
+    /**
+     * @return false if the labels rule out a path from one node to the other.
+     */
+    private boolean mayReach(int from, int to) {
+        if (from == to) {
+            return true;
+        }
+        int f = from * STRIDE;
+        int t = to * STRIDE;
+        return labels[f + WAVE] < labels[t + WAVE]
+                && within(labels, f + FORWARD, t + FORWARD)
+                && within(labels, f + FORWARD_REVERSED, t + FORWARD_REVERSED)
+                && mayReachBackward(f, t);
+    }
+
+    /**
+     * A node that does not link on to the end node may be reached from any node, but cannot reach
+     * a node that does.
+     */
+    private boolean mayReachBackward(int f, int t) {
+        if (labels[t + BACKWARD + POST] == UNVISITED) {
+            return true;
+        }
+        return labels[f + BACKWARD + POST] != UNVISITED && within(labels, t + BACKWARD, f + BACKWARD);
+    }
+
+    private static boolean within(int[] labels, int outer, int inner) {
+        return labels[outer + LOW] <= labels[inner + LOW] && labels[inner + POST] <= labels[outer + POST];
+    }
+
+    /**
+     * @return the nodes reached from a node along the given links, excluding the node itself.
+     */
+    private long[] search(int from, int[] offsets, int[] targets) {
+        long[] visited = new long[words];
+        int[] stack = new int[saga.nodes.length];
+        int top = 0;
+        stack[0] = from;
+        while (top >= 0) {
+            int node = stack[top--];
+            for (int e = offsets[node]; e < offsets[node + 1]; e++) {
+                int linkTo = targets[e];
+                if ((visited[linkTo >>> 6] & (1L << linkTo)) == 0) {
+                    visited[linkTo >>> 6] |= 1L << linkTo;
+                    stack[++top] = linkTo;
+                }
+            }
+        }
+        return visited;
+    }
+
+    /**
+     * Open addressing set of node indices.
+     */
+    private static final class IntSet {
+        private int[] slots = new int[32]; // node index + 1, 0 when empty
+        private int size;
+
+        boolean add(int value) {
+            if (2 * (size + 1) > slots.length) {
+                int[] old = slots;
+                slots = new int[old.length * 2];
+                for (int slot : old) {
+                    if (slot != 0) {
+                        insert(slot);
+                    }
+                }
+            }
+            if (!insert(value + 1)) {
+                return false;
+            }
+            size++;
+            return true;
+        }
+
+        private boolean insert(int key) {
+            int mask = slots.length - 1;
+            int hash = key * 0x9E3779B9;
+            int i = (hash ^ (hash >>> 16)) & mask;
+            while (slots[i] != 0) {
+                if (slots[i] == key) {
+                    return false;
+                }
+                i = (i + 1) & mask;
+            }
+            slots[i] = key;
+            return true;
+        }
+    }
+
+    private List<SagaNode> nodeList(long[] bits) {
+        int count = 0;
+        for (long word : bits) {
+            count += Long.bitCount(word);
+        }
+        int[] indices = new int[count];
+        int k = 0;
+        for (int w = 0; w < bits.length; w++) {
+            long word = bits[w];
+            while (word != 0) {
+                indices[k++] = (w << 6) + Long.numberOfTrailingZeros(word);
+                word &= word - 1;
+            }
+        }
+        return new Topology.NodeList(saga.nodes, indices, 0, count);
+    }
+}
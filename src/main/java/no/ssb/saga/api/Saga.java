@@ -1,16 +1,35 @@
 package no.ssb.saga.api;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.OptionalInt;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class Saga {
 
@@ -20,6 +39,17 @@ public class Saga {
     public final static String ADAPTER_START = "SagaStart";
     public final static String ADAPTER_END = "SagaEnd";
 
+    private static volatile SagaBuildObserver buildObserver = SagaBuildObserver.NO_OP;
+
+    /**
+     * Install the observer that receives the outcome of every saga built from now on.
+     *
+     * @param observer the observer, or null to observe nothing.
+     */
+    public static void setBuildObserver(SagaBuildObserver observer) {
+        buildObserver = observer != null ? observer : SagaBuildObserver.NO_OP;
+    }
+
     /**
      * Start building a new Saga with a given name. Will create the initial start-node
      * and expects caller to immediately provide link-to targets for the start-node.
@@ -34,47 +64,684 @@ public class Saga {
     }
 
     public final String name;
-    final Map<String, SagaNode> nodeById;
 
-    private Saga(String name, Map<String, SagaNode> nodeById) {
+    /*
+     * Compact immutable graph representation. Nodes are identified by a dense int index, ids and
+     * adapters are held in string tables, and adjacency in both directions is held in CSR form,
+     * i.e. the outgoing targets of node i are outTargets[outOffsets[i]] until outTargets[outOffsets[i + 1]].
+     */
+    final String[] ids;
+    final String[] adapters;
+    final int[] adapterOf;
+    final int[] outOffsets;
+    final int[] outTargets;
+    final int[] inOffsets;
+    final int[] inSources;
+    final IdIndex indexById;
+    final NodePolicy[] policies; // by node index, null when no node declares a policy
+    final SagaNode[] nodes;
+    private final List<SagaNode> nodesView;
+    final int startIndex;
+    final int endIndex;
+
+    private volatile Topology topology;
+    private volatile Reachability reachability;
+    private volatile SagaFingerprint fingerprint;
+    private volatile Map<String, SagaFlattener.Fragment> fragmentByNamespace; // only for sagas used as sub-sagas
+
+    private Saga(String name, String[] ids, IdIndex indexById, String[] adapters, int[] adapterOf, int[] outOffsets, int[] outTargets, NodePolicy[] policies) {
         this.name = name;
-        this.nodeById = nodeById;
+        this.ids = ids;
+        this.adapters = adapters;
+        this.adapterOf = adapterOf;
+        this.outOffsets = outOffsets;
+        this.outTargets = outTargets;
+        int n = ids.length;
+        this.inOffsets = new int[n + 1];
+        this.inSources = new int[outTargets.length];
+        for (int target : outTargets) {
+            inOffsets[target + 1]++;
+        }
+        for (int i = 0; i < n; i++) {
+            inOffsets[i + 1] += inOffsets[i];
+        }
+        int[] fill = new int[n];
+        for (int source = 0; source < n; source++) {
+            for (int e = outOffsets[source]; e < outOffsets[source + 1]; e++) {
+                int target = outTargets[e];
+                inSources[inOffsets[target] + fill[target]++] = source;
+            }
+        }
+        this.indexById = indexById;
+        this.policies = policies;
+        this.nodes = new SagaNode[n];
+        for (int i = 0; i < n; i++) {
+            nodes[i] = new SagaNode(this, i);
+        }
+        this.nodesView = Collections.unmodifiableList(Arrays.asList(nodes));
+        this.startIndex = indexById.indexOf(ID_START);
+        this.endIndex = indexById.indexOf(ID_END);
+    }
+
+    /**
+     * Create a saga from a graph that is already in indexed form, as decoded by the codecs. Applies
+     * the same structural validation as {@link SagaBuilder#end()}.
+     *
+     * @param policies the policy of every node by node index, or null if no node declares one.
+     */
+    static Saga ofIndexedGraph(String name, String[] ids, String[] adapters, int[] adapterOf, int[] outOffsets, int[] outTargets, NodePolicy[] policies) throws SagaException {
+        return ofIndexedGraph(name, ids, adapters, adapterOf, outOffsets, outTargets, policies, false, null);
+    }
+
+    /**
+     * @param parallel        whether to validate the graph in parallel, see {@link GraphValidator#validateParallel}.
+     * @param validationNanos receives the time spent validating the graph, or null to not measure it.
+     */
+    private static Saga ofIndexedGraph(String name, String[] ids, String[] adapters, int[] adapterOf, int[] outOffsets, int[] outTargets, NodePolicy[] policies, boolean parallel, long[] validationNanos) throws SagaException {
+        IdIndex indexById = new IdIndex(ids);
+        int start = indexById.indexOf(ID_START);
+        int end = indexById.indexOf(ID_END);
+        if (start < 0 || !ADAPTER_START.equals(adapters[adapterOf[start]])) {
+            throw new SagaException("Missing start node(" + ID_START + ") with adapter " + ADAPTER_START);
+        }
+        if (end < 0 || !ADAPTER_END.equals(adapters[adapterOf[end]])) {
+            throw new SagaException("Missing end node(" + ID_END + ") with adapter " + ADAPTER_END);
+        }
+        if (outOffsets[end + 1] != outOffsets[end]) {
+            throw new SagaException("End node(" + ID_END + ") cannot link to other nodes");
+        }
+        if (policies != null && (policies[start] != NodePolicy.NONE || policies[end] != NodePolicy.NONE)) {
+            throw new SagaException("Start node(" + ID_START + ") and end node(" + ID_END + ") cannot have a timeout or retry policy");
+        }
+        long validationStartNanos = validationNanos == null ? 0 : System.nanoTime();
+        if (parallel) {
+            GraphValidator.validateParallel(ids, outOffsets, outTargets, start);
+        } else {
+            GraphValidator.validate(ids, outOffsets, outTargets, start);
+        }
+        if (validationNanos != null) {
+            validationNanos[0] = System.nanoTime() - validationStartNanos;
+        }
+        return new Saga(name, ids, indexById, adapters, adapterOf, outOffsets, outTargets, policies);
+    }
+
+    /**
+     * Build a saga from a graph given as arrays in a single pass, for large generated sagas where
+     * declaring every node through {@link #start(String)} is too slow. The nodes must include the
+     * start node {@value #ID_START} with adapter {@value #ADAPTER_START} and the end node
+     * {@value #ID_END} with adapter {@value #ADAPTER_END}, and link i goes from node from[i] to
+     * node to[i], by index into ids. The same rules apply as for sagas built through
+     * {@link #start(String)}. For graphs of {@value #PARALLEL_THRESHOLD} nodes or more, ids and
+     * adapters are checked and the graph is validated in parallel in the common fork-join pool.
+     *
+     * @param name     the name of the saga.
+     * @param ids      the id of every node.
+     * @param adapters the adapter of every node.
+     * @param from     the source node index of every link.
+     * @param to       the target node index of every link.
+     * @return the saga.
+     * @throws SagaException if the arrays do not describe a valid saga.
+     */
+    public static Saga fromEdges(String name, String[] ids, String[] adapters, int[] from, int[] to) throws SagaException {
+        SagaBuildObserver observer = buildObserver;
+        if (observer == SagaBuildObserver.NO_OP) {
+            return buildFromEdges(name, ids, adapters, from, to, null);
+        }
+        long startNanos = System.nanoTime();
+        long[] validationNanos = new long[1];
+        Saga saga;
+        try {
+            saga = buildFromEdges(name, ids, adapters, from, to, validationNanos);
+        } catch (SagaException e) {
+            observer.sagaRejected(name, System.nanoTime() - startNanos, e);
+            throw e;
+        }
+        observer.sagaBuilt(saga, System.nanoTime() - startNanos, validationNanos[0]);
+        return saga;
+    }
+
+    static final int PARALLEL_THRESHOLD = 1 << 14;
+
+    /**
+     * @param validationNanos receives the time spent validating the graph, or null to not measure it.
+     */
+    private static Saga buildFromEdges(String name, String[] ids, String[] adapters, int[] from, int[] to, long[] validationNanos) throws SagaException {
+        SagaBuilder.checkSagaName(name);
+        int n = ids.length;
+        if (adapters.length != n) {
+            throw new SagaException("ids and adapters must have the same length, was " + n + " and " + adapters.length);
+        }
+        if (from.length != to.length) {
+            throw new SagaException("from and to must have the same length, was " + from.length + " and " + to.length);
+        }
+        boolean parallel = n >= PARALLEL_THRESHOLD;
+        IntStream indices = parallel ? IntStream.range(0, n).parallel() : IntStream.range(0, n);
+        // the first violation in node order, whichever thread finds it
+        OptionalInt invalid = indices.filter(i -> !SagaBuilder.isVisible(ids[i]) || !SagaBuilder.isVisible(adapters[i])).findFirst();
+        if (invalid.isPresent()) {
+            int i = invalid.getAsInt();
+            SagaBuilder.checkId(ids[i]);
+            SagaBuilder.checkAdapter(adapters[i]);
+        }
+
+        int[] outOffsets = new int[n + 1];
+        for (int e = 0; e < from.length; e++) {
+            if (from[e] < 0 || from[e] >= n || to[e] < 0 || to[e] >= n) {
+                throw new SagaException("Link " + e + " from node index " + from[e] + " to node index " + to[e] + " is out of range, there are " + n + " nodes");
+            }
+            outOffsets[from[e] + 1]++;
+        }
+        for (int i = 0; i < n; i++) {
+            outOffsets[i + 1] += outOffsets[i];
+        }
+        // stable counting sort by source, links keep their given order within each node
+        int[] outTargets = new int[to.length];
+        int[] fill = Arrays.copyOf(outOffsets, n);
+        for (int e = 0; e < from.length; e++) {
+            outTargets[fill[from[e]]++] = to[e];
+        }
+
+        Map<String, Integer> adapterIndexByName = new HashMap<>();
+        List<String> adapterTable = new ArrayList<>();
+        int[] adapterOf = new int[n];
+        for (int i = 0; i < n; i++) {
+            Integer adapterIndex = adapterIndexByName.get(adapters[i]);
+            if (adapterIndex == null) {
+                adapterIndex = adapterTable.size();
+                adapterIndexByName.put(adapters[i], adapterIndex);
+                adapterTable.add(adapters[i]);
+            }
+            adapterOf[i] = adapterIndex;
+        }
+        return ofIndexedGraph(name, ids.clone(), adapterTable.toArray(new String[0]), adapterOf, outOffsets, outTargets, null, parallel, validationNanos);
     }
 
     public SagaNode getStartNode() {
-        return nodeById.get(Saga.ID_START);
+        return nodes[startIndex];
     }
 
     public SagaNode getEndNode() {
-        return nodeById.get(Saga.ID_END);
+        return nodes[endIndex];
     }
 
+    /**
+     * @return an unmodifiable view of all nodes of this saga, in node index order.
+     */
     public Collection<SagaNode> nodes() {
-        return new LinkedList<>(nodeById.values());
+        return nodesView;
+    }
+
+    /**
+     * @param node a node of this saga.
+     * @return an unmodifiable view of the nodes the node links to, in link order.
+     */
+    public List<SagaNode> successors(SagaNode node) {
+        return checked(node).successors;
+    }
+
+    /**
+     * @param node a node of this saga.
+     * @return an unmodifiable view of the nodes that link to the node.
+     */
+    public List<SagaNode> predecessors(SagaNode node) {
+        return checked(node).predecessors;
+    }
+
+    private SagaNode checked(SagaNode node) {
+        if (node.saga != this) {
+            throw new IllegalArgumentException("Node " + node.id + " does not belong to saga " + name);
+        }
+        return node;
+    }
+
+    /**
+     * @return a sized spliterator over all nodes of this saga in node index order, which splits
+     * evenly for parallel streams.
+     */
+    public Spliterator<SagaNode> spliterator() {
+        return Spliterators.spliterator(nodes, Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL | Spliterator.IMMUTABLE);
+    }
+
+    /**
+     * @return a sequential stream of all nodes of this saga in node index order.
+     */
+    public Stream<SagaNode> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    /**
+     * @return a parallel stream of all nodes of this saga, split over the node array.
+     */
+    public Stream<SagaNode> parallelStream() {
+        return StreamSupport.stream(spliterator(), true);
+    }
+
+    /**
+     * A stream of all nodes of this saga in the order of {@link #topologicalOrder()}. The encounter
+     * order is topological, so every node comes after the nodes that link to it in sequential
+     * streams and in ordered operations such as forEachOrdered on parallel streams.
+     *
+     * @param parallel whether the stream is parallel.
+     * @return a stream of all nodes of this saga in topological order.
+     */
+    public Stream<SagaNode> topologicalStream(boolean parallel) {
+        return StreamSupport.stream(topology().orderView().spliterator(), parallel);
+    }
+
+    /**
+     * @return the number of nodes in this saga, including the start and end nodes.
+     */
+    public int nodeCount() {
+        return nodes.length;
+    }
+
+    /**
+     * @param index the node index.
+     * @return the node with the given index.
+     * @throws IndexOutOfBoundsException if index is not in the range [0, nodeCount()).
+     */
+    public SagaNode getNode(int index) {
+        return nodes[index];
+    }
+
+    /**
+     * @param id the node id.
+     * @return the node with the given id, or null if this saga has no such node.
+     */
+    public SagaNode getNode(String id) {
+        int index = indexById.indexOf(id);
+        return index < 0 ? null : nodes[index];
+    }
+
+    /**
+     * All nodes of this saga in a topological order, i.e. every node appears after all the nodes
+     * that link to it. Computed once and cached.
+     *
+     * @return an unmodifiable list of all nodes in topological order.
+     */
+    public List<SagaNode> topologicalOrder() {
+        return topology().orderView();
+    }
+
+    /**
+     * The nodes of this saga partitioned into waves. Wave k holds exactly the nodes whose incoming
+     * links all come from nodes in earlier waves, so all nodes within a wave may be executed in
+     * parallel once the previous waves are complete. Computed once and cached.
+     *
+     * @return an unmodifiable list of waves, each an unmodifiable list of nodes.
+     */
+    public List<List<SagaNode>> waves() {
+        return topology().wavesView();
+    }
+
+    /**
+     * @param node a node of this saga.
+     * @return the index of the wave that the node belongs to.
+     */
+    public int wave(SagaNode node) {
+        return topology().waveOf[checked(node).index];
+    }
+
+    /**
+     * @param node a node of this saga.
+     * @return the number of incoming links of the node.
+     */
+    public int inDegree(SagaNode node) {
+        int index = checked(node).index;
+        return inOffsets[index + 1] - inOffsets[index];
+    }
+
+    /**
+     * @param node a node of this saga.
+     * @return the number of outgoing links of the node.
+     */
+    public int outDegree(SagaNode node) {
+        int index = checked(node).index;
+        return outOffsets[index + 1] - outOffsets[index];
+    }
+
+    /**
+     * @return a fresh copy of the in-degree of every node, indexed by node index. Intended to be
+     * used directly as the remaining-predecessor counters of a saga execution.
+     */
+    public int[] inDegrees() {
+        return topology().inDegree.clone();
+    }
+
+    /**
+     * @return a fresh copy of the out-degree of every node, indexed by node index.
+     */
+    public int[] outDegrees() {
+        return topology().outDegree.clone();
+    }
+
+    /**
+     * @return whether any node of this saga declares a timeout or retry policy.
+     */
+    public boolean hasNodePolicies() {
+        return policies != null;
+    }
+
+    /**
+     * @param latencyByAdapter the estimated latency of an action by adapter name, must not be
+     *                         negative. Not called for the start and end nodes.
+     * @return the critical path analysis of this saga given the estimated latencies.
+     */
+    public CriticalPath criticalPath(ToLongFunction<String> latencyByAdapter) {
+        return new CriticalPath(this, latencyByAdapter);
+    }
+
+    /**
+     * @return the reachability index of this saga. Built on first use and cached.
+     */
+    public Reachability reachability() {
+        Reachability r = reachability;
+        if (r == null) {
+            // benign race, the index is immutable and identical for all threads
+            reachability = r = new Reachability(this);
+        }
+        return r;
+    }
+
+    /**
+     * @param ancestor   a node of this saga.
+     * @param descendant a node of this saga.
+     * @return whether there is a path of one or more links from ancestor to descendant.
+     * @see #reachability()
+     */
+    public boolean isAncestor(SagaNode ancestor, SagaNode descendant) {
+        return reachability().isAncestor(ancestor, descendant);
+    }
+
+    /**
+     * @param node a node of this saga.
+     * @return an unmodifiable list of every node the node has a path to, in node index order.
+     * @see #reachability()
+     */
+    public List<SagaNode> descendants(SagaNode node) {
+        return reachability().descendants(node);
+    }
+
+    /**
+     * @param node a node of this saga.
+     * @return an unmodifiable list of every node that has a path to the node, in node index order.
+     * @see #reachability()
+     */
+    public List<SagaNode> ancestors(SagaNode node) {
+        return reachability().ancestors(node);
+    }
+
+    /**
+     * @return the canonical structural fingerprint of this saga. Computed once and cached.
+     * @see SagaFingerprint
+     */
+    public SagaFingerprint fingerprint() {
+        SagaFingerprint f = fingerprint;
+        if (f == null) {
+            fingerprint = f = SagaFingerprint.of(this);
+        }
+        return f;
+    }
+
+    /**
+     * @return a copy of this saga that uses the given adapter table, which must hold strings equal
+     * to the current adapter table in the same order. Used to share interned adapter names.
+     */
+    Saga withAdapters(String[] internedAdapters, SagaFingerprint knownFingerprint) {
+        Saga saga = new Saga(name, ids, indexById, internedAdapters, adapterOf, outOffsets, outTargets, policies);
+        saga.fingerprint = knownFingerprint;
+        return saga;
+    }
+
+    void fingerprint(SagaFingerprint knownFingerprint) {
+        this.fingerprint = knownFingerprint;
+    }
+
+    /**
+     * @return the nodes of this saga as spliced into a parent node with the given id. Computed
+     * once per id and cached.
+     */
+    SagaFlattener.Fragment fragment(String namespace) {
+        Map<String, SagaFlattener.Fragment> fragments = fragmentByNamespace;
+        if (fragments == null) {
+            synchronized (this) {
+                fragments = fragmentByNamespace;
+                if (fragments == null) {
+                    fragmentByNamespace = fragments = new ConcurrentHashMap<>();
+                }
+            }
+        }
+        return fragments.computeIfAbsent(namespace, id -> new SagaFlattener.Fragment(this, id));
+    }
+
+    Topology topology() {
+        Topology t = topology;
+        if (t == null) {
+            // benign race, the computed topology is immutable and identical for all threads
+            topology = t = new Topology(this);
+        }
+        return t;
+    }
+
+    /**
+     * Read a saga from its json representation as produced by {@link #toJson()}. The saga is
+     * rebuilt and validated exactly as if it had been built through {@link #start(String)}.
+     *
+     * @param json the json representation of a saga.
+     * @return the saga.
+     * @throws SagaException if the json is malformed or does not represent a valid saga.
+     */
+    public static Saga fromJson(String json) throws SagaException {
+        try {
+            return SagaJsonReader.read(new StringReader(json));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Read a saga from a json character stream in a single pass. The reader is not closed.
+     *
+     * @param reader the reader to read json from.
+     * @return the saga.
+     * @throws IOException   if reading from the reader fails.
+     * @throws SagaException if the json is malformed or does not represent a valid saga.
+     */
+    public static Saga readJson(Reader reader) throws IOException, SagaException {
+        return SagaJsonReader.read(reader);
+    }
+
+    /**
+     * Read a saga from UTF-8 encoded json in a single pass. The position of the buffer is not changed.
+     *
+     * @param utf8 the buffer holding the json.
+     * @return the saga.
+     * @throws SagaException if the json is malformed or does not represent a valid saga.
+     */
+    public static Saga readJson(ByteBuffer utf8) throws SagaException {
+        return SagaJsonReader.read(utf8);
+    }
+
+    /**
+     * @return the json representation of this saga. Use {@link #fromJson(String)} to read it back.
+     */
+    public String toJson() {
+        StringBuilder sb = new StringBuilder(SagaJsonWriter.estimateLength(this));
+        try {
+            SagaJsonWriter.write(this, sb);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // StringBuilder never throws
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Write the json representation of this saga to the given Appendable in a single pass.
+     *
+     * @param out where to write the json.
+     * @throws IOException if the Appendable throws.
+     */
+    public void writeJson(Appendable out) throws IOException {
+        SagaJsonWriter.write(this, out);
+    }
+
+    /**
+     * Write the UTF-8 encoded json representation of this saga to the given stream in a single
+     * pass. The stream is flushed but not closed.
+     *
+     * @param out the stream to write to.
+     * @throws IOException if writing to the stream fails.
+     */
+    public void writeJson(OutputStream out) throws IOException {
+        SagaJsonWriter.write(this, out);
+    }
+
+    /**
+     * Read a saga from its compact binary representation as produced by {@link #toBinary()}. The
+     * content hash is verified and the graph is validated before the saga is returned.
+     *
+     * @param buffer the buffer holding the binary saga at its position. The position is not changed.
+     * @return the saga.
+     * @throws SagaException if the data is corrupt, of an unsupported version, or not a valid saga.
+     */
+    public static Saga fromBinary(ByteBuffer buffer) throws SagaException {
+        return SagaBinaryCodec.decode(buffer);
+    }
+
+    /**
+     * @return the compact versioned binary representation of this saga, holding a content hash,
+     * a deduplicated string table of ids and adapters, and varint encoded links. Multiple sagas
+     * can be stored together in a memory-mapped {@link SagaCatalog}.
+     */
+    public byte[] toBinary() {
+        return SagaBinaryCodec.encode(this);
     }
 
     public void depthFirstPreOrderFullTraversal(BiConsumer<Set<String>, SagaNode> visit) {
-        getStartNode().depthFirstPreOrderFullTraversal(0, new LinkedHashSet<>(), new LinkedHashSet<>(), visit);
+        depthFirstPreOrderFullTraversal(startIndex, outOffsets, outTargets, visit);
     }
 
     public void reverseDepthFirstPreOrderFullTraversal(BiConsumer<Set<String>, SagaNode> visit) {
-        getEndNode().reverseDepthFirstPreOrderFullTraversal(0, new LinkedHashSet<>(), new LinkedHashSet<>(), visit);
+        depthFirstPreOrderFullTraversal(endIndex, inOffsets, inSources, visit);
+    }
+
+    /**
+     * Iterative depth-first pre-order traversal using explicit stacks, safe for arbitrarily deep sagas.
+     * The visitor is given the ids of all ancestors on the current path and the node being visited.
+     */
+    private void depthFirstPreOrderFullTraversal(int root, int[] offsets, int[] targets, BiConsumer<Set<String>, SagaNode> visit) {
+        int n = nodes.length;
+        boolean[] visited = new boolean[n];
+        int[] stack = new int[n];
+        int[] cursor = new int[n];
+        Set<String> ancestors = new LinkedHashSet<>();
+        int top = 0;
+        stack[0] = root;
+        cursor[0] = offsets[root];
+        visited[root] = true;
+        visit.accept(ancestors, nodes[root]);
+        ancestors.add(ids[root]);
+        while (top >= 0) {
+            int node = stack[top];
+            int e = cursor[top];
+            if (e == offsets[node + 1]) {
+                ancestors.remove(ids[node]);
+                top--;
+                continue;
+            }
+            cursor[top] = e + 1;
+            int child = targets[e];
+            if (visited[child]) {
+                continue;
+            }
+            visited[child] = true;
+            visit.accept(ancestors, nodes[child]);
+            ancestors.add(ids[child]);
+            top++;
+            stack[top] = child;
+            cursor[top] = offsets[child];
+        }
     }
 
     public static class SagaBuilder {
         private final static Pattern legalSagaNamePattern = Pattern.compile("[^{\\n]*");
-        private final static Pattern legalIdPattern = Pattern.compile("\\p{Graph}*");
-        private final static Pattern legalAdapterPattern = Pattern.compile("\\p{Graph}*");
 
         final String sagaName;
         final HashMap<String, NodeState> nodeStateById = new LinkedHashMap<>();
 
         private SagaBuilder(String sagaName) {
+            checkSagaName(sagaName);
+            this.sagaName = sagaName;
+        }
+
+        static void checkSagaName(String sagaName) throws SagaException {
             Matcher m = legalSagaNamePattern.matcher(sagaName);
             if (!m.matches()) {
                 throw new SagaException("sagaName must not contain the '{' (left-curly-bracket) or '\\n' (newline) character");
             }
-            this.sagaName = sagaName;
+        }
+
+        static void checkId(String id) throws SagaException {
+            if (!isVisible(id)) {
+                throw new SagaException("id must only contain visible characters. Whitespace- or control-characters are not allowed. id: " + id);
+            }
+        }
+
+        static void checkAdapter(String adapter) throws SagaException {
+            if (!isVisible(adapter)) {
+                throw new SagaException("adapter must only contain visible characters. Whitespace- or control-characters are not allowed. adapter: " + adapter);
+            }
+        }
+
+        /**
+         * Same as matching the regular expression \\p{Graph}*, i.e. only visible US-ASCII
+         * characters, without the cost of a Matcher.
+         */
+        static boolean isVisible(String value) {
+            if (value == null) {
+                return false;
+            }
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c <= ' ' || c > '~') {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @return the fingerprint of the saga that {@link #end()} would produce from the current
+         * builder state, computed without building or validating the graph.
+         */
+        SagaFingerprint fingerprint() {
+            for (NodeState nodeState : nodeStateById.values()) {
+                if (nodeState.subSaga != null) {
+                    SagaFlattener.Graph graph = SagaFlattener.flatten(graph(true));
+                    return SagaFingerprint.of(sagaName, graph.ids, graph.adapters, graph.adapterOf, graph.policies, graph.outOffsets, graph.outTargets);
+                }
+            }
+            SagaFingerprint.Accumulator accumulator = new SagaFingerprint.Accumulator();
+            for (NodeState nodeState : nodeStateById.values()) {
+                accumulator.node(nodeState.id, nodeState.adapter);
+                accumulator.policy(nodeState.policy);
+                for (String linkTo : nodeState.outgoing) {
+                    accumulator.link(linkTo);
+                }
+            }
+            accumulator.node(ID_END, ADAPTER_END);
+            return accumulator.fingerprint(sagaName);
+        }
+
+        /**
+         * Replace every declared adapter name by the instance returned by the interner.
+         */
+        void internAdapters(Function<String, String> interner) {
+            for (NodeState nodeState : nodeStateById.values()) {
+                if (nodeState.adapter != null) {
+                    nodeState.adapter(interner.apply(nodeState.adapter));
+                }
+            }
         }
 
         /**
@@ -85,9 +752,7 @@ public class Saga {
          * @throws SagaException if the id is already used by another node in this saga.
          */
         public AdapterBuilder id(String id) throws SagaException {
-            if (!legalIdPattern.matcher(id).matches()) {
-                throw new SagaException("id must only contain visible characters. Whitespace- or control-characters are not allowed. id: " + id);
-            }
+            checkId(id);
             NodeState nodeState = new NodeState(id);
             if (nodeStateById.containsKey(id)) {
                 throw new SagaException("Duplicate id: " + id);
@@ -104,7 +769,7 @@ public class Saga {
          *
          * @return the Saga representation as an easy-to-use facade over a
          * directed-acyclic-graph. The saga may be transformed into a json
-         * representation through the Saga.toJson() method.
+         * representation through the {@link Saga#toJson()} method.
          * @throws SagaException if graph cycles are detected.
          *                       Or if links point to nodes that
          *                       were never created. Or
@@ -112,97 +777,119 @@ public class Saga {
          *                       reachable from start.
          */
         public Saga end() throws SagaException {
-            id(ID_END).adapter(ADAPTER_END);
-            buildIncomingLinks();
-            Map<String, SagaNode> sagaNodeById = buildSagaNodeGraph();
-            Saga saga = new Saga(sagaName, sagaNodeById);
-            validateAcyclicGraph(saga);
-            validateNodeReachability(sagaNodeById, saga);
+            SagaBuildObserver observer = buildObserver;
+            if (observer == SagaBuildObserver.NO_OP) {
+                id(ID_END).adapter(ADAPTER_END);
+                return buildSagaGraph(null);
+            }
+            long startNanos = System.nanoTime();
+            long[] validationNanos = new long[1];
+            Saga saga;
+            try {
+                id(ID_END).adapter(ADAPTER_END);
+                saga = buildSagaGraph(validationNanos);
+            } catch (SagaException e) {
+                observer.sagaRejected(sagaName, System.nanoTime() - startNanos, e);
+                throw e;
+            }
+            observer.sagaBuilt(saga, System.nanoTime() - startNanos, validationNanos[0]);
             return saga;
         }
 
-        private void buildIncomingLinks() throws SagaException {
-            for (NodeState nodeState : nodeStateById.values()) {
-                for (String outgoingId : nodeState.outgoing) {
-                    NodeState outgoingTarget = nodeStateById.get(outgoingId);
-                    if (outgoingTarget == null) {
-                        throw new SagaException("Missing node(" + outgoingId + "), linked-to by node(" + nodeState.id + ").");
-                    }
-                    outgoingTarget.incoming(nodeState.id);
-                }
+        /**
+         * @param validationNanos receives the time spent validating the graph, or null to not measure it.
+         */
+        private Saga buildSagaGraph(long[] validationNanos) throws SagaException {
+            SagaFlattener.Graph graph = graph(false);
+            int start = 0; // the start node is always declared first
+            if (validationNanos == null) {
+                GraphValidator.validate(graph.ids, graph.outOffsets, graph.outTargets, start);
+            } else {
+                long validationStartNanos = System.nanoTime();
+                GraphValidator.validate(graph.ids, graph.outOffsets, graph.outTargets, start);
+                validationNanos[0] = System.nanoTime() - validationStartNanos;
+            }
+            if (graph.subSagas != null) {
+                graph = SagaFlattener.flatten(graph);
             }
+            return new Saga(sagaName, graph.ids, graph.indexById, graph.adapters, graph.adapterOf, graph.outOffsets, graph.outTargets, graph.policies);
         }
 
-        private HashMap<String, SagaNode> buildSagaNodeGraph() {
-
-            HashMap<String, SagaNode> sagaNodeById = new LinkedHashMap<>();
-
+        /**
+         * Resolve the declared nodes into indexed form, with sub-sagas as single nodes.
+         *
+         * @param withEnd whether to add the end node, which has not been declared yet.
+         */
+        private SagaFlattener.Graph graph(boolean withEnd) throws SagaException {
+            int n = nodeStateById.size() + (withEnd ? 1 : 0);
+            String[] ids = new String[n];
+            NodeState[] nodeStates = new NodeState[n];
+            int i = 0;
             for (NodeState nodeState : nodeStateById.values()) {
+                ids[i] = nodeState.id;
+                nodeStates[i] = nodeState;
+                i++;
+            }
+            if (withEnd) {
+                ids[i] = ID_END;
+                nodeStates[i] = new NodeState(ID_END).adapter(ADAPTER_END);
+            }
+            IdIndex indexById = new IdIndex(ids);
 
-                /*
-                 * Creating an incomplete sagaNode unless one already exists from earlier link-target node creation.
-                 */
-                SagaNode sagaNode = sagaNodeById.get(nodeState.id);
-                if (sagaNode == null) {
-                    sagaNode = new SagaNode(nodeState.id, nodeState.adapter);
-                    sagaNodeById.put(nodeState.id, sagaNode);
-                }
-
-                /*
-                 * Link all outgoing nodes, creating "incomplete" link-target nodes as needed.
-                 */
-                for (String outgoingId : nodeState.outgoing) {
-                    SagaNode outgoingNode = sagaNodeById.get(outgoingId);
-                    if (outgoingNode == null) {
-                        // create incomplete node, will be completed later by NodeState loop
-                        NodeState outgoingNodeState = nodeStateById.get(outgoingId);
-                        outgoingNode = new SagaNode(outgoingNodeState.id, outgoingNodeState.adapter);
-                        sagaNodeById.put(outgoingId, outgoingNode);
+            /*
+             * Intern adapter names into a table shared by all nodes of this saga.
+             */
+            Map<String, Integer> adapterIndexByName = new HashMap<>();
+            List<String> adapters = new ArrayList<>();
+            int[] adapterOf = new int[n];
+            NodePolicy[] policies = null;
+            Saga[] subSagas = null;
+            int edgeCount = 0;
+            for (i = 0; i < n; i++) {
+                edgeCount += nodeStates[i].outgoing.size();
+                if (nodeStates[i].subSaga != null) {
+                    if (subSagas == null) {
+                        subSagas = new Saga[n];
                     }
-                    sagaNode.outgoing.add(outgoingNode);
+                    subSagas[i] = nodeStates[i].subSaga;
+                    adapterOf[i] = -1;
+                    continue;
                 }
-
-                /*
-                 * Link all incoming nodes, creating "incomplete" link-target nodes as needed.
-                 */
-                for (String incomingId : nodeState.incoming) {
-                    SagaNode incomingNode = sagaNodeById.get(incomingId);
-                    if (incomingNode == null) {
-                        NodeState incomingNodeState = nodeStateById.get(incomingId);
-                        // create incomplete node, will be completed later by NodeState loop
-                        incomingNode = new SagaNode(incomingNodeState.id, incomingNodeState.adapter);
-                        sagaNodeById.put(incomingId, incomingNode);
+                if (nodeStates[i].policy != NodePolicy.NONE) {
+                    if (policies == null) {
+                        policies = new NodePolicy[n];
+                        Arrays.fill(policies, NodePolicy.NONE);
                     }
-                    sagaNode.incoming.add(incomingNode);
+                    policies[i] = nodeStates[i].policy;
                 }
-
-                // sagaNode is complete
+                String adapter = nodeStates[i].adapter;
+                Integer adapterIndex = adapterIndexByName.get(adapter);
+                if (adapterIndex == null) {
+                    adapterIndex = adapters.size();
+                    adapterIndexByName.put(adapter, adapterIndex);
+                    adapters.add(adapter);
+                }
+                adapterOf[i] = adapterIndex;
             }
 
-            return sagaNodeById;
-        }
-
-        private void validateAcyclicGraph(Saga saga) throws SagaException {
-            saga.depthFirstPreOrderFullTraversal((ancestors, node) -> {
-                for (SagaNode linkTo : node.outgoing) {
-                    if (node.id.equals(linkTo.id)) {
-                        throw new SagaException("Saga must be a Directed Acyclic Graph (DAG). Nodes can't link to themselves: node(" + node.id + ").");
-                    }
-                    if (ancestors.contains(linkTo.id)) {
-                        throw new SagaException("Saga must be a Directed Acyclic Graph (DAG). Detected circle where node(" + node.id + ") links to ancestor node(" + linkTo.id + ")");
+            /*
+             * Resolve all outgoing links to node indices.
+             */
+            int[] outOffsets = new int[n + 1];
+            int[] outTargets = new int[edgeCount];
+            int e = 0;
+            for (i = 0; i < n; i++) {
+                outOffsets[i] = e;
+                for (String outgoingId : nodeStates[i].outgoing) {
+                    int target = indexById.indexOf(outgoingId);
+                    if (target < 0) {
+                        throw new SagaException("Missing node(" + outgoingId + "), linked-to by node(" + nodeStates[i].id + ").");
                     }
+                    outTargets[e++] = target;
                 }
-            });
-        }
-
-        private void validateNodeReachability(Map<String, SagaNode> sagaNodeById, Saga saga) throws SagaException {
-            LinkedHashMap<String, SagaNode> unreachedNodes = new LinkedHashMap<>(sagaNodeById);
-            saga.depthFirstPreOrderFullTraversal((ancestors, node) -> {
-                unreachedNodes.remove(node.id);
-            });
-            if (unreachedNodes.size() > 0) {
-                throw new SagaException("Unreachables nodes: " + unreachedNodes.keySet().stream().collect(Collectors.joining(", ")));
             }
+            outOffsets[n] = e;
+            return new SagaFlattener.Graph(ids, indexById, adapters.toArray(new String[0]), adapterOf, policies, outOffsets, outTargets, subSagas);
         }
 
         public class AdapterBuilder {
@@ -219,12 +906,30 @@ public class Saga {
              * @return a builder that expects the outgoing links to be declared.
              */
             public OutgoingBuilder adapter(String adapter) {
-                if (!legalAdapterPattern.matcher(adapter).matches()) {
-                    throw new SagaException("adapter must only contain visible characters. Whitespace- or control-characters are not allowed. adapter: " + adapter);
-                }
+                checkAdapter(adapter);
                 nodeState.adapter(adapter);
                 return new OutgoingBuilder(nodeState);
             }
+
+            /**
+             * Use an already built saga as this node. When the saga is ended this node is replaced
+             * by the nodes of the sub-saga other than its start and end, with their ids prefixed by
+             * the id of this node and a '/'. Links to this node go to the nodes the sub-saga starts
+             * with, and nodes that link to the end of the sub-saga link to the nodes this node
+             * links to instead. The sub-saga is not validated again, and its spliced form is cached
+             * by the id of this node, so reusing a sub-saga in many sagas costs little more than
+             * copying its nodes.
+             *
+             * @param subSaga the saga to splice in.
+             * @return a builder that expects the outgoing links to be declared.
+             */
+            public OutgoingBuilder saga(Saga subSaga) {
+                if (subSaga == null) {
+                    throw new SagaException("subSaga cannot be null");
+                }
+                nodeState.subSaga = subSaga;
+                return new OutgoingBuilder(nodeState);
+            }
         }
 
         public class OutgoingBuilder {
@@ -287,24 +992,60 @@ public class Saga {
             public SagaBuilder linkToEnd() {
                 return linkTo(ID_END);
             }
+
+            /**
+             * Fail the saga if the action of this node is not done within the given time from the
+             * start of its first attempt, including retries. The action itself is not interrupted,
+             * and a compensating executor waits for it and compensates it if it completes after all.
+             *
+             * @param timeout the deadline of the node, zero for none.
+             * @return this builder, ready for the outgoing links to be declared.
+             * @throws SagaException if this is the start node or the timeout is negative.
+             */
+            public OutgoingBuilder timeout(Duration timeout) throws SagaException {
+                checkPolicyAllowed();
+                nodeState.policy = nodeState.policy.withTimeout(timeout);
+                return this;
+            }
+
+            /**
+             * Retry the action of this node when it fails. The delay before each retry starts at
+             * the backoff and doubles with every failed attempt.
+             *
+             * @param maxAttempts the largest number of times to attempt the action, 1 for no retries.
+             * @param backoff     the delay before the second attempt.
+             * @return this builder, ready for the outgoing links to be declared.
+             * @throws SagaException if this is the start node, maxAttempts is less than 1 or the
+             *                       backoff is negative.
+             */
+            public OutgoingBuilder retry(int maxAttempts, Duration backoff) throws SagaException {
+                checkPolicyAllowed();
+                nodeState.policy = nodeState.policy.withRetry(maxAttempts, backoff);
+                return this;
+            }
+
+            private void checkPolicyAllowed() {
+                if (ID_START.equals(nodeState.id) || ID_END.equals(nodeState.id)) {
+                    throw new SagaException("Start node(" + ID_START + ") and end node(" + ID_END + ") cannot have a timeout or retry policy");
+                }
+                if (nodeState.subSaga != null) {
+                    throw new SagaException("Sub-saga node(" + nodeState.id + ") cannot have a timeout or retry policy, declare them on the nodes of the sub-saga");
+                }
+            }
         }
     }
 
     private static class NodeState {
         private final String id;
-        private final Collection<String> incoming = new LinkedList<>();
         private final Collection<String> outgoing = new LinkedList<>();
         private String adapter;
+        private NodePolicy policy = NodePolicy.NONE;
+        private Saga subSaga;
 
         private NodeState(String id) {
             this.id = id;
         }
 
-        private NodeState incoming(String id) {
-            incoming.add(id);
-            return this;
-        }
-
         private NodeState outgoing(String id) {
             outgoing.add(id);
             return this;
@@ -0,0 +1,303 @@
+package no.ssb.saga.api;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+/**
+ * Compact versioned binary format for a single saga.
+ * <pre>
+ * header:  magic "SAGA" (4 bytes), version (1 byte), body-length (int32), crc32c of body (int32)
+ * body:    name            varint length + UTF-8 bytes
+ *          string-count    varint, followed by that many varint length + UTF-8 strings. Holds
+ *                          every distinct node id and adapter name exactly once.
+ *          node-count      varint, followed by per node in node index order:
+ *                              id string-index (varint), adapter string-index (varint),
+ *                              out-degree (varint), and per outgoing link the zig-zag varint
+ *                              of (target index - node index)
+ *          policy-count    varint, version 2 only, followed by per node with a declared policy in
+ *                          node index order: node index (varint), timeout-nanos (varlong),
+ *                          max-attempts (varint), backoff-nanos (varlong)
+ * </pre>
+ * A saga without policies is written as version 1, so that it reads the same in older releases.
+ * All multi-byte fixed width integers are big-endian.
+ */
+final class SagaBinaryCodec {
+
+    static final int MAGIC = 0x53414741; // "SAGA"
+    static final byte VERSION = 2;
+    static final byte VERSION_WITHOUT_POLICIES = 1;
+    static final int HEADER_LENGTH = 13;
+
+    private SagaBinaryCodec() {
+    }
+
+    static byte[] encode(Saga saga) {
+        Map<String, Integer> stringIndex = new LinkedHashMap<>();
+        int n = saga.ids.length;
+        int[] idRef = new int[n];
+        int[] adapterRef = new int[n];
+        for (int i = 0; i < n; i++) {
+            idRef[i] = stringIndex.computeIfAbsent(saga.ids[i], k -> stringIndex.size());
+            adapterRef[i] = stringIndex.computeIfAbsent(saga.adapters[saga.adapterOf[i]], k -> stringIndex.size());
+        }
+        Output out = new Output(HEADER_LENGTH + 16 + 8 * n + 2 * saga.outTargets.length);
+        out.position(HEADER_LENGTH);
+        out.string(saga.name);
+        out.varint(stringIndex.size());
+        for (String string : stringIndex.keySet()) {
+            out.string(string);
+        }
+        out.varint(n);
+        for (int i = 0; i < n; i++) {
+            out.varint(idRef[i]);
+            out.varint(adapterRef[i]);
+            out.varint(saga.outOffsets[i + 1] - saga.outOffsets[i]);
+            for (int e = saga.outOffsets[i]; e < saga.outOffsets[i + 1]; e++) {
+                out.varint(zigzag(saga.outTargets[e] - i));
+            }
+        }
+        if (saga.policies != null) {
+            int policyCount = 0;
+            for (NodePolicy policy : saga.policies) {
+                if (policy != NodePolicy.NONE) {
+                    policyCount++;
+                }
+            }
+            out.varint(policyCount);
+            for (int i = 0; i < n; i++) {
+                NodePolicy policy = saga.policies[i];
+                if (policy != NodePolicy.NONE) {
+                    out.varint(i);
+                    out.varlong(policy.timeoutNanos);
+                    out.varint(policy.maxAttempts);
+                    out.varlong(policy.backoffNanos);
+                }
+            }
+        }
+        byte[] bytes = out.toByteArray();
+        int bodyLength = bytes.length - HEADER_LENGTH;
+        CRC32C crc = new CRC32C();
+        crc.update(bytes, HEADER_LENGTH, bodyLength);
+        ByteBuffer header = ByteBuffer.wrap(bytes, 0, HEADER_LENGTH);
+        header.putInt(MAGIC).put(saga.policies != null ? VERSION : VERSION_WITHOUT_POLICIES).putInt(bodyLength).putInt((int) crc.getValue());
+        return bytes;
+    }
+
+    /**
+     * Decode a saga starting at the position of the buffer. The position of the given buffer is
+     * not changed.
+     */
+    static Saga decode(ByteBuffer buffer) throws SagaException {
+        ByteBuffer in = buffer.slice();
+        if (in.remaining() < HEADER_LENGTH || in.getInt(0) != MAGIC) {
+            throw new SagaException("Invalid saga binary: bad magic");
+        }
+        byte version = in.get(4);
+        if (version != VERSION && version != VERSION_WITHOUT_POLICIES) {
+            throw new SagaException("Invalid saga binary: unsupported version " + version);
+        }
+        int bodyLength = in.getInt(5);
+        int expectedCrc = in.getInt(9);
+        if (bodyLength < 0 || bodyLength > in.remaining() - HEADER_LENGTH) {
+            throw new SagaException("Invalid saga binary: truncated");
+        }
+        in.position(HEADER_LENGTH).limit(HEADER_LENGTH + bodyLength);
+        CRC32C crc = new CRC32C();
+        crc.update(in.duplicate());
+        if ((int) crc.getValue() != expectedCrc) {
+            throw new SagaException("Invalid saga binary: content hash mismatch");
+        }
+        try {
+            Input input = new Input(in);
+            String name = input.string();
+            String[] strings = new String[input.count()];
+            for (int i = 0; i < strings.length; i++) {
+                strings[i] = input.string();
+            }
+            int n = input.count();
+            String[] ids = new String[n];
+            int[] adapterOf = new int[n];
+            int[] adapterByString = new int[strings.length];
+            Arrays.fill(adapterByString, -1);
+            String[] adapters = new String[Math.min(n, strings.length)];
+            int adapterCount = 0;
+            int[] outOffsets = new int[n + 1];
+            int[] outTargets = new int[Math.max(16, n)];
+            int e = 0;
+            for (int i = 0; i < n; i++) {
+                ids[i] = strings[input.reference(strings.length)];
+                int adapterString = input.reference(strings.length);
+                if (adapterByString[adapterString] < 0) {
+                    adapterByString[adapterString] = adapterCount;
+                    adapters[adapterCount++] = strings[adapterString];
+                }
+                adapterOf[i] = adapterByString[adapterString];
+                int degree = input.count();
+                outOffsets[i] = e;
+                if (e + degree > outTargets.length) {
+                    outTargets = Arrays.copyOf(outTargets, Math.max(e + degree, outTargets.length * 2));
+                }
+                for (int k = 0; k < degree; k++) {
+                    int target = i + unzigzag(input.varint());
+                    if (target < 0 || target >= n) {
+                        throw new SagaException("Invalid saga binary: link target out of range");
+                    }
+                    outTargets[e++] = target;
+                }
+            }
+            outOffsets[n] = e;
+            NodePolicy[] policies = null;
+            int policyCount = version == VERSION ? input.count() : 0;
+            for (int k = 0; k < policyCount; k++) {
+                int node = input.reference(n);
+                NodePolicy policy = NodePolicy.of(input.varlong(), input.varint(), input.varlong());
+                if (policy != NodePolicy.NONE) {
+                    if (policies == null) {
+                        policies = new NodePolicy[n];
+                        Arrays.fill(policies, NodePolicy.NONE);
+                    }
+                    policies[node] = policy;
+                }
+            }
+            if (in.hasRemaining()) {
+                throw new SagaException("Invalid saga binary: trailing bytes in body");
+            }
+            return Saga.ofIndexedGraph(name, ids, Arrays.copyOf(adapters, adapterCount), adapterOf, outOffsets, Arrays.copyOf(outTargets, e), policies);
+        } catch (RuntimeException ex) {
+            if (ex instanceof SagaException) {
+                throw ex;
+            }
+            throw new SagaException("Invalid saga binary: " + ex);
+        }
+    }
+
+    static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Growable byte array output with varint and string support.
+     */
+    static final class Output {
+        private byte[] buf;
+        private int pos;
+
+        Output(int capacity) {
+            buf = new byte[Math.max(capacity, 16)];
+        }
+
+        void position(int position) {
+            ensure(position - pos);
+            pos = position;
+        }
+
+        void varint(int value) {
+            ensure(5);
+            while ((value & ~0x7F) != 0) {
+                buf[pos++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buf[pos++] = (byte) value;
+        }
+
+        void varlong(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                buf[pos++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buf[pos++] = (byte) value;
+        }
+
+        void string(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            varint(bytes.length);
+            bytes(bytes, 0, bytes.length);
+        }
+
+        void bytes(byte[] bytes, int offset, int length) {
+            ensure(length);
+            System.arraycopy(bytes, offset, buf, pos, length);
+            pos += length;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf, pos);
+        }
+
+        private void ensure(int extra) {
+            if (pos + extra > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(pos + extra, buf.length * 2));
+            }
+        }
+    }
+
+    /**
+     * Varint and string reader over a ByteBuffer, reusing a scratch array for string decoding.
+     */
+    static final class Input {
+        private final ByteBuffer in;
+        private byte[] scratch = new byte[64];
+
+        Input(ByteBuffer in) {
+            this.in = in;
+        }
+
+        int varint() {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                byte b = in.get();
+                value |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new SagaException("Invalid saga binary: malformed varint");
+        }
+
+        long varlong() {
+            long value = 0;
+            for (int shift = 0; shift < 70; shift += 7) {
+                byte b = in.get();
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new SagaException("Invalid saga binary: malformed varlong");
+        }
+
+        int count() {
+            int count = varint();
+            if (count < 0 || count > in.remaining()) {
+                throw new SagaException("Invalid saga binary: count out of range");
+            }
+            return count;
+        }
+
+        int reference(int bound) {
+            int reference = varint();
+            if (reference < 0 || reference >= bound) {
+                throw new SagaException("Invalid saga binary: string reference out of range");
+            }
+            return reference;
+        }
+
+        String string() {
+            int length = count();
+            if (length > scratch.length) {
+                scratch = new byte[Math.max(length, scratch.length * 2)];
+            }
+            in.get(scratch, 0, length);
+            return new String(scratch, 0, length, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package no.ssb.saga.api;
+
+/**
+ * Receives the outcome of every {@link Saga.SagaBuilder#end()} and
+ * {@link Saga#fromEdges(String, String[], String[], int[], int[])}, see
+ * {@link Saga#setBuildObserver(SagaBuildObserver)}. Called on the building thread, implementations
+ * must be thread-safe, fast and must not throw.
+ */
+public interface SagaBuildObserver {
+
+    /**
+     * Observes nothing. While installed, building a saga does not read the clock at all.
+     */
+    SagaBuildObserver NO_OP = new SagaBuildObserver() {
+    };
+
+    /**
+     * @param saga            the saga that was built.
+     * @param buildNanos      the time spent building the saga, including validation.
+     * @param validationNanos the part of the build time spent validating the graph.
+     */
+    default void sagaBuilt(Saga saga, long buildNanos, long validationNanos) {
+    }
+
+    /**
+     * @param sagaName   the name of the saga that failed to build.
+     * @param buildNanos the time spent building the saga before failing.
+     * @param cause      why the saga was rejected.
+     */
+    default void sagaRejected(String sagaName, long buildNanos, SagaException cause) {
+    }
+}
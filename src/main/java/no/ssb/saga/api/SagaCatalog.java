@@ -0,0 +1,240 @@
+package no.ssb.saga.api;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32C;
+
+/**
+ * A file holding many saga definitions in the compact binary format, opened through a single
+ * memory-map. Opening a catalog only verifies the header and name index, each saga is decoded
+ * and validated lazily by name on first access and then cached.
+ * <pre>
+ * header:  magic "SAGC" (4 bytes), version (1 byte), saga-count (int32),
+ *          data-offset (int64), crc32c of index and names (int32)
+ * index:   saga-count entries sorted by UTF-8 name bytes, each 20 bytes:
+ *          name-offset (int32), name-length (int32), saga-offset (int64), saga-length (int32)
+ * names:   UTF-8 bytes of all saga names
+ * data:    starting at data-offset, the binary encoding of every saga, see {@link Saga#toBinary()}
+ * </pre>
+ */
+public final class SagaCatalog {
+
+    static final int MAGIC = 0x53414743; // "SAGC"
+    static final byte VERSION = 1;
+    static final int HEADER_LENGTH = 21;
+    static final int ENTRY_LENGTH = 20;
+
+    /**
+     * Write all the given sagas to a catalog file. The file is written to a temporary sibling and
+     * then moved in place, so readers never observe a partially written catalog.
+     *
+     * @param file  the catalog file to create or replace.
+     * @param sagas the sagas to write, names must be unique.
+     * @throws IOException   if writing the file fails.
+     * @throws SagaException if two sagas have the same name.
+     */
+    public static void write(Path file, Collection<Saga> sagas) throws IOException, SagaException {
+        List<byte[]> names = new ArrayList<>(sagas.size());
+        List<Saga> sorted = new ArrayList<>(sagas);
+        sorted.sort((a, b) -> Arrays.compareUnsigned(a.name.getBytes(StandardCharsets.UTF_8), b.name.getBytes(StandardCharsets.UTF_8)));
+        for (Saga saga : sorted) {
+            byte[] name = saga.name.getBytes(StandardCharsets.UTF_8);
+            if (!names.isEmpty() && Arrays.equals(names.get(names.size() - 1), name)) {
+                throw new SagaException("Duplicate saga name in catalog: " + saga.name);
+            }
+            names.add(name);
+        }
+        int count = sorted.size();
+        long namesLength = 0;
+        for (byte[] name : names) {
+            namesLength += name.length;
+        }
+        long dataOffset = HEADER_LENGTH + (long) ENTRY_LENGTH * count + namesLength;
+        ByteBuffer index = ByteBuffer.allocate((int) (dataOffset - HEADER_LENGTH));
+        int nameOffset = HEADER_LENGTH + ENTRY_LENGTH * count;
+        long sagaOffset = dataOffset;
+        List<byte[]> encoded = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byte[] bytes = SagaBinaryCodec.encode(sorted.get(i));
+            encoded.add(bytes);
+            index.putInt(nameOffset).putInt(names.get(i).length).putLong(sagaOffset).putInt(bytes.length);
+            nameOffset += names.get(i).length;
+            sagaOffset += bytes.length;
+        }
+        for (byte[] name : names) {
+            index.put(name);
+        }
+        index.flip();
+        CRC32C crc = new CRC32C();
+        crc.update(index.duplicate());
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        header.putInt(MAGIC).put(VERSION).putInt(count).putLong(dataOffset).putInt((int) crc.getValue()).flip();
+
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            writeFully(channel, header);
+            writeFully(channel, index);
+            for (byte[] bytes : encoded) {
+                writeFully(channel, ByteBuffer.wrap(bytes));
+            }
+            channel.force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Open a catalog file by memory-mapping it. Only the header and the name index are verified,
+     * no saga is decoded until it is first requested.
+     *
+     * @param file the catalog file.
+     * @return the opened catalog.
+     * @throws IOException   if the file cannot be mapped.
+     * @throws SagaException if the file is not a valid catalog.
+     */
+    public static SagaCatalog open(Path file) throws IOException, SagaException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new SagaException("Saga catalog larger than 2GB is not supported: " + file);
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            return new SagaCatalog(mapped);
+        }
+    }
+
+    private final ByteBuffer buffer;
+    private final int count;
+    private final Map<String, Saga> sagaByName = new ConcurrentHashMap<>();
+
+    private SagaCatalog(ByteBuffer buffer) throws SagaException {
+        this.buffer = buffer;
+        if (buffer.limit() < HEADER_LENGTH || buffer.getInt(0) != MAGIC) {
+            throw new SagaException("Invalid saga catalog: bad magic");
+        }
+        if (buffer.get(4) != VERSION) {
+            throw new SagaException("Invalid saga catalog: unsupported version " + buffer.get(4));
+        }
+        this.count = buffer.getInt(5);
+        long dataOffset = buffer.getLong(9);
+        if (count < 0 || dataOffset < HEADER_LENGTH + (long) ENTRY_LENGTH * count || dataOffset > buffer.limit()) {
+            throw new SagaException("Invalid saga catalog: corrupt header");
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.duplicate().position(HEADER_LENGTH).limit((int) dataOffset));
+        if ((int) crc.getValue() != buffer.getInt(17)) {
+            throw new SagaException("Invalid saga catalog: index content hash mismatch");
+        }
+    }
+
+    /**
+     * @return the number of sagas in this catalog.
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @return the names of all sagas in this catalog in UTF-8 byte order.
+     */
+    public List<String> names() {
+        List<String> names = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int entry = HEADER_LENGTH + i * ENTRY_LENGTH;
+            byte[] name = new byte[buffer.getInt(entry + 4)];
+            buffer.duplicate().position(buffer.getInt(entry)).get(name);
+            names.add(new String(name, StandardCharsets.UTF_8));
+        }
+        return Collections.unmodifiableList(names);
+    }
+
+    /**
+     * @param name the saga name.
+     * @return whether this catalog holds a saga with the given name.
+     */
+    public boolean contains(String name) {
+        return sagaByName.containsKey(name) || find(name.getBytes(StandardCharsets.UTF_8)) >= 0;
+    }
+
+    /**
+     * Get a saga by name, decoding and validating it on first access.
+     *
+     * @param name the saga name.
+     * @return the saga, or null if this catalog does not hold a saga with the given name.
+     * @throws SagaException if the stored saga is corrupt.
+     */
+    public Saga get(String name) throws SagaException {
+        Saga saga = sagaByName.get(name);
+        if (saga != null) {
+            return saga;
+        }
+        int entryIndex = find(name.getBytes(StandardCharsets.UTF_8));
+        if (entryIndex < 0) {
+            return null;
+        }
+        return sagaByName.computeIfAbsent(name, k -> decode(entryIndex));
+    }
+
+    private Saga decode(int entryIndex) {
+        int entry = HEADER_LENGTH + entryIndex * ENTRY_LENGTH;
+        long offset = buffer.getLong(entry + 8);
+        int length = buffer.getInt(entry + 16);
+        if (offset < 0 || offset + length > buffer.limit()) {
+            throw new SagaException("Invalid saga catalog: saga out of bounds");
+        }
+        return SagaBinaryCodec.decode(buffer.duplicate().position((int) offset).limit((int) offset + length));
+    }
+
+    /**
+     * Binary search of the sorted index comparing UTF-8 name bytes directly in the mapped buffer.
+     */
+    private int find(byte[] name) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareName(mid, name);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private int compareName(int entryIndex, byte[] name) {
+        int entry = HEADER_LENGTH + entryIndex * ENTRY_LENGTH;
+        int offset = buffer.getInt(entry);
+        int length = buffer.getInt(entry + 4);
+        int common = Math.min(length, name.length);
+        for (int i = 0; i < common; i++) {
+            int cmp = Byte.toUnsignedInt(buffer.get(offset + i)) - Byte.toUnsignedInt(name[i]);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return length - name.length;
+    }
+}
@@ -0,0 +1,171 @@
+package no.ssb.saga.api;
+
+/**
+ * Canonical 128-bit structural hash of a saga, covering the saga name and every node with its id,
+ * adapter, declared policy and outgoing links. Node hashes, and the link hashes within a node, are combined by
+ * addition, so two sagas that declare the same graph in a different order have the same
+ * fingerprint and no sorting is needed to compute it. Strings are hashed in two independently
+ * seeded 64-bit lanes with a strong finalizer. The fingerprint is not a cryptographic hash, but
+ * the chance of two different saga definitions colliding is negligible.
+ */
+public final class SagaFingerprint {
+
+    private static final long SEED_HIGH = 0x9E3779B97F4A7C15L;
+    private static final long SEED_LOW = 0xC2B2AE3D27D4EB4FL;
+
+    private final long high;
+    private final long low;
+
+    private SagaFingerprint(long high, long low) {
+        this.high = high;
+        this.low = low;
+    }
+
+    /**
+     * @param saga the saga to fingerprint.
+     * @return the structural fingerprint of the saga.
+     */
+    public static SagaFingerprint of(Saga saga) {
+        return of(saga.name, saga.ids, saga.adapters, saga.adapterOf, saga.policies, saga.outOffsets, saga.outTargets);
+    }
+
+    static SagaFingerprint of(String name, String[] ids, String[] adapters, int[] adapterOf, NodePolicy[] policies, int[] outOffsets, int[] outTargets) {
+        Accumulator accumulator = new Accumulator();
+        for (int i = 0; i < ids.length; i++) {
+            accumulator.node(ids[i], adapters[adapterOf[i]]);
+            if (policies != null) {
+                accumulator.policy(policies[i]);
+            }
+            for (int e = outOffsets[i]; e < outOffsets[i + 1]; e++) {
+                accumulator.link(ids[outTargets[e]]);
+            }
+        }
+        return accumulator.fingerprint(name);
+    }
+
+    /**
+     * @return the 16 bytes of this fingerprint, most significant first.
+     */
+    public byte[] toBytes() {
+        byte[] bytes = new byte[16];
+        for (int i = 0; i < 8; i++) {
+            bytes[i] = (byte) (high >>> (56 - 8 * i));
+            bytes[8 + i] = (byte) (low >>> (56 - 8 * i));
+        }
+        return bytes;
+    }
+
+    /**
+     * @param bytes 16 bytes as returned by {@link #toBytes()}.
+     * @return the fingerprint.
+     */
+    public static SagaFingerprint fromBytes(byte[] bytes) {
+        if (bytes.length != 16) {
+            throw new IllegalArgumentException("fingerprint must be 16 bytes, was " + bytes.length);
+        }
+        long high = 0;
+        long low = 0;
+        for (int i = 0; i < 8; i++) {
+            high = (high << 8) | (bytes[i] & 0xFF);
+            low = (low << 8) | (bytes[8 + i] & 0xFF);
+        }
+        return new SagaFingerprint(high, low);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        SagaFingerprint that = (SagaFingerprint) o;
+        return high == that.high && low == that.low;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(high ^ low);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%016x%016x", high, low);
+    }
+
+    private static long hash(String value, long seed) {
+        long h = seed ^ (value.length() * 0xFF51AFD7ED558CCDL);
+        for (int i = 0; i < value.length(); i++) {
+            h = Long.rotateLeft((h ^ value.charAt(i)) * 0x87C37B91114253D5L, 31);
+        }
+        return mix(h);
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Order-independent accumulation of nodes and their links. Call {@link #node(String, String)}
+     * for every node followed by {@link #policy(NodePolicy)} and {@link #link(String)} for every
+     * outgoing link of that node.
+     */
+    static final class Accumulator {
+        private long nodesHigh;
+        private long nodesLow;
+        private int nodeCount;
+        private long idHigh;
+        private long idLow;
+        private long linksHigh;
+        private long linksLow;
+        private int linkCount;
+        private boolean nodePending;
+
+        void node(String id, String adapter) {
+            completeNode();
+            nodeCount++;
+            nodePending = true;
+            idHigh = hash(id, SEED_HIGH) + 31 * hash(adapter, SEED_LOW);
+            idLow = hash(id, SEED_LOW) + 31 * hash(adapter, SEED_HIGH);
+        }
+
+        /**
+         * Mix the policy into the current node. The default policy leaves the fingerprint as if
+         * policies did not exist.
+         */
+        void policy(NodePolicy policy) {
+            if (policy == NodePolicy.NONE) {
+                return;
+            }
+            long h = mix(policy.timeoutNanos ^ mix(policy.backoffNanos + 0x632BE59BD9B4E019L) ^ ((long) policy.maxAttempts << 32));
+            idHigh ^= h;
+            idLow ^= mix(h ^ SEED_LOW);
+        }
+
+        void link(String linkTo) {
+            linkCount++;
+            linksHigh += hash(linkTo, SEED_HIGH ^ 0x5DEECE66DL);
+            linksLow += hash(linkTo, SEED_LOW ^ 0x5DEECE66DL);
+        }
+
+        private void completeNode() {
+            if (nodePending) {
+                nodesHigh += mix(idHigh ^ mix(linksHigh + linkCount));
+                nodesLow += mix(idLow ^ mix(linksLow + linkCount));
+                nodePending = false;
+            }
+            linksHigh = 0;
+            linksLow = 0;
+            linkCount = 0;
+        }
+
+        SagaFingerprint fingerprint(String sagaName) {
+            completeNode();
+            long high = mix(nodesHigh ^ hash(sagaName, SEED_HIGH) ^ mix(nodeCount));
+            long low = mix(nodesLow ^ hash(sagaName, SEED_LOW) ^ mix(~(long) nodeCount));
+            return new SagaFingerprint(high, low);
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package no.ssb.saga.api;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Splices sub-sagas into the graph of their parent. A node declared with
+ * {@link Saga.SagaBuilder.AdapterBuilder#saga(Saga)} is replaced by every node of the sub-saga
+ * other than its start and end, with the id of the node and a '/' prefixed to their ids. Links to
+ * the node go to the nodes the start of the sub-saga links to, and nodes that link to the end of
+ * the sub-saga link to the successors of the node instead. Duplicate links are dropped.
+ * <p>
+ * The parent is validated with each sub-saga as a single node, and the sub-saga was validated when
+ * it was built. Splicing an acyclic graph where every node is reachable into a node of another
+ * such graph gives an acyclic graph where every node is reachable, so the flattened graph is not
+ * validated again. Only the ids are checked, as a prefixed id may clash with an id of the parent.
+ */
+final class SagaFlattener {
+
+    static final char SEPARATOR = '/';
+    static final int END = -1;
+
+    private SagaFlattener() {
+    }
+
+    /**
+     * A saga graph in indexed form, before or after flattening.
+     */
+    static final class Graph {
+        final String[] ids;
+        final IdIndex indexById;
+        final String[] adapters;
+        final int[] adapterOf; // -1 for sub-saga nodes
+        final NodePolicy[] policies; // null when no node declares a policy
+        final int[] outOffsets;
+        final int[] outTargets;
+        final Saga[] subSagas; // by node index, null when there are none
+
+        Graph(String[] ids, IdIndex indexById, String[] adapters, int[] adapterOf, NodePolicy[] policies, int[] outOffsets, int[] outTargets, Saga[] subSagas) {
+            this.ids = ids;
+            this.indexById = indexById;
+            this.adapters = adapters;
+            this.adapterOf = adapterOf;
+            this.policies = policies;
+            this.outOffsets = outOffsets;
+            this.outTargets = outTargets;
+            this.subSagas = subSagas;
+        }
+    }
+
+    /**
+     * The nodes of a sub-saga as they are spliced into a parent node with a given id, in the
+     * node index order of the sub-saga. Computed once per sub-saga and parent node id, see
+     * {@link Saga#fragment(String)}.
+     */
+    static final class Fragment {
+        final String[] ids;
+        final String[] adapters;
+        final NodePolicy[] policies;
+        final int[] outOffsets;
+        final int[] outTargets; // local indices, or END for links to the end of the sub-saga
+        final int[] entries; // local indices linked to from the start of the sub-saga, or END
+
+        Fragment(Saga subSaga, String namespace) {
+            int n = subSaga.nodeCount();
+            int[] localOf = new int[n];
+            int count = 0;
+            for (int i = 0; i < n; i++) {
+                localOf[i] = i == subSaga.startIndex || i == subSaga.endIndex ? END : count++;
+            }
+            this.ids = new String[count];
+            this.adapters = new String[count];
+            this.policies = new NodePolicy[count];
+            this.outOffsets = new int[count + 1];
+            this.outTargets = new int[subSaga.outTargets.length - subSaga.outDegree(subSaga.getStartNode())];
+            int e = 0;
+            for (int i = 0; i < n; i++) {
+                int local = localOf[i];
+                if (local == END) {
+                    continue;
+                }
+                ids[local] = namespace + SEPARATOR + subSaga.ids[i];
+                adapters[local] = subSaga.adapters[subSaga.adapterOf[i]];
+                policies[local] = subSaga.nodes[i].policy;
+                outOffsets[local] = e;
+                for (int k = subSaga.outOffsets[i]; k < subSaga.outOffsets[i + 1]; k++) {
+                    outTargets[e++] = localOf[subSaga.outTargets[k]];
+                }
+            }
+            outOffsets[count] = e;
+            int start = subSaga.startIndex;
+            this.entries = new int[subSaga.outOffsets[start + 1] - subSaga.outOffsets[start]];
+            for (int k = 0; k < entries.length; k++) {
+                entries[k] = localOf[subSaga.outTargets[subSaga.outOffsets[start] + k]];
+            }
+        }
+    }
+
+    /**
+     * @param graph a valid graph with sub-saga nodes.
+     * @return the graph with every sub-saga spliced in and no sub-saga nodes.
+     * @throws SagaException if a spliced id is the id of another node.
+     */
+    static Graph flatten(Graph graph) {
+        int n = graph.ids.length;
+        Fragment[] fragments = new Fragment[n];
+        int[] newIndex = new int[n]; // of the node, or of the first node of its fragment
+        int total = 0;
+        for (int i = 0; i < n; i++) {
+            newIndex[i] = total;
+            if (graph.subSagas[i] != null) {
+                fragments[i] = graph.subSagas[i].fragment(graph.ids[i]);
+                total += fragments[i].ids.length;
+            } else {
+                total++;
+            }
+        }
+        String[] ids = new String[total];
+        String[] adapterNames = new String[total];
+        NodePolicy[] policies = new NodePolicy[total];
+        boolean anyPolicy = false;
+        int[] outOffsets = new int[total + 1];
+        IntBuffer targets = new IntBuffer(graph.outTargets.length + total);
+        int[] linkedFrom = new int[total]; // stamp of the last source linking to a node, for dropping duplicates
+        Arrays.fill(linkedFrom, -1);
+        for (int i = 0; i < n; i++) {
+            Fragment fragment = fragments[i];
+            if (fragment == null) {
+                int node = newIndex[i];
+                ids[node] = graph.ids[i];
+                adapterNames[node] = graph.adapters[graph.adapterOf[i]];
+                policies[node] = graph.policies == null ? NodePolicy.NONE : graph.policies[i];
+                outOffsets[node] = targets.size;
+                for (int e = graph.outOffsets[i]; e < graph.outOffsets[i + 1]; e++) {
+                    resolve(graph, fragments, newIndex, graph.outTargets[e], node, linkedFrom, targets);
+                }
+                anyPolicy |= policies[node] != NodePolicy.NONE;
+                continue;
+            }
+            for (int local = 0; local < fragment.ids.length; local++) {
+                int node = newIndex[i] + local;
+                ids[node] = fragment.ids[local];
+                adapterNames[node] = fragment.adapters[local];
+                policies[node] = fragment.policies[local];
+                outOffsets[node] = targets.size;
+                for (int e = fragment.outOffsets[local]; e < fragment.outOffsets[local + 1]; e++) {
+                    int target = fragment.outTargets[e];
+                    if (target == END) {
+                        resolveSuccessors(graph, fragments, newIndex, i, node, linkedFrom, targets);
+                    } else {
+                        link(newIndex[i] + target, node, linkedFrom, targets);
+                    }
+                }
+                anyPolicy |= policies[node] != NodePolicy.NONE;
+            }
+        }
+        outOffsets[total] = targets.size;
+
+        Map<String, Integer> adapterIndexByName = new HashMap<>();
+        String[] adapters = new String[total];
+        int adapterCount = 0;
+        int[] adapterOf = new int[total];
+        for (int i = 0; i < total; i++) {
+            Integer adapterIndex = adapterIndexByName.get(adapterNames[i]);
+            if (adapterIndex == null) {
+                adapterIndex = adapterCount;
+                adapterIndexByName.put(adapterNames[i], adapterIndex);
+                adapters[adapterCount++] = adapterNames[i];
+            }
+            adapterOf[i] = adapterIndex;
+        }
+        return new Graph(ids, new IdIndex(ids), Arrays.copyOf(adapters, adapterCount), adapterOf, anyPolicy ? policies : null,
+                outOffsets, targets.toArray(), null);
+    }
+
+    /**
+     * Add the links from a node to the flattened form of a target in the unflattened graph.
+     */
+    private static void resolve(Graph graph, Fragment[] fragments, int[] newIndex, int target, int source, int[] linkedFrom, IntBuffer targets) {
+        Fragment fragment = fragments[target];
+        if (fragment == null) {
+            link(newIndex[target], source, linkedFrom, targets);
+            return;
+        }
+        for (int entry : fragment.entries) {
+            if (entry == END) {
+                resolveSuccessors(graph, fragments, newIndex, target, source, linkedFrom, targets);
+            } else {
+                link(newIndex[target] + entry, source, linkedFrom, targets);
+            }
+        }
+    }
+
+    private static void resolveSuccessors(Graph graph, Fragment[] fragments, int[] newIndex, int subSagaNode, int source, int[] linkedFrom, IntBuffer targets) {
+        for (int e = graph.outOffsets[subSagaNode]; e < graph.outOffsets[subSagaNode + 1]; e++) {
+            resolve(graph, fragments, newIndex, graph.outTargets[e], source, linkedFrom, targets);
+        }
+    }
+
+    private static void link(int target, int source, int[] linkedFrom, IntBuffer targets) {
+        if (linkedFrom[target] != source) {
+            linkedFrom[target] = source;
+            targets.add(target);
+        }
+    }
+
+    private static final class IntBuffer {
+        int[] values;
+        int size;
+
+        IntBuffer(int capacity) {
+            values = new int[Math.max(16, capacity)];
+        }
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
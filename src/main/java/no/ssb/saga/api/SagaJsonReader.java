@@ -0,0 +1,423 @@
+package no.ssb.saga.api;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Single-pass streaming json reader for sagas in the format written by {@link SagaJsonWriter}.
+ * Characters are pulled through a fixed size buffer either from a Reader or decoded from a UTF-8
+ * ByteBuffer, and the saga is rebuilt through the regular {@link Saga.SagaBuilder} so that the
+ * exact same validation rules apply as for sagas built in code. Unknown object members are skipped.
+ */
+final class SagaJsonReader {
+
+    private final Reader reader;
+    private final ByteBuffer bytes;
+    private final CharsetDecoder decoder;
+    private final char[] buf = new char[4096];
+    private final CharBuffer chars = CharBuffer.wrap(buf);
+    private final StringBuilder sb = new StringBuilder(64);
+    private final List<String> strings = new ArrayList<>();
+    private int pos;
+    private int limit;
+    private boolean eof;
+    private boolean flushed;
+
+    private SagaJsonReader(Reader reader, ByteBuffer bytes) {
+        this.reader = reader;
+        this.bytes = bytes;
+        this.decoder = bytes == null ? null : StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+    }
+
+    static Saga read(Reader reader) throws IOException {
+        return new SagaJsonReader(reader, null).readSaga();
+    }
+
+    static Saga read(ByteBuffer utf8) {
+        try {
+            return new SagaJsonReader(null, utf8.slice()).readSaga();
+        } catch (IOException e) {
+            throw new SagaException("Invalid saga json: " + e.getMessage());
+        }
+    }
+
+    private Saga readSaga() throws IOException {
+        String name = null;
+        List<NodeDefinition> nodes = null;
+        expect('{');
+        if (!consumeIf('}')) {
+            do {
+                String key = readString();
+                expect(':');
+                if ("name".equals(key)) {
+                    name = readString();
+                } else if ("nodes".equals(key)) {
+                    nodes = readNodes();
+                } else {
+                    skipValue();
+                }
+            } while (consumeIf(','));
+            expect('}');
+        }
+        if (peek() != -1) {
+            throw error("trailing content after saga object");
+        }
+        if (name == null) {
+            throw error("missing member \"name\"");
+        }
+        if (nodes == null) {
+            throw error("missing member \"nodes\"");
+        }
+        return toSaga(name, nodes);
+    }
+
+    private static Saga toSaga(String name, List<NodeDefinition> nodes) {
+        NodeDefinition start = null;
+        NodeDefinition end = null;
+        for (NodeDefinition node : nodes) {
+            if (Saga.ID_START.equals(node.id) && start == null) {
+                start = node;
+            } else if (Saga.ID_END.equals(node.id) && end == null) {
+                end = node;
+            }
+        }
+        if (start == null || !Saga.ADAPTER_START.equals(start.adapter)) {
+            throw new SagaException("Invalid saga json: missing start node(" + Saga.ID_START + ") with adapter " + Saga.ADAPTER_START);
+        }
+        if (end == null || !Saga.ADAPTER_END.equals(end.adapter)) {
+            throw new SagaException("Invalid saga json: missing end node(" + Saga.ID_END + ") with adapter " + Saga.ADAPTER_END);
+        }
+        if (end.outgoing.length > 0) {
+            throw new SagaException("Invalid saga json: end node(" + Saga.ID_END + ") cannot link to other nodes");
+        }
+        if (start.hasPolicy() || end.hasPolicy()) {
+            throw new SagaException("Invalid saga json: start node(" + Saga.ID_START + ") and end node(" + Saga.ID_END + ") cannot have a timeout or retry policy");
+        }
+        Saga.SagaBuilder builder = Saga.start(name).linkTo(start.outgoing);
+        for (NodeDefinition node : nodes) {
+            if (node != start && node != end) {
+                Saga.SagaBuilder.OutgoingBuilder outgoing = builder.id(node.id).adapter(node.adapter);
+                if (node.timeout != null) {
+                    outgoing.timeout(node.timeout);
+                }
+                if (node.hasRetry()) {
+                    outgoing.retry(node.maxAttempts, node.backoff);
+                }
+                builder = outgoing.linkTo(node.outgoing);
+            }
+        }
+        return builder.end();
+    }
+
+    private List<NodeDefinition> readNodes() throws IOException {
+        List<NodeDefinition> nodes = new ArrayList<>();
+        expect('[');
+        if (consumeIf(']')) {
+            return nodes;
+        }
+        do {
+            nodes.add(readNode());
+        } while (consumeIf(','));
+        expect(']');
+        return nodes;
+    }
+
+    private NodeDefinition readNode() throws IOException {
+        String id = null;
+        String adapter = null;
+        String[] outgoing = null;
+        Duration timeout = null;
+        int maxAttempts = 1;
+        Duration backoff = Duration.ZERO;
+        expect('{');
+        if (!consumeIf('}')) {
+            do {
+                String key = readString();
+                expect(':');
+                if ("id".equals(key)) {
+                    id = readString();
+                } else if ("adapter".equals(key)) {
+                    adapter = readString();
+                } else if ("outgoing".equals(key)) {
+                    outgoing = readStringArray();
+                } else if ("timeout".equals(key)) {
+                    timeout = readDuration();
+                } else if ("retry".equals(key)) {
+                    expect('{');
+                    if (!consumeIf('}')) {
+                        do {
+                            String retryKey = readString();
+                            expect(':');
+                            if ("maxAttempts".equals(retryKey)) {
+                                maxAttempts = readInt();
+                            } else if ("backoff".equals(retryKey)) {
+                                backoff = readDuration();
+                            } else {
+                                skipValue();
+                            }
+                        } while (consumeIf(','));
+                        expect('}');
+                    }
+                } else {
+                    skipValue();
+                }
+            } while (consumeIf(','));
+            expect('}');
+        }
+        if (id == null || adapter == null) {
+            throw error("node must have both \"id\" and \"adapter\" members");
+        }
+        return new NodeDefinition(id, adapter, outgoing == null ? new String[0] : outgoing, timeout, maxAttempts, backoff);
+    }
+
+    private String[] readStringArray() throws IOException {
+        strings.clear();
+        expect('[');
+        if (!consumeIf(']')) {
+            do {
+                strings.add(readString());
+            } while (consumeIf(','));
+            expect(']');
+        }
+        return strings.toArray(new String[0]);
+    }
+
+    private Duration readDuration() throws IOException {
+        String value = readString();
+        try {
+            return Duration.parse(value);
+        } catch (DateTimeParseException e) {
+            throw error("invalid duration " + value);
+        }
+    }
+
+    private int readInt() throws IOException {
+        peek();
+        long value = 0;
+        boolean negative = consumeIf('-');
+        boolean any = false;
+        int c;
+        while ((c = peekRaw()) >= '0' && c <= '9') {
+            pos++;
+            value = value * 10 + (c - '0');
+            if (value > Integer.MAX_VALUE) {
+                throw error("integer out of range");
+            }
+            any = true;
+        }
+        if (!any) {
+            throw error("expected an integer");
+        }
+        return (int) (negative ? -value : value);
+    }
+
+    private void skipValue() throws IOException {
+        int c = peek();
+        if (c == '"') {
+            readString();
+        } else if (c == '{') {
+            expect('{');
+            if (!consumeIf('}')) {
+                do {
+                    readString();
+                    expect(':');
+                    skipValue();
+                } while (consumeIf(','));
+                expect('}');
+            }
+        } else if (c == '[') {
+            expect('[');
+            if (!consumeIf(']')) {
+                do {
+                    skipValue();
+                } while (consumeIf(','));
+                expect(']');
+            }
+        } else {
+            // number, true, false or null
+            boolean any = false;
+            while ((c = peekRaw()) != -1 && (Character.isLetterOrDigit(c) || c == '-' || c == '+' || c == '.')) {
+                pos++;
+                any = true;
+            }
+            if (!any) {
+                throw error("unexpected character");
+            }
+        }
+    }
+
+    private String readString() throws IOException {
+        expect('"');
+        sb.setLength(0);
+        while (true) {
+            if (pos == limit && !fill()) {
+                throw error("unterminated string");
+            }
+            char c = buf[pos++];
+            if (c == '"') {
+                return sb.toString();
+            }
+            if (c != '\\') {
+                sb.append(c);
+                continue;
+            }
+            int escaped = nextRaw();
+            switch (escaped) {
+                case '"':
+                case '\\':
+                case '/':
+                    sb.append((char) escaped);
+                    break;
+                case 'n':
+                    sb.append('\n');
+                    break;
+                case 'r':
+                    sb.append('\r');
+                    break;
+                case 't':
+                    sb.append('\t');
+                    break;
+                case 'b':
+                    sb.append('\b');
+                    break;
+                case 'f':
+                    sb.append('\f');
+                    break;
+                case 'u':
+                    int code = 0;
+                    for (int i = 0; i < 4; i++) {
+                        int digit = Character.digit(nextRaw(), 16);
+                        if (digit < 0) {
+                            throw error("invalid unicode escape");
+                        }
+                        code = (code << 4) | digit;
+                    }
+                    sb.append((char) code);
+                    break;
+                default:
+                    throw error("invalid escape character");
+            }
+        }
+    }
+
+    private void expect(char expected) throws IOException {
+        if (peek() != expected) {
+            throw error("expected '" + expected + "'");
+        }
+        pos++;
+    }
+
+    private boolean consumeIf(char expected) throws IOException {
+        if (peek() == expected) {
+            pos++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the next non-whitespace character without consuming it, or -1 at end of input.
+     */
+    private int peek() throws IOException {
+        while (true) {
+            if (pos == limit && !fill()) {
+                return -1;
+            }
+            char c = buf[pos];
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                return c;
+            }
+            pos++;
+        }
+    }
+
+    private int peekRaw() throws IOException {
+        if (pos == limit && !fill()) {
+            return -1;
+        }
+        return buf[pos];
+    }
+
+    private int nextRaw() throws IOException {
+        if (pos == limit && !fill()) {
+            throw error("unexpected end of input");
+        }
+        return buf[pos++];
+    }
+
+    private boolean fill() throws IOException {
+        if (eof) {
+            return false;
+        }
+        pos = 0;
+        limit = 0;
+        if (reader != null) {
+            int n = reader.read(buf, 0, buf.length);
+            if (n <= 0) {
+                eof = true;
+                return false;
+            }
+            limit = n;
+            return true;
+        }
+        chars.clear();
+        if (bytes.hasRemaining()) {
+            CoderResult result = decoder.decode(bytes, chars, true);
+            if (result.isError()) {
+                throw new IOException("malformed UTF-8 input");
+            }
+        }
+        if (!bytes.hasRemaining() && !flushed) {
+            decoder.flush(chars);
+            flushed = true;
+        }
+        limit = chars.position();
+        if (limit == 0) {
+            eof = true;
+            return false;
+        }
+        return true;
+    }
+
+    private SagaException error(String message) {
+        return new SagaException("Invalid saga json: " + message);
+    }
+
+    private static class NodeDefinition {
+        private final String id;
+        private final String adapter;
+        private final String[] outgoing;
+        private final Duration timeout;
+        private final int maxAttempts;
+        private final Duration backoff;
+
+        private NodeDefinition(String id, String adapter, String[] outgoing, Duration timeout, int maxAttempts, Duration backoff) {
+            this.id = id;
+            this.adapter = adapter;
+            this.outgoing = outgoing;
+            this.timeout = timeout;
+            this.maxAttempts = maxAttempts;
+            this.backoff = backoff;
+        }
+
+        private boolean hasRetry() {
+            return maxAttempts != 1 || !backoff.isZero();
+        }
+
+        private boolean hasPolicy() {
+            return timeout != null || hasRetry();
+        }
+    }
+}
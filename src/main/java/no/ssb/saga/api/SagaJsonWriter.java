@@ -0,0 +1,198 @@
+package no.ssb.saga.api;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Duration;
+
+/**
+ * Single-pass json writer for sagas. Writes directly to the target Appendable without building any
+ * intermediate tree. The format is:
+ * <pre>
+ * {"name":"...","nodes":[{"id":"S","adapter":"SagaStart","outgoing":["a"]},...]}
+ * </pre>
+ * where nodes are written in node index order. A node with a declared policy also has the members
+ * <pre>
+ * "timeout":"PT5S","retry":{"maxAttempts":3,"backoff":"PT0.1S"}
+ * </pre>
+ * with durations in ISO-8601 format, each written only when it differs from {@link NodePolicy#NONE}.
+ */
+final class SagaJsonWriter {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private SagaJsonWriter() {
+    }
+
+    static void write(Saga saga, Appendable out) throws IOException {
+        out.append("{\"name\":");
+        string(saga.name, out);
+        out.append(",\"nodes\":[");
+        for (int i = 0; i < saga.ids.length; i++) {
+            if (i > 0) {
+                out.append(',');
+            }
+            out.append("{\"id\":");
+            string(saga.ids[i], out);
+            out.append(",\"adapter\":");
+            string(saga.adapters[saga.adapterOf[i]], out);
+            if (saga.policies != null && saga.policies[i] != NodePolicy.NONE) {
+                policy(saga.policies[i], out);
+            }
+            out.append(",\"outgoing\":[");
+            for (int e = saga.outOffsets[i]; e < saga.outOffsets[i + 1]; e++) {
+                if (e > saga.outOffsets[i]) {
+                    out.append(',');
+                }
+                string(saga.ids[saga.outTargets[e]], out);
+            }
+            out.append("]}");
+        }
+        out.append("]}");
+    }
+
+    private static void policy(NodePolicy policy, Appendable out) throws IOException {
+        if (policy.timeoutNanos != 0) {
+            out.append(",\"timeout\":\"").append(Duration.ofNanos(policy.timeoutNanos).toString()).append('"');
+        }
+        if (policy.maxAttempts != 1 || policy.backoffNanos != 0) {
+            out.append(",\"retry\":{\"maxAttempts\":").append(Integer.toString(policy.maxAttempts))
+                    .append(",\"backoff\":\"").append(Duration.ofNanos(policy.backoffNanos).toString()).append("\"}");
+        }
+    }
+
+    /**
+     * @return the length of the json representation of the saga, exact unless strings need escaping.
+     */
+    static int estimateLength(Saga saga) {
+        long length = 22 + saga.name.length();
+        for (int i = 0; i < saga.ids.length; i++) {
+            int links = saga.outOffsets[i + 1] - saga.outOffsets[i];
+            int incoming = saga.inOffsets[i + 1] - saga.inOffsets[i];
+            if (saga.policies != null && saga.policies[i] != NodePolicy.NONE) {
+                length += 72;
+            }
+            length += 40 + saga.adapters[saga.adapterOf[i]].length() + (long) saga.ids[i].length() * (1 + incoming) + 3L * links;
+        }
+        return (int) Math.min(length, Integer.MAX_VALUE - 8);
+    }
+
+    static void write(Saga saga, OutputStream out) throws IOException {
+        Utf8Output utf8 = new Utf8Output(out);
+        write(saga, utf8);
+        utf8.flush();
+    }
+
+    private static void string(String value, Appendable out) throws IOException {
+        out.append('"');
+        int start = 0;
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\') {
+                continue;
+            }
+            out.append(value, start, i);
+            start = i + 1;
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                case '\b':
+                    out.append("\\b");
+                    break;
+                case '\f':
+                    out.append("\\f");
+                    break;
+                default:
+                    out.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xF]);
+            }
+        }
+        out.append(value, start, length);
+        out.append('"');
+    }
+
+    /**
+     * Minimal buffered UTF-8 encoding Appendable, avoids the per-append String and encoder
+     * overhead of an OutputStreamWriter.
+     */
+    private static final class Utf8Output implements Appendable {
+        private final OutputStream out;
+        private final byte[] buf = new byte[8192];
+        private int pos;
+
+        private Utf8Output(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public Appendable append(CharSequence csq) throws IOException {
+            return append(csq, 0, csq.length());
+        }
+
+        @Override
+        public Appendable append(CharSequence csq, int start, int end) throws IOException {
+            for (int i = start; i < end; i++) {
+                char c = csq.charAt(i);
+                if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(csq.charAt(i + 1))) {
+                    codePoint(Character.toCodePoint(c, csq.charAt(++i)));
+                } else {
+                    codePoint(c);
+                }
+            }
+            return this;
+        }
+
+        @Override
+        public Appendable append(char c) throws IOException {
+            codePoint(c);
+            return this;
+        }
+
+        private void codePoint(int cp) throws IOException {
+            if (pos + 4 > buf.length) {
+                flushBuffer();
+            }
+            if (cp < 0x80) {
+                buf[pos++] = (byte) cp;
+            } else if (cp < 0x800) {
+                buf[pos++] = (byte) (0xC0 | (cp >> 6));
+                buf[pos++] = (byte) (0x80 | (cp & 0x3F));
+            } else if (cp < 0x10000) {
+                if (Character.isSurrogate((char) cp)) {
+                    buf[pos++] = '?'; // unpaired surrogate, same replacement as the JDK encoder
+                    return;
+                }
+                buf[pos++] = (byte) (0xE0 | (cp >> 12));
+                buf[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                buf[pos++] = (byte) (0x80 | (cp & 0x3F));
+            } else {
+                buf[pos++] = (byte) (0xF0 | (cp >> 18));
+                buf[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                buf[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                buf[pos++] = (byte) (0x80 | (cp & 0x3F));
+            }
+        }
+
+        private void flushBuffer() throws IOException {
+            out.write(buf, 0, pos);
+            pos = 0;
+        }
+
+        private void flush() throws IOException {
+            flushBuffer();
+            out.flush();
+        }
+    }
+}
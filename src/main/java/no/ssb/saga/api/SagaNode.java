@@ -1,55 +1,75 @@
 package no.ssb.saga.api;
 
+import java.util.AbstractList;
 import java.util.Collection;
-import java.util.LinkedList;
+import java.util.List;
 import java.util.Objects;
-import java.util.Set;
-import java.util.function.BiConsumer;
+import java.util.RandomAccess;
 
 public class SagaNode {
 
-    public final Collection<SagaNode> incoming = new LinkedList<>();
-    public final Collection<SagaNode> outgoing = new LinkedList<>();
+    final List<SagaNode> predecessors = new Incoming();
+    final List<SagaNode> successors = new Outgoing();
+
+    public final Collection<SagaNode> incoming = predecessors;
+    public final Collection<SagaNode> outgoing = successors;
 
     public final String id;
     public final String adapter;
 
-    SagaNode(String id, String adapter) {
-        this.id = id;
-        this.adapter = adapter;
+    /**
+     * The dense index of this node within its saga, in the range [0, number of nodes in saga).
+     * Suitable for indexing per-node arrays such as those returned by {@link Saga#inDegrees()}.
+     */
+    public final int index;
+
+    /**
+     * The deadline and retry policy of this node, {@link NodePolicy#NONE} unless declared.
+     */
+    public final NodePolicy policy;
+
+    final Saga saga;
+
+    /**
+     * Create a lightweight view of the node with the given index in the compact graph of the saga.
+     */
+    SagaNode(Saga saga, int index) {
+        this.saga = saga;
+        this.index = index;
+        this.id = saga.ids[index];
+        this.adapter = saga.adapters[saga.adapterOf[index]];
+        this.policy = saga.policies == null ? NodePolicy.NONE : saga.policies[index];
     }
 
-    void depthFirstPreOrderFullTraversal(int depth, Set<String> ancestors, Set<String> visitedNodeIds, BiConsumer<Set<String>, SagaNode> visit) {
-        if (visitedNodeIds.contains(id)) {
-            return;
+    /**
+     * Unmodifiable view of the incoming links of this node, backed by the saga adjacency arrays.
+     */
+    private final class Incoming extends AbstractList<SagaNode> implements RandomAccess {
+        @Override
+        public SagaNode get(int i) {
+            Objects.checkIndex(i, size());
+            return saga.nodes[saga.inSources[saga.inOffsets[index] + i]];
         }
-        visitedNodeIds.add(id);
-        visit.accept(ancestors, this);
 
-        ancestors.add(id);
-        try {
-            for (SagaNode child : outgoing) {
-                child.depthFirstPreOrderFullTraversal(depth + 1, ancestors, visitedNodeIds, visit);
-            }
-        } finally {
-            ancestors.remove(id);
+        @Override
+        public int size() {
+            return saga.inOffsets[index + 1] - saga.inOffsets[index];
         }
     }
 
-    void reverseDepthFirstPreOrderFullTraversal(int depth, Set<String> ancestors, Set<String> visitedNodeIds, BiConsumer<Set<String>, SagaNode> visit) {
-        if (visitedNodeIds.contains(id)) {
-            return;
+    /**
+     * Unmodifiable view of the outgoing links of this node, backed by the saga adjacency arrays.
+     */
+    private final class Outgoing extends AbstractList<SagaNode> implements RandomAccess {
+        @Override
+        public SagaNode get(int i) {
+            Objects.checkIndex(i, size());
+            return saga.nodes[saga.outTargets[saga.outOffsets[index] + i]];
         }
-        visitedNodeIds.add(id);
-        visit.accept(ancestors, this);
 
-        ancestors.add(id);
-        try {
-            for (SagaNode child : incoming) {
-                child.reverseDepthFirstPreOrderFullTraversal(depth + 1, ancestors, visitedNodeIds, visit);
-            }
-        } finally {
-            ancestors.remove(id);
+        @Override
+        public int size() {
+            return saga.outOffsets[index + 1] - saga.outOffsets[index];
         }
     }
 
@@ -0,0 +1,171 @@
+package no.ssb.saga.api;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread-safe registry of immutable saga definitions keyed by their structural
+ * {@link SagaFingerprint}. Structurally equal sagas share a single instance, and adapter names of
+ * registered sagas are interned so that equal adapter names are the same String instance across
+ * all registered sagas. The registry holds at most a configured number of sagas, evicting the
+ * oldest registered ones first. Eviction is first in, first out by registration, a saga that is
+ * looked up often is evicted as early as one that is never looked up.
+ * <p>
+ * Interned adapter names that no registered saga uses any more are dropped once the number of
+ * interned names exceeds twice the number in use, or {@value #MIN_INTERNED_BEFORE_PRUNE},
+ * whichever is larger. Interning is best effort: a name dropped while a saga using it is being
+ * built is interned again as another instance when that saga is registered.
+ */
+public class SagaRegistry {
+
+    static final int MIN_INTERNED_BEFORE_PRUNE = 1024;
+
+    private final int maxSize;
+    private final Map<SagaFingerprint, Saga> sagaByFingerprint = new ConcurrentHashMap<>();
+    private final Queue<SagaFingerprint> registrationOrder = new ConcurrentLinkedQueue<>();
+    private final Map<String, String> adapterByName = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private volatile int pruneAdaptersAbove = MIN_INTERNED_BEFORE_PRUNE;
+
+    /**
+     * @param maxSize the maximum number of sagas to keep in the registry.
+     */
+    public SagaRegistry(int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be positive");
+        }
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Build-or-get. Computes the fingerprint of the saga that the builder would produce and returns
+     * the registered instance if there is one, in which case the graph is neither built nor
+     * validated again. Otherwise the builder is ended as usual and the resulting saga registered.
+     *
+     * @param builder a builder ready to be ended.
+     * @return the shared saga instance.
+     * @throws SagaException if the saga is not registered and is invalid.
+     */
+    public Saga end(Saga.SagaBuilder builder) throws SagaException {
+        SagaFingerprint fingerprint = builder.fingerprint();
+        Saga saga = sagaByFingerprint.get(fingerprint);
+        if (saga != null) {
+            hits.increment();
+            return saga;
+        }
+        misses.increment();
+        builder.internAdapters(this::internAdapter);
+        Saga built = builder.end();
+        built.fingerprint(fingerprint);
+        return register(fingerprint, built);
+    }
+
+    /**
+     * @param saga a saga.
+     * @return the registered saga that is structurally equal to the given saga. If there is none,
+     * a copy of the given saga with interned adapter names is registered and returned.
+     */
+    public Saga intern(Saga saga) {
+        SagaFingerprint fingerprint = saga.fingerprint();
+        Saga registered = sagaByFingerprint.get(fingerprint);
+        if (registered != null) {
+            hits.increment();
+            return registered;
+        }
+        misses.increment();
+        String[] adapters = new String[saga.adapters.length];
+        for (int i = 0; i < adapters.length; i++) {
+            adapters[i] = internAdapter(saga.adapters[i]);
+        }
+        return register(fingerprint, saga.withAdapters(adapters, fingerprint));
+    }
+
+    /**
+     * @param fingerprint a saga fingerprint.
+     * @return the registered saga with the given fingerprint, or null if there is none.
+     */
+    public Saga get(SagaFingerprint fingerprint) {
+        return sagaByFingerprint.get(fingerprint);
+    }
+
+    /**
+     * @param adapter an adapter name.
+     * @return the canonical instance of the adapter name shared by all sagas in this registry.
+     */
+    public String internAdapter(String adapter) {
+        String existing = adapterByName.putIfAbsent(adapter, adapter);
+        if (existing != null) {
+            return existing;
+        }
+        if (adapterByName.size() > pruneAdaptersAbove) {
+            pruneAdapters();
+        }
+        return adapter;
+    }
+
+    /**
+     * Drop the interned adapter names that no registered saga uses.
+     */
+    private synchronized void pruneAdapters() {
+        if (adapterByName.size() <= pruneAdaptersAbove) {
+            return;
+        }
+        Set<String> used = new HashSet<>();
+        for (Saga saga : sagaByFingerprint.values()) {
+            Collections.addAll(used, saga.adapters);
+        }
+        adapterByName.keySet().retainAll(used);
+        pruneAdaptersAbove = Math.max(MIN_INTERNED_BEFORE_PRUNE, 2 * adapterByName.size());
+    }
+
+    /**
+     * @return the number of interned adapter names.
+     */
+    int internedAdapters() {
+        return adapterByName.size();
+    }
+
+    /**
+     * @return the number of sagas currently registered.
+     */
+    public int size() {
+        return sagaByFingerprint.size();
+    }
+
+    /**
+     * @return the number of lookups that returned an already registered saga.
+     */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return the number of lookups that had to register a new saga.
+     */
+    public long misses() {
+        return misses.sum();
+    }
+
+    private Saga register(SagaFingerprint fingerprint, Saga saga) {
+        Saga existing = sagaByFingerprint.putIfAbsent(fingerprint, saga);
+        if (existing != null) {
+            return existing;
+        }
+        registrationOrder.add(fingerprint);
+        while (sagaByFingerprint.size() > maxSize) {
+            SagaFingerprint eldest = registrationOrder.poll();
+            if (eldest == null) {
+                break;
+            }
+            sagaByFingerprint.remove(eldest);
+        }
+        return saga;
+    }
+}
@@ -0,0 +1,120 @@
+package no.ssb.saga.api;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.Objects;
+import java.util.RandomAccess;
+
+/**
+ * Topological order and wave partitioning of a saga graph, computed once using Kahn's algorithm
+ * level by level. Wave k holds the nodes whose predecessors all belong to earlier waves, so the
+ * topological order is simply the concatenation of all waves.
+ */
+final class Topology {
+
+    final int[] order;
+    final int[] waveOffsets;
+    final int[] waveOf;
+    final int[] inDegree;
+    final int[] outDegree;
+
+    private final List<SagaNode> orderView;
+    private final List<List<SagaNode>> wavesView;
+
+    Topology(Saga saga) {
+        int n = saga.nodes.length;
+        inDegree = new int[n];
+        outDegree = new int[n];
+        for (int i = 0; i < n; i++) {
+            inDegree[i] = saga.inOffsets[i + 1] - saga.inOffsets[i];
+            outDegree[i] = saga.outOffsets[i + 1] - saga.outOffsets[i];
+        }
+        order = new int[n];
+        waveOf = new int[n];
+        int[] remaining = inDegree.clone();
+        int[] offsets = new int[n + 1];
+        int tail = 0;
+        for (int i = 0; i < n; i++) {
+            if (remaining[i] == 0) {
+                order[tail++] = i;
+            }
+        }
+        int waves = 0;
+        int head = 0;
+        while (head < tail) {
+            int waveEnd = tail;
+            offsets[waves] = head;
+            for (; head < waveEnd; head++) {
+                int node = order[head];
+                waveOf[node] = waves;
+                for (int e = saga.outOffsets[node]; e < saga.outOffsets[node + 1]; e++) {
+                    int linkTo = saga.outTargets[e];
+                    if (--remaining[linkTo] == 0) {
+                        order[tail++] = linkTo;
+                    }
+                }
+            }
+            waves++;
+        }
+        offsets[waves] = tail;
+        waveOffsets = new int[waves + 1];
+        System.arraycopy(offsets, 0, waveOffsets, 0, waves + 1);
+        orderView = new NodeList(saga.nodes, order, 0, n);
+        wavesView = new WaveList(saga.nodes);
+    }
+
+    List<SagaNode> orderView() {
+        return orderView;
+    }
+
+    List<List<SagaNode>> wavesView() {
+        return wavesView;
+    }
+
+    private final class WaveList extends AbstractList<List<SagaNode>> implements RandomAccess {
+        private final SagaNode[] nodes;
+
+        private WaveList(SagaNode[] nodes) {
+            this.nodes = nodes;
+        }
+
+        @Override
+        public List<SagaNode> get(int wave) {
+            Objects.checkIndex(wave, size());
+            return new NodeList(nodes, order, waveOffsets[wave], waveOffsets[wave + 1]);
+        }
+
+        @Override
+        public int size() {
+            return waveOffsets.length - 1;
+        }
+    }
+
+    /**
+     * Unmodifiable list view of a range of node indices.
+     */
+    static final class NodeList extends AbstractList<SagaNode> implements RandomAccess {
+        private final SagaNode[] nodes;
+        private final int[] indices;
+        private final int from;
+        private final int to;
+
+        NodeList(SagaNode[] nodes, int[] indices, int from, int to) {
+            this.nodes = nodes;
+            this.indices = indices;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public SagaNode get(int i) {
+            Objects.checkIndex(i, to - from);
+            return nodes[indices[from + i]];
+        }
+
+        @Override
+        public int size() {
+            return to - from;
+        }
+    }
+}
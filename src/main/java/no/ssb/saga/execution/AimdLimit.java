@@ -0,0 +1,56 @@
+package no.ssb.saga.execution;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * See {@link ConcurrencyLimit#aimd(int, int, int, java.time.Duration)}.
+ */
+final class AimdLimit implements ConcurrencyLimit {
+
+    static final double BACKOFF = 0.9;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final long latencyThresholdNanos;
+    private final AtomicInteger limit;
+    private final AtomicInteger successes = new AtomicInteger();
+
+    AimdLimit(int initialLimit, int minLimit, int maxLimit, long latencyThresholdNanos) {
+        if (minLimit < 1 || minLimit > initialLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("Required 1 <= minLimit <= initialLimit <= maxLimit, was "
+                    + minLimit + ", " + initialLimit + ", " + maxLimit);
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.latencyThresholdNanos = latencyThresholdNanos;
+        this.limit = new AtomicInteger(initialLimit);
+    }
+
+    @Override
+    public int limit() {
+        return limit.get();
+    }
+
+    @Override
+    public void onSample(long latencyNanos, boolean failed) {
+        if (failed || latencyNanos > latencyThresholdNanos) {
+            successes.set(0);
+            limit.updateAndGet(current -> Math.max(minLimit, (int) (current * BACKOFF)));
+            return;
+        }
+        int current = limit.get();
+        if (successes.incrementAndGet() >= current && current < maxLimit) {
+            successes.set(0);
+            limit.compareAndSet(current, current + 1);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "AimdLimit{" +
+                "limit=" + limit.get() +
+                ", minLimit=" + minLimit +
+                ", maxLimit=" + maxLimit +
+                '}';
+    }
+}
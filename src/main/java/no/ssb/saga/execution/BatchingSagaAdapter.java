@@ -0,0 +1,48 @@
+package no.ssb.saga.execution;
+
+import no.ssb.saga.api.SagaNode;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An adapter whose actions are cheaper when executed many at a time, e.g. one that fronts a
+ * database or a remote endpoint. Register it like any other adapter, the executor then coalesces
+ * the ready nodes of every concurrently running saga execution that declare this adapter into
+ * batches, see {@link SagaExecutor.Builder#batching(int, java.time.Duration)}. Compensating
+ * actions are still executed one at a time.
+ */
+public interface BatchingSagaAdapter extends SagaAdapter {
+
+    /**
+     * Execute the actions of a batch of nodes, which may belong to different sagas and executions.
+     *
+     * @param invocations the actions to execute, never empty.
+     * @return the output of every action, in the same order as the invocations.
+     * @throws Exception if the batch failed, which will fail the saga execution of every invocation.
+     */
+    List<?> executeActions(List<Invocation> invocations) throws Exception;
+
+    /**
+     * Executes the action as a batch of one.
+     */
+    @Override
+    default Object executeAction(SagaNode node, Object sagaInput, Map<String, Object> dependeesOutput) throws Exception {
+        return executeActions(List.of(new Invocation(node, sagaInput, dependeesOutput))).get(0);
+    }
+
+    /**
+     * The arguments of one action in a batch, see {@link SagaAdapter#executeAction(SagaNode, Object, Map)}.
+     */
+    final class Invocation {
+        public final SagaNode node;
+        public final Object sagaInput;
+        public final Map<String, Object> dependeesOutput;
+
+        public Invocation(SagaNode node, Object sagaInput, Map<String, Object> dependeesOutput) {
+            this.node = node;
+            this.sagaInput = sagaInput;
+            this.dependeesOutput = dependeesOutput;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package no.ssb.saga.execution;
+
+import java.time.Duration;
+
+/**
+ * The number of actions of an adapter that may execute at the same time, see
+ * {@link SagaExecutor.Builder#bulkhead(String, ConcurrencyLimit, int)}. Implementations must be
+ * thread-safe and non-blocking.
+ */
+public interface ConcurrencyLimit {
+
+    /**
+     * @return the current limit.
+     */
+    int limit();
+
+    /**
+     * Called when an action limited by this limit has ended.
+     *
+     * @param latencyNanos the time spent executing the action.
+     * @param failed       whether the action failed.
+     */
+    default void onSample(long latencyNanos, boolean failed) {
+    }
+
+    /**
+     * @param limit the limit, at least 1.
+     * @return a limit that never changes.
+     */
+    static ConcurrencyLimit fixed(int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("limit must be at least 1: " + limit);
+        }
+        return () -> limit;
+    }
+
+    /**
+     * An additive-increase/multiplicative-decrease limit. The limit grows by one for every limit
+     * number of actions in a row that succeed within the latency threshold, and shrinks by 10% for
+     * every action that fails or exceeds the threshold, so it settles around the concurrency the
+     * downstream system can serve within the threshold.
+     *
+     * @param initialLimit     the limit to start from.
+     * @param minLimit         the limit never shrinks below this, at least 1.
+     * @param maxLimit         the limit never grows above this.
+     * @param latencyThreshold actions slower than this count as overload.
+     * @return an adaptive limit.
+     */
+    static ConcurrencyLimit aimd(int initialLimit, int minLimit, int maxLimit, Duration latencyThreshold) {
+        return new AimdLimit(initialLimit, minLimit, maxLimit, latencyThreshold.toNanos());
+    }
+}
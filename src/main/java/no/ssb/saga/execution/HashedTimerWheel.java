@@ -0,0 +1,296 @@
+package no.ssb.saga.execution;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hierarchical hashed timer wheel for large numbers of short lived timeouts, such as the deadlines
+ * and retry delays of saga nodes. Both {@link #schedule(Runnable, long, TimeUnit)} and
+ * {@link Timeout#cancel()} are O(1) and lock-free: the calling thread only pushes the timeout on
+ * a lock-free stack, and a single timer thread owns the wheels and moves timeouts into and out of
+ * them once per tick. Nothing is allocated per timeout beyond the timeout itself, and cancelled
+ * timeouts are unlinked on the next tick rather than kept until they would have expired.
+ * <p>
+ * There are 4 wheels of 64 slots. A timeout goes into the wheel where its deadline and the current
+ * tick first differ in the index bits, and moves down a wheel every time the slot it is in comes
+ * around, reaching the lowest wheel in the tick range it expires in. With the default tick of 1ms
+ * the wheels span 2^24 ticks, about 4.6 hours. Longer timeouts are parked in the top wheel and
+ * placed again each time their slot comes around.
+ * <p>
+ * Timeouts never expire early, and expire at most one tick late while the timer thread keeps up.
+ * Tasks run on the timer thread, so they must be short and hand off any real work to an executor.
+ */
+public final class HashedTimerWheel implements AutoCloseable {
+
+    static final int WHEELS = 4;
+    static final int SLOT_BITS = 6;
+    static final int SLOTS = 1 << SLOT_BITS;
+    static final int SLOT_MASK = SLOTS - 1;
+
+    private final long tickNanos;
+    private final long startNanos;
+    private final Timeout[][] wheels; // sentinels of circular doubly-linked slot lists, [wheel][slot]
+    private final AtomicReference<Timeout> scheduled = new AtomicReference<>();
+    private final AtomicReference<Timeout> cancelled = new AtomicReference<>();
+    private final Thread thread;
+    private volatile boolean idle;
+    private volatile boolean closed;
+
+    // owned by the timer thread
+    private long tick; // the next tick to process
+    private int size; // timeouts linked into the wheels
+
+    /**
+     * Create a timer wheel with a tick of 1 millisecond.
+     */
+    public HashedTimerWheel() {
+        this(Duration.ofMillis(1), "saga-timer");
+    }
+
+    /**
+     * @param tick       the resolution of the timer, and the longest a timeout may expire late.
+     * @param threadName the name of the timer thread.
+     */
+    public HashedTimerWheel(Duration tick, String threadName) {
+        if (tick.isNegative() || tick.isZero()) {
+            throw new IllegalArgumentException("tick must be positive: " + tick);
+        }
+        this.tickNanos = tick.toNanos();
+        this.wheels = new Timeout[WHEELS][SLOTS];
+        for (Timeout[] wheel : wheels) {
+            for (int s = 0; s < SLOTS; s++) {
+                Timeout sentinel = new Timeout(this, null, 0);
+                sentinel.prev = sentinel;
+                sentinel.next = sentinel;
+                wheel[s] = sentinel;
+            }
+        }
+        this.startNanos = System.nanoTime();
+        this.thread = new Thread(this::runTicks, threadName);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Run the task once the delay has passed, unless the returned timeout is cancelled first.
+     *
+     * @param task  the task, run on the timer thread.
+     * @param delay the delay, zero or negative to run on the next tick.
+     * @param unit  the unit of the delay.
+     * @return the timeout, which may be used to cancel it.
+     * @throws IllegalStateException if the timer is closed.
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        if (closed) {
+            throw new IllegalStateException("Timer is closed");
+        }
+        // relative to the start of the timer, saturating so that huge delays never wrap into the past
+        long elapsedNanos = System.nanoTime() - startNanos;
+        long delayNanos = Math.max(0, unit.toNanos(delay));
+        long deadline = delayNanos > Long.MAX_VALUE - elapsedNanos ? Long.MAX_VALUE : elapsedNanos + delayNanos;
+        Timeout timeout = new Timeout(this, task, deadline);
+        Timeout head;
+        do {
+            head = scheduled.get();
+            timeout.nextQueued = head;
+        } while (!scheduled.compareAndSet(head, timeout));
+        if (idle) {
+            LockSupport.unpark(thread);
+        }
+        return timeout;
+    }
+
+    /**
+     * Stop the timer thread. Timeouts that have not expired never will.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(thread);
+    }
+
+    private void cancelled(Timeout timeout) {
+        Timeout head;
+        do {
+            head = cancelled.get();
+            timeout.nextCancelled = head;
+        } while (!cancelled.compareAndSet(head, timeout));
+    }
+
+    private void runTicks() {
+        while (!closed) {
+            long elapsedTicks = (System.nanoTime() - startNanos) / tickNanos;
+            if (size == 0) {
+                // nothing to cascade, skip straight to now rather than walk the empty ticks
+                tick = Math.max(tick, elapsedTicks);
+            }
+            transferScheduled();
+            while (tick <= elapsedTicks && !closed) {
+                processTick();
+                tick++;
+            }
+            if (size == 0) {
+                idle = true;
+                if (scheduled.get() == null && !closed) {
+                    LockSupport.park(this);
+                }
+                idle = false;
+            } else {
+                long sleepNanos = startNanos + tick * tickNanos - System.nanoTime();
+                if (sleepNanos > 0) {
+                    LockSupport.parkNanos(this, sleepNanos);
+                }
+            }
+        }
+    }
+
+    private void processTick() {
+        transferScheduled();
+        removeCancelled();
+        // cascade top down, so a timeout moving down several wheels at once ends up in the right slot
+        for (int w = WHEELS - 1; w > 0; w--) {
+            if ((tick & ((1L << (SLOT_BITS * w)) - 1)) == 0) {
+                Timeout sentinel = wheels[w][(int) (tick >>> (SLOT_BITS * w)) & SLOT_MASK];
+                Timeout timeout = sentinel.next;
+                sentinel.next = sentinel;
+                sentinel.prev = sentinel;
+                while (timeout != sentinel) {
+                    Timeout next = timeout.next;
+                    size--;
+                    place(timeout);
+                    timeout = next;
+                }
+            }
+        }
+        Timeout sentinel = wheels[0][(int) tick & SLOT_MASK];
+        Timeout timeout = sentinel.next;
+        while (timeout != sentinel) {
+            Timeout next = timeout.next;
+            unlink(timeout);
+            timeout.expire();
+            timeout = next;
+        }
+    }
+
+    private void transferScheduled() {
+        Timeout timeout = scheduled.getAndSet(null);
+        while (timeout != null) {
+            Timeout next = timeout.nextQueued;
+            timeout.nextQueued = null;
+            if (timeout.state == Timeout.PENDING) {
+                timeout.deadlineTick = Math.max(tick, ceilDiv(timeout.deadlineNanos, tickNanos));
+                place(timeout);
+            }
+            timeout = next;
+        }
+    }
+
+    private void removeCancelled() {
+        Timeout timeout = cancelled.getAndSet(null);
+        while (timeout != null) {
+            Timeout next = timeout.nextCancelled;
+            timeout.nextCancelled = null;
+            if (timeout.next != null) {
+                unlink(timeout);
+            }
+            timeout = next;
+        }
+    }
+
+    private void place(Timeout timeout) {
+        long deadlineTick = timeout.deadlineTick;
+        Timeout sentinel = null;
+        for (int w = 0; w < WHEELS; w++) {
+            int shift = SLOT_BITS * (w + 1);
+            if ((deadlineTick >>> shift) == (tick >>> shift)) {
+                sentinel = wheels[w][(int) (deadlineTick >>> (SLOT_BITS * w)) & SLOT_MASK];
+                break;
+            }
+        }
+        if (sentinel == null) {
+            // beyond the span of the wheels, park in the next top wheel slot to come around
+            int top = SLOT_BITS * (WHEELS - 1);
+            sentinel = wheels[WHEELS - 1][(int) ((tick >>> top) + 1) & SLOT_MASK];
+        }
+        timeout.prev = sentinel.prev;
+        timeout.next = sentinel;
+        sentinel.prev.next = timeout;
+        sentinel.prev = timeout;
+        size++;
+    }
+
+    private void unlink(Timeout timeout) {
+        timeout.prev.next = timeout.next;
+        timeout.next.prev = timeout.prev;
+        timeout.prev = null;
+        timeout.next = null;
+        size--;
+    }
+
+    private static long ceilDiv(long x, long y) {
+        return x <= 0 ? 0 : (x - 1) / y + 1;
+    }
+
+    /**
+     * A scheduled task, intrusively linked into the timer so that it can be cancelled in O(1).
+     */
+    public static final class Timeout {
+        static final int PENDING = 0;
+        static final int EXPIRED = 1;
+        static final int CANCELLED = 2;
+
+        private static final AtomicIntegerFieldUpdater<Timeout> STATE = AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+        private final HashedTimerWheel timer;
+        private final Runnable task;
+        private final long deadlineNanos; // since the start of the timer
+        private volatile int state;
+
+        // owned by the timer thread once transferred
+        private long deadlineTick;
+        private Timeout prev;
+        private Timeout next;
+        private Timeout nextQueued;
+        private Timeout nextCancelled;
+
+        private Timeout(HashedTimerWheel timer, Runnable task, long deadlineNanos) {
+            this.timer = timer;
+            this.task = task;
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        /**
+         * @return true if the task will now never run, false if it already ran or was cancelled.
+         */
+        public boolean cancel() {
+            if (!STATE.compareAndSet(this, PENDING, CANCELLED)) {
+                return false;
+            }
+            timer.cancelled(this);
+            return true;
+        }
+
+        public boolean isCancelled() {
+            return state == CANCELLED;
+        }
+
+        public boolean isExpired() {
+            return state == EXPIRED;
+        }
+
+        private void expire() {
+            if (!STATE.compareAndSet(this, PENDING, EXPIRED)) {
+                return;
+            }
+            try {
+                task.run();
+            } catch (Throwable t) {
+                Thread thread = Thread.currentThread();
+                thread.getUncaughtExceptionHandler().uncaughtException(thread, t);
+            }
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package no.ssb.saga.execution;
+
+import no.ssb.saga.api.SagaNode;
+
+import java.util.Map;
+
+/**
+ * Performs the action, and the compensating action, of every saga node that declares this
+ * adapter. Implementations must be thread-safe, the same adapter is invoked concurrently for
+ * different nodes and different saga executions.
+ */
+public interface SagaAdapter {
+
+    /**
+     * Execute the action of a node.
+     *
+     * @param node            the node being executed.
+     * @param sagaInput       the input given when the saga execution was started.
+     * @param dependeesOutput the output of every node that links to this node, keyed by node id.
+     * @return the output of the action, made available to the nodes this node links to.
+     * @throws Exception if the action failed, which will fail the saga execution.
+     */
+    Object executeAction(SagaNode node, Object sagaInput, Map<String, Object> dependeesOutput) throws Exception;
+
+    /**
+     * Execute the compensating action of a node whose action has previously completed.
+     *
+     * @param node         the node being compensated.
+     * @param sagaInput    the input given when the saga execution was started.
+     * @param actionOutput the output of the previously completed action of the node.
+     * @throws Exception if the compensating action failed.
+     */
+    default void executeCompensatingAction(SagaNode node, Object sagaInput, Object actionOutput) throws Exception {
+    }
+}
@@ -0,0 +1,59 @@
+package no.ssb.saga.execution;
+
+import no.ssb.saga.api.Saga;
+import no.ssb.saga.api.SagaException;
+import no.ssb.saga.api.SagaNode;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Adapters keyed by the adapter name declared on saga nodes, see {@link SagaNode#adapter}. The
+ * adapters of the start and end nodes are pre-registered no-op adapters.
+ */
+public class SagaAdapterRegistry {
+
+    private static final SagaAdapter NO_OP = (node, sagaInput, dependeesOutput) -> null;
+
+    private final Map<String, SagaAdapter> adapterByName = new ConcurrentHashMap<>();
+
+    public SagaAdapterRegistry() {
+        adapterByName.put(Saga.ADAPTER_START, NO_OP);
+        adapterByName.put(Saga.ADAPTER_END, NO_OP);
+    }
+
+    /**
+     * Register an adapter, replacing any adapter previously registered with the same name.
+     *
+     * @param name    the adapter name as declared on saga nodes.
+     * @param adapter the adapter.
+     * @return this registry.
+     */
+    public SagaAdapterRegistry register(String name, SagaAdapter adapter) {
+        adapterByName.put(name, adapter);
+        return this;
+    }
+
+    /**
+     * @param name the adapter name.
+     * @return the adapter registered with the given name, or null if there is none.
+     */
+    public SagaAdapter get(String name) {
+        return adapterByName.get(name);
+    }
+
+    /**
+     * Verify that every node of the saga has a registered adapter.
+     *
+     * @param saga the saga.
+     * @throws SagaException if an adapter is missing.
+     */
+    public void validate(Saga saga) throws SagaException {
+        for (int i = 0; i < saga.nodeCount(); i++) {
+            SagaNode node = saga.getNode(i);
+            if (!adapterByName.containsKey(node.adapter)) {
+                throw new SagaException("No adapter registered with name " + node.adapter + ", required by node(" + node.id + ") in saga " + saga.name);
+            }
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package no.ssb.saga.execution;
+
+import no.ssb.saga.api.SagaNode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces the actions of nodes with a {@link BatchingSagaAdapter} into batches, one pending
+ * batch per adapter name. A batch is dispatched to the executor as soon as it is full, or when
+ * the linger time since its first action has passed. With no linger time a batch is dispatched
+ * right away, and holds every action that arrives before a thread picks it up. An adapter
+ * registered in place of another under the same name starts a new pending batch, while the
+ * actions already pending are still given to the adapter they were submitted with.
+ */
+class SagaBatchDispatcher {
+
+    private final Executor executor;
+    private final int maxBatchSize;
+    private final long maxLingerNanos;
+    private final Executor lingerTimer;
+    private final Map<String, Batcher> batcherByAdapter = new ConcurrentHashMap<>();
+
+    SagaBatchDispatcher(Executor executor, int maxBatchSize, long maxLingerNanos) {
+        this.executor = executor;
+        this.maxBatchSize = maxBatchSize;
+        this.maxLingerNanos = maxLingerNanos;
+        this.lingerTimer = maxLingerNanos > 0 ? CompletableFuture.delayedExecutor(maxLingerNanos, TimeUnit.NANOSECONDS, executor) : executor;
+    }
+
+    void submit(SagaExecution execution, SagaNode node, BatchingSagaAdapter adapter, long actionStartNanos) {
+        Batcher batcher = batcherByAdapter.get(node.adapter);
+        if (batcher == null || batcher.adapter != adapter) {
+            batcher = batcherByAdapter.compute(node.adapter, (name, current) -> current != null && current.adapter == adapter ? current : new Batcher(adapter));
+        }
+        batcher.add(new Pending(execution, node, execution.dependeesOutput(node), actionStartNanos));
+    }
+
+    private static final class Pending {
+        final SagaExecution execution;
+        final SagaNode node;
+        final Map<String, Object> dependeesOutput;
+        final long actionStartNanos;
+
+        Pending(SagaExecution execution, SagaNode node, Map<String, Object> dependeesOutput, long actionStartNanos) {
+            this.execution = execution;
+            this.node = node;
+            this.dependeesOutput = dependeesOutput;
+            this.actionStartNanos = actionStartNanos;
+        }
+    }
+
+    private final class Batcher {
+        private final BatchingSagaAdapter adapter;
+        private List<Pending> batch = new ArrayList<>();
+
+        Batcher(BatchingSagaAdapter adapter) {
+            this.adapter = adapter;
+        }
+
+        void add(Pending pending) {
+            List<Pending> full = null;
+            List<Pending> started = null;
+            synchronized (this) {
+                batch.add(pending);
+                if (batch.size() >= maxBatchSize) {
+                    full = batch;
+                    batch = new ArrayList<>();
+                } else if (batch.size() == 1) {
+                    started = batch;
+                }
+            }
+            if (full != null) {
+                dispatch(full);
+            } else if (started != null) {
+                List<Pending> lingering = started;
+                try {
+                    lingerTimer.execute(() -> flush(lingering));
+                } catch (RuntimeException e) {
+                    flush(lingering);
+                }
+            }
+        }
+
+        /**
+         * Execute the batch on this thread unless it was already dispatched because it was full.
+         */
+        private void flush(List<Pending> lingering) {
+            synchronized (this) {
+                if (batch != lingering) {
+                    return;
+                }
+                batch = new ArrayList<>();
+            }
+            execute(lingering);
+        }
+
+        private void dispatch(List<Pending> full) {
+            try {
+                executor.execute(() -> execute(full));
+            } catch (RuntimeException e) {
+                for (Pending pending : full) {
+                    pending.execution.batchFailed(pending.node, e, pending.actionStartNanos);
+                }
+            }
+        }
+
+        private void execute(List<Pending> pendings) {
+            List<BatchingSagaAdapter.Invocation> invocations = new ArrayList<>(pendings.size());
+            for (Pending pending : pendings) {
+                invocations.add(new BatchingSagaAdapter.Invocation(pending.node, pending.execution.sagaInput, pending.dependeesOutput));
+            }
+            List<?> outputs;
+            try {
+                outputs = adapter.executeActions(invocations);
+                if (outputs == null || outputs.size() != invocations.size()) {
+                    throw new IllegalStateException("Batching adapter " + pendings.get(0).node.adapter + " returned "
+                            + (outputs == null ? "null" : outputs.size() + " outputs") + " for " + invocations.size() + " invocations");
+                }
+            } catch (Throwable t) {
+                for (Pending pending : pendings) {
+                    pending.execution.batchFailed(pending.node, t, pending.actionStartNanos);
+                }
+                return;
+            }
+            for (int i = 0; i < pendings.size(); i++) {
+                Pending pending = pendings.get(i);
+                pending.execution.batchCompleted(pending.node, outputs.get(i), pending.actionStartNanos);
+            }
+        }
+    }
+}
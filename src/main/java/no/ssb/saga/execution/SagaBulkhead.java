@@ -0,0 +1,102 @@
+package no.ssb.saga.execution;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Limits the number of tasks that hold a permit at the same time. Tasks that cannot get a permit
+ * wait in a bounded lock-free queue, without holding a thread, and are handed to the executor in
+ * order as permits are released, never run on the thread that releases the permit. Used both for
+ * the actions of an adapter and for the admission of new executions.
+ */
+final class SagaBulkhead {
+
+    private final ConcurrencyLimit limit;
+    private final int maxQueued;
+    private final Executor executor;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final Queue<Runnable> waiting = new ConcurrentLinkedQueue<>();
+
+    SagaBulkhead(ConcurrencyLimit limit, int maxQueued, Executor executor) {
+        if (maxQueued < 0) {
+            throw new IllegalArgumentException("maxQueued must not be negative: " + maxQueued);
+        }
+        this.limit = limit;
+        this.maxQueued = maxQueued;
+        this.executor = executor;
+    }
+
+    boolean tryAcquire() {
+        int current;
+        do {
+            current = inFlight.get();
+            if (current >= limit.limit()) {
+                return false;
+            }
+        } while (!inFlight.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    /**
+     * Queue a task to be run on the executor once it holds a permit. The task is run on the
+     * calling thread only if the executor rejects it.
+     *
+     * @return false if the queue is full and the task was not queued.
+     */
+    boolean enqueue(Runnable task) {
+        if (queued.incrementAndGet() > maxQueued) {
+            queued.decrementAndGet();
+            return false;
+        }
+        waiting.add(task);
+        // a permit may have been released after the caller failed to acquire one
+        drain();
+        return true;
+    }
+
+    void release(long latencyNanos, boolean failed) {
+        limit.onSample(latencyNanos, failed);
+        release();
+    }
+
+    void release() {
+        inFlight.decrementAndGet();
+        drain();
+    }
+
+    private void drain() {
+        while (!waiting.isEmpty() && tryAcquire()) {
+            Runnable task = waiting.poll();
+            if (task == null) {
+                // taken by a concurrent drain, give the permit back and look again
+                inFlight.decrementAndGet();
+                continue;
+            }
+            queued.decrementAndGet();
+            try {
+                executor.execute(task);
+            } catch (RuntimeException e) {
+                task.run();
+            }
+        }
+    }
+
+    int inFlight() {
+        return inFlight.get();
+    }
+
+    int queued() {
+        return queued.get();
+    }
+
+    int limit() {
+        return limit.limit();
+    }
+
+    boolean isSaturated() {
+        return inFlight.get() >= limit.limit();
+    }
+}
@@ -0,0 +1,653 @@
+package no.ssb.saga.execution;
+
+import no.ssb.saga.api.CriticalPath;
+import no.ssb.saga.api.Saga;
+import no.ssb.saga.api.SagaNode;
+import no.ssb.saga.execution.log.SagaLog;
+import no.ssb.saga.execution.log.SagaLogRecord;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Function;
+
+/**
+ * State of one running saga. Readiness is tracked with one atomic remaining-predecessor counter
+ * per node, initialized from the in-degrees of the saga. The thread that completes the last
+ * predecessor of a node dispatches that node, so no global lock is ever taken. Among the nodes
+ * made ready by a completion, all but one are handed to the executor while the completing thread
+ * continues with the remaining one, which avoids a dispatch per node along chains. The saga
+ * completes when the action of every node has completed.
+ * <p>
+ * When an action fails and compensation is enabled, the execution first waits for the actions
+ * still in flight to finish, then compensates every node whose action completed over the reverse
+ * graph. Each such node gets a counter of its completed successors, and is compensated when all
+ * of them have been compensated, using the same counter driven dispatch as the forward pass.
+ * <p>
+ * With an execution log, the completion of a node and the start of the successors it makes ready
+ * are appended together, and the successors are dispatched only once those records are persisted.
+ * The result completes once the end of the saga is persisted.
+ * <p>
+ * When the saga declares node policies, a failed action is retried after its backoff on the timer
+ * wheel, and a node with a timeout gets a deadline on the timer wheel when its first attempt starts.
+ * A node can then end in more than one way at once, so every end is claimed by a compare-and-set
+ * of the node state, and only the winner completes, fails or leaves the node. An expired node
+ * fails the saga without waiting for its action, but only leaves once that action has settled, so
+ * the compensation still waits for it. If the action completes after all, its output is recorded
+ * and logged like any other completion, and the node is compensated in reverse dependency order.
+ */
+class SagaExecution {
+
+    static final int ACTION_COMPLETED = 1;
+    static final int ACTION_ABANDONED = 2; // failed, expired or skipped, only set with node policies
+    static final int ACTION_EXPIRED = 3; // expired while its action may still complete, only set with node policies
+
+    final UUID executionId;
+    final Saga saga;
+    final Object sagaInput;
+    final SagaAdapterRegistry adapters;
+    final Executor executor;
+    final boolean compensateOnFailure;
+    final SagaLog log;
+    final Function<Object, byte[]> serializer;
+    final SagaExecutionObserver observer;
+    final boolean observed;
+    final long[] readyNanos; // when each node became ready, only when observed
+    final long startNanos;
+    final SagaExecutor sagaExecutor;
+    final CriticalPath criticalPath; // only when prioritized
+    final SagaBatchDispatcher batchDispatcher;
+    final Map<String, SagaBulkhead> bulkheads; // by adapter name, null when there are none
+    final HashedTimerWheel timer; // only with node policies
+    final int[] failedAttempts; // by node index, only with node policies. Attempts of a node never overlap
+    final AtomicReferenceArray<HashedTimerWheel.Timeout> deadlines; // by node index, only with node policies
+    final CompletableFuture<SagaResult> result = new CompletableFuture<>();
+
+    final AtomicIntegerArray remainingPredecessors;
+    final AtomicInteger remainingNodes;
+    final AtomicInteger inFlight = new AtomicInteger();
+    final AtomicIntegerArray nodeState;
+    final AtomicReferenceArray<Object> outputs;
+    final AtomicReference<Failure> failure = new AtomicReference<>();
+
+    final AtomicBoolean compensationStarted = new AtomicBoolean();
+    AtomicIntegerArray remainingSuccessors;
+    AtomicInteger remainingCompensations;
+    AtomicLongArray compensationNanos;
+    AtomicReferenceArray<Throwable> compensationFailures;
+    long compensationStartNanos;
+
+    SagaExecution(UUID executionId, Saga saga, Object sagaInput, SagaExecutor sagaExecutor) {
+        this.executionId = executionId;
+        this.saga = saga;
+        this.sagaInput = sagaInput;
+        this.adapters = sagaExecutor.adapters;
+        this.executor = sagaExecutor.executor;
+        this.compensateOnFailure = sagaExecutor.compensateOnFailure;
+        this.log = sagaExecutor.log;
+        this.serializer = sagaExecutor.serializer;
+        this.observer = sagaExecutor.observer;
+        this.observed = observer != SagaExecutionObserver.NO_OP;
+        this.readyNanos = observed ? new long[saga.nodeCount()] : null;
+        this.startNanos = observed ? System.nanoTime() : 0;
+        this.sagaExecutor = sagaExecutor;
+        this.criticalPath = sagaExecutor.criticalPath(saga);
+        this.batchDispatcher = sagaExecutor.batchDispatcher;
+        this.bulkheads = sagaExecutor.bulkheads;
+        boolean policies = saga.hasNodePolicies();
+        this.timer = policies ? sagaExecutor.timer() : null;
+        this.failedAttempts = policies ? new int[saga.nodeCount()] : null;
+        this.deadlines = policies ? new AtomicReferenceArray<>(saga.nodeCount()) : null;
+        this.remainingPredecessors = new AtomicIntegerArray(saga.inDegrees());
+        this.remainingNodes = new AtomicInteger(saga.nodeCount());
+        this.nodeState = new AtomicIntegerArray(saga.nodeCount());
+        this.outputs = new AtomicReferenceArray<>(saga.nodeCount());
+    }
+
+    void start() {
+        inFlight.incrementAndGet();
+        SagaNode start = saga.getStartNode();
+        if (observed) {
+            readyNanos[start.index] = startNanos;
+        }
+        if (log == null) {
+            dispatch(start);
+            return;
+        }
+        CompletableFuture<Void> persisted;
+        try {
+            log.append(SagaLogRecord.sagaStarted(executionId, saga.fingerprint(), serializer.apply(sagaInput)));
+            persisted = log.append(SagaLogRecord.actionStarted(executionId, start.id));
+        } catch (RuntimeException e) {
+            persisted = CompletableFuture.failedFuture(e);
+        }
+        persisted.whenComplete((v, e) -> {
+            if (e != null) {
+                fail(start, e);
+                leave();
+            } else {
+                dispatch(start);
+            }
+        });
+    }
+
+    void dispatch(SagaNode node) {
+        if (criticalPath != null) {
+            sagaExecutor.schedule(this, node);
+            return;
+        }
+        try {
+            executor.execute(() -> run(node));
+        } catch (RuntimeException e) {
+            abandon(node, e);
+        }
+    }
+
+    void run(SagaNode node) {
+        run(node, false);
+    }
+
+    /**
+     * @param permitted whether the first node already holds a permit of the bulkhead of its adapter.
+     */
+    void run(SagaNode node, boolean permitted) {
+        // when observed, the clock is read once per action: the end of an action is both the time
+        // its successors became ready and the start of the successor run next on this thread
+        long nowNanos = observed ? System.nanoTime() : 0;
+        while (node != null) {
+            SagaBulkhead bulkhead = bulkheads == null ? null : bulkheads.get(node.adapter);
+            if (failure.get() != null) {
+                if (permitted) {
+                    bulkhead.release();
+                }
+                if (claimEnd(node, ACTION_ABANDONED) || settleExpired(node, ACTION_ABANDONED)) {
+                    leave();
+                }
+                return;
+            }
+            if (bulkhead != null && !permitted && !bulkhead.tryAcquire()) {
+                SagaNode waiting = node;
+                if (!bulkhead.enqueue(() -> run(waiting, true))) {
+                    abandon(node, new SagaRejectedException("Bulkhead of adapter " + node.adapter + " is full, rejected node("
+                            + node.id + ") in saga " + saga.name + ", execution " + executionId));
+                }
+                return;
+            }
+            permitted = false;
+            long actionStartNanos = bulkhead != null && !observed ? System.nanoTime() : nowNanos;
+            if (deadlines != null && node.policy.hasTimeout() && failedAttempts[node.index] == 0) {
+                startDeadline(node);
+            }
+            if (observed) {
+                observer.actionStarted(saga, node, actionStartNanos - readyNanos[node.index]);
+            }
+            SagaAdapter adapter = adapters.get(node.adapter);
+            if (adapter instanceof BatchingSagaAdapter) {
+                // continued by batchCompleted or batchFailed once the batch holding the node is executed
+                batchDispatcher.submit(this, node, (BatchingSagaAdapter) adapter, actionStartNanos);
+                return;
+            }
+            Object output;
+            try {
+                output = adapter.executeAction(node, sagaInput, dependeesOutput(node));
+            } catch (Throwable t) {
+                actionEnded(node, bulkhead, actionStartNanos, true);
+                actionFailed(node, t);
+                return;
+            }
+            nowNanos = actionEnded(node, bulkhead, actionStartNanos, false);
+            node = completed(node, output, nowNanos);
+        }
+    }
+
+    /**
+     * Report the end of an action to the observer and the bulkhead of its adapter.
+     *
+     * @return when the action ended if the clock was read, otherwise 0.
+     */
+    private long actionEnded(SagaNode node, SagaBulkhead bulkhead, long actionStartNanos, boolean failed) {
+        if (!observed && bulkhead == null) {
+            return 0;
+        }
+        long nowNanos = System.nanoTime();
+        if (observed) {
+            observer.actionEnded(saga, node, nowNanos - actionStartNanos, failed);
+        }
+        if (bulkhead != null) {
+            bulkhead.release(nowNanos - actionStartNanos, failed);
+        }
+        return nowNanos;
+    }
+
+    void batchCompleted(SagaNode node, Object output, long actionStartNanos) {
+        long nowNanos = actionEnded(node, bulkheads == null ? null : bulkheads.get(node.adapter), actionStartNanos, false);
+        SagaNode next = completed(node, output, nowNanos);
+        if (next != null) {
+            // the batch thread completes nodes of many executions, so never run a successor inline
+            dispatch(next);
+        }
+    }
+
+    void batchFailed(SagaNode node, Throwable cause, long actionStartNanos) {
+        actionEnded(node, bulkheads == null ? null : bulkheads.get(node.adapter), actionStartNanos, true);
+        actionFailed(node, cause);
+    }
+
+    /**
+     * Retry the failed action if its policy allows another attempt, otherwise fail the saga.
+     */
+    private void actionFailed(SagaNode node, Throwable cause) {
+        if (deadlines != null && ++failedAttempts[node.index] < node.policy.maxAttempts
+                && failure.get() == null && nodeState.get(node.index) == 0) {
+            long backoffNanos = node.policy.backoffNanos(failedAttempts[node.index]);
+            if (backoffNanos == 0) {
+                dispatch(node);
+                return;
+            }
+            try {
+                timer.schedule(() -> dispatch(node), backoffNanos, TimeUnit.NANOSECONDS);
+                return;
+            } catch (RuntimeException e) {
+                cause = e;
+            }
+        }
+        abandon(node, cause);
+    }
+
+    private void startDeadline(SagaNode node) {
+        try {
+            deadlines.set(node.index, timer.schedule(() -> expired(node), node.policy.timeoutNanos, TimeUnit.NANOSECONDS));
+        } catch (RuntimeException e) {
+            // the node simply has no deadline if the timer is closed
+        }
+    }
+
+    /**
+     * Called on the timer thread, so fail the saga on the executor. The node is not left, that is
+     * up to whoever settles its action.
+     */
+    private void expired(SagaNode node) {
+        Runnable expire = () -> {
+            // held in flight until the failure is recorded, as the action may settle concurrently
+            inFlight.incrementAndGet();
+            if (claimEnd(node, ACTION_EXPIRED)) {
+                fail(node, new SagaTimeoutException("Node(" + node.id + ") in saga " + saga.name + ", execution "
+                        + executionId + " was not done within " + Duration.ofNanos(node.policy.timeoutNanos)));
+            }
+            leave();
+        };
+        try {
+            executor.execute(expire);
+        } catch (RuntimeException e) {
+            expire.run();
+        }
+    }
+
+    /**
+     * Fail the saga with the node and leave the node, unless the node has already ended. Leave an
+     * expired node without failing the saga again.
+     */
+    void abandon(SagaNode node, Throwable cause) {
+        if (claimEnd(node, ACTION_ABANDONED)) {
+            fail(node, cause);
+            leave();
+        } else if (settleExpired(node, ACTION_ABANDONED)) {
+            leave();
+        }
+    }
+
+    /**
+     * Claim the end of a node against the other ways it may end concurrently, and cancel its
+     * deadline. Always succeeds without node policies, where each node has exactly one end.
+     *
+     * @return true if the caller ended the node and must now complete, fail or leave it.
+     */
+    private boolean claimEnd(SagaNode node, int state) {
+        if (deadlines == null) {
+            return true;
+        }
+        if (!nodeState.compareAndSet(node.index, 0, state)) {
+            return false;
+        }
+        HashedTimerWheel.Timeout deadline = deadlines.getAndSet(node.index, null);
+        if (deadline != null) {
+            deadline.cancel();
+        }
+        return true;
+    }
+
+    /**
+     * Settle the action of an expired node, which must then be left.
+     *
+     * @return true if the node had expired and the caller must now leave it.
+     */
+    private boolean settleExpired(SagaNode node, int state) {
+        return deadlines != null && nodeState.compareAndSet(node.index, ACTION_EXPIRED, state);
+    }
+
+    /**
+     * The action of an expired node completed after all. The saga has failed without it, so its
+     * successors are not released, but it is recorded as completed and left once its completion is
+     * persisted, so the compensation of the saga undoes it before its predecessors.
+     */
+    private void completedLate(SagaNode node, Object output) {
+        if (!settleExpired(node, ACTION_COMPLETED)) {
+            return;
+        }
+        outputs.set(node.index, output);
+        if (log == null) {
+            leave();
+            return;
+        }
+        CompletableFuture<Void> persisted;
+        try {
+            persisted = log.append(SagaLogRecord.actionCompleted(executionId, node.id, serializer.apply(output)));
+        } catch (RuntimeException e) {
+            persisted = CompletableFuture.failedFuture(e);
+        }
+        persisted.whenComplete((v, e) -> leave());
+    }
+
+    /**
+     * Record the output of a completed node and release its successors.
+     *
+     * @param endNanos when the action ended, only used when observed.
+     * @return one successor made ready by this completion that the caller should run next, or null.
+     */
+    SagaNode completed(SagaNode node, Object output, long endNanos) {
+        if (deadlines != null && !claimEnd(node, ACTION_COMPLETED)) {
+            completedLate(node, output);
+            return null;
+        }
+        outputs.set(node.index, output);
+        nodeState.set(node.index, ACTION_COMPLETED);
+        if (log != null) {
+            completedLogged(node, output, endNanos);
+            return null;
+        }
+        if (remainingNodes.decrementAndGet() == 0) {
+            complete();
+            leave();
+            return null;
+        }
+        SagaNode next = null;
+        if (failure.get() == null) {
+            for (SagaNode linkTo : node.outgoing) {
+                if (remainingPredecessors.decrementAndGet(linkTo.index) == 0) {
+                    inFlight.incrementAndGet();
+                    if (observed) {
+                        readyNanos[linkTo.index] = endNanos;
+                    }
+                    if (next != null) {
+                        dispatch(next);
+                    }
+                    next = linkTo;
+                }
+            }
+        }
+        if (next != null && criticalPath != null) {
+            // when prioritized every ready node competes for the next free thread
+            dispatch(next);
+            next = null;
+        }
+        leave();
+        return next;
+    }
+
+    private void completedLogged(SagaNode node, Object output, long endNanos) {
+        boolean last = remainingNodes.decrementAndGet() == 0;
+        SagaNode[] ready = new SagaNode[node.outgoing.size()];
+        int readyCount = 0;
+        if (!last && failure.get() == null) {
+            for (SagaNode linkTo : node.outgoing) {
+                if (remainingPredecessors.decrementAndGet(linkTo.index) == 0) {
+                    inFlight.incrementAndGet();
+                    if (observed) {
+                        readyNanos[linkTo.index] = endNanos;
+                    }
+                    ready[readyCount++] = linkTo;
+                }
+            }
+        }
+        CompletableFuture<Void> persisted;
+        try {
+            persisted = log.append(SagaLogRecord.actionCompleted(executionId, node.id, serializer.apply(output)));
+            for (int i = 0; i < readyCount; i++) {
+                persisted = log.append(SagaLogRecord.actionStarted(executionId, ready[i].id));
+            }
+        } catch (RuntimeException e) {
+            persisted = CompletableFuture.failedFuture(e);
+        }
+        int dispatchCount = readyCount;
+        persisted.whenComplete((v, e) -> {
+            if (e != null) {
+                fail(node, e);
+            } else if (last) {
+                complete();
+            }
+            // when failed the successors are skipped by run, but still have to leave
+            for (int i = 0; i < dispatchCount; i++) {
+                dispatch(ready[i]);
+            }
+            leave();
+        });
+    }
+
+    /**
+     * Called once for every node made ready when that node is done, whether its action completed,
+     * failed or was skipped. Successors are counted as in flight before their predecessor leaves,
+     * so the count only reaches zero when no action can still be running.
+     */
+    void leave() {
+        if (inFlight.decrementAndGet() == 0 && failure.get() != null && compensateOnFailure) {
+            startCompensation();
+        }
+    }
+
+    Map<String, Object> dependeesOutput(SagaNode node) {
+        if (node.incoming.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<String, Object> dependeesOutput = new HashMap<>(node.incoming.size() * 2);
+        for (SagaNode dependee : node.incoming) {
+            dependeesOutput.put(dependee.id, outputs.get(dependee.index));
+        }
+        return dependeesOutput;
+    }
+
+    void fail(SagaNode node, Throwable cause) {
+        if (!failure.compareAndSet(null, new Failure(node, cause))) {
+            return;
+        }
+        if (log != null) {
+            appendQuietly(SagaLogRecord.actionFailed(executionId, node.id, cause));
+        }
+        if (!compensateOnFailure) {
+            finish(new SagaResult(executionId, saga, SagaResult.Status.FAILED, snapshotOutputs(), node, cause));
+        }
+    }
+
+    void complete() {
+        finish(new SagaResult(executionId, saga, SagaResult.Status.COMPLETED, snapshotOutputs(), null, null));
+    }
+
+    /**
+     * Complete the result, once the end of the saga is persisted if there is an execution log. A
+     * failure to persist the end does not change the result, recovery will see the saga as in flight.
+     */
+    void finish(SagaResult sagaResult) {
+        if (observed) {
+            observer.sagaEnded(saga, sagaResult.status, System.nanoTime() - startNanos);
+        }
+        if (log == null) {
+            result.complete(sagaResult);
+            return;
+        }
+        // completed on the executor, dependent stages must not run on the log writer
+        appendQuietly(SagaLogRecord.sagaEnded(executionId, sagaResult.status))
+                .whenCompleteAsync((v, e) -> result.complete(sagaResult), executor);
+    }
+
+    CompletableFuture<Void> appendQuietly(SagaLogRecord record) {
+        try {
+            return log.append(record);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    void startCompensation() {
+        if (!compensationStarted.compareAndSet(false, true)) {
+            return;
+        }
+        compensationStartNanos = System.nanoTime();
+        int n = saga.nodeCount();
+        remainingSuccessors = new AtomicIntegerArray(n);
+        compensationNanos = new AtomicLongArray(n);
+        compensationFailures = new AtomicReferenceArray<>(n);
+        int completedCount = 0;
+        int[] ready = new int[n];
+        int readyCount = 0;
+        for (int i = 0; i < n; i++) {
+            if (nodeState.get(i) != ACTION_COMPLETED) {
+                continue;
+            }
+            completedCount++;
+            int completedSuccessors = 0;
+            for (SagaNode linkTo : saga.getNode(i).outgoing) {
+                if (nodeState.get(linkTo.index) == ACTION_COMPLETED) {
+                    completedSuccessors++;
+                }
+            }
+            remainingSuccessors.set(i, completedSuccessors);
+            if (completedSuccessors == 0) {
+                ready[readyCount++] = i;
+            }
+        }
+        remainingCompensations = new AtomicInteger(completedCount);
+        if (completedCount == 0) {
+            compensated();
+            return;
+        }
+        // collect before dispatching, compensations release predecessors concurrently
+        for (int r = 0; r < readyCount; r++) {
+            dispatchCompensation(saga.getNode(ready[r]));
+        }
+    }
+
+    void dispatchCompensation(SagaNode node) {
+        try {
+            executor.execute(() -> compensate(node));
+        } catch (RuntimeException e) {
+            // run on the caller rather than leave the rollback incomplete
+            compensate(node);
+        }
+    }
+
+    void compensate(SagaNode node) {
+        while (node != null) {
+            long startNanos = System.nanoTime();
+            try {
+                adapters.get(node.adapter).executeCompensatingAction(node, sagaInput, outputs.get(node.index));
+            } catch (Throwable t) {
+                compensationFailures.set(node.index, t);
+            }
+            long nanos = Math.max(1, System.nanoTime() - startNanos);
+            compensationNanos.set(node.index, nanos);
+            if (observed) {
+                observer.compensationEnded(saga, node, nanos, compensationFailures.get(node.index) != null);
+            }
+            if (log != null) {
+                Throwable compensationFailure = compensationFailures.get(node.index);
+                appendQuietly(compensationFailure == null
+                        ? SagaLogRecord.compensationCompleted(executionId, node.id)
+                        : SagaLogRecord.compensationFailed(executionId, node.id, compensationFailure));
+            }
+            node = compensationCompleted(node);
+        }
+    }
+
+    /**
+     * Release the completed predecessors of a compensated node.
+     *
+     * @return one predecessor made ready by this compensation that the caller should compensate next, or null.
+     */
+    SagaNode compensationCompleted(SagaNode node) {
+        if (remainingCompensations.decrementAndGet() == 0) {
+            compensated();
+            return null;
+        }
+        SagaNode next = null;
+        for (SagaNode dependee : node.incoming) {
+            if (nodeState.get(dependee.index) == ACTION_COMPLETED && remainingSuccessors.decrementAndGet(dependee.index) == 0) {
+                if (next != null) {
+                    dispatchCompensation(next);
+                }
+                next = dependee;
+            }
+        }
+        return next;
+    }
+
+    void compensated() {
+        boolean compensationFailed = false;
+        for (int i = 0; i < compensationFailures.length(); i++) {
+            if (compensationFailures.get(i) != null) {
+                compensationFailed = true;
+                break;
+            }
+        }
+        Failure f = failure.get();
+        SagaResult.Status status = compensationFailed ? SagaResult.Status.COMPENSATION_FAILED : SagaResult.Status.COMPENSATED;
+        finish(new SagaResult(executionId, saga, status, snapshotOutputs(), f.node, f.cause,
+                new Compensation(System.nanoTime() - compensationStartNanos, compensationNanos, compensationFailures)));
+    }
+
+    Object[] snapshotOutputs() {
+        Object[] snapshot = new Object[outputs.length()];
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = outputs.get(i);
+        }
+        return snapshot;
+    }
+
+    static final class Failure {
+        final SagaNode node;
+        final Throwable cause;
+
+        Failure(SagaNode node, Throwable cause) {
+            this.node = node;
+            this.cause = cause;
+        }
+    }
+
+    /**
+     * Outcome of the compensation phase, indexed by node.
+     */
+    static final class Compensation {
+        final long totalNanos;
+        final long[] nanosByNodeIndex; // 0 means not compensated
+        final Throwable[] failureByNodeIndex;
+
+        Compensation(long totalNanos, AtomicLongArray nanos, AtomicReferenceArray<Throwable> failures) {
+            this.totalNanos = totalNanos;
+            this.nanosByNodeIndex = new long[nanos.length()];
+            this.failureByNodeIndex = new Throwable[failures.length()];
+            for (int i = 0; i < nanosByNodeIndex.length; i++) {
+                nanosByNodeIndex[i] = nanos.get(i);
+                failureByNodeIndex[i] = failures.get(i);
+            }
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package no.ssb.saga.execution;
+
+import no.ssb.saga.api.Saga;
+import no.ssb.saga.api.SagaNode;
+
+/**
+ * Receives timing events of saga executions, see {@link SagaExecutor.Builder#observer(SagaExecutionObserver)}.
+ * Called on the threads that execute the saga, implementations must be thread-safe, fast and must
+ * not throw.
+ */
+public interface SagaExecutionObserver {
+
+    /**
+     * Observes nothing. While installed, executions do not read the clock at all.
+     */
+    SagaExecutionObserver NO_OP = new SagaExecutionObserver() {
+    };
+
+    /**
+     * @param saga           the executing saga.
+     * @param node           the node whose action is about to be executed.
+     * @param queueWaitNanos the time from the node became ready until its action started.
+     */
+    default void actionStarted(Saga saga, SagaNode node, long queueWaitNanos) {
+    }
+
+    /**
+     * @param saga        the executing saga.
+     * @param node        the node whose action ended.
+     * @param actionNanos the time spent executing the action.
+     * @param failed      whether the action failed.
+     */
+    default void actionEnded(Saga saga, SagaNode node, long actionNanos, boolean failed) {
+    }
+
+    /**
+     * @param saga              the saga being compensated.
+     * @param node              the node whose compensating action ended.
+     * @param compensationNanos the time spent executing the compensating action.
+     * @param failed            whether the compensating action failed.
+     */
+    default void compensationEnded(Saga saga, SagaNode node, long compensationNanos, boolean failed) {
+    }
+
+    /**
+     * @param saga          the executed saga.
+     * @param status        the final status of the execution.
+     * @param durationNanos the time from the execution started until its result was completed.
+     */
+    default void sagaEnded(Saga saga, SagaResult.Status status, long durationNanos) {
+    }
+}
@@ -0,0 +1,442 @@
+package no.ssb.saga.execution;
+
+import no.ssb.saga.api.CriticalPath;
+import no.ssb.saga.api.Saga;
+import no.ssb.saga.api.SagaException;
+import no.ssb.saga.api.SagaNode;
+import no.ssb.saga.execution.log.SagaLog;
+
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * Executes sagas by running the action of every node through the adapter registered for its
+ * adapter name. Nodes are dispatched to the executor the moment their last predecessor has
+ * completed, so all nodes linked to from a completed node may run in parallel. Any number of
+ * sagas may be executed concurrently by the same executor.
+ * <p>
+ * With {@link Builder#compensateOnFailure(boolean)} a failed saga is rolled back by running the
+ * compensating action of every node whose action completed, in reverse dependency order and with
+ * the same parallelism as the forward pass.
+ * <p>
+ * With {@link Builder#log(SagaLog, Function)} every execution is recorded in a write-ahead log: a
+ * node is dispatched only after its start is persisted, and its successors only after its
+ * completion is persisted.
+ * <p>
+ * With {@link Builder#prioritizeBySlack(ToLongFunction)} nodes that are ready to run wait in a
+ * queue shared by all executions, ordered by their slack in the {@link Saga#criticalPath(ToLongFunction)
+ * critical path analysis} of their saga, and every task dispatched to the executor runs the node
+ * with the least slack. When the executor has fewer threads than there are ready nodes, nodes on
+ * the critical path of a saga are run first.
+ * <p>
+ * Nodes whose adapter is a {@link BatchingSagaAdapter} are coalesced into batches across all
+ * executions, bounded by the batch size and linger time of {@link Builder#batching(int, Duration)}.
+ * <p>
+ * With {@link Builder#bulkhead(String, ConcurrencyLimit, int)} the number of concurrent actions of
+ * an adapter is limited, so that a slow downstream system cannot tie up every thread. Actions over
+ * the limit wait in a bounded queue without holding a thread. With
+ * {@link Builder#admission(int, int)} the number of concurrent executions is limited in the same
+ * way, and an execution that can neither start nor be queued completes right away with a
+ * {@link SagaRejectedException}, rather than blocking the caller.
+ * <p>
+ * The timeouts and retries that nodes declare in their {@link no.ssb.saga.api.NodePolicy} are
+ * timed on a {@link HashedTimerWheel}, see {@link Builder#timer(HashedTimerWheel)}. A node that
+ * expires fails its saga, which is then compensated like any other failure.
+ */
+public class SagaExecutor {
+
+    static final int MAX_CACHED_CRITICAL_PATHS = 1024;
+
+    public static SagaExecutor.Builder builder(SagaAdapterRegistry adapters) {
+        return new Builder(adapters);
+    }
+
+    /**
+     * @return an executor that runs each task in a new virtual thread when running on a JDK that
+     * supports virtual threads, otherwise the common fork-join pool.
+     */
+    public static Executor defaultExecutor() {
+        return DefaultExecutorHolder.EXECUTOR;
+    }
+
+    final SagaAdapterRegistry adapters;
+    final Executor executor;
+    final boolean compensateOnFailure;
+    final SagaLog log;
+    final Function<Object, byte[]> serializer;
+    final SagaExecutionObserver observer;
+    final ToLongFunction<String> latencyByAdapter;
+    final SagaBatchDispatcher batchDispatcher;
+    final Map<String, SagaBulkhead> bulkheads;
+    private final SagaBulkhead admission;
+    private final HashedTimerWheel timer;
+
+    private final PriorityBlockingQueue<ReadyNode> readyNodes;
+    private final AtomicLong readySequence = new AtomicLong();
+    private volatile Map<Saga, CriticalPath> criticalPathBySaga; // only when prioritized, replaced on refresh
+
+    private SagaExecutor(Builder builder) {
+        this.adapters = builder.adapters;
+        this.executor = builder.executor != null ? builder.executor : defaultExecutor();
+        this.compensateOnFailure = builder.compensateOnFailure;
+        this.log = builder.log;
+        this.serializer = builder.serializer;
+        this.observer = builder.observer;
+        this.latencyByAdapter = builder.latencyByAdapter;
+        this.criticalPathBySaga = latencyByAdapter != null ? new ConcurrentHashMap<>() : null;
+        this.readyNodes = latencyByAdapter != null ? new PriorityBlockingQueue<>() : null;
+        this.batchDispatcher = new SagaBatchDispatcher(executor, builder.maxBatchSize, builder.maxLinger.toNanos());
+        if (builder.bulkheads.isEmpty()) {
+            this.bulkheads = null;
+        } else {
+            this.bulkheads = new HashMap<>();
+            builder.bulkheads.forEach((adapter, bulkhead) -> bulkheads.put(adapter, bulkhead.apply(executor)));
+        }
+        this.admission = builder.admission != null ? builder.admission.apply(executor) : null;
+        this.timer = builder.timer;
+    }
+
+    /**
+     * Start executing the saga with a new execution id.
+     *
+     * @param saga      the saga to execute.
+     * @param sagaInput input made available to every adapter invocation.
+     * @return a future that completes with the outcome of the execution.
+     * @throws SagaException if an adapter required by the saga is not registered.
+     */
+    public CompletableFuture<SagaResult> execute(Saga saga, Object sagaInput) throws SagaException {
+        return execute(UUID.randomUUID(), saga, sagaInput);
+    }
+
+    /**
+     * Start executing the saga with the given execution id.
+     *
+     * @param executionId the id of this execution.
+     * @param saga        the saga to execute.
+     * @param sagaInput   input made available to every adapter invocation.
+     * @return a future that completes with the outcome of the execution.
+     * @throws SagaException if an adapter required by the saga is not registered.
+     */
+    public CompletableFuture<SagaResult> execute(UUID executionId, Saga saga, Object sagaInput) throws SagaException {
+        adapters.validate(saga);
+        SagaExecution execution = new SagaExecution(executionId, saga, sagaInput, this);
+        if (admission == null) {
+            execution.start();
+            return execution.result;
+        }
+        if (admission.tryAcquire()) {
+            execution.result.whenComplete((result, e) -> admission.release());
+            execution.start();
+            return execution.result;
+        }
+        execution.result.whenComplete((result, e) -> admission.release());
+        if (!admission.enqueue(execution::start)) {
+            return CompletableFuture.failedFuture(new SagaRejectedException("Too many concurrent executions, rejected execution "
+                    + executionId + " of saga " + saga.name));
+        }
+        return execution.result;
+    }
+
+    /**
+     * @return the number of executions started and not yet completed when admission is limited,
+     * otherwise 0.
+     */
+    public int runningSagas() {
+        return admission == null ? 0 : admission.inFlight();
+    }
+
+    /**
+     * @return the number of executions waiting to be started when admission is limited, otherwise 0.
+     */
+    public int queuedSagas() {
+        return admission == null ? 0 : admission.queued();
+    }
+
+    /**
+     * A non-blocking backpressure signal, callers that can shed or defer work should do so while
+     * the executor is saturated.
+     *
+     * @return true if a new execution would not start right away, but be queued or rejected.
+     */
+    public boolean isSaturated() {
+        return admission != null && admission.isSaturated();
+    }
+
+    /**
+     * @param adapter an adapter name.
+     * @return the current limit of concurrent actions of the adapter, or -1 if it has no bulkhead.
+     */
+    public int adapterLimit(String adapter) {
+        SagaBulkhead bulkhead = bulkheads == null ? null : bulkheads.get(adapter);
+        return bulkhead == null ? -1 : bulkhead.limit();
+    }
+
+    /**
+     * @param adapter an adapter name.
+     * @return the number of actions of the adapter executing now, or -1 if it has no bulkhead.
+     */
+    public int adapterInFlight(String adapter) {
+        SagaBulkhead bulkhead = bulkheads == null ? null : bulkheads.get(adapter);
+        return bulkhead == null ? -1 : bulkhead.inFlight();
+    }
+
+    /**
+     * Discard the cached critical path analysis of every saga, so that the next execution of each
+     * saga is prioritized by the current latency estimates. Call it when estimates fed from live
+     * measurements have changed.
+     */
+    public void refreshPriorities() {
+        if (latencyByAdapter != null) {
+            // an analysis still being computed from the old estimates goes into the discarded map
+            criticalPathBySaga = new ConcurrentHashMap<>();
+        }
+    }
+
+    /**
+     * @return the critical path analysis of the saga that executions are prioritized by, or null if
+     * not prioritized.
+     */
+    CriticalPath criticalPath(Saga saga) {
+        if (latencyByAdapter == null) {
+            return null;
+        }
+        Map<Saga, CriticalPath> cache = criticalPathBySaga;
+        CriticalPath criticalPath = cache.get(saga);
+        if (criticalPath == null) {
+            if (cache.size() >= MAX_CACHED_CRITICAL_PATHS) {
+                // keeps sagas that are no longer executed from being held forever
+                criticalPathBySaga = cache = new ConcurrentHashMap<>();
+            }
+            // benign race, a concurrent first execution of the saga only costs a recomputation
+            criticalPath = saga.criticalPath(latencyByAdapter);
+            cache.put(saga, criticalPath);
+        }
+        return criticalPath;
+    }
+
+    /**
+     * @return the timer of node deadlines and retries, created on first use unless given.
+     */
+    HashedTimerWheel timer() {
+        return timer != null ? timer : DefaultTimerHolder.TIMER;
+    }
+
+    /**
+     * Queue a ready node by its slack and dispatch a task that runs the most urgent queued node.
+     * There is one task per queued node, so every task finds a node to run.
+     */
+    void schedule(SagaExecution execution, SagaNode node) {
+        ReadyNode ready = new ReadyNode(execution.criticalPath.slack(node), readySequence.getAndIncrement(), execution, node);
+        readyNodes.add(ready);
+        try {
+            executor.execute(this::runMostUrgent);
+        } catch (RuntimeException e) {
+            if (readyNodes.remove(ready)) {
+                execution.abandon(node, e);
+            } else {
+                // a task of another execution already ran the node, so run the node left without a task
+                runMostUrgent();
+            }
+        }
+    }
+
+    private void runMostUrgent() {
+        ReadyNode ready = readyNodes.poll();
+        ready.execution.run(ready.node);
+    }
+
+    private static final class ReadyNode implements Comparable<ReadyNode> {
+        final long slack;
+        final long sequence;
+        final SagaExecution execution;
+        final SagaNode node;
+
+        ReadyNode(long slack, long sequence, SagaExecution execution, SagaNode node) {
+            this.slack = slack;
+            this.sequence = sequence;
+            this.execution = execution;
+            this.node = node;
+        }
+
+        @Override
+        public int compareTo(ReadyNode o) {
+            int c = Long.compare(slack, o.slack);
+            return c != 0 ? c : Long.compare(sequence, o.sequence);
+        }
+    }
+
+    public static class Builder {
+        private final SagaAdapterRegistry adapters;
+        private Executor executor;
+        private boolean compensateOnFailure;
+        private SagaLog log;
+        private Function<Object, byte[]> serializer;
+        private SagaExecutionObserver observer = SagaExecutionObserver.NO_OP;
+        private ToLongFunction<String> latencyByAdapter;
+        private int maxBatchSize = 64;
+        private Duration maxLinger = Duration.ZERO;
+        private final Map<String, Function<Executor, SagaBulkhead>> bulkheads = new HashMap<>();
+        private Function<Executor, SagaBulkhead> admission;
+        private HashedTimerWheel timer;
+
+        private Builder(SagaAdapterRegistry adapters) {
+            this.adapters = adapters;
+        }
+
+        /**
+         * @param executor the executor to run adapter invocations on, defaults to {@link #defaultExecutor()}.
+         * @return this builder.
+         */
+        public Builder executor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * @param compensateOnFailure whether to compensate the completed nodes of a failed saga
+         *                            before completing its result, defaults to false.
+         * @return this builder.
+         */
+        public Builder compensateOnFailure(boolean compensateOnFailure) {
+            this.compensateOnFailure = compensateOnFailure;
+            return this;
+        }
+
+        /**
+         * @param log        the log to record every execution in.
+         * @param serializer serializes saga inputs and action outputs for the log.
+         * @return this builder.
+         */
+        public Builder log(SagaLog log, Function<Object, byte[]> serializer) {
+            this.log = log;
+            this.serializer = serializer;
+            return this;
+        }
+
+        /**
+         * @param observer receives timing events of every execution, defaults to {@link SagaExecutionObserver#NO_OP}.
+         * @return this builder.
+         */
+        public Builder observer(SagaExecutionObserver observer) {
+            this.observer = observer != null ? observer : SagaExecutionObserver.NO_OP;
+            return this;
+        }
+
+        /**
+         * Run ready nodes in order of least slack rather than in the order they became ready. The
+         * critical path analysis of a saga is computed on its first execution and cached by the
+         * executor until {@link SagaExecutor#refreshPriorities()}, for a bounded number of sagas.
+         *
+         * @param latencyByAdapter the estimated latency of an action by adapter name, e.g. from
+         *                         measurements, or null to run ready nodes in the order they became
+         *                         ready, which is the default.
+         * @return this builder.
+         */
+        public Builder prioritizeBySlack(ToLongFunction<String> latencyByAdapter) {
+            this.latencyByAdapter = latencyByAdapter;
+            return this;
+        }
+
+        /**
+         * Bound the batches of actions given to a {@link BatchingSagaAdapter}. Defaults to batches
+         * of at most 64 actions and no linger time, i.e. a batch holds the actions that became
+         * ready while the previous batch of the same adapter was waiting for a thread.
+         *
+         * @param maxBatchSize the largest number of actions in a batch.
+         * @param maxLinger    how long to wait for more actions after the first action of a batch.
+         * @return this builder.
+         */
+        public Builder batching(int maxBatchSize, Duration maxLinger) {
+            if (maxBatchSize < 1) {
+                throw new IllegalArgumentException("maxBatchSize must be at least 1: " + maxBatchSize);
+            }
+            if (maxLinger.isNegative()) {
+                throw new IllegalArgumentException("maxLinger must not be negative: " + maxLinger);
+            }
+            this.maxBatchSize = maxBatchSize;
+            this.maxLinger = maxLinger;
+            return this;
+        }
+
+        /**
+         * Limit the number of concurrent actions of an adapter, across all executions. An action
+         * over the limit waits in a queue, and fails its execution with a
+         * {@link SagaRejectedException} if the queue is full.
+         *
+         * @param adapter   the adapter name.
+         * @param limit     the limit, see {@link ConcurrencyLimit#fixed(int)} and
+         *                  {@link ConcurrencyLimit#aimd(int, int, int, Duration)}.
+         * @param maxQueued the largest number of actions waiting for the adapter.
+         * @return this builder.
+         */
+        public Builder bulkhead(String adapter, ConcurrencyLimit limit, int maxQueued) {
+            if (maxQueued < 0) {
+                throw new IllegalArgumentException("maxQueued must not be negative: " + maxQueued);
+            }
+            bulkheads.put(adapter, executor -> new SagaBulkhead(limit, maxQueued, executor));
+            return this;
+        }
+
+        /**
+         * Limit the number of concurrent executions. An execution over the limit waits in a queue
+         * before it is started, and completes with a {@link SagaRejectedException} if the queue is
+         * full. Unlimited by default.
+         *
+         * @param maxConcurrentSagas the largest number of executions started and not completed.
+         * @param maxQueuedSagas     the largest number of executions waiting to be started.
+         * @return this builder.
+         */
+        public Builder admission(int maxConcurrentSagas, int maxQueuedSagas) {
+            ConcurrencyLimit limit = ConcurrencyLimit.fixed(maxConcurrentSagas);
+            if (maxQueuedSagas < 0) {
+                throw new IllegalArgumentException("maxQueuedSagas must not be negative: " + maxQueuedSagas);
+            }
+            this.admission = executor -> new SagaBulkhead(limit, maxQueuedSagas, executor);
+            return this;
+        }
+
+        /**
+         * @param timer the timer of node deadlines and retry delays. Defaults to a timer with a
+         *              tick of 1 millisecond shared by all executors, started on first use.
+         * @return this builder.
+         */
+        public Builder timer(HashedTimerWheel timer) {
+            this.timer = timer;
+            return this;
+        }
+
+        public SagaExecutor build() {
+            return new SagaExecutor(this);
+        }
+    }
+
+    private static class DefaultTimerHolder {
+        private static final HashedTimerWheel TIMER = new HashedTimerWheel();
+    }
+
+    private static class DefaultExecutorHolder {
+        private static final Executor EXECUTOR = createDefaultExecutor();
+
+        private static Executor createDefaultExecutor() {
+            try {
+                // compiled for an older release, so look up virtual thread support reflectively
+                Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                return (Executor) factory.invoke(null);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                return ForkJoinPool.commonPool();
+            }
+        }
+    }
+}
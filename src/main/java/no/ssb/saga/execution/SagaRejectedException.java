@@ -0,0 +1,13 @@
+package no.ssb.saga.execution;
+
+import no.ssb.saga.api.SagaException;
+
+/**
+ * A saga execution, or an action of one, was rejected because the limits of the executor are
+ * saturated and its queue is full. Retrying later may succeed.
+ */
+public class SagaRejectedException extends SagaException {
+    public SagaRejectedException(String message) {
+        super(message);
+    }
+}
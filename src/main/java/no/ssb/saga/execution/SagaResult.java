@@ -0,0 +1,120 @@
+package no.ssb.saga.execution;
+
+import no.ssb.saga.api.Saga;
+import no.ssb.saga.api.SagaNode;
+
+import java.time.Duration;
+import java.util.UUID;
+
+/**
+ * The outcome of a saga execution.
+ */
+public class SagaResult {
+
+    public enum Status {
+        /**
+         * The actions of all nodes completed.
+         */
+        COMPLETED,
+        /**
+         * An action failed and the saga was aborted without compensation.
+         */
+        FAILED,
+        /**
+         * An action failed and every node whose action had completed was compensated.
+         */
+        COMPENSATED,
+        /**
+         * An action failed and at least one compensating action failed as well.
+         */
+        COMPENSATION_FAILED
+    }
+
+    public final UUID executionId;
+    public final Saga saga;
+    public final Status status;
+
+    private final Object[] outputByNodeIndex;
+    private final SagaNode failedNode;
+    private final Throwable failure;
+    private final SagaExecution.Compensation compensation;
+
+    SagaResult(UUID executionId, Saga saga, Status status, Object[] outputByNodeIndex, SagaNode failedNode, Throwable failure) {
+        this(executionId, saga, status, outputByNodeIndex, failedNode, failure, null);
+    }
+
+    SagaResult(UUID executionId, Saga saga, Status status, Object[] outputByNodeIndex, SagaNode failedNode, Throwable failure, SagaExecution.Compensation compensation) {
+        this.executionId = executionId;
+        this.saga = saga;
+        this.status = status;
+        this.outputByNodeIndex = outputByNodeIndex;
+        this.failedNode = failedNode;
+        this.failure = failure;
+        this.compensation = compensation;
+    }
+
+    /**
+     * @param node a node of the executed saga.
+     * @return the output of the action of the node, or null if the action did not complete or had no output.
+     */
+    public Object output(SagaNode node) {
+        return outputByNodeIndex[node.index];
+    }
+
+    /**
+     * @return the node whose action failed, or null if no action failed.
+     */
+    public SagaNode failedNode() {
+        return failedNode;
+    }
+
+    /**
+     * @return the cause of the failure, or null if no action failed.
+     */
+    public Throwable failure() {
+        return failure;
+    }
+
+    /**
+     * @param node a node of the executed saga.
+     * @return true if the compensating action of the node was executed, whether it succeeded or not.
+     */
+    public boolean isCompensated(SagaNode node) {
+        return compensation != null && compensation.nanosByNodeIndex[node.index] != 0;
+    }
+
+    /**
+     * @param node a node of the executed saga.
+     * @return how long the compensating action of the node took, or null if it was not compensated.
+     */
+    public Duration compensationLatency(SagaNode node) {
+        return isCompensated(node) ? Duration.ofNanos(compensation.nanosByNodeIndex[node.index]) : null;
+    }
+
+    /**
+     * @param node a node of the executed saga.
+     * @return the cause of the failure of the compensating action of the node, or null if it did not fail.
+     */
+    public Throwable compensationFailure(SagaNode node) {
+        return compensation != null ? compensation.failureByNodeIndex[node.index] : null;
+    }
+
+    /**
+     * @return the time from the start of the compensation phase until every compensating action
+     * was done, or null if the saga was not compensated.
+     */
+    public Duration compensationDuration() {
+        return compensation != null ? Duration.ofNanos(compensation.totalNanos) : null;
+    }
+
+    @Override
+    public String toString() {
+        return "SagaResult{" +
+                "executionId=" + executionId +
+                ", saga=" + saga.name +
+                ", status=" + status +
+                (failedNode != null ? ", failedNode=" + failedNode.id : "") +
+                (failure != null ? ", failure=" + failure : "") +
+                '}';
+    }
+}
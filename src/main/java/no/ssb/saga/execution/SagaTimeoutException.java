@@ -0,0 +1,13 @@
+package no.ssb.saga.execution;
+
+import no.ssb.saga.api.SagaException;
+
+/**
+ * A node was not done by the deadline of its {@link no.ssb.saga.api.NodePolicy}, the failure of
+ * the saga it expired in.
+ */
+public class SagaTimeoutException extends SagaException {
+    public SagaTimeoutException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,542 @@
+package no.ssb.saga.execution.log;
+
+import no.ssb.saga.api.Saga;
+import no.ssb.saga.api.SagaException;
+import no.ssb.saga.api.SagaFingerprint;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * {@link SagaLog} that appends records to segment files in a directory. Appending threads only
+ * encode their record and queue it, a single writer thread drains the queue and writes everything
+ * queued so far with one write and, depending on the {@link FsyncPolicy}, one fsync. Under load
+ * every fsync therefore covers the records of many concurrent executions. A segment is closed and
+ * a new one started when it exceeds the configured segment size. Opening a log truncates a torn
+ * record at the end of the last segment, left by a crash in the middle of a write, and then starts
+ * a new segment.
+ * <p>
+ * Compaction collapses all closed segments into a snapshot holding only the records needed to
+ * rebuild the executions that had not ended, see {@link SagaLogSnapshot}, and deletes the
+ * segments it covers. Reading the log starts from the latest snapshot, so recovery time depends on
+ * the number of in-flight executions and the size of the segments written since the last
+ * compaction, not on the total history. Compaction runs in the background at the configured
+ * interval, or on demand with {@link #compact()}.
+ */
+public final class FileSagaLog implements SagaLog, Closeable {
+
+    static final String SEGMENT_SUFFIX = ".sagalog";
+
+    public static Builder builder(Path directory) {
+        return new Builder(directory);
+    }
+
+    private final Path directory;
+    private final FsyncPolicy fsyncPolicy;
+    private final long fsyncIntervalNanos;
+    private final long maxBatchDelayNanos;
+    private final long segmentSize;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private List<Pending> queue = new ArrayList<>();
+    private boolean closed;
+    private IOException writeFailure;
+
+    private final Thread writer;
+    private ByteBuffer writeBuffer = ByteBuffer.allocateDirect(64 * 1024);
+    private FileChannel segment;
+    private volatile long segmentSequence;
+    private long lastFsyncNanos = System.nanoTime();
+    private boolean unforced;
+
+    private final LongAdder records = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder fsyncs = new LongAdder();
+    private final LongAdder compactions = new LongAdder();
+
+    private final Object compactionLock = new Object();
+    private final ScheduledExecutorService compactor;
+
+    private FileSagaLog(Builder builder) throws IOException {
+        this.directory = builder.directory;
+        this.fsyncPolicy = builder.fsyncPolicy;
+        this.fsyncIntervalNanos = builder.fsyncInterval.toNanos();
+        this.maxBatchDelayNanos = builder.maxBatchDelay.toNanos();
+        this.segmentSize = builder.segmentSize;
+        Files.createDirectories(directory);
+        List<Path> segments = segments(directory);
+        if (!segments.isEmpty()) {
+            Path last = segments.get(segments.size() - 1);
+            truncateTornTail(last);
+            segmentSequence = sequenceOf(last);
+        }
+        List<Path> snapshots = SagaLogSnapshot.snapshots(directory);
+        if (!snapshots.isEmpty()) {
+            // all covered segments may have been deleted, never reuse their sequence numbers
+            segmentSequence = Math.max(segmentSequence, SagaLogSnapshot.sequenceOf(snapshots.get(snapshots.size() - 1)));
+        }
+        openNextSegment();
+        writer = new Thread(this::writeLoop, "saga-log-writer-" + directory.getFileName());
+        writer.setDaemon(true);
+        writer.start();
+        if (builder.compactionInterval.isZero()) {
+            compactor = null;
+        } else {
+            compactor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "saga-log-compactor-" + directory.getFileName());
+                thread.setDaemon(true);
+                return thread;
+            });
+            long intervalNanos = builder.compactionInterval.toNanos();
+            compactor.scheduleWithFixedDelay(this::compactQuietly, intervalNanos, intervalNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> append(SagaLogRecord record) {
+        Pending pending = new Pending(record.encode());
+        lock.lock();
+        try {
+            if (writeFailure != null) {
+                pending.future.completeExceptionally(new UncheckedIOException("Saga log write failed", writeFailure));
+            } else if (closed) {
+                pending.future.completeExceptionally(new IllegalStateException("Saga log is closed"));
+            } else {
+                queue.add(pending);
+                if (queue.size() == 1) {
+                    notEmpty.signal();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        return pending.future;
+    }
+
+    /**
+     * Write and force all queued records, then close the current segment.
+     */
+    @Override
+    public void close() throws IOException {
+        if (compactor != null) {
+            compactor.shutdown();
+            try {
+                compactor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        segment.close();
+    }
+
+    /**
+     * @return the number of records written.
+     */
+    public long records() {
+        return records.sum();
+    }
+
+    /**
+     * @return the number of batches written, each with a single write call.
+     */
+    public long batches() {
+        return batches.sum();
+    }
+
+    /**
+     * @return the number of times written records were forced to the storage device.
+     */
+    public long fsyncs() {
+        return fsyncs.sum();
+    }
+
+    /**
+     * Collapse every closed segment into a new snapshot together with the previous snapshot, then
+     * delete the covered segments and the previous snapshot. Safe to call while records are being
+     * appended, the segment currently written to is never touched.
+     *
+     * @return the number of segments compacted.
+     */
+    public int compact() throws IOException {
+        synchronized (compactionLock) {
+            long active = segmentSequence;
+            SagaLogSnapshot previous = SagaLogSnapshot.latest(directory);
+            long after = previous == null ? 0 : previous.throughSegment;
+            List<Path> closed = new ArrayList<>();
+            for (Path path : segments(directory)) {
+                long sequence = sequenceOf(path);
+                if (sequence > after && sequence < active) {
+                    closed.add(path);
+                }
+            }
+            if (closed.isEmpty()) {
+                return 0;
+            }
+            SagaLogSnapshot.LiveExecutions live = new SagaLogSnapshot.LiveExecutions();
+            if (previous != null) {
+                previous.records.forEach(live);
+            }
+            for (Path path : closed) {
+                ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+                SagaLogRecord record;
+                while ((record = SagaLogRecord.decode(buffer)) != null) {
+                    live.accept(record);
+                }
+                if (buffer.hasRemaining()) {
+                    throw new SagaException("Corrupt saga log segment " + path.getFileName() + " at position " + buffer.position());
+                }
+            }
+            long through = sequenceOf(closed.get(closed.size() - 1));
+            Path written = SagaLogSnapshot.write(directory, through, live.records());
+            forceDirectory(directory);
+            for (Path path : segments(directory)) {
+                if (sequenceOf(path) <= through) {
+                    Files.deleteIfExists(path);
+                }
+            }
+            for (Path path : SagaLogSnapshot.snapshots(directory)) {
+                if (!path.equals(written)) {
+                    Files.deleteIfExists(path);
+                }
+            }
+            compactions.increment();
+            return closed.size();
+        }
+    }
+
+    /**
+     * @return the number of completed compactions.
+     */
+    public long compactions() {
+        return compactions.sum();
+    }
+
+    private void compactQuietly() {
+        try {
+            compact();
+        } catch (IOException | RuntimeException e) {
+            // the segments stay in place and are compacted on the next attempt
+        }
+    }
+
+    private void writeLoop() {
+        List<Pending> batch = new ArrayList<>();
+        while (true) {
+            lock.lock();
+            try {
+                while (queue.isEmpty() && !closed) {
+                    if (unforced && fsyncPolicy == FsyncPolicy.INTERVAL) {
+                        notEmpty.awaitNanos(fsyncIntervalNanos);
+                        break;
+                    }
+                    notEmpty.awaitUninterruptibly();
+                }
+            } catch (InterruptedException e) {
+                // only the log itself interrupts the writer, treat as close
+                closed = true;
+            } finally {
+                lock.unlock();
+            }
+            if (maxBatchDelayNanos > 0) {
+                // linger to let more concurrent appends join this batch
+                LockSupport.parkNanos(maxBatchDelayNanos);
+            }
+            boolean closing;
+            lock.lock();
+            try {
+                List<Pending> drained = queue;
+                queue = batch;
+                batch = drained;
+                closing = closed;
+            } finally {
+                lock.unlock();
+            }
+            try {
+                write(batch);
+                if (closing && fsyncPolicy != FsyncPolicy.NEVER) {
+                    force();
+                }
+                for (Pending pending : batch) {
+                    pending.future.complete(null);
+                }
+            } catch (IOException | RuntimeException e) {
+                IOException failure = e instanceof IOException ? (IOException) e : new IOException(e);
+                lock.lock();
+                try {
+                    writeFailure = failure;
+                    batch.addAll(queue);
+                    queue.clear();
+                    closing = true;
+                } finally {
+                    lock.unlock();
+                }
+                for (Pending pending : batch) {
+                    pending.future.completeExceptionally(new UncheckedIOException("Saga log write failed", failure));
+                }
+            }
+            batch.clear();
+            if (closing) {
+                return;
+            }
+        }
+    }
+
+    private void write(List<Pending> batch) throws IOException {
+        if (!batch.isEmpty()) {
+            int length = 0;
+            for (Pending pending : batch) {
+                length += pending.frame.length;
+            }
+            if (segment.position() > 0 && segment.position() + length > segmentSize) {
+                if (fsyncPolicy != FsyncPolicy.NEVER) {
+                    force();
+                }
+                segment.close();
+                openNextSegment();
+            }
+            if (writeBuffer.capacity() < length) {
+                writeBuffer = ByteBuffer.allocateDirect(Integer.highestOneBit(length - 1) << 1);
+            }
+            writeBuffer.clear();
+            for (Pending pending : batch) {
+                writeBuffer.put(pending.frame);
+            }
+            writeBuffer.flip();
+            while (writeBuffer.hasRemaining()) {
+                segment.write(writeBuffer);
+            }
+            records.add(batch.size());
+            batches.increment();
+            unforced = true;
+        }
+        if (unforced) {
+            if (fsyncPolicy == FsyncPolicy.EVERY_BATCH
+                    || (fsyncPolicy == FsyncPolicy.INTERVAL && System.nanoTime() - lastFsyncNanos >= fsyncIntervalNanos)) {
+                force();
+            }
+        }
+    }
+
+    private void force() throws IOException {
+        segment.force(false);
+        lastFsyncNanos = System.nanoTime();
+        unforced = false;
+        fsyncs.increment();
+    }
+
+    private void openNextSegment() throws IOException {
+        segmentSequence++;
+        Path path = directory.resolve(String.format("%020d%s", segmentSequence, SEGMENT_SUFFIX));
+        segment = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        if (fsyncPolicy != FsyncPolicy.NEVER) {
+            forceDirectory(directory);
+        }
+    }
+
+    private static void truncateTornTail(Path segment) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(segment));
+        while (SagaLogRecord.decode(buffer) != null) {
+            // skip past every intact record
+        }
+        if (buffer.hasRemaining()) {
+            try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+                channel.truncate(buffer.position());
+                channel.force(true);
+            }
+        }
+    }
+
+    private static void forceDirectory(Path directory) {
+        // makes the new segment file itself durable, not supported on all platforms
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // best effort
+        }
+    }
+
+    /**
+     * Read the records of the latest snapshot followed by every record of the segments written
+     * after it, in append order. A record that is incomplete or fails its checksum ends the last
+     * segment, which is expected after a crash in the middle of a write. The same in any other
+     * segment means the log is corrupt. Must not run concurrently with compaction of the same log.
+     *
+     * @param directory the log directory.
+     * @param consumer  receives every record.
+     * @throws SagaException if the snapshot or a segment other than the last one is corrupt.
+     */
+    public static void read(Path directory, Consumer<SagaLogRecord> consumer) throws IOException, SagaException {
+        SagaLogSnapshot snapshot = SagaLogSnapshot.latest(directory);
+        long after = 0;
+        if (snapshot != null) {
+            snapshot.records.forEach(consumer);
+            after = snapshot.throughSegment;
+        }
+        List<Path> segments = new ArrayList<>();
+        for (Path path : segments(directory)) {
+            if (sequenceOf(path) > after) {
+                segments.add(path);
+            }
+        }
+        for (int i = 0; i < segments.size(); i++) {
+            Path path = segments.get(i);
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+            SagaLogRecord record;
+            while ((record = SagaLogRecord.decode(buffer)) != null) {
+                consumer.accept(record);
+            }
+            if (buffer.hasRemaining() && i < segments.size() - 1) {
+                throw new SagaException("Corrupt saga log segment " + path.getFileName() + " at position " + buffer.position());
+            }
+        }
+    }
+
+    /**
+     * Rebuild the state of every execution in the log that has been started but not ended.
+     *
+     * @param directory the log directory.
+     * @param sagas     resolves the saga definition of an execution from its fingerprint, for
+     *                  instance {@code SagaRegistry::get}.
+     * @return the in-flight executions in the order they were started.
+     * @throws SagaException if the log is corrupt or an in-flight execution refers to an unknown
+     *                       saga. Ended executions are never resolved.
+     */
+    public static List<RecoveredExecution> recover(Path directory, Function<SagaFingerprint, Saga> sagas) throws IOException, SagaException {
+        RecoveredExecution.Collector collector = new RecoveredExecution.Collector(sagas);
+        read(directory, collector);
+        return collector.inFlight();
+    }
+
+    static List<Path> segments(Path directory) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return segments;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for (Path path : stream) {
+                segments.add(path);
+            }
+        }
+        segments.sort((a, b) -> Long.compare(sequenceOf(a), sequenceOf(b)));
+        return segments;
+    }
+
+    private static long sequenceOf(Path segment) {
+        String name = segment.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            throw new SagaException("Not a saga log segment: " + name);
+        }
+    }
+
+    private static final class Pending {
+        final byte[] frame;
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        Pending(byte[] frame) {
+            this.frame = frame;
+        }
+    }
+
+    public static class Builder {
+        private final Path directory;
+        private FsyncPolicy fsyncPolicy = FsyncPolicy.EVERY_BATCH;
+        private Duration fsyncInterval = Duration.ofMillis(100);
+        private Duration maxBatchDelay = Duration.ZERO;
+        private long segmentSize = 64L * 1024 * 1024;
+        private Duration compactionInterval = Duration.ZERO;
+
+        private Builder(Path directory) {
+            this.directory = directory;
+        }
+
+        /**
+         * @param fsyncPolicy when to force written records, defaults to {@link FsyncPolicy#EVERY_BATCH}.
+         * @return this builder.
+         */
+        public Builder fsyncPolicy(FsyncPolicy fsyncPolicy) {
+            this.fsyncPolicy = fsyncPolicy;
+            return this;
+        }
+
+        /**
+         * @param fsyncInterval the interval of {@link FsyncPolicy#INTERVAL}, defaults to 100 ms.
+         * @return this builder.
+         */
+        public Builder fsyncInterval(Duration fsyncInterval) {
+            this.fsyncInterval = fsyncInterval;
+            return this;
+        }
+
+        /**
+         * @param maxBatchDelay how long the writer waits for more records before writing a batch,
+         *                      adding up to this much latency to every append in exchange for
+         *                      fewer and larger writes. Defaults to zero.
+         * @return this builder.
+         */
+        public Builder maxBatchDelay(Duration maxBatchDelay) {
+            this.maxBatchDelay = maxBatchDelay;
+            return this;
+        }
+
+        /**
+         * @param segmentSize the size in bytes after which a new segment file is started, defaults to 64 MiB.
+         * @return this builder.
+         */
+        public Builder segmentSize(long segmentSize) {
+            this.segmentSize = segmentSize;
+            return this;
+        }
+
+        /**
+         * @param compactionInterval how often to compact closed segments in the background,
+         *                           defaults to zero which disables background compaction.
+         * @return this builder.
+         */
+        public Builder compactionInterval(Duration compactionInterval) {
+            this.compactionInterval = compactionInterval;
+            return this;
+        }
+
+        /**
+         * Open the log for appending, starting a new segment after any existing ones.
+         */
+        public FileSagaLog build() throws IOException {
+            return new FileSagaLog(this);
+        }
+    }
+}
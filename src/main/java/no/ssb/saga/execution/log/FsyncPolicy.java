@@ -0,0 +1,29 @@
+package no.ssb.saga.execution.log;
+
+/**
+ * When a {@link FileSagaLog} forces written records to the storage device, trading append latency
+ * for durability.
+ */
+public enum FsyncPolicy {
+
+    /**
+     * Every batch of records is forced before their append futures complete. A completed future
+     * means the record survives both process and operating system crashes. Concurrent appends are
+     * group committed, one fsync covers all records appended while the previous one was running.
+     */
+    EVERY_BATCH,
+
+    /**
+     * Append futures complete once the records are written to the operating system, and written
+     * records are forced at most once per configured interval. A completed future means the
+     * record survives a process crash, records written within the last interval may be lost if the
+     * operating system crashes.
+     */
+    INTERVAL,
+
+    /**
+     * Records are never explicitly forced, append futures complete once the records are written to
+     * the operating system.
+     */
+    NEVER
+}
@@ -0,0 +1,187 @@
+package no.ssb.saga.execution.log;
+
+import no.ssb.saga.api.Saga;
+import no.ssb.saga.api.SagaException;
+import no.ssb.saga.api.SagaFingerprint;
+import no.ssb.saga.api.SagaNode;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * The state of a saga execution that was started but not ended according to the execution log,
+ * rebuilt against its saga definition. Outputs and input are the serialized bytes as logged.
+ */
+public class RecoveredExecution {
+
+    public enum NodeStatus {
+        NOT_STARTED,
+        /**
+         * The action was started but its outcome is unknown, it may or may not have taken effect.
+         */
+        STARTED,
+        COMPLETED,
+        FAILED,
+        COMPENSATED,
+        COMPENSATION_FAILED
+    }
+
+    private static final NodeStatus[] STATUSES = NodeStatus.values();
+
+    public final UUID executionId;
+    public final Saga saga;
+
+    private final byte[] input;
+    private final byte[] status; // NodeStatus ordinal by node index
+    private final byte[][] outputs;
+    private boolean failed;
+
+    RecoveredExecution(UUID executionId, Saga saga, byte[] input) {
+        this.executionId = executionId;
+        this.saga = saga;
+        this.input = input;
+        this.status = new byte[saga.nodeCount()];
+        this.outputs = new byte[saga.nodeCount()][];
+    }
+
+    /**
+     * @return the serialized saga input.
+     */
+    public byte[] input() {
+        return input.clone();
+    }
+
+    /**
+     * @param node a node of the saga.
+     * @return the last logged status of the node.
+     */
+    public NodeStatus status(SagaNode node) {
+        return STATUSES[status[node.index]];
+    }
+
+    /**
+     * @param node a node of the saga.
+     * @return the serialized output of the completed action of the node, or null if the action did
+     * not complete.
+     */
+    public byte[] output(SagaNode node) {
+        byte[] output = outputs[node.index];
+        return output == null ? null : output.clone();
+    }
+
+    /**
+     * @return true if an action of the execution failed, meaning the execution must be compensated
+     * rather than resumed.
+     */
+    public boolean isFailed() {
+        return failed;
+    }
+
+    private void apply(SagaLogRecord record) {
+        SagaNode node = saga.getNode(record.nodeId);
+        if (node == null) {
+            throw new SagaException("Saga log refers to unknown node(" + record.nodeId + ") in saga " + saga.name + ", execution " + executionId);
+        }
+        switch (record.type) {
+            case ACTION_STARTED:
+                status[node.index] = (byte) NodeStatus.STARTED.ordinal();
+                break;
+            case ACTION_COMPLETED:
+                status[node.index] = (byte) NodeStatus.COMPLETED.ordinal();
+                outputs[node.index] = record.data();
+                break;
+            case ACTION_FAILED:
+                // the action of an expired node may complete, and be logged, before its failure
+                if (status[node.index] != NodeStatus.COMPLETED.ordinal()) {
+                    status[node.index] = (byte) NodeStatus.FAILED.ordinal();
+                }
+                failed = true;
+                break;
+            case COMPENSATION_COMPLETED:
+                status[node.index] = (byte) NodeStatus.COMPENSATED.ordinal();
+                break;
+            case COMPENSATION_FAILED:
+                status[node.index] = (byte) NodeStatus.COMPENSATION_FAILED.ordinal();
+                break;
+            default:
+                throw new IllegalArgumentException("Not a node record: " + record.type);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "RecoveredExecution{" +
+                "executionId=" + executionId +
+                ", saga=" + saga.name +
+                ", failed=" + failed +
+                '}';
+    }
+
+    /**
+     * Replays log records into the executions they belong to. Records of executions whose start
+     * is not in the log are ignored. The saga of an execution is only resolved once the whole log
+     * is replayed and the execution is known to be in flight, so that ended executions of sagas
+     * that are no longer defined do not prevent recovery.
+     */
+    static class Collector implements Consumer<SagaLogRecord> {
+        private final Function<SagaFingerprint, Saga> sagas;
+        private final Map<UUID, Started> executions = new LinkedHashMap<>();
+
+        Collector(Function<SagaFingerprint, Saga> sagas) {
+            this.sagas = sagas;
+        }
+
+        @Override
+        public void accept(SagaLogRecord record) {
+            switch (record.type) {
+                case SAGA_STARTED:
+                    executions.put(record.executionId, new Started(record));
+                    break;
+                case SAGA_ENDED:
+                    executions.remove(record.executionId);
+                    break;
+                default:
+                    Started started = executions.get(record.executionId);
+                    if (started != null) {
+                        started.nodeRecords.add(record);
+                    }
+            }
+        }
+
+        List<RecoveredExecution> inFlight() {
+            List<RecoveredExecution> inFlight = new ArrayList<>(executions.size());
+            for (Map.Entry<UUID, Started> entry : executions.entrySet()) {
+                UUID executionId = entry.getKey();
+                Started started = entry.getValue();
+                SagaFingerprint fingerprint = started.sagaStarted.fingerprint();
+                Saga saga = sagas.apply(fingerprint);
+                if (saga == null) {
+                    throw new SagaException("Saga log refers to unknown saga with fingerprint " + fingerprint + ", execution " + executionId);
+                }
+                RecoveredExecution execution = new RecoveredExecution(executionId, saga, started.sagaStarted.input());
+                for (SagaLogRecord record : started.nodeRecords) {
+                    execution.apply(record);
+                }
+                inFlight.add(execution);
+            }
+            return inFlight;
+        }
+    }
+
+    /**
+     * The records of an execution that has not ended so far in the replay.
+     */
+    private static final class Started {
+        final SagaLogRecord sagaStarted;
+        final List<SagaLogRecord> nodeRecords = new ArrayList<>();
+
+        Started(SagaLogRecord sagaStarted) {
+            this.sagaStarted = sagaStarted;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package no.ssb.saga.execution.log;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Append-only log of saga execution records, see {@link SagaLogRecord}.
+ */
+public interface SagaLog {
+
+    /**
+     * Append a record. Records are persisted in append order, so when the future of a record
+     * completes, all records appended before it by the same thread are persisted as well.
+     *
+     * @param record the record to append.
+     * @return a future that completes once the record is persisted as far as the durability
+     * guarantee of the log goes, or completes exceptionally if the record could not be written.
+     */
+    CompletableFuture<Void> append(SagaLogRecord record);
+}
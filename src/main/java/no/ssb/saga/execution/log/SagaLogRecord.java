@@ -0,0 +1,227 @@
+package no.ssb.saga.execution.log;
+
+import no.ssb.saga.api.SagaException;
+import no.ssb.saga.api.SagaFingerprint;
+import no.ssb.saga.execution.SagaResult;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.zip.CRC32C;
+
+/**
+ * One entry of the saga execution log. Nodes are referred to by id rather than node index, because
+ * structurally equal sagas share a fingerprint even when their nodes were declared in a different
+ * order. The framed binary form is:
+ * <pre>
+ * int    body length
+ * int    CRC32C of body
+ * body:
+ *   byte   type
+ *   long   execution id, most significant bits
+ *   long   execution id, least significant bits
+ *   short  node id length in bytes, unsigned, 0xFFFF if no node
+ *   bytes  node id, UTF-8
+ *   int    data length
+ *   bytes  data
+ * </pre>
+ */
+public final class SagaLogRecord {
+
+    public enum Type {
+        /**
+         * Data is the 16 byte saga fingerprint followed by the serialized saga input.
+         */
+        SAGA_STARTED,
+        /**
+         * Written before the action of the node is executed.
+         */
+        ACTION_STARTED,
+        /**
+         * Data is the serialized output of the action.
+         */
+        ACTION_COMPLETED,
+        /**
+         * Data is the description of the failure, UTF-8.
+         */
+        ACTION_FAILED,
+        COMPENSATION_COMPLETED,
+        /**
+         * Data is the description of the failure, UTF-8.
+         */
+        COMPENSATION_FAILED,
+        /**
+         * Data is the name of the final {@link SagaResult.Status}, UTF-8.
+         */
+        SAGA_ENDED
+    }
+
+    static final int FRAME_HEADER_LENGTH = 8;
+    static final int NO_NODE = 0xFFFF;
+
+    private static final Type[] TYPES = Type.values();
+    private static final byte[] EMPTY = new byte[0];
+
+    public final Type type;
+    public final UUID executionId;
+    public final String nodeId;
+    private final byte[] data;
+
+    private SagaLogRecord(Type type, UUID executionId, String nodeId, byte[] data) {
+        this.type = type;
+        this.executionId = executionId;
+        this.nodeId = nodeId;
+        this.data = data == null ? EMPTY : data;
+    }
+
+    public static SagaLogRecord sagaStarted(UUID executionId, SagaFingerprint fingerprint, byte[] input) {
+        byte[] fingerprintBytes = fingerprint.toBytes();
+        byte[] data = Arrays.copyOf(fingerprintBytes, fingerprintBytes.length + (input == null ? 0 : input.length));
+        if (input != null) {
+            System.arraycopy(input, 0, data, fingerprintBytes.length, input.length);
+        }
+        return new SagaLogRecord(Type.SAGA_STARTED, executionId, null, data);
+    }
+
+    public static SagaLogRecord actionStarted(UUID executionId, String nodeId) {
+        return new SagaLogRecord(Type.ACTION_STARTED, executionId, nodeId, null);
+    }
+
+    public static SagaLogRecord actionCompleted(UUID executionId, String nodeId, byte[] output) {
+        return new SagaLogRecord(Type.ACTION_COMPLETED, executionId, nodeId, output);
+    }
+
+    public static SagaLogRecord actionFailed(UUID executionId, String nodeId, Throwable cause) {
+        return new SagaLogRecord(Type.ACTION_FAILED, executionId, nodeId, String.valueOf(cause).getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static SagaLogRecord compensationCompleted(UUID executionId, String nodeId) {
+        return new SagaLogRecord(Type.COMPENSATION_COMPLETED, executionId, nodeId, null);
+    }
+
+    public static SagaLogRecord compensationFailed(UUID executionId, String nodeId, Throwable cause) {
+        return new SagaLogRecord(Type.COMPENSATION_FAILED, executionId, nodeId, String.valueOf(cause).getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static SagaLogRecord sagaEnded(UUID executionId, SagaResult.Status status) {
+        return new SagaLogRecord(Type.SAGA_ENDED, executionId, null, status.name().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return a copy of the data of this record, never null.
+     */
+    public byte[] data() {
+        return data.clone();
+    }
+
+    /**
+     * @return the saga fingerprint of a {@link Type#SAGA_STARTED} record.
+     */
+    public SagaFingerprint fingerprint() {
+        return SagaFingerprint.fromBytes(Arrays.copyOf(data, 16));
+    }
+
+    /**
+     * @return the serialized saga input of a {@link Type#SAGA_STARTED} record.
+     */
+    public byte[] input() {
+        return Arrays.copyOfRange(data, 16, data.length);
+    }
+
+    /**
+     * @return the final status of a {@link Type#SAGA_ENDED} record.
+     */
+    public SagaResult.Status status() {
+        return SagaResult.Status.valueOf(new String(data, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return this record framed with length and checksum, ready to be appended to a segment.
+     * @throws SagaException if the node id is too long to be logged.
+     */
+    byte[] encode() throws SagaException {
+        byte[] node = nodeId == null ? null : nodeId.getBytes(StandardCharsets.UTF_8);
+        if (node != null && node.length >= NO_NODE) {
+            throw new SagaException("Node id of " + node.length + " UTF-8 bytes is too long to be logged, the limit is " + (NO_NODE - 1) + " bytes");
+        }
+        int bodyLength = 1 + 16 + 2 + (node == null ? 0 : node.length) + 4 + data.length;
+        ByteBuffer buffer = ByteBuffer.allocate(FRAME_HEADER_LENGTH + bodyLength);
+        buffer.putInt(bodyLength);
+        buffer.putInt(0); // checksum, filled in below
+        buffer.put((byte) type.ordinal());
+        buffer.putLong(executionId.getMostSignificantBits());
+        buffer.putLong(executionId.getLeastSignificantBits());
+        if (node == null) {
+            buffer.putShort((short) NO_NODE);
+        } else {
+            buffer.putShort((short) node.length);
+            buffer.put(node);
+        }
+        buffer.putInt(data.length);
+        buffer.put(data);
+        byte[] frame = buffer.array();
+        CRC32C crc = new CRC32C();
+        crc.update(frame, FRAME_HEADER_LENGTH, bodyLength);
+        buffer.putInt(4, (int) crc.getValue());
+        return frame;
+    }
+
+    /**
+     * Decode the record at the position of the buffer, advancing the position past it.
+     *
+     * @return the record, or null if the buffer does not hold a complete record with a matching
+     * checksum at its position, in which case the position is left unchanged.
+     */
+    static SagaLogRecord decode(ByteBuffer buffer) {
+        int start = buffer.position();
+        if (buffer.remaining() < FRAME_HEADER_LENGTH) {
+            return null;
+        }
+        int bodyLength = buffer.getInt(start);
+        int checksum = buffer.getInt(start + 4);
+        if (bodyLength < 1 + 16 + 2 + 4 || bodyLength > buffer.remaining() - FRAME_HEADER_LENGTH) {
+            return null;
+        }
+        ByteBuffer body = buffer.duplicate();
+        body.position(start + FRAME_HEADER_LENGTH).limit(start + FRAME_HEADER_LENGTH + bodyLength);
+        CRC32C crc = new CRC32C();
+        crc.update(body.duplicate());
+        if ((int) crc.getValue() != checksum) {
+            return null;
+        }
+        try {
+            int typeOrdinal = body.get();
+            if (typeOrdinal < 0 || typeOrdinal >= TYPES.length) {
+                throw new SagaException("Invalid saga log record: unknown type " + typeOrdinal);
+            }
+            UUID executionId = new UUID(body.getLong(), body.getLong());
+            int nodeLength = body.getShort() & 0xFFFF;
+            String nodeId = null;
+            if (nodeLength != NO_NODE) {
+                byte[] node = new byte[nodeLength];
+                body.get(node);
+                nodeId = new String(node, StandardCharsets.UTF_8);
+            }
+            byte[] data = new byte[body.getInt()];
+            body.get(data);
+            buffer.position(start + FRAME_HEADER_LENGTH + bodyLength);
+            return new SagaLogRecord(TYPES[typeOrdinal], executionId, nodeId, data);
+        } catch (RuntimeException e) {
+            if (e instanceof SagaException) {
+                throw e;
+            }
+            throw new SagaException("Invalid saga log record: " + e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SagaLogRecord{" +
+                "type=" + type +
+                ", executionId=" + executionId +
+                (nodeId != null ? ", nodeId=" + nodeId : "") +
+                ", data=" + data.length + " bytes" +
+                '}';
+    }
+}
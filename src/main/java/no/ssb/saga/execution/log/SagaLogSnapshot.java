@@ -0,0 +1,209 @@
+package no.ssb.saga.execution.log;
+
+import no.ssb.saga.api.SagaException;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * The state of every execution that was not ended as of the end of a given log segment, stored as
+ * the minimal set of log records that replays to the same state: the start record of the execution
+ * followed by, for each of its nodes, the record that completed its action, the record that failed
+ * it, and its last record. Sagas are referenced by the fingerprint in the
+ * start record, never embedded. The file format is:
+ * <pre>
+ * int    magic "SAGS"
+ * int    version
+ * long   sequence of the last segment covered by the snapshot
+ * int    number of records
+ * frames the records as framed in segments
+ * </pre>
+ */
+final class SagaLogSnapshot {
+
+    static final String SNAPSHOT_SUFFIX = ".snapshot";
+    static final int MAGIC = 0x53414753; // "SAGS"
+    static final int VERSION = 1;
+    static final int HEADER_LENGTH = 20;
+
+    final long throughSegment;
+    final List<SagaLogRecord> records;
+
+    private SagaLogSnapshot(long throughSegment, List<SagaLogRecord> records) {
+        this.throughSegment = throughSegment;
+        this.records = records;
+    }
+
+    /**
+     * @return the snapshot covering the most segments in the directory, or null if there is none.
+     */
+    static SagaLogSnapshot latest(Path directory) throws IOException {
+        List<Path> snapshots = snapshots(directory);
+        return snapshots.isEmpty() ? null : read(snapshots.get(snapshots.size() - 1));
+    }
+
+    static SagaLogSnapshot read(Path path) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+        if (buffer.remaining() < HEADER_LENGTH || buffer.getInt() != MAGIC) {
+            throw new SagaException("Corrupt saga log snapshot " + path.getFileName() + ": bad magic");
+        }
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new SagaException("Corrupt saga log snapshot " + path.getFileName() + ": unsupported version " + version);
+        }
+        long throughSegment = buffer.getLong();
+        int count = buffer.getInt();
+        List<SagaLogRecord> records = new ArrayList<>(Math.min(count, buffer.remaining() / SagaLogRecord.FRAME_HEADER_LENGTH));
+        for (int i = 0; i < count; i++) {
+            SagaLogRecord record = SagaLogRecord.decode(buffer);
+            if (record == null) {
+                throw new SagaException("Corrupt saga log snapshot " + path.getFileName() + " at record " + i);
+            }
+            records.add(record);
+        }
+        return new SagaLogSnapshot(throughSegment, records);
+    }
+
+    /**
+     * Atomically write a snapshot, it is either fully present or not at all.
+     */
+    static Path write(Path directory, long throughSegment, Collection<SagaLogRecord> records) throws IOException {
+        Path path = path(directory, throughSegment);
+        Path temp = Files.createTempFile(directory, "snapshot", ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+                header.putInt(MAGIC).putInt(VERSION).putLong(throughSegment).putInt(records.size());
+                out.write(header.array());
+                for (SagaLogRecord record : records) {
+                    out.write(record.encode());
+                }
+            }
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        return path;
+    }
+
+    static Path path(Path directory, long throughSegment) {
+        return directory.resolve(String.format("%020d%s", throughSegment, SNAPSHOT_SUFFIX));
+    }
+
+    static List<Path> snapshots(Path directory) throws IOException {
+        List<Path> snapshots = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return snapshots;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SNAPSHOT_SUFFIX)) {
+            for (Path path : stream) {
+                snapshots.add(path);
+            }
+        }
+        snapshots.sort((a, b) -> Long.compare(sequenceOf(a), sequenceOf(b)));
+        return snapshots;
+    }
+
+    static long sequenceOf(Path snapshot) {
+        String name = snapshot.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(0, name.length() - SNAPSHOT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            throw new SagaException("Not a saga log snapshot: " + name);
+        }
+    }
+
+    /**
+     * Collapses a stream of log records to the records of executions that are not ended, keeping
+     * only the start record and, per node, the records that replay to the same node state. The
+     * action output is only held by the completed record and the failed flag of the execution only
+     * by the failed record, so both are kept when later records such as those of a compensation
+     * follow them.
+     */
+    static final class LiveExecutions implements Consumer<SagaLogRecord> {
+        private final Map<UUID, Live> liveById = new LinkedHashMap<>();
+
+        @Override
+        public void accept(SagaLogRecord record) {
+            switch (record.type) {
+                case SAGA_STARTED:
+                    liveById.put(record.executionId, new Live(record));
+                    break;
+                case SAGA_ENDED:
+                    liveById.remove(record.executionId);
+                    break;
+                default:
+                    Live live = liveById.get(record.executionId);
+                    if (live != null) {
+                        live.byNode.computeIfAbsent(record.nodeId, id -> new NodeRecords()).accept(record);
+                    }
+            }
+        }
+
+        int size() {
+            return liveById.size();
+        }
+
+        List<SagaLogRecord> records() {
+            List<SagaLogRecord> records = new ArrayList<>();
+            for (Live live : liveById.values()) {
+                records.add(live.started);
+                for (NodeRecords node : live.byNode.values()) {
+                    node.addTo(records);
+                }
+            }
+            return records;
+        }
+
+        private static final class Live {
+            final SagaLogRecord started;
+            final Map<String, NodeRecords> byNode = new LinkedHashMap<>();
+
+            Live(SagaLogRecord started) {
+                this.started = started;
+            }
+        }
+
+        private static final class NodeRecords {
+            SagaLogRecord completed;
+            SagaLogRecord failed;
+            SagaLogRecord last;
+
+            void accept(SagaLogRecord record) {
+                if (record.type == SagaLogRecord.Type.ACTION_COMPLETED) {
+                    completed = record;
+                } else if (record.type == SagaLogRecord.Type.ACTION_FAILED) {
+                    failed = record;
+                }
+                last = record;
+            }
+
+            void addTo(List<SagaLogRecord> records) {
+                if (completed != null && completed != last) {
+                    records.add(completed);
+                }
+                if (failed != null && failed != last) {
+                    records.add(failed);
+                }
+                records.add(last);
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package no.ssb.saga.metrics;
+
+import java.util.Arrays;
+
+/**
+ * The counts of a {@link LatencyHistogram} at some point in time. Values are nanoseconds.
+ */
+public final class HistogramSnapshot {
+
+    public static final HistogramSnapshot EMPTY = new HistogramSnapshot(new long[LatencyHistogram.BUCKETS], 0, 0);
+
+    private final long[] counts;
+    private final long count;
+    private final long sum;
+    private final long max;
+
+    HistogramSnapshot(long[] counts, long sum, long max) {
+        this.counts = counts;
+        long count = 0;
+        for (long c : counts) {
+            count += c;
+        }
+        this.count = count;
+        this.sum = sum;
+        this.max = max;
+    }
+
+    /**
+     * @return the number of recorded values.
+     */
+    public long count() {
+        return count;
+    }
+
+    /**
+     * @return the sum of the recorded values.
+     */
+    public long sum() {
+        return sum;
+    }
+
+    /**
+     * @return the largest recorded value, or 0 if none.
+     */
+    public long max() {
+        return max;
+    }
+
+    /**
+     * @return the mean of the recorded values, or 0 if none.
+     */
+    public double mean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * @param percentile a percentile in the range [0, 100].
+     * @return the upper bound of the bucket that holds the value at the percentile, never more
+     * than the largest recorded value, or 0 if no values were recorded.
+     */
+    public long percentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile must be in the range [0, 100]: " + percentile);
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(LatencyHistogram.upperBound(i), max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * @param bucket a bucket index, see {@link LatencyHistogram#upperBound(int)}.
+     * @return the number of values counted by the bucket.
+     */
+    public long bucketCount(int bucket) {
+        return counts[bucket];
+    }
+
+    /**
+     * @param other another snapshot.
+     * @return a snapshot holding the values of both this and the other snapshot.
+     */
+    public HistogramSnapshot merge(HistogramSnapshot other) {
+        long[] merged = Arrays.copyOf(counts, counts.length);
+        for (int i = 0; i < merged.length; i++) {
+            merged[i] += other.counts[i];
+        }
+        return new HistogramSnapshot(merged, sum + other.sum, Math.max(max, other.max));
+    }
+
+    @Override
+    public String toString() {
+        return "HistogramSnapshot{" +
+                "count=" + count +
+                ", mean=" + (long) mean() +
+                ", p50=" + percentile(50) +
+                ", p99=" + percentile(99) +
+                ", max=" + max +
+                '}';
+    }
+}
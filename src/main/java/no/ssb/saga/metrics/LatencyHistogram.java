@@ -0,0 +1,127 @@
+package no.ssb.saga.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free, allocation-free histogram of non-negative nanosecond latencies. Values are counted
+ * in log-linear buckets: values below {@value #SUB_BUCKETS} have a bucket each, larger values have
+ * {@value #SUB_BUCKETS} buckets per power of two, bounding the relative error of a reported
+ * percentile to 1/{@value #SUB_BUCKETS}. Values of 2^41 ns (about 36 minutes) and above are counted
+ * in the last bucket.
+ * <p>
+ * Counts are striped over a number of cache-line separated slices picked by the recording thread,
+ * so that concurrent recorders rarely touch the same cache line. A {@link #snapshot()} sums the
+ * stripes and is not atomic with respect to concurrent recording.
+ */
+public final class LatencyHistogram {
+
+    static final int SUB_BUCKET_BITS = 3;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    static final int MAX_EXPONENT = 40;
+    public static final int BUCKETS = SUB_BUCKETS + (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private static final int SUM = BUCKETS;
+    private static final int MAX = BUCKETS + 1;
+    private static final int PADDING = 8; // one cache line of longs between stripes
+    private static final int STRIDE = ((BUCKETS + 2 + 7) & ~7) + PADDING;
+
+    private static final int DEFAULT_STRIPES = stripesFor(Runtime.getRuntime().availableProcessors());
+
+    private final AtomicLongArray slots;
+    private final int stripeMask;
+
+    /**
+     * Create a histogram striped by the number of available processors.
+     */
+    public LatencyHistogram() {
+        this(DEFAULT_STRIPES);
+    }
+
+    /**
+     * @param stripes the number of stripes, rounded up to a power of two. Use 1 for histograms that
+     *                are rarely recorded concurrently.
+     */
+    public LatencyHistogram(int stripes) {
+        int n = stripesFor(stripes);
+        this.slots = new AtomicLongArray(n * STRIDE);
+        this.stripeMask = n - 1;
+    }
+
+    static int stripesFor(int stripes) {
+        int capped = Math.max(1, Math.min(stripes, 64));
+        int n = Integer.highestOneBit(capped);
+        return n < capped ? n << 1 : n;
+    }
+
+    /**
+     * @param nanos the latency to record, negative values are recorded as 0.
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        int base = stripe() * STRIDE;
+        slots.getAndIncrement(base + bucketOf(value));
+        slots.getAndAdd(base + SUM, value);
+        int max = base + MAX;
+        long current;
+        while (value > (current = slots.get(max))) {
+            if (slots.compareAndSet(max, current, value)) {
+                break;
+            }
+        }
+    }
+
+    private int stripe() {
+        if (stripeMask == 0) {
+            return 0;
+        }
+        long h = Thread.currentThread().getId() * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32) & stripeMask;
+    }
+
+    /**
+     * @return the counts recorded so far.
+     */
+    public HistogramSnapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        long sum = 0;
+        long max = 0;
+        for (int base = 0; base < slots.length(); base += STRIDE) {
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] += slots.get(base + i);
+            }
+            sum += slots.get(base + SUM);
+            max = Math.max(max, slots.get(base + MAX));
+        }
+        return new HistogramSnapshot(counts, sum, max);
+    }
+
+    /**
+     * @param value a non-negative value.
+     * @return the index of the bucket that counts the value.
+     */
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return SUB_BUCKETS + ((exponent - SUB_BUCKET_BITS) << SUB_BUCKET_BITS) + subBucket;
+    }
+
+    /**
+     * @param bucket a bucket index.
+     * @return the largest value counted by the bucket, the last bucket is reported as bounded by
+     * the largest value it would count without clamping.
+     */
+    public static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = ((bucket - SUB_BUCKETS) >>> SUB_BUCKET_BITS) + SUB_BUCKET_BITS;
+        int subBucket = (bucket - SUB_BUCKETS) & (SUB_BUCKETS - 1);
+        return ((long) (SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+}
@@ -0,0 +1,261 @@
+package no.ssb.saga.metrics;
+
+import no.ssb.saga.api.Saga;
+import no.ssb.saga.api.SagaBuildObserver;
+import no.ssb.saga.api.SagaException;
+import no.ssb.saga.api.SagaFingerprint;
+import no.ssb.saga.api.SagaNode;
+import no.ssb.saga.execution.SagaExecutionObserver;
+import no.ssb.saga.execution.SagaResult;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects latency histograms of saga building and execution. Install it with
+ * {@link Saga#setBuildObserver(SagaBuildObserver)} and
+ * {@link no.ssb.saga.execution.SagaExecutor.Builder#observer(SagaExecutionObserver)}, and read it
+ * with {@link #snapshot()}.
+ * <p>
+ * Execution metrics are kept per saga, identified by its fingerprint, and per node of the saga:
+ * queue wait, action latency and compensation latency. Nodes are identified by id, as sagas with
+ * the same fingerprint may have declared their nodes in a different order. The metrics are also
+ * aggregated per adapter name, together with the number of actions currently executing.
+ * <p>
+ * The histograms of a node are allocated when the node is first recorded, and only for sagas of at
+ * most {@value #MAX_NODES_WITH_NODE_METRICS} nodes, larger sagas only have saga and adapter
+ * metrics. The metrics of at most {@value #MAX_SAGAS} sagas are kept, the saga first recorded is
+ * dropped first. Apart from the first record of a saga or node, recording allocates nothing.
+ */
+public class SagaMetrics implements SagaBuildObserver, SagaExecutionObserver {
+
+    public static final int MAX_NODES_WITH_NODE_METRICS = 1024;
+    public static final int MAX_SAGAS = 256;
+
+    private static final int NODE_STRIPES = 1; // a node is rarely recorded concurrently by many threads
+    private static final SagaResult.Status[] STATUSES = SagaResult.Status.values();
+
+    private final LatencyHistogram build = new LatencyHistogram();
+    private final LatencyHistogram validation = new LatencyHistogram();
+    private final LongAdder rejected = new LongAdder();
+
+    private final Map<SagaFingerprint, SagaEntry> sagaEntries = new ConcurrentHashMap<>();
+    private final Queue<SagaFingerprint> sagaOrder = new ConcurrentLinkedQueue<>(); // in the order first recorded
+    private final Map<String, AdapterEntry> adapterEntries = new ConcurrentHashMap<>();
+    private volatile SagaEntry lastSagaEntry;
+
+    @Override
+    public void sagaBuilt(Saga saga, long buildNanos, long validationNanos) {
+        build.record(buildNanos);
+        validation.record(validationNanos);
+    }
+
+    @Override
+    public void sagaRejected(String sagaName, long buildNanos, SagaException cause) {
+        rejected.increment();
+    }
+
+    @Override
+    public void actionStarted(Saga saga, SagaNode node, long queueWaitNanos) {
+        SagaEntry entry = entry(saga);
+        int index = entry.indexOf(saga, node);
+        NodeEntry nodeEntry = entry.node(index);
+        if (nodeEntry != null) {
+            nodeEntry.queueWait.record(queueWaitNanos);
+        }
+        entry.adapters[index].inFlight.increment();
+    }
+
+    @Override
+    public void actionEnded(Saga saga, SagaNode node, long actionNanos, boolean failed) {
+        SagaEntry entry = entry(saga);
+        int index = entry.indexOf(saga, node);
+        NodeEntry nodeEntry = entry.node(index);
+        AdapterEntry adapterEntry = entry.adapters[index];
+        adapterEntry.inFlight.decrement();
+        adapterEntry.action.record(actionNanos);
+        if (failed) {
+            adapterEntry.failures.increment();
+        }
+        if (nodeEntry != null) {
+            nodeEntry.action.record(actionNanos);
+            if (failed) {
+                nodeEntry.failures.increment();
+            }
+        }
+    }
+
+    @Override
+    public void compensationEnded(Saga saga, SagaNode node, long compensationNanos, boolean failed) {
+        SagaEntry entry = entry(saga);
+        int index = entry.indexOf(saga, node);
+        NodeEntry nodeEntry = entry.node(index);
+        AdapterEntry adapterEntry = entry.adapters[index];
+        adapterEntry.compensation.record(compensationNanos);
+        if (failed) {
+            adapterEntry.compensationFailures.increment();
+        }
+        if (nodeEntry != null) {
+            nodeEntry.compensation().record(compensationNanos);
+            if (failed) {
+                nodeEntry.compensationFailures.increment();
+            }
+        }
+    }
+
+    @Override
+    public void sagaEnded(Saga saga, SagaResult.Status status, long durationNanos) {
+        SagaEntry entry = entry(saga);
+        entry.duration.record(durationNanos);
+        entry.endedByStatus[status.ordinal()].increment();
+    }
+
+    private SagaEntry entry(Saga saga) {
+        SagaEntry entry = lastSagaEntry;
+        if (entry != null && entry.saga == saga) {
+            return entry;
+        }
+        SagaFingerprint fingerprint = saga.fingerprint();
+        entry = sagaEntries.get(fingerprint);
+        if (entry == null) {
+            SagaEntry created = new SagaEntry(saga, adapterEntries);
+            entry = sagaEntries.putIfAbsent(fingerprint, created);
+            if (entry == null) {
+                entry = created;
+                sagaOrder.add(fingerprint);
+                while (sagaEntries.size() > MAX_SAGAS) {
+                    SagaFingerprint oldest = sagaOrder.poll();
+                    if (oldest == null) {
+                        break;
+                    }
+                    sagaEntries.remove(oldest);
+                }
+            }
+        }
+        lastSagaEntry = entry;
+        return entry;
+    }
+
+    /**
+     * @return the metrics collected so far.
+     */
+    public SagaMetricsSnapshot snapshot() {
+        Map<SagaFingerprint, SagaMetricsSnapshot.SagaStats> sagas = new LinkedHashMap<>();
+        for (Map.Entry<SagaFingerprint, SagaEntry> e : sagaEntries.entrySet()) {
+            sagas.put(e.getKey(), e.getValue().snapshot());
+        }
+        Map<String, SagaMetricsSnapshot.AdapterStats> adapters = new LinkedHashMap<>();
+        for (Map.Entry<String, AdapterEntry> e : adapterEntries.entrySet()) {
+            adapters.put(e.getKey(), e.getValue().snapshot());
+        }
+        return new SagaMetricsSnapshot(build.snapshot(), validation.snapshot(), rejected.sum(), sagas, adapters);
+    }
+
+    /**
+     * The metrics of every saga with a given fingerprint, with nodes and adapters by node index in
+     * the first of them to be executed.
+     */
+    private static final class SagaEntry {
+        final Saga saga;
+        final AtomicReferenceArray<NodeEntry> nodes; // by node index, null when the saga is too large
+        final AdapterEntry[] adapters; // by node index
+        final LatencyHistogram duration = new LatencyHistogram();
+        final LongAdder[] endedByStatus = new LongAdder[STATUSES.length];
+
+        SagaEntry(Saga saga, Map<String, AdapterEntry> adapterEntries) {
+            this.saga = saga;
+            this.nodes = saga.nodeCount() <= MAX_NODES_WITH_NODE_METRICS ? new AtomicReferenceArray<>(saga.nodeCount()) : null;
+            this.adapters = new AdapterEntry[saga.nodeCount()];
+            for (int i = 0; i < adapters.length; i++) {
+                adapters[i] = adapterEntries.computeIfAbsent(saga.getNode(i).adapter, adapter -> new AdapterEntry());
+            }
+            for (int i = 0; i < endedByStatus.length; i++) {
+                endedByStatus[i] = new LongAdder();
+            }
+        }
+
+        /**
+         * @return the index of the node in the saga of this entry. Sagas with the same fingerprint
+         * have the same nodes, but their indices follow the declaration order of each saga.
+         */
+        int indexOf(Saga saga, SagaNode node) {
+            return saga == this.saga ? node.index : this.saga.getNode(node.id).index;
+        }
+
+        /**
+         * @return the metrics of the node, created on first use, or null if the saga is too large.
+         */
+        NodeEntry node(int index) {
+            if (nodes == null) {
+                return null;
+            }
+            NodeEntry node = nodes.get(index);
+            if (node == null) {
+                nodes.compareAndSet(index, null, new NodeEntry());
+                node = nodes.get(index);
+            }
+            return node;
+        }
+
+        SagaMetricsSnapshot.SagaStats snapshot() {
+            Map<String, SagaMetricsSnapshot.NodeStats> nodeStats = new LinkedHashMap<>();
+            for (int i = 0; nodes != null && i < nodes.length(); i++) {
+                NodeEntry node = nodes.get(i);
+                nodeStats.put(saga.getNode(i).id, node != null ? node.snapshot() : NodeEntry.EMPTY);
+            }
+            Map<SagaResult.Status, Long> ended = new LinkedHashMap<>();
+            for (SagaResult.Status status : STATUSES) {
+                ended.put(status, endedByStatus[status.ordinal()].sum());
+            }
+            return new SagaMetricsSnapshot.SagaStats(saga.name, duration.snapshot(), ended, nodeStats);
+        }
+    }
+
+    private static final class NodeEntry {
+        static final SagaMetricsSnapshot.NodeStats EMPTY = new SagaMetricsSnapshot.NodeStats(HistogramSnapshot.EMPTY,
+                HistogramSnapshot.EMPTY, HistogramSnapshot.EMPTY, 0, 0);
+
+        final LatencyHistogram queueWait = new LatencyHistogram(NODE_STRIPES);
+        final LatencyHistogram action = new LatencyHistogram(NODE_STRIPES);
+        private volatile LatencyHistogram compensation; // most nodes are never compensated
+        final LongAdder failures = new LongAdder();
+        final LongAdder compensationFailures = new LongAdder();
+
+        LatencyHistogram compensation() {
+            LatencyHistogram c = compensation;
+            if (c == null) {
+                synchronized (this) {
+                    c = compensation;
+                    if (c == null) {
+                        compensation = c = new LatencyHistogram(NODE_STRIPES);
+                    }
+                }
+            }
+            return c;
+        }
+
+        SagaMetricsSnapshot.NodeStats snapshot() {
+            LatencyHistogram c = compensation;
+            return new SagaMetricsSnapshot.NodeStats(queueWait.snapshot(), action.snapshot(), c != null ? c.snapshot() : HistogramSnapshot.EMPTY,
+                    failures.sum(), compensationFailures.sum());
+        }
+    }
+
+    private static final class AdapterEntry {
+        final LongAdder inFlight = new LongAdder();
+        final LatencyHistogram action = new LatencyHistogram();
+        final LatencyHistogram compensation = new LatencyHistogram();
+        final LongAdder failures = new LongAdder();
+        final LongAdder compensationFailures = new LongAdder();
+
+        SagaMetricsSnapshot.AdapterStats snapshot() {
+            return new SagaMetricsSnapshot.AdapterStats(inFlight.sum(), action.snapshot(), compensation.snapshot(),
+                    failures.sum(), compensationFailures.sum());
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package no.ssb.saga.metrics;
+
+import no.ssb.saga.api.SagaFingerprint;
+import no.ssb.saga.execution.SagaResult;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The metrics collected by {@link SagaMetrics} at some point in time. Latencies are nanoseconds.
+ */
+public class SagaMetricsSnapshot {
+
+    /**
+     * Time spent in {@link no.ssb.saga.api.Saga.SagaBuilder#end()} by sagas that were built.
+     */
+    public final HistogramSnapshot build;
+    /**
+     * The part of the build time spent validating the saga graph.
+     */
+    public final HistogramSnapshot validation;
+    /**
+     * Number of sagas that failed to build.
+     */
+    public final long rejected;
+    /**
+     * Execution metrics by saga fingerprint.
+     */
+    public final Map<SagaFingerprint, SagaStats> sagas;
+    /**
+     * Execution metrics aggregated over every node with a given adapter, by adapter name.
+     */
+    public final Map<String, AdapterStats> adapters;
+
+    SagaMetricsSnapshot(HistogramSnapshot build, HistogramSnapshot validation, long rejected, Map<SagaFingerprint, SagaStats> sagas, Map<String, AdapterStats> adapters) {
+        this.build = build;
+        this.validation = validation;
+        this.rejected = rejected;
+        this.sagas = Collections.unmodifiableMap(sagas);
+        this.adapters = Collections.unmodifiableMap(adapters);
+    }
+
+    /**
+     * Latency estimates for {@link no.ssb.saga.api.Saga#criticalPath(java.util.function.ToLongFunction)}
+     * and {@link no.ssb.saga.execution.SagaExecutor.Builder#prioritizeBySlack(java.util.function.ToLongFunction)}
+     * from measured action latencies.
+     *
+     * @param percentile the percentile of the measured action latency to use as estimate.
+     * @return the estimated action latency by adapter name, of every adapter with measurements.
+     */
+    public Map<String, Long> adapterLatencies(double percentile) {
+        Map<String, Long> latencies = new LinkedHashMap<>();
+        for (Map.Entry<String, AdapterStats> e : adapters.entrySet()) {
+            if (e.getValue().action.count() > 0) {
+                latencies.put(e.getKey(), e.getValue().action.percentile(percentile));
+            }
+        }
+        return latencies;
+    }
+
+    public static class SagaStats {
+        public final String name;
+        /**
+         * Time from an execution started until its result was completed.
+         */
+        public final HistogramSnapshot duration;
+        /**
+         * Number of ended executions by status.
+         */
+        public final Map<SagaResult.Status, Long> ended;
+        /**
+         * Metrics by node id, empty for sagas of more than {@link SagaMetrics#MAX_NODES_WITH_NODE_METRICS} nodes.
+         */
+        public final Map<String, NodeStats> nodes;
+
+        SagaStats(String name, HistogramSnapshot duration, Map<SagaResult.Status, Long> ended, Map<String, NodeStats> nodes) {
+            this.name = name;
+            this.duration = duration;
+            this.ended = Collections.unmodifiableMap(ended);
+            this.nodes = Collections.unmodifiableMap(nodes);
+        }
+    }
+
+    public static class NodeStats {
+        /**
+         * Time from the node became ready until its action started.
+         */
+        public final HistogramSnapshot queueWait;
+        public final HistogramSnapshot action;
+        public final HistogramSnapshot compensation;
+        public final long failures;
+        public final long compensationFailures;
+
+        NodeStats(HistogramSnapshot queueWait, HistogramSnapshot action, HistogramSnapshot compensation, long failures, long compensationFailures) {
+            this.queueWait = queueWait;
+            this.action = action;
+            this.compensation = compensation;
+            this.failures = failures;
+            this.compensationFailures = compensationFailures;
+        }
+    }
+
+    public static class AdapterStats {
+        /**
+         * Number of actions executing at the time of the snapshot.
+         */
+        public final long inFlight;
+        public final HistogramSnapshot action;
+        public final HistogramSnapshot compensation;
+        public final long failures;
+        public final long compensationFailures;
+
+        AdapterStats(long inFlight, HistogramSnapshot action, HistogramSnapshot compensation, long failures, long compensationFailures) {
+            this.inFlight = inFlight;
+            this.action = action;
+            this.compensation = compensation;
+            this.failures = failures;
+            this.compensationFailures = compensationFailures;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package no.ssb.saga.api;
+
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class CriticalPathTest {
+
+    static final Map<String, Long> LATENCIES = Map.of("A", 10L, "B", 3L, "C", 4L, "D", 1L);
+
+    static Saga saga() {
+        return Saga
+                .start("Critical path saga").linkTo("a", "b", "d")
+                .id("a").adapter("A").linkToEnd()
+                .id("b").adapter("B").linkTo("c")
+                .id("c").adapter("C").linkToEnd()
+                .id("d").adapter("D").linkTo("c")
+                .end();
+    }
+
+    @Test
+    public void thatEarliestStartAndSlackAreComputedFromLatencies() {
+        Saga saga = saga();
+        CriticalPath criticalPath = saga.criticalPath(LATENCIES::get);
+        assertEquals(criticalPath.length(), 10);
+        assertEquals(criticalPath.nodes().stream().map(n -> n.id).collect(Collectors.toList()),
+                List.of(Saga.ID_START, "a", Saga.ID_END));
+
+        assertEquals(criticalPath.earliestStart(saga.getNode("c")), 3);
+        assertEquals(criticalPath.latestStart(saga.getNode("c")), 6);
+        assertEquals(criticalPath.slack(saga.getNode("c")), 3);
+        assertEquals(criticalPath.slack(saga.getNode("b")), 3);
+        assertEquals(criticalPath.slack(saga.getNode("d")), 5);
+        assertEquals(criticalPath.latency(saga.getStartNode()), 0);
+        assertEquals(criticalPath.earliestStart(saga.getEndNode()), 10);
+        assertTrue(criticalPath.isCritical(saga.getNode("a")));
+        assertFalse(criticalPath.isCritical(saga.getNode("b")));
+    }
+
+    @Test
+    public void thatCriticalPathFollowsChangedEstimates() {
+        Saga saga = saga();
+        CriticalPath criticalPath = saga.criticalPath(adapter -> adapter.equals("D") ? 20 : LATENCIES.get(adapter));
+        assertEquals(criticalPath.length(), 24);
+        assertEquals(criticalPath.nodes().stream().map(n -> n.id).collect(Collectors.toList()),
+                List.of(Saga.ID_START, "d", "c", Saga.ID_END));
+        assertEquals(criticalPath.slack(saga.getNode("a")), 14);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void thatNegativeLatencyIsRejected() {
+        saga().criticalPath(adapter -> -1);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void thatNodeOfOtherSagaIsRejected() {
+        saga().criticalPath(LATENCIES::get).slack(saga().getNode("a"));
+    }
+}
@@ -0,0 +1,106 @@
+package no.ssb.saga.api;
+
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+public class NodePolicyTest {
+
+    private static Saga sagaWithPolicies(String name) {
+        return Saga.start(name).linkTo("a", "b")
+                .id("a").adapter("Call").timeout(Duration.ofSeconds(5)).retry(3, Duration.ofMillis(100)).linkTo("c")
+                .id("b").adapter("Call").timeout(Duration.ofMillis(250)).linkTo("c")
+                .id("c").adapter("Aggregate").linkToEnd()
+                .end();
+    }
+
+    private static Saga sagaWithoutPolicies(String name) {
+        return Saga.start(name).linkTo("a", "b")
+                .id("a").adapter("Call").linkTo("c")
+                .id("b").adapter("Call").linkTo("c")
+                .id("c").adapter("Aggregate").linkToEnd()
+                .end();
+    }
+
+    @Test
+    public void thatPoliciesAreDeclaredWithTheAdapter() {
+        Saga saga = sagaWithPolicies("Policies");
+        assertTrue(saga.hasNodePolicies());
+        NodePolicy a = saga.getNode("a").policy;
+        assertEquals(a.timeoutNanos, Duration.ofSeconds(5).toNanos());
+        assertEquals(a.maxAttempts, 3);
+        assertEquals(a.backoffNanos(1), Duration.ofMillis(100).toNanos());
+        assertEquals(a.backoffNanos(2), Duration.ofMillis(200).toNanos());
+        assertEquals(a.backoffNanos(100), Long.MAX_VALUE);
+        NodePolicy b = saga.getNode("b").policy;
+        assertTrue(b.hasTimeout());
+        assertEquals(b.maxAttempts, 1);
+        assertSame(saga.getNode("c").policy, NodePolicy.NONE);
+        assertSame(saga.getStartNode().policy, NodePolicy.NONE);
+        assertFalse(sagaWithoutPolicies("None").hasNodePolicies());
+    }
+
+    @Test
+    public void thatPoliciesArePartOfTheFingerprint() {
+        assertNotEquals(sagaWithPolicies("F").fingerprint(), sagaWithoutPolicies("F").fingerprint());
+        assertEquals(sagaWithPolicies("F").fingerprint(), sagaWithPolicies("F").fingerprint());
+        Saga.SagaBuilder builder = Saga.start("F").linkTo("a", "b")
+                .id("a").adapter("Call").timeout(Duration.ofSeconds(5)).retry(3, Duration.ofMillis(100)).linkTo("c")
+                .id("b").adapter("Call").timeout(Duration.ofMillis(250)).linkTo("c")
+                .id("c").adapter("Aggregate").linkToEnd();
+        assertEquals(builder.fingerprint(), sagaWithPolicies("F").fingerprint());
+    }
+
+    @Test
+    public void thatPoliciesSurviveJsonRoundTrip() {
+        Saga saga = sagaWithPolicies("Json");
+        String json = saga.toJson();
+        assertTrue(json.contains("\"timeout\":\"PT5S\",\"retry\":{\"maxAttempts\":3,\"backoff\":\"PT0.1S\"}"), json);
+        Saga read = Saga.fromJson(json);
+        assertEquals(read.toJson(), json);
+        assertEquals(read.fingerprint(), saga.fingerprint());
+        assertFalse(sagaWithoutPolicies("Json").toJson().contains("timeout"));
+    }
+
+    @Test
+    public void thatPoliciesSurviveBinaryRoundTrip() {
+        Saga saga = sagaWithPolicies("Binary");
+        byte[] bytes = saga.toBinary();
+        assertEquals(bytes[4], SagaBinaryCodec.VERSION);
+        Saga decoded = Saga.fromBinary(ByteBuffer.wrap(bytes));
+        assertEquals(decoded.getNode("a").policy, saga.getNode("a").policy);
+        assertEquals(decoded.getNode("b").policy, saga.getNode("b").policy);
+        assertEquals(decoded.fingerprint(), saga.fingerprint());
+        assertEquals(decoded.toBinary(), bytes);
+    }
+
+    @Test
+    public void thatSagaWithoutPoliciesIsWrittenInTheFirstBinaryVersion() {
+        byte[] bytes = sagaWithoutPolicies("V1").toBinary();
+        assertEquals(bytes[4], SagaBinaryCodec.VERSION_WITHOUT_POLICIES);
+        assertFalse(Saga.fromBinary(ByteBuffer.wrap(bytes)).hasNodePolicies());
+    }
+
+    @Test(expectedExceptions = SagaException.class, expectedExceptionsMessageRegExp = "Start node.*cannot have a timeout or retry policy")
+    public void thatStartNodeCannotHavePolicy() {
+        Saga.start("Start").timeout(Duration.ofSeconds(1));
+    }
+
+    @Test(expectedExceptions = SagaException.class, expectedExceptionsMessageRegExp = "Invalid saga json: start node.*")
+    public void thatStartNodePolicyInJsonIsRejected() {
+        Saga.fromJson("{\"name\":\"S\",\"nodes\":[{\"id\":\"S\",\"adapter\":\"SagaStart\",\"timeout\":\"PT1S\",\"outgoing\":[\"E\"]},"
+                + "{\"id\":\"E\",\"adapter\":\"SagaEnd\",\"outgoing\":[]}]}");
+    }
+
+    @Test(expectedExceptions = SagaException.class, expectedExceptionsMessageRegExp = "maxAttempts must be at least 1: 0")
+    public void thatRetryNeedsAtLeastOneAttempt() {
+        Saga.start("Attempts").linkTo("a").id("a").adapter("Call").retry(0, Duration.ZERO);
+    }
+}
@@ -0,0 +1,196 @@
+package no.ssb.saga.api;
+
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class ReachabilityTest {
+
+    /**
+     * A random saga where node i links to a few random later nodes, every node is linked to from
+     * an earlier node and every node without links links to the end node.
+     */
+    private static Saga randomSaga(int size, long seed) {
+        Random random = new Random(seed);
+        int n = size + 2;
+        String[] ids = new String[n];
+        String[] adapters = new String[n];
+        ids[0] = Saga.ID_START;
+        adapters[0] = Saga.ADAPTER_START;
+        ids[n - 1] = Saga.ID_END;
+        adapters[n - 1] = Saga.ADAPTER_END;
+        for (int i = 1; i <= size; i++) {
+            ids[i] = "n" + i;
+            adapters[i] = "A";
+        }
+        List<int[]> links = new ArrayList<>();
+        boolean[] linksOut = new boolean[n];
+        for (int i = 1; i <= size; i++) {
+            links.add(new int[]{random.nextInt(i), i});
+            linksOut[links.get(links.size() - 1)[0]] = true;
+            for (int extra = random.nextInt(3); extra > 0; extra--) {
+                int from = 1 + random.nextInt(i);
+                if (from < i) {
+                    links.add(new int[]{from, i});
+                    linksOut[from] = true;
+                }
+            }
+        }
+        for (int i = 1; i <= size; i++) {
+            if (!linksOut[i] || random.nextInt(8) == 0) {
+                links.add(new int[]{i, n - 1});
+            }
+        }
+        int[] from = links.stream().mapToInt(link -> link[0]).toArray();
+        int[] to = links.stream().mapToInt(link -> link[1]).toArray();
+        return Saga.fromEdges("Random", ids, adapters, from, to);
+    }
+
+    private static boolean[] reachedFrom(Saga saga, SagaNode node) {
+        boolean[] reached = new boolean[saga.nodeCount()];
+        List<SagaNode> stack = new ArrayList<>(node.outgoing);
+        while (!stack.isEmpty()) {
+            SagaNode next = stack.remove(stack.size() - 1);
+            if (!reached[next.index]) {
+                reached[next.index] = true;
+                stack.addAll(next.outgoing);
+            }
+        }
+        return reached;
+    }
+
+    private static List<String> ids(List<SagaNode> nodes) {
+        return nodes.stream().map(n -> n.id).collect(Collectors.toList());
+    }
+
+    private static void assertIndexMatchesTraversal(Saga saga, int sources) {
+        Random random = new Random(saga.nodeCount());
+        for (int s = 0; s < sources; s++) {
+            SagaNode a = saga.getNode(s == 0 ? saga.getStartNode().index : random.nextInt(saga.nodeCount()));
+            boolean[] reached = reachedFrom(saga, a);
+            List<String> expectedDescendants = new ArrayList<>();
+            for (int i = 0; i < saga.nodeCount(); i++) {
+                SagaNode b = saga.getNode(i);
+                assertEquals(saga.isAncestor(a, b), reached[i], a.id + " -> " + b.id);
+                if (reached[i]) {
+                    expectedDescendants.add(b.id);
+                }
+            }
+            assertEquals(ids(saga.descendants(a)), expectedDescendants);
+            List<String> expectedAncestors = new ArrayList<>();
+            for (int i = 0; i < saga.nodeCount(); i++) {
+                if (reachedFrom(saga, saga.getNode(i))[a.index]) {
+                    expectedAncestors.add(saga.getNode(i).id);
+                }
+            }
+            assertEquals(ids(saga.ancestors(a)), expectedAncestors);
+        }
+    }
+
+    @Test
+    public void thatAncestorsAndDescendantsFollowLinks() {
+        Saga saga = Saga.start("Order").linkTo("reserve", "charge")
+                .id("reserve").adapter("Reserve").linkTo("notify")
+                .id("charge").adapter("Charge").linkTo("notify", "audit")
+                .id("notify").adapter("Notify").linkToEnd()
+                .id("audit").adapter("Audit").linkToEnd()
+                .end();
+        SagaNode reserve = saga.getNode("reserve");
+        SagaNode charge = saga.getNode("charge");
+        SagaNode notify = saga.getNode("notify");
+        assertTrue(saga.isAncestor(saga.getStartNode(), saga.getEndNode()));
+        assertTrue(saga.isAncestor(reserve, notify));
+        assertFalse(saga.isAncestor(notify, reserve));
+        assertFalse(saga.isAncestor(reserve, charge));
+        assertFalse(saga.isAncestor(reserve, reserve));
+        assertEquals(ids(saga.descendants(charge)), List.of("notify", "audit", "E"));
+        assertEquals(ids(saga.ancestors(notify)), List.of("S", "reserve", "charge"));
+        assertEquals(ids(saga.ancestors(saga.getStartNode())), List.of());
+        assertEquals(ids(saga.descendants(saga.getEndNode())), List.of());
+        assertTrue(saga.reachability() == saga.reachability());
+    }
+
+    @Test
+    public void thatNodesOfOtherSagaAreRejected() {
+        Saga small = randomSaga(10, 3);
+        Saga large = randomSaga(Reachability.CLOSURE_MAX_NODES + 10, 3);
+        for (Saga saga : List.of(small, large)) {
+            SagaNode own = saga.getNode("n1");
+            SagaNode other = randomSaga(10, 3).getNode("n1");
+            assertRejected(() -> saga.isAncestor(own, other));
+            assertRejected(() -> saga.isAncestor(other, own));
+            assertRejected(() -> saga.descendants(other));
+            assertRejected(() -> saga.ancestors(other));
+        }
+    }
+
+    private static void assertRejected(Runnable query) {
+        try {
+            query.run();
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("does not belong to saga"), e.getMessage());
+        }
+    }
+
+    @Test
+    public void thatClosureOfSmallSagaMatchesTraversal() {
+        Saga saga = randomSaga(300, 1);
+        assertEquals(saga.reachability().sizeInBytes(), (long) saga.nodeCount() * ((saga.nodeCount() + 63) / 64) * Long.BYTES);
+        assertIndexMatchesTraversal(saga, 20);
+    }
+
+    @Test
+    public void thatLabelsOfLargeSagaMatchTraversal() {
+        Saga saga = randomSaga(Reachability.CLOSURE_MAX_NODES + 500, 2);
+        assertEquals(saga.reachability().sizeInBytes(), 40L * saga.nodeCount());
+        assertIndexMatchesTraversal(saga, 3);
+    }
+
+    @Test
+    public void thatLabelsOfLongChainMatchTraversal() {
+        Saga.SagaBuilder builder = Saga.start("Chain").linkTo("n0");
+        int size = 3 * Reachability.CLOSURE_MAX_NODES;
+        for (int i = 0; i < size; i++) {
+            builder.id("n" + i).adapter("A").linkTo(i + 1 < size ? "n" + (i + 1) : Saga.ID_END);
+        }
+        Saga saga = builder.end();
+        SagaNode first = saga.getNode("n0");
+        SagaNode middle = saga.getNode("n" + (size / 2));
+        assertTrue(saga.isAncestor(first, middle));
+        assertFalse(saga.isAncestor(middle, first));
+        assertEquals(saga.descendants(middle).size(), size - size / 2);
+        assertEquals(saga.ancestors(middle).size(), size / 2 + 1);
+    }
+
+    @Test
+    public void thatDeadEndOfLargeSagaIsReached() {
+        Saga.SagaBuilder builder = Saga.start("Dead end").linkTo("n0");
+        int size = Reachability.CLOSURE_MAX_NODES + 1000;
+        builder.id("n0").adapter("A").linkTo("n1", "dead");
+        for (int i = 1; i < size; i++) {
+            builder.id("n" + i).adapter("A").linkTo(i + 1 < size ? "n" + (i + 1) : Saga.ID_END);
+        }
+        builder.id("dead").adapter("A").linkTo();
+        Saga saga = builder.end();
+        SagaNode dead = saga.getNode("dead");
+        for (SagaNode a : List.of(saga.getStartNode(), saga.getNode("n0"), saga.getNode("n1"), dead, saga.getNode("n" + (size - 1)))) {
+            List<SagaNode> descendants = saga.descendants(a);
+            for (SagaNode b : saga.nodes()) {
+                assertEquals(saga.isAncestor(a, b), descendants.contains(b), a.id + " -> " + b.id);
+            }
+        }
+        assertTrue(saga.isAncestor(saga.getNode("n0"), dead));
+        assertFalse(saga.isAncestor(saga.getNode("n1"), dead));
+        assertFalse(saga.isAncestor(dead, saga.getEndNode()));
+        assertIndexMatchesTraversal(saga, 3);
+    }
+}
@@ -0,0 +1,107 @@
+package no.ssb.saga.api;
+
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+public class SagaBinaryTest {
+
+    private static Saga complexSaga(String name) {
+        return Saga
+                .start(name).linkTo("c1", "c2", "c3")
+                .id("c1").adapter("something").linkToEnd()
+                .id("c2").adapter("anything").linkTo("c7")
+                .id("c3").adapter("that").linkTo("c4")
+                .id("c4").adapter("something").linkTo("c5", "c6")
+                .id("c5").adapter("sub_route_A").linkTo("c7")
+                .id("c6").adapter("sub_route_B").linkTo("c7")
+                .id("c7").adapter("Aggregate_A,_B_and_anything").linkToEnd()
+                .end();
+    }
+
+    @Test
+    public void thatBinaryRoundTripPreservesGraph() {
+        Saga saga = complexSaga("Binary saga æøå");
+        byte[] bytes = saga.toBinary();
+        Saga decoded = Saga.fromBinary(ByteBuffer.wrap(bytes));
+        assertEquals(decoded.toJson(), saga.toJson());
+        assertEquals(decoded.toBinary(), bytes);
+    }
+
+    @Test
+    public void thatBinaryIsSmallerThanJson() {
+        Saga saga = complexSaga("Size");
+        assertTrue(saga.toBinary().length < saga.toJson().length() / 2);
+    }
+
+    @Test(expectedExceptions = SagaException.class, expectedExceptionsMessageRegExp = ".*content hash mismatch")
+    public void thatCorruptedBinaryIsDetected() {
+        byte[] bytes = complexSaga("Corrupt").toBinary();
+        bytes[bytes.length - 3] ^= 0x01;
+        Saga.fromBinary(ByteBuffer.wrap(bytes));
+    }
+
+    @Test(expectedExceptions = SagaException.class, expectedExceptionsMessageRegExp = ".*unsupported version 9")
+    public void thatUnknownVersionIsRejected() {
+        byte[] bytes = complexSaga("Version").toBinary();
+        bytes[4] = 9;
+        Saga.fromBinary(ByteBuffer.wrap(bytes));
+    }
+
+    @Test(expectedExceptions = SagaException.class, expectedExceptionsMessageRegExp = ".*truncated")
+    public void thatTruncatedBinaryIsRejected() {
+        byte[] bytes = complexSaga("Truncated").toBinary();
+        Saga.fromBinary(ByteBuffer.wrap(bytes, 0, bytes.length - 1));
+    }
+
+    @Test
+    public void thatCatalogMaterializesSagasLazilyByName() throws IOException {
+        Path dir = Files.createTempDirectory("saga-catalog");
+        Path file = dir.resolve("sagas.catalog");
+        List<Saga> sagas = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            sagas.add(complexSaga("saga-" + i));
+        }
+        SagaCatalog.write(file, sagas);
+
+        SagaCatalog catalog = SagaCatalog.open(file);
+        assertEquals(catalog.size(), 100);
+        assertEquals(catalog.names().size(), 100);
+        assertTrue(catalog.contains("saga-42"));
+        assertFalse(catalog.contains("saga-100"));
+        assertNull(catalog.get("no-such-saga"));
+        Saga saga42 = catalog.get("saga-42");
+        assertEquals(saga42.toJson(), sagas.get(42).toJson());
+        assertSame(catalog.get("saga-42"), saga42);
+        for (Saga saga : sagas) {
+            assertEquals(catalog.get(saga.name).name, saga.name);
+        }
+    }
+
+    @Test(expectedExceptions = SagaException.class, expectedExceptionsMessageRegExp = "Duplicate saga name in catalog: twice")
+    public void thatCatalogRejectsDuplicateNames() throws IOException {
+        Path file = Files.createTempDirectory("saga-catalog").resolve("duplicates.catalog");
+        SagaCatalog.write(file, List.of(complexSaga("twice"), complexSaga("once"), complexSaga("twice")));
+    }
+
+    @Test(expectedExceptions = SagaException.class, expectedExceptionsMessageRegExp = ".*index content hash mismatch")
+    public void thatCorruptedCatalogIndexIsDetected() throws IOException {
+        Path file = Files.createTempDirectory("saga-catalog").resolve("corrupt.catalog");
+        SagaCatalog.write(file, List.of(complexSaga("a"), complexSaga("b")));
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[SagaCatalog.HEADER_LENGTH + 2 * SagaCatalog.ENTRY_LENGTH] ^= 0x01;
+        Files.write(file, bytes);
+        SagaCatalog.open(file);
+    }
+}
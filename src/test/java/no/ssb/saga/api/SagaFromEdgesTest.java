@@ -0,0 +1,126 @@
+package no.ssb.saga.api;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class SagaFromEdgesTest {
+
+    private static void assertRejected(String[] ids, String[] adapters, int[] from, int[] to, String message) {
+        try {
+            Saga.fromEdges("Bad", ids, adapters, from, to);
+            fail("Expected SagaException");
+        } catch (SagaException e) {
+            assertTrue(e.getMessage().startsWith(message), e.getMessage());
+        }
+    }
+
+    @Test
+    public void thatEdgeListSagaEqualsBuiltSaga() {
+        Saga built = Saga.start("Order").linkTo("reserve", "charge")
+                .id("reserve").adapter("Reserve").linkTo("notify")
+                .id("charge").adapter("Charge").linkTo("notify")
+                .id("notify").adapter("Notify").linkToEnd()
+                .end();
+        Saga fromEdges = Saga.fromEdges("Order",
+                new String[]{"S", "reserve", "charge", "notify", "E"},
+                new String[]{"SagaStart", "Reserve", "Charge", "Notify", "SagaEnd"},
+                new int[]{0, 0, 2, 1, 3},
+                new int[]{1, 2, 3, 3, 4});
+        assertEquals(fromEdges.toJson(), built.toJson());
+        assertEquals(fromEdges.fingerprint(), built.fingerprint());
+    }
+
+    @Test
+    public void thatLargeEdgeListSagaIsValidatedInParallel() {
+        int width = Saga.PARALLEL_THRESHOLD;
+        int n = width + 2;
+        String[] ids = new String[n];
+        String[] adapters = new String[n];
+        int[] from = new int[2 * width];
+        int[] to = new int[2 * width];
+        ids[0] = "S";
+        adapters[0] = "SagaStart";
+        ids[n - 1] = "E";
+        adapters[n - 1] = "SagaEnd";
+        for (int i = 1; i <= width; i++) {
+            ids[i] = "n" + i;
+            adapters[i] = "A" + (i % 7);
+            from[2 * (i - 1)] = 0;
+            to[2 * (i - 1)] = i;
+            from[2 * (i - 1) + 1] = i;
+            to[2 * (i - 1) + 1] = n - 1;
+        }
+        Saga saga = Saga.fromEdges("Wide", ids, adapters, from, to);
+        assertEquals(saga.nodes().size(), n);
+        assertEquals(saga.getStartNode().outgoing.size(), width);
+
+        int[] cyclicFrom = from.clone();
+        int[] cyclicTo = to.clone();
+        cyclicFrom[1] = 1;
+        cyclicTo[1] = 1; // n1 -> n1 instead of n1 -> E
+        assertRejected(ids, adapters, cyclicFrom, cyclicTo, "Saga must be a Directed Acyclic Graph (DAG). Nodes can't link to themselves: node(n1).");
+
+        String[] invalidIds = ids.clone();
+        invalidIds[width] = "n 1";
+        invalidIds[width / 2] = "n\t2";
+        assertRejected(invalidIds, adapters, from, to, "id must only contain visible characters. Whitespace- or control-characters are not allowed. id: n\t2");
+    }
+
+    @Test
+    public void thatSameRulesAsBuilderApply() {
+        String[] ids = {"S", "a", "b", "E"};
+        String[] adapters = {"SagaStart", "A", "B", "SagaEnd"};
+        assertRejected(new String[]{"S", "a b", "b", "E"}, adapters, new int[]{0, 1, 2}, new int[]{1, 2, 3},
+                "id must only contain visible characters");
+        assertRejected(ids, new String[]{"SagaStart", "A", "Bæ", "SagaEnd"}, new int[]{0, 1, 2}, new int[]{1, 2, 3},
+                "adapter must only contain visible characters");
+        assertRejected(new String[]{"S", "a", "a", "E"}, adapters, new int[]{0, 1, 2}, new int[]{1, 2, 3},
+                "Duplicate id: a");
+        assertRejected(new String[]{"S", "a", "b", "F"}, adapters, new int[]{0, 1, 2}, new int[]{1, 2, 3},
+                "Missing end node(E) with adapter SagaEnd");
+        assertRejected(ids, new String[]{"SagaEnd", "A", "B", "SagaEnd"}, new int[]{0, 1, 2}, new int[]{1, 2, 3},
+                "Missing start node(S) with adapter SagaStart");
+        assertRejected(ids, adapters, new int[]{0, 1, 2, 3}, new int[]{1, 2, 3, 1},
+                "End node(E) cannot link to other nodes");
+        assertRejected(ids, adapters, new int[]{0, 1, 2, 2}, new int[]{1, 2, 3, 1},
+                "Saga must be a Directed Acyclic Graph (DAG). Detected circle where node(b) links to ancestor node(a): a -> b -> a");
+        assertRejected(ids, adapters, new int[]{0, 2}, new int[]{1, 3},
+                "Unreachables nodes: b, E");
+        assertRejected(ids, adapters, new int[]{0, 1, 2}, new int[]{1, 2, 4},
+                "Link 2 from node index 2 to node index 4 is out of range, there are 4 nodes");
+        assertRejected(ids, new String[]{"SagaStart", "A"}, new int[0], new int[0],
+                "ids and adapters must have the same length");
+        assertRejected(ids, adapters, new int[]{0}, new int[0],
+                "from and to must have the same length");
+    }
+
+    @Test
+    public void thatValidationTimeIsReported() {
+        long[] reported = new long[2];
+        Saga.setBuildObserver(new SagaBuildObserver() {
+            @Override
+            public void sagaBuilt(Saga saga, long buildNanos, long validationNanos) {
+                reported[0] = buildNanos;
+                reported[1] = validationNanos;
+            }
+        });
+        try {
+            Saga.fromEdges("Timed", new String[]{"S", "a", "E"}, new String[]{"SagaStart", "A", "SagaEnd"}, new int[]{0, 1}, new int[]{1, 2});
+        } finally {
+            Saga.setBuildObserver(null);
+        }
+        assertTrue(reported[1] > 0, "validation took " + reported[1] + "ns");
+        assertTrue(reported[1] <= reported[0], reported[1] + "ns of " + reported[0] + "ns");
+    }
+
+    @Test
+    public void thatInputArraysAreNotShared() {
+        String[] ids = {"S", "a", "E"};
+        Saga saga = Saga.fromEdges("Copy", ids, new String[]{"SagaStart", "A", "SagaEnd"}, new int[]{0, 1}, new int[]{1, 2});
+        ids[1] = "b";
+        assertEquals(saga.getNode("a").id, "a");
+    }
+}
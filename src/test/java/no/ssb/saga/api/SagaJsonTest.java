@@ -0,0 +1,128 @@
+package no.ssb.saga.api;
+
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.testng.Assert.assertEquals;
+
+public class SagaJsonTest {
+
+    private static Saga complexSaga() {
+        return Saga
+                .start("Complex \"saga\" æøå\t}").linkTo("c1", "c2", "c3")
+                .id("c1").adapter("something").linkToEnd()
+                .id("c2").adapter("anything").linkTo("c7")
+                .id("c3").adapter("that").linkTo("c4")
+                .id("c4").adapter("complex-branch").linkTo("c5", "c6")
+                .id("c5").adapter("sub_route_A").linkTo("c7")
+                .id("c6").adapter("sub_\\route_B").linkTo("c7")
+                .id("c7").adapter("Aggregate_\"A\",_B_and_anything").linkToEnd()
+                .end();
+    }
+
+    private static void assertSameGraph(Saga actual, Saga expected) {
+        assertEquals(actual.name, expected.name);
+        assertEquals(actual.nodeCount(), expected.nodeCount());
+        for (int i = 0; i < expected.nodeCount(); i++) {
+            SagaNode e = expected.getNode(i);
+            SagaNode a = actual.getNode(i);
+            assertEquals(a.id, e.id);
+            assertEquals(a.adapter, e.adapter);
+            assertEquals(ids(a.outgoing), ids(e.outgoing));
+            assertEquals(ids(a.incoming), ids(e.incoming));
+        }
+    }
+
+    private static List<String> ids(Collection<SagaNode> nodes) {
+        return nodes.stream().map(n -> n.id).collect(Collectors.toList());
+    }
+
+    @Test
+    public void thatJsonRoundTripPreservesGraph() {
+        Saga saga = complexSaga();
+        String json = saga.toJson();
+        assertSameGraph(Saga.fromJson(json), saga);
+        assertEquals(Saga.fromJson(json).toJson(), json);
+    }
+
+    @Test
+    public void thatJsonFormatIsStable() {
+        Saga saga = Saga.start("Small").linkTo("a")
+                .id("a").adapter("A").linkToEnd()
+                .end();
+        assertEquals(saga.toJson(), "{\"name\":\"Small\",\"nodes\":["
+                + "{\"id\":\"S\",\"adapter\":\"SagaStart\",\"outgoing\":[\"a\"]},"
+                + "{\"id\":\"a\",\"adapter\":\"A\",\"outgoing\":[\"E\"]},"
+                + "{\"id\":\"E\",\"adapter\":\"SagaEnd\",\"outgoing\":[]}]}");
+    }
+
+    @Test
+    public void thatStreamingVariantsRoundTrip() throws IOException {
+        Saga saga = complexSaga();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        saga.writeJson(out);
+        assertSameGraph(Saga.readJson(ByteBuffer.wrap(out.toByteArray())), saga);
+        StringBuilder sb = new StringBuilder();
+        saga.writeJson(sb);
+        assertSameGraph(Saga.readJson(new StringReader(sb.toString())), saga);
+        assertEquals(new String(out.toByteArray(), StandardCharsets.UTF_8), sb.toString());
+    }
+
+    @Test
+    public void thatLargeSagaRoundTripsThroughSmallBuffers() {
+        int n = 20_000;
+        Saga.SagaBuilder builder = Saga.start("Long chain ☃").linkTo("n0");
+        for (int i = 0; i < n - 1; i++) {
+            builder = builder.id("n" + i).adapter("A" + (i % 7)).linkTo("n" + (i + 1));
+        }
+        Saga saga = builder.id("n" + (n - 1)).adapter("A").linkToEnd().end();
+        byte[] bytes = saga.toJson().getBytes(StandardCharsets.UTF_8);
+        assertSameGraph(Saga.readJson(ByteBuffer.wrap(bytes)), saga);
+    }
+
+    @Test
+    public void thatWhitespaceAndUnknownMembersAreAccepted() {
+        Saga saga = Saga.fromJson("{ \"version\" : 1, \"name\" : \"W\", \"nodes\" : [\n"
+                + "  { \"id\" : \"S\", \"adapter\" : \"SagaStart\", \"outgoing\" : [ \"a\" ] },\n"
+                + "  { \"id\" : \"a\", \"adapter\" : \"A\", \"extra\" : { \"x\" : [ true, null, -1.5e3 ] }, \"outgoing\" : [ \"E\" ] },\n"
+                + "  { \"id\" : \"E\", \"adapter\" : \"SagaEnd\" }\n"
+                + "] }");
+        assertEquals(saga.name, "W");
+        assertEquals(saga.nodeCount(), 3);
+    }
+
+    @Test(expectedExceptions = SagaException.class, expectedExceptionsMessageRegExp = ".*Detected circle.*")
+    public void thatCyclicJsonIsInvalid() {
+        Saga.fromJson("{\"name\":\"Cyclic\",\"nodes\":["
+                + "{\"id\":\"S\",\"adapter\":\"SagaStart\",\"outgoing\":[\"a\"]},"
+                + "{\"id\":\"a\",\"adapter\":\"A\",\"outgoing\":[\"b\"]},"
+                + "{\"id\":\"b\",\"adapter\":\"B\",\"outgoing\":[\"a\",\"E\"]},"
+                + "{\"id\":\"E\",\"adapter\":\"SagaEnd\",\"outgoing\":[]}]}");
+    }
+
+    @Test(expectedExceptions = SagaException.class, expectedExceptionsMessageRegExp = "Missing node.*")
+    public void thatJsonWithMissingNodeIsInvalid() {
+        Saga.fromJson("{\"name\":\"Missing\",\"nodes\":["
+                + "{\"id\":\"S\",\"adapter\":\"SagaStart\",\"outgoing\":[\"a\"]},"
+                + "{\"id\":\"E\",\"adapter\":\"SagaEnd\",\"outgoing\":[]}]}");
+    }
+
+    @Test(expectedExceptions = SagaException.class, expectedExceptionsMessageRegExp = "Invalid saga json.*")
+    public void thatTruncatedJsonIsInvalid() {
+        String json = complexSaga().toJson();
+        Saga.fromJson(json.substring(0, json.length() - 10));
+    }
+
+    @Test(expectedExceptions = SagaException.class, expectedExceptionsMessageRegExp = "Invalid saga json.*")
+    public void thatJsonWithoutEndNodeIsInvalid() {
+        Saga.fromJson("{\"name\":\"No end\",\"nodes\":[{\"id\":\"S\",\"adapter\":\"SagaStart\",\"outgoing\":[]}]}");
+    }
+}
@@ -0,0 +1,114 @@
+package no.ssb.saga.api;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+public class SagaRegistryTest {
+
+    private static Saga.SagaBuilder orderBuilder(String name) {
+        return Saga
+                .start(name).linkTo("reserve", "charge")
+                .id("reserve").adapter(new String("Reserve")).linkTo("notify")
+                .id("charge").adapter(new String("Charge")).linkTo("notify")
+                .id("notify").adapter(new String("Notify")).linkToEnd();
+    }
+
+    @Test
+    public void thatFingerprintIsIndependentOfDeclarationOrder() {
+        Saga a = orderBuilder("Order").end();
+        Saga b = Saga
+                .start("Order").linkTo("charge", "reserve")
+                .id("notify").adapter("Notify").linkToEnd()
+                .id("charge").adapter("Charge").linkTo("notify")
+                .id("reserve").adapter("Reserve").linkTo("notify")
+                .end();
+        assertEquals(a.fingerprint(), b.fingerprint());
+        assertEquals(SagaFingerprint.fromBytes(a.fingerprint().toBytes()), a.fingerprint());
+        assertEquals(a.fingerprint().toString().length(), 32);
+    }
+
+    @Test
+    public void thatFingerprintCoversNameAdaptersAndLinks() {
+        SagaFingerprint reference = orderBuilder("Order").end().fingerprint();
+        assertNotEquals(orderBuilder("Other").end().fingerprint(), reference);
+        assertNotEquals(Saga
+                .start("Order").linkTo("reserve", "charge")
+                .id("reserve").adapter("Reserve").linkTo("notify")
+                .id("charge").adapter("Charge2").linkTo("notify")
+                .id("notify").adapter("Notify").linkToEnd()
+                .end().fingerprint(), reference);
+        assertNotEquals(Saga
+                .start("Order").linkTo("reserve", "charge")
+                .id("reserve").adapter("Reserve").linkTo("charge")
+                .id("charge").adapter("Charge").linkTo("notify")
+                .id("notify").adapter("Notify").linkToEnd()
+                .end().fingerprint(), reference);
+    }
+
+    @Test
+    public void thatBuilderFingerprintMatchesBuiltSaga() {
+        assertEquals(orderBuilder("Order").fingerprint(), orderBuilder("Order").end().fingerprint());
+    }
+
+    @Test
+    public void thatEqualDefinitionsShareOneInstance() {
+        SagaRegistry registry = new SagaRegistry(10);
+        Saga first = registry.end(orderBuilder("Order"));
+        Saga second = registry.end(orderBuilder("Order"));
+        Saga third = registry.intern(orderBuilder("Order").end());
+        assertSame(second, first);
+        assertSame(third, first);
+        assertEquals(registry.size(), 1);
+        assertEquals(registry.hits(), 2);
+        assertEquals(registry.misses(), 1);
+        assertSame(registry.get(first.fingerprint()), first);
+    }
+
+    @Test
+    public void thatAdapterNamesAreInterned() {
+        SagaRegistry registry = new SagaRegistry(10);
+        Saga a = registry.end(orderBuilder("A"));
+        Saga b = registry.intern(orderBuilder("B").end());
+        for (SagaNode nodeA : a.nodes()) {
+            for (SagaNode nodeB : b.nodes()) {
+                if (nodeA.adapter.equals(nodeB.adapter)) {
+                    assertSame(nodeA.adapter, nodeB.adapter);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void thatRegistryIsBounded() {
+        SagaRegistry registry = new SagaRegistry(3);
+        Saga first = registry.end(orderBuilder("s0"));
+        for (int i = 1; i < 10; i++) {
+            registry.end(orderBuilder("s" + i));
+        }
+        assertEquals(registry.size(), 3);
+        assertNull(registry.get(first.fingerprint()));
+    }
+
+    @Test
+    public void thatInternedAdapterNamesAreBounded() {
+        SagaRegistry registry = new SagaRegistry(3);
+        Saga last = null;
+        for (int i = 0; i < 10 * SagaRegistry.MIN_INTERNED_BEFORE_PRUNE; i++) {
+            last = registry.end(Saga.start("generated").linkTo("a")
+                    .id("a").adapter("adapter-" + i).linkToEnd());
+        }
+        assertTrue(registry.internedAdapters() <= SagaRegistry.MIN_INTERNED_BEFORE_PRUNE + 1, "" + registry.internedAdapters());
+        assertSame(registry.internAdapter(new String(last.getNode("a").adapter)), last.getNode("a").adapter);
+    }
+
+    @Test(expectedExceptions = SagaException.class)
+    public void thatInvalidBuilderIsStillRejected() {
+        SagaRegistry registry = new SagaRegistry(10);
+        registry.end(Saga.start("Invalid").linkTo("missing"));
+    }
+}
@@ -3,9 +3,16 @@ package no.ssb.saga.api;
 import org.testng.annotations.Test;
 
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.stream.Collectors;
 
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertThrows;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
 
 public class SagaTest {
 
@@ -95,6 +102,185 @@ public class SagaTest {
         assertEquals(reverseVisited, forwardVisited);
     }
 
+    @Test
+    public void thatIncomingLinksMirrorOutgoingLinks() {
+        Saga saga = Saga
+                .start("Links saga").linkTo("c1", "c2")
+                .id("c1").adapter("shared").linkTo("c3")
+                .id("c2").adapter("shared").linkTo("c3")
+                .id("c3").adapter("other").linkToEnd()
+                .end();
+        assertEquals(saga.nodes().size(), 5);
+        assertEquals(saga.getStartNode().outgoing.stream().map(n -> n.id).collect(Collectors.toList()), List.of("c1", "c2"));
+        SagaNode c3 = saga.getEndNode().incoming.iterator().next();
+        assertEquals(c3.id, "c3");
+        assertEquals(c3.adapter, "other");
+        assertEquals(c3.incoming.stream().map(n -> n.id).collect(Collectors.toList()), List.of("c1", "c2"));
+        assertEquals(saga.getStartNode().incoming.size(), 0);
+        assertEquals(saga.getEndNode().outgoing.size(), 0);
+        for (SagaNode node : saga.nodes()) {
+            for (SagaNode linkTo : node.outgoing) {
+                assertTrue(linkTo.incoming.contains(node));
+            }
+        }
+    }
+
+    @Test
+    public void thatNodeViewsAreUnmodifiableAndNotCopied() {
+        Saga saga = Saga
+                .start("Views saga").linkTo("c1", "c2")
+                .id("c1").adapter("shared").linkTo("c3")
+                .id("c2").adapter("shared").linkTo("c3")
+                .id("c3").adapter("other").linkToEnd()
+                .end();
+        assertSame(saga.nodes(), saga.nodes());
+        SagaNode c3 = saga.getNode("c3");
+        assertSame(saga.successors(saga.getStartNode()), saga.successors(saga.getStartNode()));
+        assertEquals(saga.successors(saga.getStartNode()).stream().map(n -> n.id).collect(Collectors.toList()), List.of("c1", "c2"));
+        assertEquals(saga.predecessors(c3).stream().map(n -> n.id).collect(Collectors.toList()), List.of("c1", "c2"));
+        assertEquals(saga.predecessors(saga.getStartNode()), List.of());
+        assertThrows(UnsupportedOperationException.class, () -> saga.nodes().clear());
+        assertThrows(UnsupportedOperationException.class, () -> saga.successors(c3).clear());
+        assertThrows(UnsupportedOperationException.class, () -> saga.predecessors(c3).clear());
+        SagaNode other = Saga.start("Other saga").linkTo("c3").id("c3").adapter("other").linkToEnd().end().getNode("c3");
+        assertThrows(IllegalArgumentException.class, () -> saga.successors(other));
+        assertThrows(IllegalArgumentException.class, () -> saga.predecessors(other));
+    }
+
+    @Test
+    public void thatStreamsCoverEveryNode() {
+        Saga.SagaBuilder builder = Saga.start("Streams saga").linkTo("n0");
+        int n = 10_000;
+        for (int i = 0; i < n; i++) {
+            builder.id("n" + i).adapter("a" + (i % 3)).linkTo(i + 1 < n ? "n" + (i + 1) : Saga.ID_END);
+        }
+        Saga saga = builder.end();
+        assertEquals(saga.spliterator().getExactSizeIfKnown(), n + 2);
+        assertTrue(saga.spliterator().hasCharacteristics(Spliterator.SUBSIZED));
+        assertEquals(saga.stream().map(node -> node.id).collect(Collectors.toList()),
+                saga.nodes().stream().map(node -> node.id).collect(Collectors.toList()));
+        assertEquals(saga.parallelStream().filter(node -> node.adapter.equals("a1")).count(), n / 3);
+        assertEquals(saga.parallelStream().mapToInt(node -> node.index).sum(), (n + 1) * (n + 2) / 2);
+        assertEquals(saga.topologicalStream(true).map(node -> node.id).collect(Collectors.toList()),
+                saga.topologicalOrder().stream().map(node -> node.id).collect(Collectors.toList()));
+        assertEquals(saga.topologicalStream(false).findFirst().get(), saga.getStartNode());
+    }
+
+    @Test
+    public void thatCycleMessageContainsCyclePath() {
+        try {
+            Saga
+                    .start("Cycle path saga").linkTo("c1")
+                    .id("c1").adapter("A").linkTo("c2")
+                    .id("c2").adapter("B").linkTo("c3")
+                    .id("c3").adapter("C").linkTo("c1", "c4")
+                    .id("c4").adapter("D").linkToEnd()
+                    .end();
+            fail("Expected SagaException");
+        } catch (SagaException e) {
+            assertTrue(e.getMessage().endsWith("c1 -> c2 -> c3 -> c1"), e.getMessage());
+        }
+    }
+
+    @Test
+    public void thatMillionNodeChainIsValidAndTraversable() {
+        int n = 1_000_000;
+        Saga.SagaBuilder builder = Saga.start("Long chain saga").linkTo("n0");
+        for (int i = 0; i < n - 1; i++) {
+            builder = builder.id("n" + i).adapter("A").linkTo("n" + (i + 1));
+        }
+        Saga saga = builder.id("n" + (n - 1)).adapter("A").linkToEnd().end();
+        assertEquals(saga.nodes().size(), n + 2);
+        int[] visits = new int[2];
+        saga.depthFirstPreOrderFullTraversal((ancestors, node) -> visits[0]++);
+        saga.reverseDepthFirstPreOrderFullTraversal((ancestors, node) -> visits[1]++);
+        assertEquals(visits[0], n + 2);
+        assertEquals(visits[1], n + 2);
+    }
+
+    @Test(expectedExceptions = SagaException.class, expectedExceptionsMessageRegExp = ".*node\\(n999999\\) links to ancestor node\\(n0\\).*")
+    public void thatCycleAtTheEndOfMillionNodeChainIsInvalid() {
+        int n = 1_000_000;
+        Saga.SagaBuilder builder = Saga.start("Long cyclic chain saga").linkTo("n0");
+        for (int i = 0; i < n - 1; i++) {
+            builder = builder.id("n" + i).adapter("A").linkTo("n" + (i + 1));
+        }
+        builder.id("n" + (n - 1)).adapter("A").linkTo("n0").end();
+    }
+
+    @Test
+    public void thatWideFanOutAndFanInIsValid() {
+        int n = 100_000;
+        String[] ids = new String[n];
+        for (int i = 0; i < n; i++) {
+            ids[i] = "f" + i;
+        }
+        Saga.SagaBuilder builder = Saga.start("Wide saga").linkTo(ids);
+        for (String id : ids) {
+            builder = builder.id(id).adapter("A").linkToEnd();
+        }
+        Saga saga = builder.end();
+        assertEquals(saga.getStartNode().outgoing.size(), n);
+        assertEquals(saga.getEndNode().incoming.size(), n);
+    }
+
+    @Test(expectedExceptions = SagaException.class, expectedExceptionsMessageRegExp = "Unreachables nodes: u1")
+    public void thatUnreachableNodeInWideSagaIsInvalid() {
+        int n = 100_000;
+        String[] ids = new String[n];
+        for (int i = 0; i < n; i++) {
+            ids[i] = "f" + i;
+        }
+        Saga.SagaBuilder builder = Saga.start("Wide unreachable saga").linkTo(ids);
+        for (String id : ids) {
+            builder = builder.id(id).adapter("A").linkToEnd();
+        }
+        builder.id("u1").adapter("A").linkToEnd().end();
+    }
+
+    @Test
+    public void thatWavesPartitionNodesByDependencyLevel() {
+        Saga saga = Saga
+                .start("Waves saga").linkTo("c1", "c2", "c3")
+                .id("c1").adapter("something").linkToEnd()
+                .id("c2").adapter("anything").linkTo("c7")
+                .id("c3").adapter("that").linkTo("c4")
+                .id("c4").adapter("complex-branch").linkTo("c5", "c6")
+                .id("c5").adapter("sub_route_A").linkTo("c7")
+                .id("c6").adapter("sub_route_B").linkTo("c7")
+                .id("c7").adapter("Aggregate_A,_B_and_anything").linkToEnd()
+                .end();
+        List<List<String>> waves = saga.waves().stream()
+                .map(wave -> wave.stream().map(n -> n.id).collect(Collectors.toList()))
+                .collect(Collectors.toList());
+        assertEquals(waves, List.of(
+                List.of(Saga.ID_START),
+                List.of("c1", "c2", "c3"),
+                List.of("c4"),
+                List.of("c5", "c6"),
+                List.of("c7"),
+                List.of(Saga.ID_END)
+        ));
+        List<SagaNode> order = saga.topologicalOrder();
+        assertEquals(order.size(), saga.nodeCount());
+        for (SagaNode node : order) {
+            for (SagaNode linkTo : node.outgoing) {
+                assertTrue(order.indexOf(node) < order.indexOf(linkTo));
+                assertTrue(saga.wave(node) < saga.wave(linkTo));
+            }
+        }
+        SagaNode c7 = saga.getEndNode().incoming.stream().filter(n -> n.id.equals("c7")).findFirst().get();
+        assertEquals(saga.inDegree(c7), 3);
+        assertEquals(saga.outDegree(c7), 1);
+        assertEquals(saga.inDegrees()[c7.index], 3);
+        assertEquals(saga.outDegrees()[saga.getStartNode().index], 3);
+        assertTrue(saga.topologicalOrder() == order);
+        SagaNode other = Saga.start("Other saga").linkTo("c7").id("c7").adapter("other").linkToEnd().end().getNode("c7");
+        assertThrows(IllegalArgumentException.class, () -> saga.wave(other));
+        assertThrows(IllegalArgumentException.class, () -> saga.inDegree(other));
+        assertThrows(IllegalArgumentException.class, () -> saga.outDegree(other));
+    }
+
     @Test(expectedExceptions = SagaException.class)
     public void thatNoLinkToSagaIsInvalid() {
         Saga.start("No linkTo saga").linkTo().end();
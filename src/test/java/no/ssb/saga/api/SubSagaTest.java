@@ -0,0 +1,134 @@
+package no.ssb.saga.api;
+
+import org.testng.annotations.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+
+public class SubSagaTest {
+
+    private static Saga payment() {
+        return Saga.start("Payment").linkTo("reserve")
+                .id("reserve").adapter("Reserve").linkTo("charge")
+                .id("charge").adapter("Charge").timeout(Duration.ofSeconds(2)).linkTo("notify")
+                .id("notify").adapter("Notify").linkToEnd()
+                .end();
+    }
+
+    private static List<String> outgoing(Saga saga, String id) {
+        return saga.getNode(id).outgoing.stream().map(n -> n.id).collect(Collectors.toList());
+    }
+
+    @Test
+    public void thatSubSagaIsSplicedBetweenSurroundingLinks() {
+        Saga saga = Saga.start("Order").linkTo("order")
+                .id("order").adapter("Order").linkTo("pay")
+                .id("pay").saga(payment()).linkTo("ship")
+                .id("ship").adapter("Ship").linkToEnd()
+                .end();
+        Saga handWritten = Saga.start("Order").linkTo("order")
+                .id("order").adapter("Order").linkTo("pay/reserve")
+                .id("pay/reserve").adapter("Reserve").linkTo("pay/charge")
+                .id("pay/charge").adapter("Charge").timeout(Duration.ofSeconds(2)).linkTo("pay/notify")
+                .id("pay/notify").adapter("Notify").linkTo("ship")
+                .id("ship").adapter("Ship").linkToEnd()
+                .end();
+        assertEquals(saga.toJson(), handWritten.toJson());
+        assertEquals(saga.fingerprint(), handWritten.fingerprint());
+        assertNull(saga.getNode("pay"));
+        assertEquals(saga.getNode("pay/charge").policy.timeoutNanos, Duration.ofSeconds(2).toNanos());
+    }
+
+    @Test
+    public void thatFanInAndFanOutAreLinkedToEveryEntryAndExit() {
+        Saga fork = Saga.start("Fork").linkTo("a", "b")
+                .id("a").adapter("A").linkToEnd()
+                .id("b").adapter("B").linkTo("c")
+                .id("c").adapter("C").linkToEnd()
+                .end();
+        Saga saga = Saga.start("Parent").linkTo("p1", "p2", "x")
+                .id("p1").adapter("P").linkTo("x")
+                .id("p2").adapter("P").linkTo("x", "s1")
+                .id("x").saga(fork).linkTo("s1", "s2")
+                .id("s1").adapter("S").linkToEnd()
+                .id("s2").adapter("S").linkToEnd()
+                .end();
+        assertEquals(outgoing(saga, Saga.ID_START), List.of("p1", "p2", "x/a", "x/b"));
+        assertEquals(outgoing(saga, "p1"), List.of("x/a", "x/b"));
+        // the direct link p2 -> s1 is kept once
+        assertEquals(outgoing(saga, "p2"), List.of("x/a", "x/b", "s1"));
+        assertEquals(outgoing(saga, "x/a"), List.of("s1", "s2"));
+        assertEquals(outgoing(saga, "x/b"), List.of("x/c"));
+        assertEquals(outgoing(saga, "x/c"), List.of("s1", "s2"));
+    }
+
+    @Test
+    public void thatEmptySubSagaLinksStraightThrough() {
+        Saga empty = Saga.start("Empty").linkToEnd().end();
+        Saga saga = Saga.start("Parent").linkTo("a")
+                .id("a").adapter("A").linkTo("nothing")
+                .id("nothing").saga(empty).linkTo("b")
+                .id("b").adapter("B").linkToEnd()
+                .end();
+        assertEquals(saga.nodeCount(), 4);
+        assertEquals(outgoing(saga, "a"), List.of("b"));
+    }
+
+    @Test
+    public void thatNestedSubSagasAreNamespacedByPath() {
+        Saga checkout = Saga.start("Checkout").linkTo("pay")
+                .id("pay").saga(payment()).linkTo("receipt")
+                .id("receipt").adapter("Receipt").linkToEnd()
+                .end();
+        Saga saga = Saga.start("Shop").linkTo("checkout")
+                .id("checkout").saga(checkout).linkToEnd()
+                .end();
+        assertEquals(outgoing(saga, Saga.ID_START), List.of("checkout/pay/reserve"));
+        assertEquals(outgoing(saga, "checkout/pay/notify"), List.of("checkout/receipt"));
+        assertEquals(outgoing(saga, "checkout/receipt"), List.of(Saga.ID_END));
+    }
+
+    @Test
+    public void thatSplicedFormIsMemoizedPerNodeId() {
+        Saga payment = payment();
+        Saga first = Saga.start("First").linkTo("pay").id("pay").saga(payment).linkToEnd().end();
+        SagaFlattener.Fragment fragment = payment.fragment("pay");
+        Saga second = Saga.start("Second").linkTo("pay").id("pay").saga(payment).linkToEnd().end();
+        assertSame(payment.fragment("pay"), fragment);
+        assertSame(first.getNode("pay/reserve").id, second.getNode("pay/reserve").id);
+    }
+
+    @Test
+    public void thatBuilderFingerprintMatchesFlattenedSaga() {
+        Saga.SagaBuilder builder = Saga.start("Order").linkTo("pay")
+                .id("pay").saga(payment()).linkToEnd();
+        SagaFingerprint fingerprint = builder.fingerprint();
+        assertEquals(builder.end().fingerprint(), fingerprint);
+    }
+
+    @Test(expectedExceptions = SagaException.class, expectedExceptionsMessageRegExp = "Duplicate id: pay/reserve")
+    public void thatSplicedIdClashIsRejected() {
+        Saga.start("Clash").linkTo("pay")
+                .id("pay").saga(payment()).linkTo("pay/reserve")
+                .id("pay/reserve").adapter("Reserve").linkToEnd()
+                .end();
+    }
+
+    @Test(expectedExceptions = SagaException.class, expectedExceptionsMessageRegExp = ".*Detected circle.*")
+    public void thatCycleThroughSubSagaIsDetected() {
+        Saga.start("Cycle").linkTo("a")
+                .id("a").adapter("A").linkTo("pay")
+                .id("pay").saga(payment()).linkTo("a")
+                .end();
+    }
+
+    @Test(expectedExceptions = SagaException.class, expectedExceptionsMessageRegExp = "Sub-saga node\\(pay\\) cannot have a timeout.*")
+    public void thatSubSagaNodeCannotHavePolicy() {
+        Saga.start("Policy").linkTo("pay").id("pay").saga(payment()).timeout(Duration.ofSeconds(1));
+    }
+}
@@ -0,0 +1,111 @@
+package no.ssb.saga.execution;
+
+import org.testng.annotations.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class HashedTimerWheelTest {
+
+    @Test
+    public void thatTimeoutExpiresAfterDelay() throws InterruptedException {
+        try (HashedTimerWheel timer = new HashedTimerWheel()) {
+            CountDownLatch expired = new CountDownLatch(1);
+            long startNanos = System.nanoTime();
+            AtomicLong expiredNanos = new AtomicLong();
+            HashedTimerWheel.Timeout timeout = timer.schedule(() -> {
+                expiredNanos.set(System.nanoTime());
+                expired.countDown();
+            }, 20, TimeUnit.MILLISECONDS);
+            assertTrue(expired.await(10, TimeUnit.SECONDS));
+            assertTrue(expiredNanos.get() - startNanos >= TimeUnit.MILLISECONDS.toNanos(20));
+            assertTrue(timeout.isExpired());
+            assertFalse(timeout.cancel());
+        }
+    }
+
+    @Test
+    public void thatCancelledTimeoutNeverExpires() throws InterruptedException {
+        try (HashedTimerWheel timer = new HashedTimerWheel()) {
+            AtomicInteger runs = new AtomicInteger();
+            HashedTimerWheel.Timeout timeout = timer.schedule(runs::incrementAndGet, 10, TimeUnit.MILLISECONDS);
+            assertTrue(timeout.cancel());
+            assertFalse(timeout.cancel());
+            CountDownLatch later = new CountDownLatch(1);
+            timer.schedule(later::countDown, 30, TimeUnit.MILLISECONDS);
+            assertTrue(later.await(10, TimeUnit.SECONDS));
+            assertEquals(runs.get(), 0);
+            assertTrue(timeout.isCancelled());
+        }
+    }
+
+    @Test
+    public void thatTimeoutsCascadeThroughAllWheelsAndNeverExpireEarly() throws InterruptedException {
+        // a tick of 20 microseconds makes the third wheel come around within a fraction of a second
+        try (HashedTimerWheel timer = new HashedTimerWheel(Duration.ofNanos(20_000), "test-timer")) {
+            Random random = new Random(42);
+            int count = 20_000;
+            CountDownLatch expired = new CountDownLatch(count / 2);
+            AtomicInteger early = new AtomicInteger();
+            AtomicInteger cancelledRuns = new AtomicInteger();
+            List<HashedTimerWheel.Timeout> toCancel = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                long delayNanos = (long) random.nextInt(400_000) * 1000;
+                if (i % 2 == 0) {
+                    long deadline = System.nanoTime() + delayNanos;
+                    timer.schedule(() -> {
+                        if (System.nanoTime() < deadline) {
+                            early.incrementAndGet();
+                        }
+                        expired.countDown();
+                    }, delayNanos, TimeUnit.NANOSECONDS);
+                } else {
+                    toCancel.add(timer.schedule(cancelledRuns::incrementAndGet, delayNanos, TimeUnit.NANOSECONDS));
+                }
+            }
+            for (HashedTimerWheel.Timeout timeout : toCancel) {
+                timeout.cancel();
+            }
+            assertTrue(expired.await(30, TimeUnit.SECONDS), expired.getCount() + " timeouts did not expire");
+            assertEquals(early.get(), 0);
+            CountDownLatch drained = new CountDownLatch(1);
+            timer.schedule(drained::countDown, 450, TimeUnit.MILLISECONDS);
+            assertTrue(drained.await(10, TimeUnit.SECONDS));
+            // cancellation races with expiry of the shortest delays, but cancel reports the winner
+            long cancelled = toCancel.stream().filter(HashedTimerWheel.Timeout::isCancelled).count();
+            assertEquals(cancelledRuns.get(), toCancel.size() - cancelled);
+        }
+    }
+
+    @Test
+    public void thatHugeDelaysSaturateRatherThanExpire() throws InterruptedException {
+        try (HashedTimerWheel timer = new HashedTimerWheel()) {
+            AtomicInteger runs = new AtomicInteger();
+            timer.schedule(runs::incrementAndGet, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            timer.schedule(runs::incrementAndGet, Long.MAX_VALUE, TimeUnit.DAYS);
+            timer.schedule(runs::incrementAndGet, Long.MAX_VALUE - System.nanoTime(), TimeUnit.NANOSECONDS);
+            CountDownLatch later = new CountDownLatch(1);
+            timer.schedule(later::countDown, 30, TimeUnit.MILLISECONDS);
+            assertTrue(later.await(10, TimeUnit.SECONDS));
+            assertEquals(runs.get(), 0);
+        }
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void thatClosedTimerRejectsTimeouts() {
+        HashedTimerWheel timer = new HashedTimerWheel();
+        timer.close();
+        timer.schedule(() -> {
+        }, 1, TimeUnit.MILLISECONDS);
+    }
+}
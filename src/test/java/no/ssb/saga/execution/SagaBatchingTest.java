@@ -0,0 +1,133 @@
+package no.ssb.saga.execution;
+
+import no.ssb.saga.api.Saga;
+import org.testng.annotations.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class SagaBatchingTest {
+
+    static Saga saga() {
+        return Saga.start("Batched").linkTo("lookup")
+                .id("lookup").adapter("Db").linkTo("store")
+                .id("store").adapter("Db").linkToEnd()
+                .end();
+    }
+
+    static class RecordingBatchAdapter implements BatchingSagaAdapter {
+        final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public List<?> executeActions(List<Invocation> invocations) {
+            batchSizes.add(invocations.size());
+            List<Object> outputs = new ArrayList<>();
+            for (Invocation invocation : invocations) {
+                outputs.add(invocation.node.id + ":" + invocation.sagaInput + ":" + invocation.dependeesOutput.values());
+            }
+            return outputs;
+        }
+    }
+
+    static List<SagaResult> executeConcurrently(SagaExecutor executor, Saga saga, int executions) {
+        List<CompletableFuture<SagaResult>> futures = new ArrayList<>();
+        for (int i = 0; i < executions; i++) {
+            futures.add(executor.execute(saga, i));
+        }
+        List<SagaResult> results = new ArrayList<>();
+        for (CompletableFuture<SagaResult> future : futures) {
+            results.add(future.orTimeout(10, TimeUnit.SECONDS).join());
+        }
+        return results;
+    }
+
+    @Test
+    public void thatActionsOfConcurrentExecutionsAreCoalescedAndOutputsFannedBack() {
+        RecordingBatchAdapter adapter = new RecordingBatchAdapter();
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            SagaExecutor executor = SagaExecutor.builder(new SagaAdapterRegistry().register("Db", adapter))
+                    .executor(pool).batching(100, Duration.ofMillis(100)).build();
+            Saga saga = saga();
+            List<SagaResult> results = executeConcurrently(executor, saga, 20);
+            for (int i = 0; i < results.size(); i++) {
+                SagaResult result = results.get(i);
+                assertEquals(result.status, SagaResult.Status.COMPLETED);
+                assertEquals(result.output(saga.getNode("lookup")), "lookup:" + i + ":[null]");
+                assertEquals(result.output(saga.getNode("store")), "store:" + i + ":[lookup:" + i + ":[null]]");
+            }
+            assertEquals(adapter.batchSizes.stream().mapToInt(Integer::intValue).sum(), 40);
+            assertTrue(adapter.batchSizes.size() < 40, "no actions were coalesced: " + adapter.batchSizes);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void thatBatchesAreBoundedByMaxBatchSize() {
+        RecordingBatchAdapter adapter = new RecordingBatchAdapter();
+        SagaExecutor executor = SagaExecutor.builder(new SagaAdapterRegistry().register("Db", adapter))
+                .batching(4, Duration.ofMillis(50)).build();
+        List<SagaResult> results = executeConcurrently(executor, saga(), 25);
+        for (SagaResult result : results) {
+            assertEquals(result.status, SagaResult.Status.COMPLETED);
+        }
+        assertEquals(adapter.batchSizes.stream().mapToInt(Integer::intValue).sum(), 50);
+        assertTrue(adapter.batchSizes.stream().allMatch(size -> size <= 4), adapter.batchSizes.toString());
+    }
+
+    @Test
+    public void thatFailedBatchFailsEveryExecutionInIt() {
+        IllegalStateException failure = new IllegalStateException("database unavailable");
+        BatchingSagaAdapter adapter = invocations -> {
+            throw failure;
+        };
+        SagaExecutor executor = SagaExecutor.builder(new SagaAdapterRegistry().register("Db", adapter))
+                .batching(100, Duration.ofMillis(20)).build();
+        Saga saga = saga();
+        for (SagaResult result : executeConcurrently(executor, saga, 10)) {
+            assertEquals(result.status, SagaResult.Status.FAILED);
+            assertEquals(result.failedNode(), saga.getNode("lookup"));
+            assertEquals(result.failure(), failure);
+        }
+    }
+
+    @Test
+    public void thatMissingOutputsFailTheBatch() throws Exception {
+        BatchingSagaAdapter adapter = invocations -> List.of();
+        SagaResult result = SagaExecutor.builder(new SagaAdapterRegistry().register("Db", adapter)).build()
+                .execute(saga(), null).get(10, TimeUnit.SECONDS);
+        assertEquals(result.status, SagaResult.Status.FAILED);
+        assertTrue(result.failure() instanceof IllegalStateException);
+    }
+
+    @Test
+    public void thatReplacedAdapterIsUsedForLaterBatches() throws Exception {
+        RecordingBatchAdapter first = new RecordingBatchAdapter();
+        RecordingBatchAdapter second = new RecordingBatchAdapter();
+        SagaAdapterRegistry adapters = new SagaAdapterRegistry().register("Db", first);
+        SagaExecutor executor = SagaExecutor.builder(adapters).build();
+        assertEquals(executor.execute(saga(), null).get(10, TimeUnit.SECONDS).status, SagaResult.Status.COMPLETED);
+        adapters.register("Db", second);
+        assertEquals(executor.execute(saga(), null).get(10, TimeUnit.SECONDS).status, SagaResult.Status.COMPLETED);
+        assertEquals(first.batchSizes, List.of(1, 1));
+        assertEquals(second.batchSizes, List.of(1, 1));
+    }
+
+    @Test
+    public void thatSingleActionIsExecutedAsBatchOfOne() throws Exception {
+        RecordingBatchAdapter adapter = new RecordingBatchAdapter();
+        Saga saga = saga();
+        assertEquals(adapter.executeAction(saga.getNode("lookup"), "in", Collections.emptyMap()), "lookup:in:[]");
+        assertEquals(adapter.batchSizes, List.of(1));
+    }
+}
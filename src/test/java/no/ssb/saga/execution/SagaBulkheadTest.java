@@ -0,0 +1,162 @@
+package no.ssb.saga.execution;
+
+import no.ssb.saga.api.Saga;
+import org.testng.annotations.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class SagaBulkheadTest {
+
+    static Saga saga() {
+        return Saga.start("Downstream").linkTo("call")
+                .id("call").adapter("Downstream").linkToEnd()
+                .end();
+    }
+
+    @Test
+    public void thatConcurrentActionsOfAdapterAreLimited() throws Exception {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        SagaAdapterRegistry adapters = new SagaAdapterRegistry()
+                .register("Downstream", (node, input, dependeesOutput) -> {
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    Thread.sleep(5);
+                    running.decrementAndGet();
+                    return input;
+                });
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            SagaExecutor executor = SagaExecutor.builder(adapters).executor(pool)
+                    .bulkhead("Downstream", ConcurrencyLimit.fixed(2), 100).build();
+            List<CompletableFuture<SagaResult>> futures = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                futures.add(executor.execute(saga(), i));
+            }
+            for (CompletableFuture<SagaResult> future : futures) {
+                assertEquals(future.get(10, TimeUnit.SECONDS).status, SagaResult.Status.COMPLETED);
+            }
+            assertTrue(maxRunning.get() <= 2, "ran " + maxRunning.get() + " concurrent actions");
+            assertEquals(executor.adapterInFlight("Downstream"), 0);
+            assertEquals(executor.adapterLimit("Downstream"), 2);
+            assertEquals(executor.adapterLimit("Other"), -1);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void thatActionIsRejectedWhenBulkheadQueueIsFull() throws Exception {
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        SagaAdapterRegistry adapters = new SagaAdapterRegistry()
+                .register("Downstream", (node, input, dependeesOutput) -> {
+                    entered.countDown();
+                    release.await();
+                    return input;
+                });
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            SagaExecutor executor = SagaExecutor.builder(adapters).executor(pool)
+                    .bulkhead("Downstream", ConcurrencyLimit.fixed(1), 1).build();
+            CompletableFuture<SagaResult> first = executor.execute(saga(), 1);
+            assertTrue(entered.await(10, TimeUnit.SECONDS));
+            CompletableFuture<SagaResult> second = executor.execute(saga(), 2);
+            CompletableFuture<SagaResult> third = executor.execute(saga(), 3);
+            SagaResult rejected = CompletableFuture.anyOf(second, third).thenApply(SagaResult.class::cast).get(10, TimeUnit.SECONDS);
+            assertEquals(rejected.status, SagaResult.Status.FAILED);
+            assertTrue(rejected.failure() instanceof SagaRejectedException, String.valueOf(rejected.failure()));
+            release.countDown();
+            assertEquals(first.get(10, TimeUnit.SECONDS).status, SagaResult.Status.COMPLETED);
+            SagaResult queued = (rejected == second.getNow(null) ? third : second).get(10, TimeUnit.SECONDS);
+            assertEquals(queued.status, SagaResult.Status.COMPLETED);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void thatExecutionsOverAdmissionLimitAreQueuedOrRejected() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        SagaAdapterRegistry adapters = new SagaAdapterRegistry()
+                .register("Downstream", (node, input, dependeesOutput) -> {
+                    release.await();
+                    return input;
+                });
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            SagaExecutor executor = SagaExecutor.builder(adapters).executor(pool).admission(1, 1).build();
+            assertFalse(executor.isSaturated());
+            CompletableFuture<SagaResult> running = executor.execute(saga(), 1);
+            CompletableFuture<SagaResult> queued = executor.execute(saga(), 2);
+            assertTrue(executor.isSaturated());
+            assertEquals(executor.runningSagas(), 1);
+            assertEquals(executor.queuedSagas(), 1);
+            CompletableFuture<SagaResult> rejected = executor.execute(saga(), 3);
+            assertTrue(rejected.isCompletedExceptionally());
+            try {
+                rejected.join();
+                fail("execution was not rejected");
+            } catch (CompletionException e) {
+                assertTrue(e.getCause() instanceof SagaRejectedException);
+            }
+            release.countDown();
+            assertEquals(running.get(10, TimeUnit.SECONDS).status, SagaResult.Status.COMPLETED);
+            assertEquals(queued.get(10, TimeUnit.SECONDS).status, SagaResult.Status.COMPLETED);
+            assertEquals(executor.queuedSagas(), 0);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void thatQueuedTaskIsHandedToExecutorWhenPermitIsReleased() {
+        List<Runnable> handedOff = new ArrayList<>();
+        SagaBulkhead bulkhead = new SagaBulkhead(ConcurrencyLimit.fixed(1), 1, handedOff::add);
+        AtomicInteger ran = new AtomicInteger();
+        assertTrue(bulkhead.tryAcquire());
+        assertTrue(bulkhead.enqueue(ran::incrementAndGet));
+        assertTrue(handedOff.isEmpty());
+        bulkhead.release();
+        assertEquals(ran.get(), 0);
+        assertEquals(handedOff.size(), 1);
+        assertEquals(bulkhead.inFlight(), 1);
+        assertEquals(bulkhead.queued(), 0);
+        handedOff.get(0).run();
+        assertEquals(ran.get(), 1);
+    }
+
+    @Test
+    public void thatAimdLimitGrowsAdditivelyAndShrinksMultiplicatively() {
+        ConcurrencyLimit limit = ConcurrencyLimit.aimd(10, 2, 12, Duration.ofMillis(10));
+        long fast = TimeUnit.MILLISECONDS.toNanos(1);
+        long slow = TimeUnit.MILLISECONDS.toNanos(50);
+        for (int i = 0; i < 10; i++) {
+            limit.onSample(fast, false);
+        }
+        assertEquals(limit.limit(), 11);
+        limit.onSample(slow, false);
+        assertEquals(limit.limit(), 9);
+        for (int i = 0; i < 20; i++) {
+            limit.onSample(fast, true);
+        }
+        assertEquals(limit.limit(), 2);
+        for (int i = 0; i < 1000; i++) {
+            limit.onSample(fast, false);
+        }
+        assertEquals(limit.limit(), 12);
+    }
+}
@@ -0,0 +1,173 @@
+package no.ssb.saga.execution;
+
+import no.ssb.saga.api.Saga;
+import no.ssb.saga.api.SagaNode;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static no.ssb.saga.execution.SagaExecutorTest.complexSaga;
+import static no.ssb.saga.execution.SagaExecutorTest.node;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class SagaCompensationTest {
+
+    static class RecordingAdapter implements SagaAdapter {
+        final List<String> compensated = Collections.synchronizedList(new ArrayList<>());
+        final String failingActionNodeId;
+        final String failingCompensationNodeId;
+        final String slowNodeId;
+        final CountDownLatch slowStarted = new CountDownLatch(1);
+        final CountDownLatch failed = new CountDownLatch(1);
+
+        RecordingAdapter(String failingActionNodeId, String failingCompensationNodeId, String slowNodeId) {
+            this.failingActionNodeId = failingActionNodeId;
+            this.failingCompensationNodeId = failingCompensationNodeId;
+            this.slowNodeId = slowNodeId;
+        }
+
+        @Override
+        public Object executeAction(SagaNode node, Object sagaInput, Map<String, Object> dependeesOutput) throws Exception {
+            if (node.id.equals(slowNodeId)) {
+                // still in flight when the saga fails
+                slowStarted.countDown();
+                assertTrue(failed.await(5, TimeUnit.SECONDS));
+            }
+            if (node.id.equals(failingActionNodeId)) {
+                if (slowNodeId != null) {
+                    assertTrue(slowStarted.await(5, TimeUnit.SECONDS));
+                }
+                failed.countDown();
+                throw new IllegalStateException(node.id + " failed");
+            }
+            return node.id + "-output";
+        }
+
+        @Override
+        public void executeCompensatingAction(SagaNode node, Object sagaInput, Object actionOutput) throws Exception {
+            assertEquals(actionOutput, node.id + "-output");
+            compensated.add(node.id);
+            if (node.id.equals(failingCompensationNodeId)) {
+                throw new IllegalStateException(node.id + " compensation failed");
+            }
+        }
+    }
+
+    static SagaResult execute(Saga saga, RecordingAdapter adapter) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            SagaExecutor executor = SagaExecutor.builder(new SagaAdapterRegistry().register("Echo", adapter))
+                    .executor(pool)
+                    .compensateOnFailure(true)
+                    .build();
+            return executor.execute(saga, null).get(10, TimeUnit.SECONDS);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    static void assertReverseDependencyOrder(Saga saga, List<String> compensated) {
+        for (SagaNode node : saga.nodes()) {
+            for (SagaNode linkTo : node.outgoing) {
+                if (compensated.contains(node.id) && compensated.contains(linkTo.id)) {
+                    assertTrue(compensated.indexOf(linkTo.id) < compensated.indexOf(node.id),
+                            linkTo.id + " must be compensated before " + node.id + ", was " + compensated);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void thatCompletedNodesAreCompensatedInReverseDependencyOrder() throws Exception {
+        Saga saga = complexSaga();
+        RecordingAdapter adapter = new RecordingAdapter("c5", null, null);
+        SagaResult result = execute(saga, adapter);
+        assertEquals(result.status, SagaResult.Status.COMPENSATED);
+        assertEquals(result.failedNode().id, "c5");
+        assertEquals(result.failure().getMessage(), "c5 failed");
+        // c1, c2, c3, c4 and c6 completed or were in flight, c5 failed and c7 was never started
+        assertTrue(adapter.compensated.containsAll(List.of("c3", "c4")));
+        assertFalse(adapter.compensated.contains("c5"));
+        assertFalse(adapter.compensated.contains("c7"));
+        assertFalse(adapter.compensated.contains(Saga.ID_END));
+        assertReverseDependencyOrder(saga, adapter.compensated);
+        for (SagaNode node : saga.nodes()) {
+            assertEquals(result.isCompensated(node), adapter.compensated.contains(node.id) || node.id.equals(Saga.ID_START), node.id);
+            if (result.isCompensated(node)) {
+                assertNotNull(result.compensationLatency(node));
+            } else {
+                assertNull(result.compensationLatency(node));
+            }
+        }
+        assertNotNull(result.compensationDuration());
+    }
+
+    @Test
+    public void thatInFlightNodesAreCompensatedAfterTheyComplete() throws Exception {
+        Saga saga = complexSaga();
+        RecordingAdapter adapter = new RecordingAdapter("c4", null, "c2");
+        SagaResult result = execute(saga, adapter);
+        assertEquals(result.status, SagaResult.Status.COMPENSATED);
+        assertEquals(result.failedNode().id, "c4");
+        assertTrue(adapter.compensated.contains("c2"), "in flight node c2 was not compensated: " + adapter.compensated);
+        assertEquals(result.output(node(saga, "c2")), "c2-output");
+        assertFalse(adapter.compensated.contains("c7"));
+        assertReverseDependencyOrder(saga, adapter.compensated);
+    }
+
+    @Test
+    public void thatFailingCompensationIsReportedAndRollbackContinues() throws Exception {
+        Saga saga = complexSaga();
+        RecordingAdapter adapter = new RecordingAdapter("c7", "c4", null);
+        SagaResult result = execute(saga, adapter);
+        assertEquals(result.status, SagaResult.Status.COMPENSATION_FAILED);
+        assertEquals(result.compensationFailure(node(saga, "c4")).getMessage(), "c4 compensation failed");
+        assertNull(result.compensationFailure(node(saga, "c3")));
+        assertTrue(adapter.compensated.containsAll(List.of("c2", "c3", "c4", "c5", "c6")));
+        // c1 may not have started before c7 failed, if so it was skipped and must not be compensated
+        SagaNode c1 = node(saga, "c1");
+        assertEquals(adapter.compensated.contains("c1"), result.output(c1) != null);
+        assertTrue(result.isCompensated(saga.getStartNode()));
+        assertReverseDependencyOrder(saga, adapter.compensated);
+    }
+
+    @Test
+    public void thatFailureWithoutCompensationLeavesNodesUncompensated() throws Exception {
+        Saga saga = complexSaga();
+        RecordingAdapter adapter = new RecordingAdapter("c4", null, null);
+        SagaResult result = SagaExecutor.builder(new SagaAdapterRegistry().register("Echo", adapter)).build()
+                .execute(saga, null).get(10, TimeUnit.SECONDS);
+        assertEquals(result.status, SagaResult.Status.FAILED);
+        assertNull(result.compensationDuration());
+        assertTrue(adapter.compensated.isEmpty());
+    }
+
+    @Test
+    public void thatLongChainIsCompensatedWithoutDeepRecursion() throws Exception {
+        int size = 10000;
+        Saga.SagaBuilder builder = Saga.start("Long chain").linkTo("n0");
+        for (int i = 0; i < size; i++) {
+            builder = builder.id("n" + i).adapter("Echo").linkTo(i + 1 < size ? "n" + (i + 1) : Saga.ID_END);
+        }
+        Saga saga = builder.end();
+        RecordingAdapter adapter = new RecordingAdapter("n" + (size - 1), null, null);
+        SagaResult result = SagaExecutor.builder(new SagaAdapterRegistry().register("Echo", adapter))
+                .compensateOnFailure(true).build()
+                .execute(saga, null).get(30, TimeUnit.SECONDS);
+        assertEquals(result.status, SagaResult.Status.COMPENSATED);
+        assertEquals(adapter.compensated.size(), size - 1);
+        assertEquals(adapter.compensated.get(0), "n" + (size - 2));
+        assertEquals(adapter.compensated.get(size - 2), "n0");
+    }
+}
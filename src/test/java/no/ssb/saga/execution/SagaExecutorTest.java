@@ -0,0 +1,237 @@
+package no.ssb.saga.execution;
+
+import no.ssb.saga.api.CriticalPath;
+import no.ssb.saga.api.Saga;
+import no.ssb.saga.api.SagaException;
+import no.ssb.saga.api.SagaNode;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class SagaExecutorTest {
+
+    static Saga complexSaga() {
+        return Saga
+                .start("Complex saga").linkTo("c1", "c2", "c3")
+                .id("c1").adapter("Echo").linkToEnd()
+                .id("c2").adapter("Echo").linkTo("c7")
+                .id("c3").adapter("Echo").linkTo("c4")
+                .id("c4").adapter("Echo").linkTo("c5", "c6")
+                .id("c5").adapter("Echo").linkTo("c7")
+                .id("c6").adapter("Echo").linkTo("c7")
+                .id("c7").adapter("Echo").linkToEnd()
+                .end();
+    }
+
+    static SagaNode node(Saga saga, String id) {
+        return saga.nodes().stream().filter(n -> n.id.equals(id)).findFirst().get();
+    }
+
+    @Test
+    public void thatAllNodesExecuteAfterTheirPredecessors() throws Exception {
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        SagaAdapterRegistry adapters = new SagaAdapterRegistry()
+                .register("Echo", (node, input, dependeesOutput) -> {
+                    order.add(node.id);
+                    return node.id + "<-" + dependeesOutput.keySet().stream().sorted().reduce((a, b) -> a + "," + b).orElse("");
+                });
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            SagaExecutor executor = SagaExecutor.builder(adapters).executor(pool).build();
+            Saga saga = complexSaga();
+            SagaResult result = executor.execute(saga, "input").get(10, TimeUnit.SECONDS);
+            assertEquals(result.status, SagaResult.Status.COMPLETED);
+            assertEquals(order.size(), 7);
+            for (SagaNode node : saga.nodes()) {
+                for (SagaNode linkTo : node.outgoing) {
+                    if (order.contains(node.id) && order.contains(linkTo.id)) {
+                        assertTrue(order.indexOf(node.id) < order.indexOf(linkTo.id), node.id + " before " + linkTo.id);
+                    }
+                }
+            }
+            assertEquals(result.output(node(saga, "c7")), "c7<-c2,c5,c6");
+            assertEquals(result.output(node(saga, "c1")), "c1<-S");
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void thatIndependentNodesRunInParallel() throws Exception {
+        CountDownLatch allStarted = new CountDownLatch(3);
+        SagaAdapterRegistry adapters = new SagaAdapterRegistry()
+                .register("Echo", (node, input, dependeesOutput) -> {
+                    if (node.incoming.iterator().next().id.equals(Saga.ID_START)) {
+                        allStarted.countDown();
+                        assertTrue(allStarted.await(5, TimeUnit.SECONDS), "first wave did not run in parallel");
+                    }
+                    return null;
+                });
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            SagaExecutor executor = SagaExecutor.builder(adapters).executor(pool).build();
+            SagaResult result = executor.execute(complexSaga(), null).get(10, TimeUnit.SECONDS);
+            assertEquals(result.status, SagaResult.Status.COMPLETED);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void thatFailingActionFailsSagaAndStopsDispatch() throws Exception {
+        AtomicInteger c7Executions = new AtomicInteger();
+        SagaAdapterRegistry adapters = new SagaAdapterRegistry()
+                .register("Echo", (node, input, dependeesOutput) -> {
+                    if (node.id.equals("c4")) {
+                        throw new IllegalStateException("c4 failed");
+                    }
+                    if (node.id.equals("c7")) {
+                        c7Executions.incrementAndGet();
+                    }
+                    return node.id;
+                });
+        SagaExecutor executor = SagaExecutor.builder(adapters).build();
+        SagaResult result = executor.execute(complexSaga(), null).get(10, TimeUnit.SECONDS);
+        assertEquals(result.status, SagaResult.Status.FAILED);
+        assertEquals(result.failedNode().id, "c4");
+        assertEquals(result.failure().getMessage(), "c4 failed");
+        assertEquals(c7Executions.get(), 0);
+    }
+
+    @Test(expectedExceptions = SagaException.class, expectedExceptionsMessageRegExp = "No adapter registered with name Echo.*")
+    public void thatMissingAdapterIsRejected() {
+        SagaExecutor.builder(new SagaAdapterRegistry()).build().execute(complexSaga(), null);
+    }
+
+    @Test
+    public void thatManyConcurrentExecutionsComplete() throws Exception {
+        SagaAdapterRegistry adapters = new SagaAdapterRegistry()
+                .register("Echo", (node, input, dependeesOutput) -> input);
+        SagaExecutor executor = SagaExecutor.builder(adapters).build();
+        Saga saga = complexSaga();
+        List<CompletableFuture<SagaResult>> futures = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            futures.add(executor.execute(saga, i));
+        }
+        for (int i = 0; i < futures.size(); i++) {
+            SagaResult result = futures.get(i).get(10, TimeUnit.SECONDS);
+            assertEquals(result.status, SagaResult.Status.COMPLETED);
+            assertEquals(result.output(node(saga, "c7")), i);
+            assertNull(result.failure());
+        }
+    }
+
+    @Test
+    public void thatDependeesOutputIsKeyedByNodeId() throws Exception {
+        Saga saga = Saga.start("Sum").linkTo("a", "b")
+                .id("a").adapter("One").linkTo("sum")
+                .id("b").adapter("One").linkTo("sum")
+                .id("sum").adapter("Sum").linkToEnd()
+                .end();
+        SagaAdapterRegistry adapters = new SagaAdapterRegistry()
+                .register("One", (node, input, dependeesOutput) -> 1)
+                .register("Sum", (node, input, dependeesOutput) -> {
+                    int sum = 0;
+                    for (Map.Entry<String, Object> e : dependeesOutput.entrySet()) {
+                        sum += (Integer) e.getValue();
+                    }
+                    return sum;
+                });
+        SagaResult result = SagaExecutor.builder(adapters).build().execute(saga, null).get(10, TimeUnit.SECONDS);
+        assertEquals(result.output(node(saga, "sum")), 2);
+    }
+
+    @Test
+    public void thatReadyNodesRunInOrderOfLeastSlackWhenPrioritized() throws Exception {
+        Saga saga = Saga.start("Prioritized").linkTo("short", "long", "medium")
+                .id("short").adapter("Short").linkToEnd()
+                .id("long").adapter("Long").linkToEnd()
+                .id("medium").adapter("Medium").linkToEnd()
+                .end();
+        Map<String, Long> latencies = Map.of("Short", 1L, "Long", 10L, "Medium", 5L);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        SagaAdapterRegistry adapters = new SagaAdapterRegistry();
+        for (String adapter : latencies.keySet()) {
+            adapters.register(adapter, (node, input, dependeesOutput) -> order.add(node.id));
+        }
+        ExecutorService singleThread = Executors.newSingleThreadExecutor();
+        try {
+            SagaExecutor executor = SagaExecutor.builder(adapters).executor(singleThread)
+                    .prioritizeBySlack(latencies::get).build();
+            SagaResult result = executor.execute(saga, null).get(10, TimeUnit.SECONDS);
+            assertEquals(result.status, SagaResult.Status.COMPLETED);
+            assertEquals(order, List.of("long", "medium", "short"));
+        } finally {
+            singleThread.shutdown();
+        }
+    }
+
+    @Test
+    public void thatRejectedPrioritizedNodeFailsOnlyItsOwnExecution() throws Exception {
+        Saga saga = Saga.start("Rejected").linkTo("call")
+                .id("call").adapter("Call").linkToEnd()
+                .end();
+        SagaAdapterRegistry adapters = new SagaAdapterRegistry().register("Call", (node, input, dependeesOutput) -> input);
+        List<Runnable> tasks = new ArrayList<>();
+        AtomicBoolean rejecting = new AtomicBoolean();
+        SagaExecutor executor = SagaExecutor.builder(adapters).executor(task -> {
+            if (rejecting.get()) {
+                throw new RejectedExecutionException("rejecting");
+            }
+            tasks.add(task);
+        }).prioritizeBySlack(adapter -> 1).build();
+        CompletableFuture<SagaResult> healthy = executor.execute(saga, "healthy");
+        rejecting.set(true);
+        SagaResult rejected = executor.execute(saga, "rejected").get(10, TimeUnit.SECONDS);
+        assertEquals(rejected.status, SagaResult.Status.FAILED);
+        assertTrue(rejected.failure() instanceof RejectedExecutionException);
+        rejecting.set(false);
+        while (!tasks.isEmpty()) {
+            tasks.remove(0).run();
+        }
+        SagaResult result = healthy.get(10, TimeUnit.SECONDS);
+        assertEquals(result.status, SagaResult.Status.COMPLETED);
+        assertEquals(result.output(saga.getNode("call")), "healthy");
+    }
+
+    @Test
+    public void thatCriticalPathIsCachedPerSagaUntilRefreshed() {
+        AtomicLong latency = new AtomicLong(1);
+        SagaExecutor executor = SagaExecutor.builder(new SagaAdapterRegistry()).prioritizeBySlack(adapter -> latency.get()).build();
+        Saga saga = Saga.start("Cached").linkTo("short", "long")
+                .id("short").adapter("Short").linkToEnd()
+                .id("long").adapter("Long").linkTo("longer")
+                .id("longer").adapter("Longer").linkToEnd()
+                .end();
+        CriticalPath criticalPath = executor.criticalPath(saga);
+        assertTrue(executor.criticalPath(saga) == criticalPath);
+        assertEquals(criticalPath.length(), 2);
+        latency.set(5);
+        assertTrue(executor.criticalPath(saga) == criticalPath);
+        executor.refreshPriorities();
+        CriticalPath refreshed = executor.criticalPath(saga);
+        assertEquals(refreshed.length(), 10);
+        assertEquals(refreshed.slack(saga.getNode("short")), 5);
+        for (int i = 0; i < SagaExecutor.MAX_CACHED_CRITICAL_PATHS; i++) {
+            executor.criticalPath(Saga.start("Other").linkTo("short").id("short").adapter("Short").linkToEnd().end());
+        }
+        assertTrue(executor.criticalPath(saga) != refreshed, "cache was not bounded");
+        assertNull(SagaExecutor.builder(new SagaAdapterRegistry()).build().criticalPath(saga));
+    }
+}
@@ -0,0 +1,235 @@
+package no.ssb.saga.execution;
+
+import no.ssb.saga.api.Saga;
+import no.ssb.saga.api.SagaNode;
+import no.ssb.saga.execution.log.SagaLog;
+import no.ssb.saga.execution.log.SagaLogRecord;
+import org.testng.annotations.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class SagaNodePolicyTest {
+
+    /**
+     * Adapter that fails a given number of times before it succeeds, and counts compensations.
+     */
+    static class FlakyAdapter implements SagaAdapter {
+        final int failures;
+        final AtomicInteger attempts = new AtomicInteger();
+        final AtomicInteger compensations = new AtomicInteger();
+
+        FlakyAdapter(int failures) {
+            this.failures = failures;
+        }
+
+        @Override
+        public Object executeAction(SagaNode node, Object sagaInput, Map<String, Object> dependeesOutput) {
+            if (attempts.incrementAndGet() <= failures) {
+                throw new IllegalStateException("attempt " + attempts.get() + " failed");
+            }
+            return node.id;
+        }
+
+        @Override
+        public void executeCompensatingAction(SagaNode node, Object sagaInput, Object actionOutput) {
+            compensations.incrementAndGet();
+        }
+    }
+
+    @Test
+    public void thatFailedActionIsRetriedWithBackoff() throws Exception {
+        Saga saga = Saga.start("Retry").linkTo("call")
+                .id("call").adapter("Flaky").retry(3, Duration.ofMillis(5)).linkToEnd()
+                .end();
+        FlakyAdapter flaky = new FlakyAdapter(2);
+        SagaExecutor executor = SagaExecutor.builder(new SagaAdapterRegistry().register("Flaky", flaky)).build();
+        long startNanos = System.nanoTime();
+        SagaResult result = executor.execute(saga, null).get(10, TimeUnit.SECONDS);
+        assertEquals(result.status, SagaResult.Status.COMPLETED);
+        assertEquals(result.output(saga.getNode("call")), "call");
+        assertEquals(flaky.attempts.get(), 3);
+        // 5ms before the second attempt and 10ms before the third
+        assertTrue(System.nanoTime() - startNanos >= TimeUnit.MILLISECONDS.toNanos(15));
+    }
+
+    @Test
+    public void thatSaturatedBackoffDoesNotRetryRightAway() throws Exception {
+        Saga saga = Saga.start("Saturated").linkTo("call")
+                .id("call").adapter("Flaky").retry(2, Duration.ofNanos(Long.MAX_VALUE)).linkToEnd()
+                .end();
+        FlakyAdapter flaky = new FlakyAdapter(1);
+        try (HashedTimerWheel timer = new HashedTimerWheel()) {
+            SagaExecutor executor = SagaExecutor.builder(new SagaAdapterRegistry().register("Flaky", flaky)).timer(timer).build();
+            executor.execute(saga, null);
+            CountDownLatch later = new CountDownLatch(1);
+            timer.schedule(later::countDown, 50, TimeUnit.MILLISECONDS);
+            assertTrue(later.await(10, TimeUnit.SECONDS));
+            assertEquals(flaky.attempts.get(), 1);
+        }
+    }
+
+    @Test
+    public void thatSagaFailsWhenRetriesAreExhausted() throws Exception {
+        Saga saga = Saga.start("Exhausted").linkTo("first")
+                .id("first").adapter("Reliable").linkTo("call")
+                .id("call").adapter("Flaky").retry(2, Duration.ZERO).linkToEnd()
+                .end();
+        FlakyAdapter reliable = new FlakyAdapter(0);
+        FlakyAdapter flaky = new FlakyAdapter(5);
+        SagaExecutor executor = SagaExecutor.builder(new SagaAdapterRegistry().register("Reliable", reliable).register("Flaky", flaky))
+                .compensateOnFailure(true).build();
+        SagaResult result = executor.execute(saga, null).get(10, TimeUnit.SECONDS);
+        assertEquals(result.status, SagaResult.Status.COMPENSATED);
+        assertEquals(flaky.attempts.get(), 2);
+        assertEquals(result.failedNode(), saga.getNode("call"));
+        assertEquals(reliable.compensations.get(), 1);
+    }
+
+    static Saga deadlineSaga() {
+        return Saga.start("Deadline").linkTo("first")
+                .id("first").adapter("Reliable").linkTo("slow")
+                .id("slow").adapter("Slow").timeout(Duration.ofMillis(20)).linkToEnd()
+                .end();
+    }
+
+    /**
+     * Adapter whose action completes once released, and that records the order of compensations.
+     */
+    static class ReleasedAdapter implements SagaAdapter {
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> compensated;
+
+        ReleasedAdapter(List<String> compensated) {
+            this.compensated = compensated;
+        }
+
+        @Override
+        public Object executeAction(SagaNode node, Object sagaInput, Map<String, Object> dependeesOutput) throws Exception {
+            release.await();
+            return "late";
+        }
+
+        @Override
+        public void executeCompensatingAction(SagaNode node, Object sagaInput, Object actionOutput) {
+            assertEquals(actionOutput, "late");
+            compensated.add(node.id);
+        }
+    }
+
+    static int indexOf(List<SagaLogRecord> records, SagaLogRecord.Type type, String nodeId) {
+        for (int i = 0; i < records.size(); i++) {
+            if (records.get(i).type == type && nodeId.equals(records.get(i).nodeId)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Test
+    public void thatRollbackWaitsForExpiredActionAndCompensatesItBeforeItsPredecessors() throws Exception {
+        Saga saga = deadlineSaga();
+        List<String> compensated = Collections.synchronizedList(new ArrayList<>());
+        ReleasedAdapter slow = new ReleasedAdapter(compensated);
+        SagaAdapterRegistry adapters = new SagaAdapterRegistry()
+                .register("Reliable", new SagaAdapter() {
+                    @Override
+                    public Object executeAction(SagaNode node, Object sagaInput, Map<String, Object> dependeesOutput) {
+                        return node.id;
+                    }
+
+                    @Override
+                    public void executeCompensatingAction(SagaNode node, Object sagaInput, Object actionOutput) {
+                        compensated.add(node.id);
+                    }
+                })
+                .register("Slow", slow);
+        List<SagaLogRecord> records = Collections.synchronizedList(new ArrayList<>());
+        SagaLog log = record -> {
+            records.add(record);
+            return CompletableFuture.completedFuture(null);
+        };
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try (HashedTimerWheel timer = new HashedTimerWheel()) {
+            SagaExecutor executor = SagaExecutor.builder(adapters).executor(pool).timer(timer).compensateOnFailure(true)
+                    .log(log, output -> String.valueOf(output).getBytes(StandardCharsets.UTF_8)).build();
+            CompletableFuture<SagaResult> future = executor.execute(saga, null);
+            Thread.sleep(100);
+            assertFalse(future.isDone(), "rolled back while the expired action was running");
+            assertTrue(compensated.isEmpty());
+            slow.release.countDown();
+            SagaResult result = future.get(10, TimeUnit.SECONDS);
+            assertEquals(result.status, SagaResult.Status.COMPENSATED);
+            assertEquals(result.failedNode(), saga.getNode("slow"));
+            assertTrue(result.failure() instanceof SagaTimeoutException, String.valueOf(result.failure()));
+            assertEquals(result.output(saga.getNode("slow")), "late");
+            assertTrue(result.isCompensated(saga.getNode("slow")));
+            assertTrue(result.isCompensated(saga.getNode("first")));
+            assertEquals(compensated, List.of("slow", "first"));
+            int completedLate = indexOf(records, SagaLogRecord.Type.ACTION_COMPLETED, "slow");
+            assertTrue(completedLate >= 0, String.valueOf(records));
+            assertTrue(completedLate < indexOf(records, SagaLogRecord.Type.COMPENSATION_COMPLETED, "slow"));
+            assertTrue(indexOf(records, SagaLogRecord.Type.COMPENSATION_COMPLETED, "slow")
+                    < indexOf(records, SagaLogRecord.Type.COMPENSATION_COMPLETED, "first"));
+        } finally {
+            slow.release.countDown();
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void thatLateCompletionOfExpiredNodeIsLoggedWithoutCompensation() throws Exception {
+        Saga saga = deadlineSaga();
+        List<String> compensated = Collections.synchronizedList(new ArrayList<>());
+        ReleasedAdapter slow = new ReleasedAdapter(compensated);
+        FlakyAdapter reliable = new FlakyAdapter(0);
+        CountDownLatch loggedLate = new CountDownLatch(1);
+        SagaLog log = record -> {
+            if (record.type == SagaLogRecord.Type.ACTION_COMPLETED && "slow".equals(record.nodeId)) {
+                assertEquals(new String(record.data(), StandardCharsets.UTF_8), "late");
+                loggedLate.countDown();
+            }
+            return CompletableFuture.completedFuture(null);
+        };
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try (HashedTimerWheel timer = new HashedTimerWheel()) {
+            SagaExecutor executor = SagaExecutor.builder(new SagaAdapterRegistry().register("Reliable", reliable).register("Slow", slow))
+                    .executor(pool).timer(timer).log(log, output -> String.valueOf(output).getBytes(StandardCharsets.UTF_8)).build();
+            SagaResult result = executor.execute(saga, null).get(10, TimeUnit.SECONDS);
+            assertEquals(result.status, SagaResult.Status.FAILED);
+            assertTrue(result.failure() instanceof SagaTimeoutException, String.valueOf(result.failure()));
+            slow.release.countDown();
+            assertTrue(loggedLate.await(10, TimeUnit.SECONDS));
+            assertTrue(compensated.isEmpty());
+            assertEquals(reliable.compensations.get(), 0);
+        } finally {
+            slow.release.countDown();
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void thatDeadlineIsCancelledWhenNodeCompletesInTime() throws Exception {
+        Saga saga = Saga.start("InTime").linkTo("call")
+                .id("call").adapter("Reliable").timeout(Duration.ofMillis(50)).linkToEnd()
+                .end();
+        SagaExecutor executor = SagaExecutor.builder(new SagaAdapterRegistry().register("Reliable", new FlakyAdapter(0))).build();
+        for (int i = 0; i < 100; i++) {
+            assertEquals(executor.execute(saga, i).get(10, TimeUnit.SECONDS).status, SagaResult.Status.COMPLETED);
+        }
+    }
+}
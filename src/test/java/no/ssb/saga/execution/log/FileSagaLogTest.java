@@ -0,0 +1,434 @@
+package no.ssb.saga.execution.log;
+
+import no.ssb.saga.api.Saga;
+import no.ssb.saga.api.SagaException;
+import no.ssb.saga.api.SagaNode;
+import no.ssb.saga.api.SagaRegistry;
+import no.ssb.saga.execution.SagaAdapterRegistry;
+import no.ssb.saga.execution.SagaExecutor;
+import no.ssb.saga.execution.SagaResult;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class FileSagaLogTest {
+
+    static final Function<Object, byte[]> SERIALIZER = o -> o == null ? null : String.valueOf(o).getBytes(StandardCharsets.UTF_8);
+
+    Path directory;
+
+    @BeforeMethod
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("saga-log-test");
+    }
+
+    @AfterMethod
+    public void deleteDirectory() throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    static Saga saga() {
+        return Saga
+                .start("Logged saga").linkTo("a", "b")
+                .id("a").adapter("Echo").linkTo("c")
+                .id("b").adapter("Echo").linkTo("c")
+                .id("c").adapter("Echo").linkToEnd()
+                .end();
+    }
+
+    static List<SagaLogRecord> readAll(Path directory) throws IOException {
+        List<SagaLogRecord> records = new ArrayList<>();
+        FileSagaLog.read(directory, records::add);
+        return records;
+    }
+
+    @Test
+    public void thatRecordsRoundTrip() throws IOException {
+        UUID executionId = UUID.randomUUID();
+        Saga saga = saga();
+        try (FileSagaLog log = FileSagaLog.builder(directory).build()) {
+            log.append(SagaLogRecord.sagaStarted(executionId, saga.fingerprint(), "input".getBytes(StandardCharsets.UTF_8)));
+            log.append(SagaLogRecord.actionStarted(executionId, "a"));
+            log.append(SagaLogRecord.actionCompleted(executionId, "a", "æøå".getBytes(StandardCharsets.UTF_8)));
+            log.append(SagaLogRecord.actionFailed(executionId, "b", new IllegalStateException("boom")));
+            log.append(SagaLogRecord.sagaEnded(executionId, SagaResult.Status.FAILED)).join();
+        }
+        List<SagaLogRecord> records = readAll(directory);
+        assertEquals(records.size(), 5);
+        assertEquals(records.get(0).type, SagaLogRecord.Type.SAGA_STARTED);
+        assertEquals(records.get(0).executionId, executionId);
+        assertNull(records.get(0).nodeId);
+        assertEquals(records.get(0).fingerprint(), saga.fingerprint());
+        assertEquals(new String(records.get(0).input(), StandardCharsets.UTF_8), "input");
+        assertEquals(records.get(2).nodeId, "a");
+        assertEquals(new String(records.get(2).data(), StandardCharsets.UTF_8), "æøå");
+        assertEquals(new String(records.get(3).data(), StandardCharsets.UTF_8), "java.lang.IllegalStateException: boom");
+        assertEquals(records.get(4).status(), SagaResult.Status.FAILED);
+    }
+
+    @Test
+    public void thatLongNodeIdsRoundTripOrAreRejected() throws IOException {
+        UUID executionId = UUID.randomUUID();
+        String longest = "x".repeat(SagaLogRecord.NO_NODE - 1);
+        try (FileSagaLog log = FileSagaLog.builder(directory).build()) {
+            log.append(SagaLogRecord.actionStarted(executionId, longest)).join();
+            try {
+                log.append(SagaLogRecord.actionStarted(executionId, longest + "x"));
+                fail("node id was not rejected");
+            } catch (SagaException expected) {
+            }
+        }
+        List<SagaLogRecord> records = readAll(directory);
+        assertEquals(records.size(), 1);
+        assertEquals(records.get(0).nodeId, longest);
+    }
+
+    @Test
+    public void thatExecutionIsLoggedAndNotRecoveredOnceEnded() throws Exception {
+        Saga saga = saga();
+        try (FileSagaLog log = FileSagaLog.builder(directory).build()) {
+            SagaExecutor executor = SagaExecutor.builder(new SagaAdapterRegistry().register("Echo", (node, input, dependeesOutput) -> node.id))
+                    .log(log, SERIALIZER)
+                    .build();
+            SagaResult result = executor.execute(saga, "in").get(10, TimeUnit.SECONDS);
+            assertEquals(result.status, SagaResult.Status.COMPLETED);
+        }
+        List<SagaLogRecord> records = readAll(directory);
+        assertEquals(records.size(), 1 + 2 * saga.nodeCount() + 1);
+        assertEquals(records.get(0).type, SagaLogRecord.Type.SAGA_STARTED);
+        assertEquals(records.get(records.size() - 1).type, SagaLogRecord.Type.SAGA_ENDED);
+        assertEquals(records.get(records.size() - 1).status(), SagaResult.Status.COMPLETED);
+        // write-ahead, every node is logged as started before it is logged as completed, and after its predecessors completed
+        List<String> events = new ArrayList<>();
+        for (SagaLogRecord record : records) {
+            events.add(record.type + ":" + record.nodeId);
+        }
+        for (SagaNode node : saga.nodes()) {
+            int started = events.indexOf("ACTION_STARTED:" + node.id);
+            assertTrue(started >= 0 && started < events.indexOf("ACTION_COMPLETED:" + node.id), node.id);
+            for (SagaNode dependee : node.incoming) {
+                assertTrue(events.indexOf("ACTION_COMPLETED:" + dependee.id) < started, dependee.id + " before " + node.id);
+            }
+        }
+        SagaRegistry registry = new SagaRegistry(10);
+        registry.intern(saga);
+        assertTrue(FileSagaLog.recover(directory, registry::get).isEmpty());
+    }
+
+    @Test
+    public void thatLateCompletionLoggedBeforeTheFailureIsRecoveredAsCompleted() throws Exception {
+        Saga saga = saga();
+        UUID executionId = UUID.randomUUID();
+        try (FileSagaLog log = FileSagaLog.builder(directory).build()) {
+            log.append(SagaLogRecord.sagaStarted(executionId, saga.fingerprint(), null));
+            log.append(SagaLogRecord.actionStarted(executionId, "a"));
+            log.append(SagaLogRecord.actionCompleted(executionId, "a", new byte[]{7}));
+            log.append(SagaLogRecord.actionFailed(executionId, "a", new IllegalStateException("expired"))).join();
+        }
+        RecoveredExecution recovered = FileSagaLog.recover(directory, fingerprint -> saga).get(0);
+        assertTrue(recovered.isFailed());
+        assertEquals(recovered.status(saga.getNode("a")), RecoveredExecution.NodeStatus.COMPLETED);
+        assertEquals(recovered.output(saga.getNode("a")), new byte[]{7});
+    }
+
+    @Test
+    public void thatEndedExecutionOfRetiredSagaDoesNotPreventRecovery() throws Exception {
+        Saga saga = saga();
+        Saga retired = Saga.start("Retired saga").linkTo("x")
+                .id("x").adapter("Echo").linkToEnd()
+                .end();
+        UUID ended = UUID.randomUUID();
+        UUID inFlight = UUID.randomUUID();
+        try (FileSagaLog log = FileSagaLog.builder(directory).build()) {
+            log.append(SagaLogRecord.sagaStarted(ended, retired.fingerprint(), null));
+            log.append(SagaLogRecord.actionStarted(ended, "x"));
+            log.append(SagaLogRecord.sagaStarted(inFlight, saga.fingerprint(), null));
+            log.append(SagaLogRecord.actionStarted(inFlight, "a"));
+            log.append(SagaLogRecord.sagaEnded(ended, SagaResult.Status.COMPLETED)).join();
+        }
+        List<RecoveredExecution> recovered = FileSagaLog.recover(directory, fingerprint ->
+                fingerprint.equals(saga.fingerprint()) ? saga : null);
+        assertEquals(recovered.size(), 1);
+        assertEquals(recovered.get(0).executionId, inFlight);
+        assertEquals(recovered.get(0).status(saga.getNode("a")), RecoveredExecution.NodeStatus.STARTED);
+        try {
+            FileSagaLog.recover(directory, fingerprint -> null);
+            fail("in-flight execution of unknown saga was recovered");
+        } catch (SagaException e) {
+            assertTrue(e.getMessage().contains("execution " + inFlight), e.getMessage());
+        }
+    }
+
+    @Test
+    public void thatInFlightExecutionIsRecoveredAfterCrash() throws Exception {
+        Saga saga = saga();
+        UUID ended = UUID.randomUUID();
+        UUID inFlight = UUID.randomUUID();
+        try (FileSagaLog log = FileSagaLog.builder(directory).build()) {
+            log.append(SagaLogRecord.sagaStarted(ended, saga.fingerprint(), null));
+            log.append(SagaLogRecord.sagaStarted(inFlight, saga.fingerprint(), "input".getBytes(StandardCharsets.UTF_8)));
+            log.append(SagaLogRecord.actionStarted(inFlight, Saga.ID_START));
+            log.append(SagaLogRecord.actionCompleted(inFlight, Saga.ID_START, null));
+            log.append(SagaLogRecord.actionStarted(inFlight, "a"));
+            log.append(SagaLogRecord.actionStarted(inFlight, "b"));
+            log.append(SagaLogRecord.actionCompleted(inFlight, "a", "a-out".getBytes(StandardCharsets.UTF_8)));
+            log.append(SagaLogRecord.sagaEnded(ended, SagaResult.Status.COMPLETED)).join();
+        }
+        // simulate a crash in the middle of writing the next record
+        Path segment = FileSagaLog.segments(directory).get(0);
+        byte[] torn = SagaLogRecord.actionCompleted(inFlight, "b", "b-out".getBytes(StandardCharsets.UTF_8)).encode();
+        Files.write(segment, Arrays.copyOf(torn, torn.length - 3), StandardOpenOption.APPEND);
+
+        Saga recoveredDefinition = saga(); // a different but structurally equal instance
+        List<RecoveredExecution> recovered = FileSagaLog.recover(directory, fingerprint ->
+                fingerprint.equals(recoveredDefinition.fingerprint()) ? recoveredDefinition : null);
+        assertEquals(recovered.size(), 1);
+        RecoveredExecution execution = recovered.get(0);
+        assertEquals(execution.executionId, inFlight);
+        assertEquals(new String(execution.input(), StandardCharsets.UTF_8), "input");
+        assertFalse(execution.isFailed());
+        assertEquals(execution.status(recoveredDefinition.getStartNode()), RecoveredExecution.NodeStatus.COMPLETED);
+        assertEquals(execution.status(recoveredDefinition.getNode("a")), RecoveredExecution.NodeStatus.COMPLETED);
+        assertEquals(new String(execution.output(recoveredDefinition.getNode("a")), StandardCharsets.UTF_8), "a-out");
+        assertEquals(execution.status(recoveredDefinition.getNode("b")), RecoveredExecution.NodeStatus.STARTED);
+        assertNull(execution.output(recoveredDefinition.getNode("b")));
+        assertEquals(execution.status(recoveredDefinition.getNode("c")), RecoveredExecution.NodeStatus.NOT_STARTED);
+
+        // a reopened log truncates the torn record and starts a new segment
+        try (FileSagaLog log = FileSagaLog.builder(directory).build()) {
+            log.append(SagaLogRecord.sagaEnded(inFlight, SagaResult.Status.COMPENSATED)).join();
+        }
+        assertEquals(FileSagaLog.segments(directory).size(), 2);
+        assertTrue(FileSagaLog.recover(directory, fingerprint -> recoveredDefinition).isEmpty());
+    }
+
+    @Test
+    public void thatCompensatedExecutionIsLogged() throws Exception {
+        Saga saga = saga();
+        try (FileSagaLog log = FileSagaLog.builder(directory).fsyncPolicy(FsyncPolicy.NEVER).build()) {
+            SagaExecutor executor = SagaExecutor.builder(new SagaAdapterRegistry().register("Echo", (node, input, dependeesOutput) -> {
+                if (node.id.equals("c")) {
+                    throw new IllegalStateException("c failed");
+                }
+                return node.id;
+            })).log(log, SERIALIZER).compensateOnFailure(true).build();
+            SagaResult result = executor.execute(saga, null).get(10, TimeUnit.SECONDS);
+            assertEquals(result.status, SagaResult.Status.COMPENSATED);
+        }
+        List<SagaLogRecord> records = readAll(directory);
+        long compensations = records.stream().filter(r -> r.type == SagaLogRecord.Type.COMPENSATION_COMPLETED).count();
+        assertEquals(compensations, 3); // S, a and b
+        assertEquals(records.stream().filter(r -> r.type == SagaLogRecord.Type.ACTION_FAILED).findFirst().get().nodeId, "c");
+        assertEquals(records.get(records.size() - 1).status(), SagaResult.Status.COMPENSATED);
+    }
+
+    @Test
+    public void thatConcurrentAppendsAreGroupCommitted() throws Exception {
+        int threads = 8;
+        int perThread = 500;
+        FileSagaLog log = FileSagaLog.builder(directory).fsyncPolicy(FsyncPolicy.EVERY_BATCH).build();
+        try {
+            List<CompletableFuture<Void>> appenders = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                appenders.add(CompletableFuture.runAsync(() -> {
+                    UUID executionId = UUID.randomUUID();
+                    for (int i = 0; i < perThread; i++) {
+                        log.append(SagaLogRecord.actionStarted(executionId, "n" + i)).join();
+                    }
+                }));
+            }
+            CompletableFuture.allOf(appenders.toArray(new CompletableFuture<?>[0])).get(60, TimeUnit.SECONDS);
+        } finally {
+            log.close();
+        }
+        assertEquals(log.records(), threads * perThread);
+        assertTrue(log.fsyncs() <= log.batches() + 1);
+        assertEquals(readAll(directory).size(), threads * perThread);
+    }
+
+    @Test
+    public void thatSegmentsRollOver() throws Exception {
+        UUID executionId = UUID.randomUUID();
+        try (FileSagaLog log = FileSagaLog.builder(directory).fsyncPolicy(FsyncPolicy.INTERVAL).segmentSize(1024).build()) {
+            for (int i = 0; i < 200; i++) {
+                log.append(SagaLogRecord.actionStarted(executionId, "n" + i)).join();
+            }
+        }
+        assertTrue(FileSagaLog.segments(directory).size() > 1);
+        List<SagaLogRecord> records = readAll(directory);
+        assertEquals(records.size(), 200);
+        for (int i = 0; i < 200; i++) {
+            assertEquals(records.get(i).nodeId, "n" + i);
+        }
+    }
+
+    @Test(expectedExceptions = SagaException.class, expectedExceptionsMessageRegExp = "Corrupt saga log segment .*")
+    public void thatCorruptionBeforeLastSegmentIsReported() throws Exception {
+        UUID executionId = UUID.randomUUID();
+        for (int segment = 0; segment < 2; segment++) {
+            try (FileSagaLog log = FileSagaLog.builder(directory).build()) {
+                log.append(SagaLogRecord.actionStarted(executionId, "a")).join();
+                log.append(SagaLogRecord.actionStarted(executionId, "b")).join();
+            }
+        }
+        Path first = FileSagaLog.segments(directory).get(0);
+        byte[] bytes = Files.readAllBytes(first);
+        bytes[bytes.length - 1] ^= 1;
+        Files.write(first, bytes);
+        readAll(directory);
+    }
+
+    static CompletableFuture<Void> appendExecution(FileSagaLog log, Saga saga, UUID executionId, boolean ended) {
+        log.append(SagaLogRecord.sagaStarted(executionId, saga.fingerprint(), null));
+        for (String id : new String[]{Saga.ID_START, "a", "b"}) {
+            log.append(SagaLogRecord.actionStarted(executionId, id));
+            log.append(SagaLogRecord.actionCompleted(executionId, id, id.getBytes(StandardCharsets.UTF_8)));
+        }
+        if (ended) {
+            log.append(SagaLogRecord.actionStarted(executionId, "c"));
+            log.append(SagaLogRecord.actionCompleted(executionId, "c", null));
+            return log.append(SagaLogRecord.sagaEnded(executionId, SagaResult.Status.COMPLETED));
+        }
+        return log.append(SagaLogRecord.actionStarted(executionId, "c"));
+    }
+
+    @Test
+    public void thatCompactionKeepsOnlyInFlightExecutions() throws Exception {
+        Saga saga = saga();
+        List<UUID> inFlight = new ArrayList<>();
+        UUID compensating = UUID.randomUUID();
+        List<RecoveredExecution> beforeCompaction;
+        try (FileSagaLog log = FileSagaLog.builder(directory).segmentSize(4096).build()) {
+            for (int i = 0; i < 2000; i++) {
+                UUID executionId = UUID.randomUUID();
+                boolean ended = i % 400 != 0;
+                if (!ended) {
+                    inFlight.add(executionId);
+                }
+                // keep batches small, the writer only starts a new segment between batches
+                appendExecution(log, saga, executionId, ended).join();
+            }
+            appendExecution(log, saga, compensating, false);
+            log.append(SagaLogRecord.actionFailed(compensating, "c", new RuntimeException("c failed")));
+            log.append(SagaLogRecord.compensationCompleted(compensating, "b"));
+            log.append(SagaLogRecord.compensationFailed(compensating, "a", new RuntimeException("a failed")));
+            for (int i = 0; i < 100; i++) {
+                // roll past the segment holding the compensation so that it is compacted
+                appendExecution(log, saga, UUID.randomUUID(), true).join();
+            }
+            log.append(SagaLogRecord.actionStarted(UUID.randomUUID(), "x")).join();
+            beforeCompaction = FileSagaLog.recover(directory, fingerprint -> saga);
+            int segmentsBefore = FileSagaLog.segments(directory).size();
+            assertTrue(segmentsBefore > 10);
+            assertTrue(log.compact() > 0);
+            assertEquals(log.compactions(), 1);
+            assertTrue(FileSagaLog.segments(directory).size() <= 2);
+            assertEquals(SagaLogSnapshot.snapshots(directory).size(), 1);
+            assertEquals(log.compact(), 0);
+        }
+        List<RecoveredExecution> recovered = FileSagaLog.recover(directory, fingerprint -> saga);
+        assertEquals(recovered.size(), inFlight.size() + 1);
+        assertEquals(recovered.size(), beforeCompaction.size());
+        for (int i = 0; i < recovered.size(); i++) {
+            assertSameState(recovered.get(i), beforeCompaction.get(i));
+        }
+        RecoveredExecution compensated = recovered.get(inFlight.size());
+        assertEquals(compensated.executionId, compensating);
+        assertTrue(compensated.isFailed());
+        assertEquals(compensated.status(saga.getNode("a")), RecoveredExecution.NodeStatus.COMPENSATION_FAILED);
+        assertEquals(new String(compensated.output(saga.getNode("a")), StandardCharsets.UTF_8), "a");
+        for (int i = 0; i < inFlight.size(); i++) {
+            RecoveredExecution execution = recovered.get(i);
+            assertEquals(execution.executionId, inFlight.get(i));
+            assertEquals(execution.status(saga.getNode("b")), RecoveredExecution.NodeStatus.COMPLETED);
+            assertEquals(new String(execution.output(saga.getNode("b")), StandardCharsets.UTF_8), "b");
+            assertEquals(execution.status(saga.getNode("c")), RecoveredExecution.NodeStatus.STARTED);
+            assertEquals(execution.status(saga.getEndNode()), RecoveredExecution.NodeStatus.NOT_STARTED);
+        }
+
+        // executions that end after the snapshot are dropped by the next compaction
+        try (FileSagaLog log = FileSagaLog.builder(directory).segmentSize(4096).build()) {
+            log.append(SagaLogRecord.sagaEnded(compensating, SagaResult.Status.COMPENSATION_FAILED));
+            log.append(SagaLogRecord.sagaEnded(inFlight.get(0), SagaResult.Status.COMPLETED)).join();
+        }
+        assertEquals(FileSagaLog.recover(directory, fingerprint -> saga).size(), inFlight.size() - 1);
+        try (FileSagaLog log = FileSagaLog.builder(directory).segmentSize(4096).build()) {
+            assertTrue(log.compact() > 0);
+        }
+        // every segment is closed now, only the in-flight executions are kept, with one record per started node
+        assertEquals(SagaLogSnapshot.latest(directory).records.size(), (inFlight.size() - 1) * 5);
+        assertEquals(FileSagaLog.recover(directory, fingerprint -> saga).size(), inFlight.size() - 1);
+    }
+
+    static void assertSameState(RecoveredExecution actual, RecoveredExecution expected) {
+        assertEquals(actual.executionId, expected.executionId);
+        assertEquals(actual.isFailed(), expected.isFailed());
+        assertEquals(actual.input(), expected.input());
+        for (SagaNode node : actual.saga.nodes()) {
+            assertEquals(actual.status(node), expected.status(node), node.id);
+            assertEquals(actual.output(node), expected.output(node), node.id);
+        }
+    }
+
+    @Test
+    public void thatSegmentSequenceContinuesAfterAllSegmentsAreCompacted() throws Exception {
+        Saga saga = saga();
+        UUID executionId = UUID.randomUUID();
+        try (FileSagaLog log = FileSagaLog.builder(directory).build()) {
+            appendExecution(log, saga, executionId, false);
+        }
+        try (FileSagaLog log = FileSagaLog.builder(directory).build()) {
+            log.compact();
+        }
+        for (Path segment : FileSagaLog.segments(directory)) {
+            Files.delete(segment); // empty segments left by the reopened logs
+        }
+        try (FileSagaLog log = FileSagaLog.builder(directory).build()) {
+            log.append(SagaLogRecord.actionCompleted(executionId, "c", null)).join();
+        }
+        List<RecoveredExecution> recovered = FileSagaLog.recover(directory, fingerprint -> saga);
+        assertEquals(recovered.size(), 1);
+        assertEquals(recovered.get(0).status(saga.getNode("c")), RecoveredExecution.NodeStatus.COMPLETED);
+    }
+
+    @Test
+    public void thatBackgroundCompactionRuns() throws Exception {
+        Saga saga = saga();
+        try (FileSagaLog log = FileSagaLog.builder(directory).segmentSize(4096).compactionInterval(Duration.ofMillis(10)).build()) {
+            for (int i = 0; i < 500; i++) {
+                appendExecution(log, saga, UUID.randomUUID(), true);
+            }
+            log.append(SagaLogRecord.actionStarted(UUID.randomUUID(), "x")).join();
+            long deadline = System.currentTimeMillis() + 10000;
+            while (log.compactions() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue(log.compactions() > 0);
+        }
+        assertTrue(FileSagaLog.recover(directory, fingerprint -> saga).isEmpty());
+    }
+}
@@ -0,0 +1,93 @@
+package no.ssb.saga.metrics;
+
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void thatBucketsAreContiguousAndOrdered() {
+        for (int bucket = 0; bucket < LatencyHistogram.BUCKETS - 1; bucket++) {
+            long upper = LatencyHistogram.upperBound(bucket);
+            assertEquals(LatencyHistogram.bucketOf(upper), bucket);
+            assertEquals(LatencyHistogram.bucketOf(upper + 1), bucket + 1);
+        }
+        assertEquals(LatencyHistogram.bucketOf(Long.MAX_VALUE), LatencyHistogram.BUCKETS - 1);
+    }
+
+    @Test
+    public void thatPercentilesAreWithinRelativeErrorOfExactValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        List<Long> values = new ArrayList<>();
+        for (int i = 0; i < 100_000; i++) {
+            long value = ThreadLocalRandom.current().nextLong(1, 10_000_000);
+            values.add(value);
+            histogram.record(value);
+        }
+        values.sort(Long::compare);
+        HistogramSnapshot snapshot = histogram.snapshot();
+        assertEquals(snapshot.count(), values.size());
+        assertEquals(snapshot.max(), (long) values.get(values.size() - 1));
+        for (double percentile : new double[]{1, 50, 90, 99, 99.9, 100}) {
+            long exact = values.get((int) Math.ceil(percentile / 100 * values.size()) - 1);
+            long reported = snapshot.percentile(percentile);
+            assertTrue(reported >= exact && reported <= exact + exact / LatencyHistogram.SUB_BUCKETS,
+                    "p" + percentile + " exact " + exact + " reported " + reported);
+        }
+    }
+
+    @Test
+    public void thatConcurrentRecordingLosesNoCounts() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram(4);
+        int threads = 8;
+        int perThread = 50_000;
+        List<Thread> recorders = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    histogram.record(i);
+                }
+            });
+            recorders.add(thread);
+            thread.start();
+        }
+        for (Thread thread : recorders) {
+            thread.join();
+        }
+        HistogramSnapshot snapshot = histogram.snapshot();
+        assertEquals(snapshot.count(), (long) threads * perThread);
+        assertEquals(snapshot.sum(), (long) threads * perThread * (perThread - 1) / 2);
+        assertEquals(snapshot.max(), perThread - 1);
+    }
+
+    @Test
+    public void thatSnapshotsMerge() {
+        LatencyHistogram a = new LatencyHistogram(1);
+        LatencyHistogram b = new LatencyHistogram(1);
+        a.record(10);
+        a.record(-5);
+        b.record(1000);
+        HistogramSnapshot merged = a.snapshot().merge(b.snapshot()).merge(HistogramSnapshot.EMPTY);
+        assertEquals(merged.count(), 3);
+        assertEquals(merged.sum(), 1010);
+        assertEquals(merged.max(), 1000);
+        assertEquals(merged.percentile(0), 0);
+        assertEquals(merged.percentile(100), 1000);
+        assertEquals(HistogramSnapshot.EMPTY.percentile(50), 0);
+    }
+
+    @Test
+    public void thatStripesAreRoundedUpToPowerOfTwoAndCapped() {
+        assertEquals(LatencyHistogram.stripesFor(0), 1);
+        assertEquals(LatencyHistogram.stripesFor(3), 4);
+        assertEquals(LatencyHistogram.stripesFor(64), 64);
+        assertEquals(LatencyHistogram.stripesFor(65), 64);
+        assertEquals(LatencyHistogram.stripesFor(1000), 64);
+    }
+}
@@ -0,0 +1,226 @@
+package no.ssb.saga.metrics;
+
+import no.ssb.saga.api.Saga;
+import no.ssb.saga.api.SagaException;
+import no.ssb.saga.api.SagaNode;
+import no.ssb.saga.execution.SagaAdapter;
+import no.ssb.saga.execution.SagaAdapterRegistry;
+import no.ssb.saga.execution.SagaExecutor;
+import no.ssb.saga.execution.SagaResult;
+import org.testng.annotations.Test;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class SagaMetricsTest {
+
+    static Saga saga() {
+        return Saga
+                .start("Metered saga").linkTo("fast", "slow")
+                .id("fast").adapter("Fast").linkTo("last")
+                .id("slow").adapter("Slow").linkTo("last")
+                .id("last").adapter("Fast").linkToEnd()
+                .end();
+    }
+
+    @Test
+    public void thatExecutionLatenciesAreRecordedPerNodeAndAdapter() throws Exception {
+        SagaMetrics metrics = new SagaMetrics();
+        SagaAdapterRegistry adapters = new SagaAdapterRegistry()
+                .register("Fast", (node, input, dependeesOutput) -> node.id)
+                .register("Slow", (node, input, dependeesOutput) -> {
+                    Thread.sleep(20);
+                    return node.id;
+                });
+        SagaExecutor executor = SagaExecutor.builder(adapters).observer(metrics).build();
+        Saga saga = saga();
+        for (int i = 0; i < 3; i++) {
+            assertEquals(executor.execute(saga, "input").get(10, TimeUnit.SECONDS).status, SagaResult.Status.COMPLETED);
+        }
+        SagaMetricsSnapshot snapshot = metrics.snapshot();
+        SagaMetricsSnapshot.SagaStats sagaStats = snapshot.sagas.get(saga.fingerprint());
+        assertEquals(sagaStats.name, "Metered saga");
+        assertEquals(sagaStats.duration.count(), 3);
+        assertEquals((long) sagaStats.ended.get(SagaResult.Status.COMPLETED), 3);
+        assertTrue(sagaStats.duration.percentile(50) >= TimeUnit.MILLISECONDS.toNanos(20));
+        assertEquals(sagaStats.nodes.size(), saga.nodeCount());
+        for (SagaMetricsSnapshot.NodeStats nodeStats : sagaStats.nodes.values()) {
+            assertEquals(nodeStats.queueWait.count(), 3);
+            assertEquals(nodeStats.action.count(), 3);
+            assertEquals(nodeStats.compensation.count(), 0);
+        }
+        assertTrue(sagaStats.nodes.get("slow").action.percentile(50) >= TimeUnit.MILLISECONDS.toNanos(20));
+        assertTrue(sagaStats.nodes.get("fast").action.max() < sagaStats.nodes.get("slow").action.max());
+
+        assertEquals(snapshot.adapters.get("Fast").action.count(), 6);
+        assertTrue(snapshot.adapterLatencies(50).get("Slow") >= TimeUnit.MILLISECONDS.toNanos(20));
+        assertEquals(snapshot.adapters.get("Slow").action.count(), 3);
+        assertEquals(snapshot.adapters.get(Saga.ADAPTER_START).action.count(), 3);
+        for (SagaMetricsSnapshot.AdapterStats adapterStats : snapshot.adapters.values()) {
+            assertEquals(adapterStats.inFlight, 0);
+        }
+    }
+
+    @Test
+    public void thatEqualSagasDeclaredInAnotherOrderShareNodeMetrics() throws Exception {
+        Saga reordered = Saga
+                .start("Metered saga").linkTo("slow", "fast")
+                .id("slow").adapter("Slow").linkTo("last")
+                .id("fast").adapter("Fast").linkTo("last")
+                .id("last").adapter("Fast").linkToEnd()
+                .end();
+        Saga saga = saga();
+        assertEquals(reordered.fingerprint(), saga.fingerprint());
+        assertNotEquals(reordered.getNode("slow").index, saga.getNode("slow").index);
+        SagaMetrics metrics = new SagaMetrics();
+        SagaAdapterRegistry adapters = new SagaAdapterRegistry()
+                .register("Fast", (node, input, dependeesOutput) -> node.id)
+                .register("Slow", (node, input, dependeesOutput) -> {
+                    Thread.sleep(20);
+                    return node.id;
+                });
+        SagaExecutor executor = SagaExecutor.builder(adapters).observer(metrics).build();
+        assertEquals(executor.execute(saga, null).get(10, TimeUnit.SECONDS).status, SagaResult.Status.COMPLETED);
+        assertEquals(executor.execute(reordered, null).get(10, TimeUnit.SECONDS).status, SagaResult.Status.COMPLETED);
+        SagaMetricsSnapshot snapshot = metrics.snapshot();
+        SagaMetricsSnapshot.SagaStats sagaStats = snapshot.sagas.get(saga.fingerprint());
+        for (SagaMetricsSnapshot.NodeStats nodeStats : sagaStats.nodes.values()) {
+            assertEquals(nodeStats.action.count(), 2);
+        }
+        assertTrue(sagaStats.nodes.get("slow").action.percentile(1) >= TimeUnit.MILLISECONDS.toNanos(20));
+        assertTrue(sagaStats.nodes.get("last").action.max() < TimeUnit.MILLISECONDS.toNanos(20));
+        assertEquals(snapshot.adapters.get("Slow").action.count(), 2);
+        assertEquals(snapshot.adapters.get("Fast").action.count(), 4);
+    }
+
+    @Test
+    public void thatOnlyRecentlyFirstRecordedSagasAreKept() {
+        SagaMetrics metrics = new SagaMetrics();
+        Saga first = null;
+        Saga last = null;
+        for (int i = 0; i <= SagaMetrics.MAX_SAGAS; i++) {
+            last = Saga.start("Saga " + i).linkTo("a")
+                    .id("a").adapter("A").linkToEnd()
+                    .end();
+            first = first == null ? last : first;
+            metrics.sagaEnded(last, SagaResult.Status.COMPLETED, 1);
+        }
+        SagaMetricsSnapshot snapshot = metrics.snapshot();
+        assertEquals(snapshot.sagas.size(), SagaMetrics.MAX_SAGAS);
+        assertFalse(snapshot.sagas.containsKey(first.fingerprint()));
+        assertEquals(snapshot.sagas.get(last.fingerprint()).duration.count(), 1);
+    }
+
+    @Test
+    public void thatLargeSagaHasAdapterButNoNodeMetrics() throws Exception {
+        Saga.SagaBuilder builder = Saga.start("Large saga").linkTo("n0");
+        for (int i = 0; i < SagaMetrics.MAX_NODES_WITH_NODE_METRICS; i++) {
+            builder.id("n" + i).adapter("A").linkTo(i + 1 < SagaMetrics.MAX_NODES_WITH_NODE_METRICS ? "n" + (i + 1) : Saga.ID_END);
+        }
+        Saga saga = builder.end();
+        SagaMetrics metrics = new SagaMetrics();
+        SagaExecutor executor = SagaExecutor.builder(new SagaAdapterRegistry().register("A", (node, input, dependeesOutput) -> null))
+                .observer(metrics).build();
+        assertEquals(executor.execute(saga, null).get(10, TimeUnit.SECONDS).status, SagaResult.Status.COMPLETED);
+        SagaMetricsSnapshot snapshot = metrics.snapshot();
+        assertTrue(snapshot.sagas.get(saga.fingerprint()).nodes.isEmpty());
+        assertEquals(snapshot.adapters.get("A").action.count(), SagaMetrics.MAX_NODES_WITH_NODE_METRICS);
+    }
+
+    @Test
+    public void thatInFlightActionsAreCountedPerAdapter() throws Exception {
+        SagaMetrics metrics = new SagaMetrics();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        SagaAdapterRegistry adapters = new SagaAdapterRegistry()
+                .register("Fast", (node, input, dependeesOutput) -> node.id)
+                .register("Slow", (node, input, dependeesOutput) -> {
+                    started.countDown();
+                    release.await();
+                    return node.id;
+                });
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            Future<SagaResult> result = SagaExecutor.builder(adapters).executor(pool).observer(metrics).build()
+                    .execute(saga(), "input");
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            assertEquals(metrics.snapshot().adapters.get("Slow").inFlight, 1);
+            release.countDown();
+            result.get(10, TimeUnit.SECONDS);
+            assertEquals(metrics.snapshot().adapters.get("Slow").inFlight, 0);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void thatFailuresAndCompensationsAreRecorded() throws Exception {
+        SagaMetrics metrics = new SagaMetrics();
+        SagaAdapterRegistry adapters = new SagaAdapterRegistry()
+                .register("Fast", new SagaAdapter() {
+                    @Override
+                    public Object executeAction(SagaNode node, Object sagaInput, Map<String, Object> dependeesOutput) {
+                        if (node.id.equals("last")) {
+                            throw new IllegalStateException("failed");
+                        }
+                        return node.id;
+                    }
+
+                    @Override
+                    public void executeCompensatingAction(SagaNode node, Object sagaInput, Object actionOutput) {
+                        throw new IllegalStateException("compensation failed");
+                    }
+                })
+                .register("Slow", (node, input, dependeesOutput) -> node.id);
+        Saga saga = saga();
+        SagaResult result = SagaExecutor.builder(adapters).observer(metrics).compensateOnFailure(true).build()
+                .execute(saga, "input").get(10, TimeUnit.SECONDS);
+        assertEquals(result.status, SagaResult.Status.COMPENSATION_FAILED);
+        SagaMetricsSnapshot snapshot = metrics.snapshot();
+        SagaMetricsSnapshot.SagaStats sagaStats = snapshot.sagas.get(saga.fingerprint());
+        assertEquals((long) sagaStats.ended.get(SagaResult.Status.COMPENSATION_FAILED), 1);
+        assertEquals(sagaStats.nodes.get("last").failures, 1);
+        assertEquals(sagaStats.nodes.get("fast").compensation.count(), 1);
+        assertEquals(sagaStats.nodes.get("fast").compensationFailures, 1);
+        assertEquals(sagaStats.nodes.get("slow").compensation.count(), 1);
+        assertEquals(sagaStats.nodes.get("slow").compensationFailures, 0);
+        assertEquals(snapshot.adapters.get("Fast").failures, 1);
+        assertEquals(snapshot.adapters.get("Fast").compensationFailures, 1);
+    }
+
+    @Test
+    public void thatBuildAndValidationTimesAreRecorded() {
+        SagaMetrics metrics = new SagaMetrics();
+        Saga.setBuildObserver(metrics);
+        try {
+            saga();
+            saga();
+            try {
+                Saga.start("Cyclic").linkTo("a")
+                        .id("a").adapter("A").linkTo("b")
+                        .id("b").adapter("B").linkTo("a")
+                        .end();
+                fail("cyclic saga was built");
+            } catch (SagaException expected) {
+            }
+        } finally {
+            Saga.setBuildObserver(null);
+        }
+        saga();
+        SagaMetricsSnapshot snapshot = metrics.snapshot();
+        assertEquals(snapshot.build.count(), 2);
+        assertEquals(snapshot.validation.count(), 2);
+        assertTrue(snapshot.validation.max() <= snapshot.build.max());
+        assertEquals(snapshot.rejected, 1);
+    }
+}